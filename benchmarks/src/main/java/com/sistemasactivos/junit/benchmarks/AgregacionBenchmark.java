@@ -0,0 +1,69 @@
+package com.sistemasactivos.junit.benchmarks;
+
+import com.sistemasactivos.junit.model.AlmacenColumnar;
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.model.CuentaPuntoFijo;
+import com.sistemasactivos.junit.model.ResumenSaldos;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Total y distribucion de todos los saldos del banco: el resumen en paralelo sobre una
+ * FotoSaldos contra el loop de toda la vida sumando BigDecimal de a una cuenta.
+ *
+ * Con 50 millones de cuentas en el heap hace falta bastante memoria, por ejemplo:
+ *   java -Xmx48g -jar benchmarks/target/benchmarks.jar AgregacionBenchmark -p cuentas=50000000
+ *
+ * Con almacen=COLUMNAR las cuentas estan fuera del heap (AlmacenColumnar) y alcanza con
+ * unos 2GB de memoria directa para la misma cantidad.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class AgregacionBenchmark {
+
+    public enum Almacen { HEAP, COLUMNAR }
+
+    @Param({"1000000"})
+    private int cuentas;
+
+    @Param({"HEAP", "COLUMNAR"})
+    private Almacen almacen;
+
+    private Banco banco;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        banco = almacen == Almacen.COLUMNAR
+                ? new Banco("Banco del Estado", new AlmacenColumnar(cuentas, 2))
+                : new Banco("Banco del Estado");
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < cuentas; i++) {
+            BigDecimal saldo = BigDecimal.valueOf(random.nextLong(100_000_000L), 2);
+            // mitad cuentas comunes y mitad de punto fijo
+            banco.agregarCuenta(i % 2 == 0
+                    ? new Cuenta("Cuenta " + i, saldo, null)
+                    : new CuentaPuntoFijo("Cuenta " + i, saldo, 2));
+        }
+    }
+
+    @Benchmark
+    public ResumenSaldos resumirEnParalelo() {
+        return banco.resumirSaldos();
+    }
+
+    @Benchmark
+    public BigDecimal sumarDeAUna() {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Cuenta cuenta : banco.getCuentas())
+            total = total.add(cuenta.getSaldo());
+        return total;
+    }
+}
@@ -0,0 +1,47 @@
+package com.sistemasactivos.junit.benchmarks;
+
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Transferencias al azar entre las cuentas de un banco compartido por todos los hilos.
+ * La cantidad de hilos la define EjecutorBenchmarks (o la opcion -t de JMH), asi se ve
+ * como escala el MotorTransferencias con 1..N hilos.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BancoBenchmark {
+
+    private static final BigDecimal MONTO = BigDecimal.ONE;
+
+    @Param({"16", "1024"})
+    public int cantidadCuentas;
+
+    private Banco banco;
+    private Cuenta[] cuentas;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        banco = new Banco("Banco del Estado");
+        cuentas = new Cuenta[cantidadCuentas];
+        for (int i = 0; i < cantidadCuentas; i++) {
+            cuentas[i] = new Cuenta("Cuenta " + i, new BigDecimal("1000000000"), null);
+            banco.agregarCuenta(cuentas[i]);
+        }
+    }
+
+    @Benchmark
+    public void transferir() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        banco.transferir(cuentas[random.nextInt(cantidadCuentas)], cuentas[random.nextInt(cantidadCuentas)], MONTO);
+    }
+}
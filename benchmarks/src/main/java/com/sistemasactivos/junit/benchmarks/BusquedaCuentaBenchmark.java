@@ -0,0 +1,49 @@
+package com.sistemasactivos.junit.benchmarks;
+
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Busqueda de cuentas por id y por nombre en el registro del banco
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BusquedaCuentaBenchmark {
+
+    @Param({"1000", "1000000"})
+    public int cantidadCuentas;
+
+    private Banco banco;
+    private String[] nombres;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        banco = new Banco("Banco del Estado");
+        nombres = new String[cantidadCuentas];
+        for (int i = 0; i < cantidadCuentas; i++) {
+            nombres[i] = "Cuenta " + i;
+            banco.agregarCuenta(new Cuenta(nombres[i], BigDecimal.TEN, null));
+        }
+    }
+
+    @Benchmark
+    public Optional<Cuenta> buscarPorId() {
+        // los ids arrancan en 1
+        return banco.buscarCuenta(ThreadLocalRandom.current().nextInt(cantidadCuentas) + 1L);
+    }
+
+    @Benchmark
+    public Optional<Cuenta> buscarPorNombre() {
+        return banco.buscarCuenta(nombres[ThreadLocalRandom.current().nextInt(cantidadCuentas)]);
+    }
+}
@@ -0,0 +1,89 @@
+package com.sistemasactivos.junit.benchmarks;
+
+import com.sistemasactivos.junit.model.CuentaAtomica;
+import com.sistemasactivos.junit.model.CuentaPuntoFijo;
+import com.sistemasactivos.junit.model.ResultadoDebito;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Todos los hilos debitan y acreditan la misma cuenta, para comparar el modo con lock
+ * (CuentaPuntoFijo protegida por un ReentrantLock) contra el modo sin locks (CuentaAtomica,
+ * que reintenta con compareAndSet). Se corre con EjecutorBenchmarks para barrer de 1 a 64
+ * hilos, por ejemplo:
+ *
+ *   java -jar benchmarks/target/benchmarks.jar ContencionCuentaBenchmark 64
+ *
+ * El parametro soloCreditos simula las cuentas que casi solo reciben plata.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContencionCuentaBenchmark {
+
+    private static final long MONTO = 1;
+
+    public enum Modo { BLOQUEO, CAS }
+
+    @Param({"BLOQUEO", "CAS"})
+    private Modo modo;
+
+    @Param({"false", "true"})
+    private boolean soloCreditos;
+
+    private CuentaPuntoFijo cuenta;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        BigDecimal saldo = new BigDecimal("1000000000000.00");
+        cuenta = modo == Modo.CAS
+                ? new CuentaAtomica("Compartida", saldo, 2)
+                : new CuentaPuntoFijo("Compartida", saldo, 2);
+    }
+
+    @State(Scope.Thread)
+    public static class Hilo {
+        private boolean debitar;
+
+        @Setup
+        public void setUp(ThreadParams params) {
+            // la mitad de los hilos debita y la otra mitad acredita
+            debitar = params.getThreadIndex() % 2 == 0;
+        }
+    }
+
+    @Benchmark
+    public ResultadoDebito movimiento(Hilo hilo) {
+        if (soloCreditos || !hilo.debitar) {
+            if (modo == Modo.CAS) {
+                cuenta.creditoUnidades(MONTO);
+            } else {
+                lock.lock();
+                try {
+                    cuenta.creditoUnidades(MONTO);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return ResultadoDebito.APROBADO;
+        }
+
+        if (modo == Modo.CAS)
+            return cuenta.intentarDebitoUnidades(MONTO);
+
+        lock.lock();
+        try {
+            return cuenta.intentarDebitoUnidades(MONTO);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
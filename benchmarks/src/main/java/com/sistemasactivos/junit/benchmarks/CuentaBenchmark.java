@@ -0,0 +1,41 @@
+package com.sistemasactivos.junit.benchmarks;
+
+import com.sistemasactivos.junit.model.Cuenta;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Debito y credito sobre una cuenta propia de cada hilo, para medir el costo de la
+ * operacion sin contencion. El saldo inicial es tan grande que nunca se queda sin fondos.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CuentaBenchmark {
+
+    private static final BigDecimal MONTO = new BigDecimal("0.01");
+
+    private Cuenta cuenta;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        cuenta = new Cuenta("Andrés", new BigDecimal("1000000000000000.00"), null);
+    }
+
+    @Benchmark
+    public Cuenta debito() {
+        cuenta.debito(MONTO);
+        return cuenta;
+    }
+
+    @Benchmark
+    public Cuenta credito() {
+        cuenta.credito(MONTO);
+        return cuenta;
+    }
+}
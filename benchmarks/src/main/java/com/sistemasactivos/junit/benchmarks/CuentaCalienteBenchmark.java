@@ -0,0 +1,66 @@
+package com.sistemasactivos.junit.benchmarks;
+
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.model.CuentaFragmentada;
+import com.sistemasactivos.junit.model.CuentaPuntoFijo;
+import com.sistemasactivos.junit.model.ResultadoDebito;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Todos los hilos transfieren desde su propia cuenta hacia una unica cuenta "caliente",
+ * como pasa con las cuentas de comercios o de tesoreria. Con la cuenta comun todos los
+ * creditos hacen fila en la franja del destino; con la fragmentada cada hilo acredita en
+ * su celda. Se corre con EjecutorBenchmarks para ver como escala con la cantidad de hilos:
+ *
+ *   java -jar benchmarks/target/benchmarks.jar CuentaCalienteBenchmark 64
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CuentaCalienteBenchmark {
+
+    private static final BigDecimal MONTO = new BigDecimal("0.01");
+    private static final BigDecimal SALDO = new BigDecimal("1000000000000.00");
+
+    public enum Modo { PUNTO_FIJO, FRAGMENTADA }
+
+    @Param({"PUNTO_FIJO", "FRAGMENTADA"})
+    private Modo modo;
+
+    private Banco banco;
+    private Cuenta caliente;
+    private final AtomicInteger siguiente = new AtomicInteger();
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        banco = new Banco("Banco del Estado");
+        caliente = modo == Modo.FRAGMENTADA
+                ? new CuentaFragmentada("Caliente", BigDecimal.ZERO.setScale(2), 2)
+                : new CuentaPuntoFijo("Caliente", BigDecimal.ZERO.setScale(2), 2);
+        banco.agregarCuenta(caliente);
+    }
+
+    @State(Scope.Thread)
+    public static class Hilo {
+        private Cuenta origen;
+
+        @Setup(Level.Iteration)
+        public void setUp(CuentaCalienteBenchmark benchmark) {
+            origen = new CuentaPuntoFijo("Cliente " + benchmark.siguiente.incrementAndGet(), SALDO, 2);
+            benchmark.banco.agregarCuenta(origen);
+        }
+    }
+
+    @Benchmark
+    public ResultadoDebito transferir(Hilo hilo) {
+        return banco.intentarTransferir(hilo.origen, caliente, MONTO);
+    }
+}
@@ -0,0 +1,47 @@
+package com.sistemasactivos.junit.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/*
+ * Corre los benchmarks con 1, 2, 4, ... hasta 64 hilos, con el profiler de GC (tasa de
+ * asignacion de memoria) y guarda un JSON por cantidad de hilos para comparar versiones.
+ * Con mas hilos que procesadores se ve como se comporta cada cuenta cuando los hilos
+ * compiten y ademas se desalojan entre si, que es lo que pasa en un servidor cargado.
+ *
+ * Uso: java -jar target/benchmarks.jar [regex de benchmarks] [hilos maximos, 64 por defecto] [directorio]
+ *
+ * Para usar las opciones normales de JMH:
+ *     java -cp target/benchmarks.jar org.openjdk.jmh.Main -h
+ */
+public class EjecutorBenchmarks {
+
+    private static final int HILOS_MAXIMOS = 64;
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String incluir = args.length > 0 ? args[0] : ".*";
+        int hilosMaximos = args.length > 1 ? Integer.parseInt(args[1]) : HILOS_MAXIMOS;
+        Path directorio = Paths.get(args.length > 2 ? args[2] : "resultados");
+        Files.createDirectories(directorio);
+
+        for (int hilos = 1; hilos <= hilosMaximos; hilos *= 2) {
+            Options opciones = new OptionsBuilder()
+                    .include(incluir)
+                    .threads(hilos)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(directorio.resolve("jmh-hilos-" + hilos + ".json").toString())
+                    .build();
+            new Runner(opciones).run();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.sistemasactivos.junit.benchmarks;
+
+import com.sistemasactivos.junit.eventos.BufferEventos;
+import com.sistemasactivos.junit.eventos.CuentasMasActivas;
+import com.sistemasactivos.junit.eventos.HistorialSaldos;
+import com.sistemasactivos.junit.eventos.ProcesadorEventos;
+import com.sistemasactivos.junit.eventos.PublicadorEventos;
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.model.CuentaPuntoFijo;
+import com.sistemasactivos.junit.model.ResultadoDebito;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cuanto le agrega a una transferencia publicar su evento, con dos proyecciones
+ * consumiendo en sus hilos (SIN_EVENTOS es la transferencia sola). Ademas del tiempo
+ * conviene mirar el perfil de memoria, que no tiene que crecer con los eventos:
+ *
+ *   java -jar benchmarks/target/benchmarks.jar EventosBenchmark -prof gc
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventosBenchmark {
+
+    private static final BigDecimal MONTO = new BigDecimal("0.01");
+    private static final BigDecimal SALDO = new BigDecimal("1000000000000.00");
+
+    public enum Modo { SIN_EVENTOS, CON_EVENTOS }
+
+    @Param({"SIN_EVENTOS", "CON_EVENTOS"})
+    private Modo modo;
+
+    private Banco banco;
+    private final List<Cuenta> cuentas = new ArrayList<>();
+    private final List<ProcesadorEventos> procesadores = new ArrayList<>();
+    private PublicadorEventos publicador;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        banco = new Banco("Banco del Estado");
+        cuentas.clear();
+        for (int i = 0; i < 1000; i++)
+            cuentas.add(banco.agregarCuenta(new CuentaPuntoFijo("Cuenta " + i, SALDO, 2)));
+        if (modo == Modo.CON_EVENTOS) {
+            BufferEventos buffer = new BufferEventos();
+            procesadores.add(new ProcesadorEventos(buffer, new HistorialSaldos(16)));
+            procesadores.add(new ProcesadorEventos(buffer, new CuentasMasActivas()));
+            publicador = new PublicadorEventos(banco, buffer);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        if (publicador != null)
+            publicador.close();
+        procesadores.forEach(ProcesadorEventos::close);
+        procesadores.clear();
+        publicador = null;
+    }
+
+    @Benchmark
+    public ResultadoDebito transferir() {
+        ThreadLocalRandom azar = ThreadLocalRandom.current();
+        Cuenta origen = cuentas.get(azar.nextInt(cuentas.size()));
+        Cuenta destino = cuentas.get(azar.nextInt(cuentas.size()));
+        return banco.intentarTransferir(origen, destino, MONTO);
+    }
+}
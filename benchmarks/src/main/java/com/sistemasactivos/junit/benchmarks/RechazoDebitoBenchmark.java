@@ -0,0 +1,75 @@
+package com.sistemasactivos.junit.benchmarks;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.model.CuentaPuntoFijo;
+import com.sistemasactivos.junit.model.ResultadoDebito;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Costo de un debito rechazado contra uno aprobado: con la excepcion de siempre (con stack
+ * trace), con intentarDebito() que no lanza nada, y en unidades sobre CuentaPuntoFijo.
+ * Con -prof gc se ve que los rechazos sin excepcion no asignan memoria.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RechazoDebitoBenchmark {
+
+    private static final BigDecimal MONTO = new BigDecimal("0.01");
+
+    private Cuenta conSaldo;
+    private Cuenta sinSaldo;
+    private CuentaPuntoFijo fijaConSaldo;
+    private CuentaPuntoFijo fijaSinSaldo;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        conSaldo = new Cuenta("Andrés", new BigDecimal("1000000000000000.00"), null);
+        sinSaldo = new Cuenta("Julian", new BigDecimal("0.00"), null);
+        fijaConSaldo = new CuentaPuntoFijo("Andrés", new BigDecimal("1000000000000000.00"), 2);
+        fijaSinSaldo = new CuentaPuntoFijo("Julian", BigDecimal.ZERO, 2);
+    }
+
+    @Benchmark
+    public Cuenta aprobadoConDebito() {
+        conSaldo.debito(MONTO);
+        return conSaldo;
+    }
+
+    @Benchmark
+    public Object rechazadoConExcepcion() {
+        try {
+            sinSaldo.debito(MONTO);
+            return sinSaldo;
+        } catch (DineroInsuficienteException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public ResultadoDebito aprobadoSinExcepcion() {
+        return conSaldo.intentarDebito(MONTO);
+    }
+
+    @Benchmark
+    public ResultadoDebito rechazadoSinExcepcion() {
+        return sinSaldo.intentarDebito(MONTO);
+    }
+
+    @Benchmark
+    public ResultadoDebito aprobadoUnidades() {
+        return fijaConSaldo.intentarDebitoUnidades(1);
+    }
+
+    @Benchmark
+    public ResultadoDebito rechazadoUnidades() {
+        return fijaSinSaldo.intentarDebitoUnidades(1);
+    }
+}
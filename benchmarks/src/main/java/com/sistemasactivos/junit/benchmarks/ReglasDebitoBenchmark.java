@@ -0,0 +1,53 @@
+package com.sistemasactivos.junit.benchmarks;
+
+import com.sistemasactivos.junit.model.CuentaPuntoFijo;
+import com.sistemasactivos.junit.model.ResultadoDebito;
+import com.sistemasactivos.junit.reglas.ReglasDebito;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cuanto le agregan las reglas a un debito en unidades: sin reglas, solo con descubierto
+ * (que es correr el piso del saldo) y con la cadena completa, que ademas toma el lock de
+ * la cadena, lee el reloj y consulta los dos contadores. Los limites son tan altos que
+ * todos los debitos se aprueban.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReglasDebitoBenchmark {
+
+    private static final BigDecimal SALDO = new BigDecimal("1000000000000000.00");
+
+    public enum Reglas { SIN_REGLAS, DESCUBIERTO, COMPLETAS }
+
+    @Param({"SIN_REGLAS", "DESCUBIERTO", "COMPLETAS"})
+    private Reglas reglas;
+
+    private CuentaPuntoFijo cuenta;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        cuenta = new CuentaPuntoFijo("Andrés", SALDO, 2);
+        switch (reglas) {
+            case DESCUBIERTO -> cuenta.setReglas(new ReglasDebito().descubierto(new BigDecimal("5000")));
+            case COMPLETAS -> cuenta.setReglas(new ReglasDebito()
+                    .descubierto(new BigDecimal("5000"))
+                    .topeDiario(SALDO)
+                    .velocidad(Integer.MAX_VALUE, Duration.ofMinutes(1)));
+            default -> {
+            }
+        }
+    }
+
+    @Benchmark
+    public ResultadoDebito debitar() {
+        return cuenta.intentarDebitoUnidades(1);
+    }
+}
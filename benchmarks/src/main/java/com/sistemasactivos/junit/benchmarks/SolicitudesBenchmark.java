@@ -0,0 +1,50 @@
+package com.sistemasactivos.junit.benchmarks;
+
+import com.sistemasactivos.junit.model.RegistroSolicitudes;
+import com.sistemasactivos.junit.model.ResultadoDebito;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Cuanto le agrega a una transferencia el registro de ids de solicitud, con millones de
+ * ids dentro de la ventana: un reintento (id que ya esta) y una solicitud nueva. La
+ * operacion no hace nada, asi que se mide solo el registro. El id se arma en cada
+ * llamada, como un pedido recien recibido, asi que el tiempo incluye armar el String.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class SolicitudesBenchmark {
+
+    @Param({"4000000"})
+    private int ids;
+
+    private RegistroSolicitudes registro;
+    private final AtomicLong siguiente = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        // la capacidad alcanza para la carga y las solicitudes nuevas de una iteracion
+        registro = new RegistroSolicitudes(Duration.ofHours(1), ids * 4);
+        for (int i = 0; i < ids; i++)
+            registro.ejecutar("solicitud-" + i, () -> ResultadoDebito.APROBADO);
+        siguiente.set(ids);
+    }
+
+    @Benchmark
+    public ResultadoDebito reintento() {
+        return registro.ejecutar("solicitud-" + ThreadLocalRandom.current().nextInt(ids), () -> ResultadoDebito.APROBADO);
+    }
+
+    @Benchmark
+    public ResultadoDebito solicitudNueva() {
+        return registro.ejecutar("solicitud-" + siguiente.getAndIncrement(), () -> ResultadoDebito.APROBADO);
+    }
+}
@@ -0,0 +1,21 @@
+package com.sistemasactivos.junit.config;
+
+import com.sistemasactivos.junit.metricas.MetricasOperaciones;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricasConfig {
+
+    /*
+     * Expongo como bean las metricas globales, que son las que usan Cuenta y el motor de
+     * transferencias. Con la propiedad metricas.habilitadas se decide si arrancan prendidas.
+     */
+    @Bean
+    public MetricasOperaciones metricasOperaciones(@Value("${metricas.habilitadas:false}") boolean habilitadas) {
+        MetricasOperaciones metricas = MetricasOperaciones.global();
+        metricas.setHabilitadas(habilitadas);
+        return metricas;
+    }
+}
@@ -0,0 +1,27 @@
+package com.sistemasactivos.junit.config;
+
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.persistencia.BancoRepositorio;
+import com.sistemasactivos.junit.persistencia.EscrituraDiferida;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(name = "persistencia.escritura-diferida.habilitada", havingValue = "true")
+public class PersistenciaConfig {
+
+    // close() escribe lo que haya quedado anotado antes de apagar la aplicacion
+    @Bean(destroyMethod = "close")
+    public EscrituraDiferida escrituraDiferida(Banco banco, BancoRepositorio bancos, JdbcTemplate jdbc,
+                                               PlatformTransactionManager transacciones,
+                                               @Value("${persistencia.escritura-diferida.intervalo:200ms}") Duration intervalo,
+                                               @Value("${persistencia.escritura-diferida.tamano-lote:1000}") int tamanoLote) {
+        return new EscrituraDiferida(banco, bancos, jdbc, transacciones, intervalo, tamanoLote);
+    }
+}
@@ -0,0 +1,37 @@
+package com.sistemasactivos.junit.config;
+
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.servicio.ServicioTransferencias;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+
+@Configuration
+public class TransferenciasConfig {
+
+    @Bean
+    public Banco banco(@Value("${banco.nombre:Banco}") String nombre) {
+        return new Banco(nombre);
+    }
+
+    // close() espera a que terminen las transferencias en vuelo antes de apagar la aplicacion
+    @Bean(destroyMethod = "close")
+    public ServicioTransferencias servicioTransferencias(Banco banco) {
+        return new ServicioTransferencias(banco);
+    }
+
+    /*
+     * Spring Boot 3.1 todavia no tiene spring.threads.virtual.enabled, asi que le paso a
+     * Tomcat a mano un executor de hilos virtuales: cada pedido HTTP corre en su propio
+     * hilo virtual en vez de ocupar uno del pool de Tomcat.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "hilos.virtuales.habilitados", havingValue = "true", matchIfMissing = true)
+    public TomcatProtocolHandlerCustomizer<?> hilosVirtualesTomcat() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+}
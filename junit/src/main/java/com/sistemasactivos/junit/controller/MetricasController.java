@@ -0,0 +1,34 @@
+package com.sistemasactivos.junit.controller;
+
+import com.sistemasactivos.junit.metricas.MetricasOperaciones;
+import com.sistemasactivos.junit.metricas.ResumenMetricas;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/metricas")
+public class MetricasController {
+
+    private final MetricasOperaciones metricas;
+
+    public MetricasController(MetricasOperaciones metricas) {
+        this.metricas = metricas;
+    }
+
+    @GetMapping
+    public ResumenMetricas resumen() {
+        return metricas.resumen();
+    }
+
+    // prende o apaga las metricas en caliente, por ejemplo PUT /metricas/habilitadas?valor=true
+    @PutMapping("/habilitadas")
+    public ResumenMetricas habilitar(@RequestParam boolean valor) {
+        metricas.setHabilitadas(valor);
+        return metricas.resumen();
+    }
+
+    @DeleteMapping
+    public ResumenMetricas reiniciar() {
+        metricas.reiniciar();
+        return metricas.resumen();
+    }
+}
@@ -0,0 +1,189 @@
+package com.sistemasactivos.junit.eventos;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Buffer circular de eventos al estilo del disruptor: un arreglo de eventos creados de
+ * antemano que los productores van llenando y que cada ProcesadorEventos recorre a su
+ * ritmo. Publicar no crea objetos ni toma locks.
+ *
+ * Cada evento tiene un numero de secuencia y va en la posicion secuencia & mascara. Un
+ * productor reclama su secuencia con un getAndIncrement, asi que pueden publicar varios
+ * hilos a la vez (las transferencias se publican desde el hilo que las hace). Cuando
+ * termina de llenar el evento anota en "vueltas" en que vuelta del buffer esta esa
+ * posicion; un lector sabe que la secuencia s ya esta lista cuando la vuelta de su
+ * posicion es s / tamano.
+ *
+ * Un productor no puede pisar un evento que algun lector todavia no leyo: si el buffer
+ * esta lleno espera (contrapresion) hasta que el lector mas atrasado avance. El minimo
+ * de lo leido se guarda aparte y solo se recalcula cuando no alcanza, para no recorrer
+ * los lectores en cada evento. Sin lectores los eventos se pisan sin esperar. El que no
+ * puede esperar, por ejemplo porque tiene locks tomados, usa intentarPublicar(), que con
+ * el buffer lleno no publica nada.
+ *
+ * Los lectores se agregan antes de publicar el primer evento, como en el disruptor: uno
+ * que llega despues no sabria desde donde empezar sin perder eventos a medio publicar.
+ */
+public class BufferEventos {
+
+    public static final int TAMANO = 1 << 16;
+
+    // los contadores van separados para no compartir linea de cache, como en el motor
+    private static final int ESPACIADO = 16;
+    private static final int SIGUIENTE = ESPACIADO;
+    private static final int MINIMO_LEIDO = 2 * ESPACIADO;
+
+    private static final int VUELTAS_GIRANDO = 100;
+    private static final int VUELTAS_CEDIENDO = 200;
+    private static final long ESPERA_NANOS = 50_000;
+
+    private final Evento[] eventos;
+    private final int mascara;
+    private final int bits;
+    private final AtomicIntegerArray vueltas;
+    private final AtomicLongArray contadores = new AtomicLongArray(3 * ESPACIADO);
+
+    /*
+     * Casi nunca cambian y se recorren cada vez que el buffer parece lleno. Es un arreglo
+     * que se reemplaza entero y no una CopyOnWriteArrayList porque su iterador es un
+     * objeto nuevo en cada recorrida, y publicar no tiene que crear objetos
+     */
+    private volatile ProcesadorEventos[] lectores = new ProcesadorEventos[0];
+    private final LongAdder esperasPorLugar = new LongAdder();
+
+    public BufferEventos() {
+        this(TAMANO);
+    }
+
+    public BufferEventos(int tamano) {
+        if (tamano < 2 || Integer.bitCount(tamano) != 1)
+            throw new IllegalArgumentException("El tamano tiene que ser una potencia de 2 mayor que 1");
+
+        this.eventos = new Evento[tamano];
+        for (int i = 0; i < tamano; i++)
+            eventos[i] = new Evento();
+        this.mascara = tamano - 1;
+        this.bits = Integer.numberOfTrailingZeros(tamano);
+        this.vueltas = new AtomicIntegerArray(tamano);
+        for (int i = 0; i < tamano; i++)
+            vueltas.set(i, -1);
+        contadores.set(MINIMO_LEIDO, -1);
+    }
+
+    /*
+     * Publica un evento y devuelve su secuencia. Si el buffer esta lleno espera a que el
+     * lector mas atrasado libere lugar, asi que una proyeccion lenta frena a los que
+     * publican en vez de perder eventos
+     */
+    public long publicar(TipoEvento tipo, long cuenta, long destino, BigDecimal monto, BigDecimal montoDestino) {
+        long secuencia = contadores.getAndIncrement(SIGUIENTE);
+        esperarLugar(secuencia);
+        llenar(secuencia, tipo, cuenta, destino, monto, montoDestino, secuencia);
+        return secuencia;
+    }
+
+    // con un orden propio del que publica (ver Evento.getOrden())
+    public long publicar(TipoEvento tipo, long cuenta, long destino, BigDecimal monto, BigDecimal montoDestino, long orden) {
+        long secuencia = contadores.getAndIncrement(SIGUIENTE);
+        esperarLugar(secuencia);
+        llenar(secuencia, tipo, cuenta, destino, monto, montoDestino, orden);
+        return secuencia;
+    }
+
+    /*
+     * Como publicar(), pero nunca espera: si el buffer esta lleno no publica nada y devuelve
+     * -1. La secuencia se reclama solo si ya hay lugar, asi no queda ninguna sin llenar que
+     * frene a los lectores
+     */
+    public long intentarPublicar(TipoEvento tipo, long cuenta, long destino, BigDecimal monto, BigDecimal montoDestino, long orden) {
+        while (true) {
+            long secuencia = contadores.get(SIGUIENTE);
+            if (!hayLugar(secuencia))
+                return -1;
+            if (contadores.compareAndSet(SIGUIENTE, secuencia, secuencia + 1)) {
+                llenar(secuencia, tipo, cuenta, destino, monto, montoDestino, orden);
+                return secuencia;
+            }
+        }
+    }
+
+    private void llenar(long secuencia, TipoEvento tipo, long cuenta, long destino, BigDecimal monto, BigDecimal montoDestino, long orden) {
+        int posicion = (int) secuencia & mascara;
+        eventos[posicion].llenar(secuencia, tipo, cuenta, destino, monto, montoDestino, orden);
+        // release: quien vea la vuelta nueva ve tambien los campos del evento
+        vueltas.setRelease(posicion, (int) (secuencia >>> bits));
+    }
+
+    private void esperarLugar(long secuencia) {
+        for (int intentos = 0; !hayLugar(secuencia); intentos++) {
+            if (intentos == 0)
+                esperasPorLugar.increment();
+            esperar(intentos);
+        }
+    }
+
+    private boolean hayLugar(long secuencia) {
+        // la posicion tenia el evento secuencia - tamano, que ya tienen que haber leido todos
+        long anterior = secuencia - eventos.length;
+        if (anterior <= contadores.get(MINIMO_LEIDO))
+            return true;
+
+        long minimo = anterior;
+        for (ProcesadorEventos lector : lectores)
+            minimo = Math.min(minimo, lector.getLeida());
+        contadores.set(MINIMO_LEIDO, minimo);
+        return anterior <= minimo;
+    }
+
+    boolean disponible(long secuencia) {
+        return vueltas.getAcquire((int) secuencia & mascara) == (int) (secuencia >>> bits);
+    }
+
+    Evento evento(long secuencia) {
+        return eventos[(int) secuencia & mascara];
+    }
+
+    synchronized void agregarLector(ProcesadorEventos lector) {
+        if (contadores.get(SIGUIENTE) > 0)
+            throw new IllegalStateException("Los procesadores se agregan antes de publicar el primer evento");
+        ProcesadorEventos[] nuevos = Arrays.copyOf(lectores, lectores.length + 1);
+        nuevos[lectores.length] = lector;
+        lectores = nuevos;
+    }
+
+    synchronized void quitarLector(ProcesadorEventos lector) {
+        lectores = Arrays.stream(lectores).filter(otro -> otro != lector).toArray(ProcesadorEventos[]::new);
+    }
+
+    /*
+     * Espera activa un rato, despues cede el procesador y al final duerme de a poco: asi
+     * con carga el retraso es minimo y sin carga no se gasta un procesador entero
+     */
+    static void esperar(int intentos) {
+        if (intentos < VUELTAS_GIRANDO)
+            Thread.onSpinWait();
+        else if (intentos < VUELTAS_CEDIENDO)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(ESPERA_NANOS);
+    }
+
+    public int getTamano() {
+        return eventos.length;
+    }
+
+    // secuencias reclamadas; las ultimas pueden estar todavia a medio publicar
+    public long getPublicados() {
+        return contadores.get(SIGUIENTE);
+    }
+
+    // veces que un productor encontro el buffer lleno y tuvo que esperar a los lectores
+    public long getEsperasPorLugar() {
+        return esperasPorLugar.sum();
+    }
+}
@@ -0,0 +1,71 @@
+package com.sistemasactivos.junit.eventos;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Proyeccion con la cantidad de movimientos de cada cuenta, para saber cuales son las
+ * mas activas. Una transferencia cuenta para el origen y para el destino.
+ */
+public class CuentasMasActivas implements Proyeccion {
+
+    public record ActividadCuenta(long cuenta, long movimientos) {
+    }
+
+    // de mas movimientos a menos, y con los mismos movimientos por id
+    private static final Comparator<ActividadCuenta> MAS_ACTIVA_PRIMERO =
+            Comparator.comparingLong(ActividadCuenta::movimientos).reversed()
+                    .thenComparingLong(ActividadCuenta::cuenta);
+
+    private final ConcurrentMap<Long, AtomicLong> movimientos = new ConcurrentHashMap<>();
+
+    @Override
+    public void aplicar(Evento evento) {
+        switch (evento.getTipo()) {
+            case DEBITO, CREDITO -> contar(evento.getCuenta());
+            case TRANSFERENCIA -> {
+                contar(evento.getCuenta());
+                contar(evento.getDestino());
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void contar(long cuenta) {
+        movimientos.computeIfAbsent(cuenta, id -> new AtomicLong()).incrementAndGet();
+    }
+
+    public long movimientos(long cuenta) {
+        AtomicLong cantidad = movimientos.get(cuenta);
+        return cantidad == null ? 0 : cantidad.get();
+    }
+
+    /*
+     * Las n cuentas con mas movimientos, de la mas activa a la menos. Recorre las cuentas
+     * una vez con un heap de n elementos, sin ordenarlas todas
+     */
+    public List<ActividadCuenta> top(int n) {
+        if (n <= 0)
+            return List.of();
+        // la menos activa de las elegidas queda arriba, para sacarla cuando aparece una mejor
+        PriorityQueue<ActividadCuenta> elegidas = new PriorityQueue<>(n, MAS_ACTIVA_PRIMERO.reversed());
+        movimientos.forEach((cuenta, cantidad) -> {
+            ActividadCuenta actividad = new ActividadCuenta(cuenta, cantidad.get());
+            if (elegidas.size() < n) {
+                elegidas.add(actividad);
+            } else if (MAS_ACTIVA_PRIMERO.compare(actividad, elegidas.peek()) < 0) {
+                elegidas.poll();
+                elegidas.add(actividad);
+            }
+        });
+        List<ActividadCuenta> resultado = new ArrayList<>(elegidas);
+        resultado.sort(MAS_ACTIVA_PRIMERO);
+        return resultado;
+    }
+}
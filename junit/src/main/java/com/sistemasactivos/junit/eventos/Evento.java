@@ -0,0 +1,64 @@
+package com.sistemasactivos.junit.eventos;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+
+/*
+ * Un movimiento de una cuenta, tal como queda en el BufferEventos.
+ *
+ * Los eventos se crean todos juntos con el buffer y se reutilizan en cada vuelta: publicar
+ * solo llena los campos de uno que ya existe, sin crear ningun objeto. Por eso los campos
+ * no son final, pero desde afuera del paquete el evento solo se puede leer.
+ *
+ * En las transferencias cuenta es el origen y destino el destino; en las demas destino es
+ * SIN_CUENTA. En una apertura monto es el saldo con el que se abrio la cuenta.
+ *
+ * El orden lo pone el que publica, y sin otro orden es la secuencia. Sirve cuando los
+ * eventos no se publican en el orden en que pasaron (ver PublicadorEventos): una apertura
+ * incluye en su saldo los movimientos de la cuenta con un orden menor que el suyo, aunque
+ * lleguen antes o despues que ella.
+ */
+@Getter
+public final class Evento {
+
+    public static final long SIN_CUENTA = 0;
+
+    private long secuencia;
+    private TipoEvento tipo;
+    private long cuenta;
+    private long destino;
+    // en la moneda de la cuenta
+    private BigDecimal monto;
+    // en la moneda del destino; es el mismo monto si las dos cuentas tienen la misma moneda
+    private BigDecimal montoDestino;
+    private long orden;
+    private long milisegundos;
+    // System.nanoTime() al publicar, para medir el retraso de las proyecciones
+    private long nanos;
+
+    Evento() {
+    }
+
+    void llenar(long secuencia, TipoEvento tipo, long cuenta, long destino, BigDecimal monto, BigDecimal montoDestino) {
+        llenar(secuencia, tipo, cuenta, destino, monto, montoDestino, secuencia);
+    }
+
+    void llenar(long secuencia, TipoEvento tipo, long cuenta, long destino, BigDecimal monto, BigDecimal montoDestino, long orden) {
+        this.secuencia = secuencia;
+        this.tipo = tipo;
+        this.cuenta = cuenta;
+        this.destino = destino;
+        this.monto = monto;
+        this.montoDestino = montoDestino;
+        this.orden = orden;
+        this.milisegundos = System.currentTimeMillis();
+        this.nanos = System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        return "Evento{" + secuencia + " " + tipo + " " + cuenta
+                + (destino == SIN_CUENTA ? "" : " -> " + destino) + " " + monto + "}";
+    }
+}
@@ -0,0 +1,130 @@
+package com.sistemasactivos.junit.eventos;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * Proyeccion con el saldo de cada cuenta despues de cada evento, reconstruido a partir
+ * de la apertura y los movimientos (sin leer las cuentas).
+ *
+ * De cada cuenta se guardan solo los ultimos "puntos" saldos, en un arreglo circular,
+ * asi la memoria queda acotada aunque la cuenta tenga millones de movimientos.
+ *
+ * Cuando el PublicadorEventos se crea con el banco operando, un movimiento de una cuenta
+ * puede llegar antes que su apertura y estar o no incluido en ella (ver
+ * Evento.getOrden()). Hasta que llega la apertura los movimientos se guardan aparte, y
+ * al llegar se suman al saldo solo los que no estaban en el saldo de la apertura; los que
+ * llegan despues con un orden menor tambien se saltean.
+ */
+public class HistorialSaldos implements Proyeccion {
+
+    public static final int PUNTOS = 1000;
+
+    public record PuntoSaldo(long secuencia, long milisegundos, BigDecimal saldo) {
+    }
+
+    private final int puntos;
+    private final ConcurrentMap<Long, Historial> cuentas = new ConcurrentHashMap<>();
+
+    public HistorialSaldos() {
+        this(PUNTOS);
+    }
+
+    public HistorialSaldos(int puntos) {
+        if (puntos <= 0)
+            throw new IllegalArgumentException("La cantidad de puntos debe ser positiva");
+        this.puntos = puntos;
+    }
+
+    @Override
+    public void aplicar(Evento evento) {
+        switch (evento.getTipo()) {
+            case APERTURA -> de(evento.getCuenta()).abrir(evento);
+            case DEBITO -> de(evento.getCuenta()).mover(evento, evento.getMonto().negate());
+            case CREDITO -> de(evento.getCuenta()).mover(evento, evento.getMonto());
+            case TRANSFERENCIA -> {
+                de(evento.getCuenta()).mover(evento, evento.getMonto().negate());
+                de(evento.getDestino()).mover(evento, evento.getMontoDestino());
+            }
+        }
+    }
+
+    private Historial de(long cuenta) {
+        return cuentas.computeIfAbsent(cuenta, id -> new Historial(puntos));
+    }
+
+    // el saldo de la cuenta segun los eventos aplicados hasta ahora
+    public Optional<BigDecimal> saldo(long cuenta) {
+        Historial historial = cuentas.get(cuenta);
+        return historial == null ? Optional.empty() : Optional.of(historial.saldo());
+    }
+
+    // los ultimos saldos de la cuenta, del mas viejo al mas nuevo
+    public List<PuntoSaldo> historial(long cuenta) {
+        Historial historial = cuentas.get(cuenta);
+        return historial == null ? List.of() : historial.puntos();
+    }
+
+    /*
+     * Lo escribe solo el hilo de la proyeccion y lo leen las consultas; los locks son
+     * cortos y casi nunca se pelean
+     */
+    private static final class Historial {
+        private final PuntoSaldo[] puntos;
+        private BigDecimal saldo = BigDecimal.ZERO;
+        private long cantidad;
+        // los movimientos que llegaron antes de la apertura; null una vez abierta
+        private List<Previo> previos = new ArrayList<>();
+        // los movimientos con un orden menor ya estan en el saldo de la apertura
+        private long abiertaEn = Long.MIN_VALUE;
+
+        private record Previo(long orden, BigDecimal monto) {
+        }
+
+        Historial(int puntos) {
+            this.puntos = new PuntoSaldo[puntos];
+        }
+
+        // si la cuenta llega con dos aperturas me quedo con la primera
+        synchronized void abrir(Evento evento) {
+            if (previos == null)
+                return;
+            saldo = evento.getMonto();
+            for (Previo previo : previos)
+                if (previo.orden() >= evento.getOrden())
+                    saldo = saldo.add(previo.monto());
+            previos = null;
+            abiertaEn = evento.getOrden();
+            anotar(evento);
+        }
+
+        synchronized void mover(Evento evento, BigDecimal monto) {
+            if (previos != null)
+                previos.add(new Previo(evento.getOrden(), monto));
+            else if (evento.getOrden() < abiertaEn)
+                return;
+            saldo = saldo.add(monto);
+            anotar(evento);
+        }
+
+        private void anotar(Evento evento) {
+            puntos[(int) (cantidad++ % puntos.length)] = new PuntoSaldo(evento.getSecuencia(), evento.getMilisegundos(), saldo);
+        }
+
+        synchronized BigDecimal saldo() {
+            return saldo;
+        }
+
+        synchronized List<PuntoSaldo> puntos() {
+            int guardados = (int) Math.min(cantidad, puntos.length);
+            List<PuntoSaldo> resultado = new ArrayList<>(guardados);
+            for (long i = cantidad - guardados; i < cantidad; i++)
+                resultado.add(puntos[(int) (i % puntos.length)]);
+            return resultado;
+        }
+    }
+}
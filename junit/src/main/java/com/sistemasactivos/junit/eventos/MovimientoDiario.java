@@ -0,0 +1,68 @@
+package com.sistemasactivos.junit.eventos;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/*
+ * Proyeccion con el movimiento de cada dia del banco: cuantos debitos, creditos y
+ * transferencias hubo y la suma de sus montos. Una transferencia cuenta una sola vez, por
+ * el monto que salio del origen. Si el banco tiene cuentas en varias monedas el total
+ * las suma sin convertir, asi que solo tiene sentido con una moneda.
+ *
+ * El dia sale de la hora en que se publico el evento, en la zona indicada.
+ */
+public class MovimientoDiario implements Proyeccion {
+
+    public record MovimientoDia(LocalDate dia, long cantidad, BigDecimal total) {
+    }
+
+    private final ZoneId zona;
+    private final ConcurrentNavigableMap<LocalDate, MovimientoDia> dias = new ConcurrentSkipListMap<>();
+
+    // el dia del ultimo evento y sus limites, para no calcular la fecha en cada evento
+    private LocalDate diaActual;
+    private long inicioDia = Long.MAX_VALUE;
+    private long finDia = Long.MIN_VALUE;
+
+    public MovimientoDiario() {
+        this(ZoneId.systemDefault());
+    }
+
+    public MovimientoDiario(ZoneId zona) {
+        this.zona = zona;
+    }
+
+    @Override
+    public void aplicar(Evento evento) {
+        if (evento.getTipo() == TipoEvento.APERTURA)
+            return;
+        LocalDate dia = dia(evento.getMilisegundos());
+        dias.merge(dia, new MovimientoDia(dia, 1, evento.getMonto()),
+                (anterior, nuevo) -> new MovimientoDia(dia, anterior.cantidad() + 1, anterior.total().add(nuevo.total())));
+    }
+
+    private LocalDate dia(long milisegundos) {
+        if (milisegundos < inicioDia || milisegundos >= finDia) {
+            diaActual = LocalDate.ofInstant(Instant.ofEpochMilli(milisegundos), zona);
+            inicioDia = diaActual.atStartOfDay(zona).toInstant().toEpochMilli();
+            finDia = diaActual.plusDays(1).atStartOfDay(zona).toInstant().toEpochMilli();
+        }
+        return diaActual;
+    }
+
+    public Optional<MovimientoDia> dia(LocalDate dia) {
+        return Optional.ofNullable(dias.get(dia));
+    }
+
+    // todos los dias con movimientos, del mas viejo al mas nuevo
+    public List<MovimientoDia> dias() {
+        return new ArrayList<>(dias.values());
+    }
+}
@@ -0,0 +1,131 @@
+package com.sistemasactivos.junit.eventos;
+
+import com.sistemasactivos.junit.metricas.HistogramaLatencias;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Hilo que recorre un BufferEventos y le pasa cada evento a una proyeccion, en el orden
+ * de las secuencias.
+ *
+ * Procesa por lotes: todos los eventos que ya estan listos se aplican de corrido y recien
+ * al final se anota hasta donde se leyo, asi los productores miran esa secuencia una vez
+ * por lote y no una vez por evento.
+ *
+ * El retraso de la proyeccion se puede medir de tres formas: cuantos eventos le faltan
+ * (getRetraso), hace cuanto se publico el primero que le falta (getRetrasoNanos) y el
+ * histograma del tiempo entre que se publico cada evento y se aplico (getRetrasos).
+ *
+ * Si la proyeccion tira una excepcion el evento se saltea y se cuenta en getErrores():
+ * frenar el hilo dejaria a los productores esperando lugar para siempre.
+ */
+public class ProcesadorEventos implements AutoCloseable {
+
+    private static final int ESPACIADO = 16;
+    private static final int LEIDA = ESPACIADO;
+    private static final long ESPERA_NANOS = 100_000;
+
+    private final BufferEventos buffer;
+    private final Proyeccion proyeccion;
+    private final Thread hilo;
+
+    // ultima secuencia aplicada, sola en su linea de cache porque la leen los productores
+    private final AtomicLongArray leida = new AtomicLongArray(2 * ESPACIADO);
+    private final HistogramaLatencias retrasos = new HistogramaLatencias();
+    private final LongAdder errores = new LongAdder();
+    private volatile boolean corriendo = true;
+
+    public ProcesadorEventos(BufferEventos buffer, Proyeccion proyeccion) {
+        this.buffer = buffer;
+        this.proyeccion = proyeccion;
+        leida.set(LEIDA, -1);
+        buffer.agregarLector(this);
+
+        this.hilo = new Thread(this::procesar, "proyeccion-" + proyeccion.getClass().getSimpleName());
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    private void procesar() {
+        long siguiente = getLeida() + 1;
+        int intentos = 0;
+        while (corriendo) {
+            if (!buffer.disponible(siguiente)) {
+                BufferEventos.esperar(intentos++);
+                continue;
+            }
+            intentos = 0;
+            do {
+                Evento evento = buffer.evento(siguiente);
+                try {
+                    proyeccion.aplicar(evento);
+                } catch (RuntimeException e) {
+                    errores.increment();
+                }
+                retrasos.registrar(System.nanoTime() - evento.getNanos());
+                siguiente++;
+            } while (buffer.disponible(siguiente));
+            // release: el productor que vea la secuencia nueva puede pisar los eventos leidos
+            leida.setRelease(LEIDA, siguiente - 1);
+        }
+    }
+
+    long getLeida() {
+        return leida.getAcquire(LEIDA);
+    }
+
+    // eventos publicados (o reclamados) que la proyeccion todavia no aplico
+    public long getRetraso() {
+        return Math.max(0, buffer.getPublicados() - 1 - getLeida());
+    }
+
+    // cuanto hace que se publico el evento mas viejo que falta aplicar, 0 si esta al dia
+    public long getRetrasoNanos() {
+        long siguiente = getLeida() + 1;
+        if (!buffer.disponible(siguiente))
+            return 0;
+        return Math.max(0, System.nanoTime() - buffer.evento(siguiente).getNanos());
+    }
+
+    public HistogramaLatencias.Foto getRetrasos() {
+        return retrasos.foto();
+    }
+
+    public long getErrores() {
+        return errores.sum();
+    }
+
+    /*
+     * Espera a que la proyeccion aplique todo lo que se publico hasta ahora. Devuelve
+     * false si no llego en el tiempo dado
+     */
+    public boolean esperarAlDia(Duration espera) {
+        long objetivo = buffer.getPublicados() - 1;
+        long limite = System.nanoTime() + espera.toNanos();
+        while (getLeida() < objetivo) {
+            if (System.nanoTime() - limite >= 0)
+                return false;
+            LockSupport.parkNanos(ESPERA_NANOS);
+        }
+        return true;
+    }
+
+    /*
+     * Frena el hilo sin esperar a los eventos que faltan (para eso esta esperarAlDia) y
+     * deja de frenar a los productores
+     */
+    @Override
+    public void close() {
+        corriendo = false;
+        LockSupport.unpark(hilo);
+        try {
+            hilo.join(Duration.ofSeconds(10).toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        buffer.quitarLector(this);
+    }
+}
@@ -0,0 +1,14 @@
+package com.sistemasactivos.junit.eventos;
+
+/*
+ * Consume los eventos del buffer en orden, de a uno (ver ProcesadorEventos). Cada
+ * proyeccion tiene su propio hilo, asi que aplicar() nunca se llama desde dos hilos a la
+ * vez, pero las consultas si llegan de otros hilos.
+ *
+ * El evento es un lugar del buffer que se reutiliza: despues de aplicar() puede cambiar,
+ * asi que la proyeccion no tiene que guardarlo, solo copiar lo que necesita.
+ */
+public interface Proyeccion {
+
+    void aplicar(Evento evento);
+}
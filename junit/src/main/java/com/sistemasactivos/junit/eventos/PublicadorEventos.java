@@ -0,0 +1,150 @@
+package com.sistemasactivos.junit.eventos;
+
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.model.FotoSaldos;
+import com.sistemasactivos.junit.model.ObservadorMovimientos;
+import com.sistemasactivos.junit.model.TipoMovimiento;
+
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Publica en un BufferEventos cada apertura, debito, credito y transferencia de un banco,
+ * para que los reportes se armen con proyecciones en otros hilos y no en el camino de
+ * las transferencias.
+ *
+ * Publicar no crea objetos: se llenan los eventos del buffer con los ids de las cuentas
+ * y las mismas referencias a los montos que recibio el banco (los BigDecimal no cambian).
+ *
+ * Las transferencias se avisan con las franjas del motor bloqueadas, y ahi no se puede
+ * esperar a una proyeccion lenta: si el buffer tiene lugar se publican en el momento
+ * (asi los eventos de una misma cuenta llegan en el orden de las transferencias), y si
+ * esta lleno se guardan y se publican en persistir(), ya sin los locks, esperando ahi el
+ * lugar. Una transferencia diferida puede llegar despues de un movimiento posterior de
+ * sus cuentas; la suma da igual. Los debitos y creditos directos se avisan despues de
+ * soltar la cuenta, y dos a la vez sobre la misma cuenta pueden llegar en cualquier
+ * orden.
+ *
+ * Cada evento lleva un orden (ver Evento.getOrden()) que en las transferencias se toma
+ * dentro de los locks, se publiquen en el momento o despues. Al crearlo se publica una
+ * apertura por cada cuenta que ya estaba, con el saldo y el orden de un corte consistente
+ * (FotoSaldos.capturarCorte()), sin bloquear el motor: las transferencias con un orden
+ * menor estan en ese saldo y las demas no, y HistorialSaldos lo usa para no contar
+ * ninguna dos veces. Los debitos y creditos directos no pasan por el motor, asi que
+ * conviene crearlo antes de operar. Una cuenta que se agrega justo en ese momento puede
+ * llegar con dos aperturas: las proyecciones se quedan con la primera.
+ */
+public class PublicadorEventos implements ObservadorMovimientos, Closeable {
+
+    private final Banco banco;
+    private final BufferEventos buffer;
+
+    // el orden de los eventos que publica; el 0 queda para las aperturas de cuentas nuevas
+    private final AtomicLong orden = new AtomicLong(1);
+    // la transferencia que cada hilo no pudo publicar con los locks tomados
+    private final ThreadLocal<Pendiente> pendientes = ThreadLocal.withInitial(Pendiente::new);
+    private final LongAdder diferidas = new LongAdder();
+
+    public PublicadorEventos(Banco banco, BufferEventos buffer) {
+        this.banco = banco;
+        this.buffer = buffer;
+        banco.agregarObservador(this);
+
+        // las aperturas se publican sin ningun lock: si el buffer esta lleno espero aca
+        FotoSaldos corte = FotoSaldos.capturarCorte(banco, orden::get);
+        for (FotoSaldos.Tramo tramo : corte.getTramos()) {
+            for (int i = 0; i < tramo.getCantidad(); i++) {
+                BigDecimal saldo = tramo.getSaldo(i) == null ? BigDecimal.ZERO : tramo.getSaldo(i);
+                buffer.publicar(TipoEvento.APERTURA, tramo.getId(i), Evento.SIN_CUENTA, saldo, saldo, corte.getPosicion());
+            }
+        }
+    }
+
+    // una cuenta nueva no tiene movimientos anteriores a su apertura
+    @Override
+    public void apertura(Cuenta cuenta) {
+        BigDecimal saldo = cuenta.getSaldo() == null ? BigDecimal.ZERO : cuenta.getSaldo();
+        buffer.publicar(TipoEvento.APERTURA, id(cuenta), Evento.SIN_CUENTA, saldo, saldo, 0);
+    }
+
+    @Override
+    public void movimiento(Cuenta cuenta, TipoMovimiento tipo, BigDecimal monto) {
+        TipoEvento evento = tipo == TipoMovimiento.DEBITO ? TipoEvento.DEBITO : TipoEvento.CREDITO;
+        buffer.publicar(evento, id(cuenta), Evento.SIN_CUENTA, monto, monto, orden.getAndIncrement());
+    }
+
+    @Override
+    public void transferencia(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        transferencia(origen, destino, monto, monto);
+    }
+
+    @Override
+    public void transferencia(Cuenta origen, Cuenta destino, BigDecimal monto, BigDecimal montoDestino) {
+        long ordenTransferencia = orden.getAndIncrement();
+        Pendiente pendiente = pendientes.get();
+        /*
+         * Si quedo una de antes es que otro observador hizo fallar esa transferencia y el
+         * motor la deshizo sin llamar a persistir(): no se publica
+         */
+        pendiente.limpiar();
+        if (buffer.intentarPublicar(TipoEvento.TRANSFERENCIA, id(origen), id(destino), monto, montoDestino, ordenTransferencia) < 0) {
+            pendiente.diferir(id(origen), id(destino), monto, montoDestino, ordenTransferencia);
+            diferidas.increment();
+        }
+    }
+
+    // ya sin los locks del motor, aca si se puede esperar lugar en el buffer
+    @Override
+    public void persistir() {
+        Pendiente pendiente = pendientes.get();
+        if (!pendiente.diferida)
+            return;
+        buffer.publicar(TipoEvento.TRANSFERENCIA, pendiente.origen, pendiente.destino, pendiente.monto,
+                pendiente.montoDestino, pendiente.orden);
+        pendiente.limpiar();
+    }
+
+    private static long id(Cuenta cuenta) {
+        Long id = cuenta.getId();
+        return id == null ? Evento.SIN_CUENTA : id;
+    }
+
+    // transferencias que encontraron el buffer lleno y se publicaron despues de soltar los locks
+    public long getDiferidas() {
+        return diferidas.sum();
+    }
+
+    // deja de publicar; los eventos que ya estan en el buffer se siguen procesando
+    @Override
+    public void close() {
+        banco.quitarObservador(this);
+    }
+
+    // se reutiliza en cada transferencia del hilo, asi diferir tampoco crea objetos
+    private static final class Pendiente {
+        private boolean diferida;
+        private long origen;
+        private long destino;
+        private BigDecimal monto;
+        private BigDecimal montoDestino;
+        private long orden;
+
+        void diferir(long origen, long destino, BigDecimal monto, BigDecimal montoDestino, long orden) {
+            this.diferida = true;
+            this.orden = orden;
+            this.origen = origen;
+            this.destino = destino;
+            this.monto = monto;
+            this.montoDestino = montoDestino;
+        }
+
+        void limpiar() {
+            diferida = false;
+            monto = null;
+            montoDestino = null;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.sistemasactivos.junit.eventos;
+
+public enum TipoEvento {
+    APERTURA,
+    DEBITO,
+    CREDITO,
+    TRANSFERENCIA
+}
@@ -0,0 +1,18 @@
+package com.sistemasactivos.junit.exception;
+
+import lombok.Getter;
+
+/*
+ * Error de formato en un archivo de transferencias. La posicion es el byte del archivo
+ * donde empieza la linea con el problema.
+ */
+@Getter
+public class ArchivoInvalidoException extends RuntimeException {
+
+    private final long posicion;
+
+    public ArchivoInvalidoException(String message, long posicion) {
+        super(message + " (posicion " + posicion + ")");
+        this.posicion = posicion;
+    }
+}
@@ -1,7 +1,26 @@
 package com.sistemasactivos.junit.exception;
 
 public class DineroInsuficienteException extends RuntimeException {
+
+    private static final DineroInsuficienteException SIN_TRAZA = new DineroInsuficienteException("Dinero insuficiente", false);
+
     public DineroInsuficienteException(String message) {
         super(message);
     }
+
+    /*
+     * Con conTraza en false no se llena el stack trace, que es lo mas caro de crear una
+     * excepcion. Sirve cuando los rechazos son frecuentes y nadie va a mirar la traza.
+     */
+    public DineroInsuficienteException(String message, boolean conTraza) {
+        super(message, null, false, conTraza);
+    }
+
+    /*
+     * Instancia compartida sin stack trace. Se puede reusar porque no tiene traza, no acepta
+     * excepciones suprimidas y la causa ya quedo fijada en null, asi que nadie la puede modificar.
+     */
+    public static DineroInsuficienteException sinTraza() {
+        return SIN_TRAZA;
+    }
 }
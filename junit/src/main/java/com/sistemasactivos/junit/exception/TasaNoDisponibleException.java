@@ -0,0 +1,12 @@
+package com.sistemasactivos.junit.exception;
+
+/*
+ * No hay una tasa de cambio vigente para convertir entre dos monedas: nunca se cargo o
+ * vencio porque el proveedor no la actualizo a tiempo.
+ */
+public class TasaNoDisponibleException extends RuntimeException {
+
+    public TasaNoDisponibleException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,306 @@
+package com.sistemasactivos.junit.importacion;
+
+import com.sistemasactivos.junit.exception.ArchivoInvalidoException;
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.model.ResultadoTransferencia;
+import com.sistemasactivos.junit.model.Transferencia;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/*
+ * Importa al banco un archivo de transferencias de cualquier tamano, con una linea por
+ * transferencia en formato CSV:
+ *
+ *   idOrigen,idDestino,monto
+ *   1,2,150.25
+ *
+ * Un hilo lee el archivo con un FileChannel sobre un ByteBuffer directo y parsea los
+ * campos ahi mismo, byte por byte, sin crear Strings ni BigDecimal: los ids quedan como
+ * long y el monto como unidades sin escala mas la escala. Las transferencias parseadas se
+ * juntan en lotes de arreglos de primitivos (LoteImportacion).
+ *
+ * Los lotes van del lector al hilo que llamo a importar() por una cola acotada, y vuelven
+ * vacios por otra cola para reusarlos. Si el banco no da abasto, el lector se queda
+ * esperando un lote libre (backpressure), asi que la memoria es siempre la misma: el
+ * buffer de lectura mas unos pocos lotes, sin importar el tamano del archivo.
+ *
+ * Cada lote se aplica con Banco.transferirLote(); recien ahi se crea el BigDecimal del
+ * monto, porque el motor lo necesita. Despues de cada lote se informa el progreso con la
+ * posicion del archivo hasta donde todo quedo aplicado, que sirve para retomar la
+ * importacion desde ese byte si algo falla.
+ */
+public class ImportadorTransferencias {
+
+    private static final int TAMANO_BUFFER = 1 << 20;
+    private static final int TAMANO_LOTE = 8192;
+    private static final int CANTIDAD_LOTES = 4;
+
+    private final Banco banco;
+    private final int tamanoBuffer;
+    private final int tamanoLote;
+
+    public ImportadorTransferencias(Banco banco) {
+        this(banco, TAMANO_BUFFER, TAMANO_LOTE);
+    }
+
+    // para los tests, con un buffer chico las lineas quedan cortadas entre dos lecturas
+    ImportadorTransferencias(Banco banco, int tamanoBuffer, int tamanoLote) {
+        this.banco = banco;
+        this.tamanoBuffer = tamanoBuffer;
+        this.tamanoLote = tamanoLote;
+    }
+
+    public ProgresoImportacion importar(Path archivo) throws IOException {
+        return importar(archivo, 0, progreso -> { });
+    }
+
+    /*
+     * Importa desde la posicion "desde", que tiene que ser el comienzo de una linea, por
+     * ejemplo la ultima posicion informada por una importacion que se corto
+     */
+    public ProgresoImportacion importar(Path archivo, long desde, Consumer<ProgresoImportacion> progreso) throws IOException {
+        BlockingQueue<LoteImportacion> libres = new ArrayBlockingQueue<>(CANTIDAD_LOTES);
+        BlockingQueue<LoteImportacion> llenos = new ArrayBlockingQueue<>(CANTIDAD_LOTES);
+        for (int i = 0; i < CANTIDAD_LOTES; i++)
+            libres.add(new LoteImportacion(tamanoLote));
+
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            Thread lector = Thread.ofPlatform().name("importador-" + archivo.getFileName()).daemon().start(
+                    () -> leer(canal, desde, libres, llenos));
+            try {
+                return aplicar(llenos, libres, desde, tamano, progreso);
+            } finally {
+                // si el que aplica fallo, el lector puede estar esperando un lote libre
+                lector.interrupt();
+                esperar(lector);
+            }
+        }
+    }
+
+    private ProgresoImportacion aplicar(BlockingQueue<LoteImportacion> llenos, BlockingQueue<LoteImportacion> libres,
+                                        long desde, long tamano, Consumer<ProgresoImportacion> progreso) {
+        List<Transferencia> transferencias = new ArrayList<>(tamanoLote);
+        long posicion = desde;
+        long lineas = 0, aplicadas = 0, rechazadas = 0, inexistentes = 0;
+        ProgresoImportacion actual = new ProgresoImportacion(posicion, tamano, 0, 0, 0, 0);
+
+        while (true) {
+            LoteImportacion lote = tomar(llenos);
+            if (lote.error != null)
+                throw lote.error;
+
+            transferencias.clear();
+            for (int i = 0; i < lote.cantidad; i++) {
+                Optional<Cuenta> origen = banco.buscarCuenta(lote.origen[i]);
+                Optional<Cuenta> destino = banco.buscarCuenta(lote.destino[i]);
+                if (origen.isEmpty() || destino.isEmpty()) {
+                    inexistentes++;
+                    continue;
+                }
+                BigDecimal monto = BigDecimal.valueOf(lote.unidades[i], lote.escala[i]);
+                transferencias.add(new Transferencia(origen.get(), destino.get(), monto));
+            }
+
+            if (!transferencias.isEmpty()) {
+                for (ResultadoTransferencia resultado : banco.transferirLote(transferencias)) {
+                    if (resultado.isExitosa())
+                        aplicadas++;
+                    else
+                        rechazadas++;
+                }
+            }
+
+            boolean ultimo = lote.ultimo;
+            if (lote.cantidad > 0) {
+                lineas += lote.cantidad;
+                posicion = lote.fin[lote.cantidad - 1];
+                actual = new ProgresoImportacion(posicion, tamano, lineas, aplicadas, rechazadas, inexistentes);
+                progreso.accept(actual);
+            }
+
+            lote.limpiar();
+            libres.add(lote);
+            if (ultimo)
+                return actual;
+        }
+    }
+
+    private void leer(FileChannel canal, long desde, BlockingQueue<LoteImportacion> libres,
+                      BlockingQueue<LoteImportacion> llenos) {
+        LoteImportacion lote = null;
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(tamanoBuffer);
+            canal.position(desde);
+            // posicion del archivo que corresponde al byte 0 del buffer
+            long base = desde;
+            boolean finArchivo = false;
+            lote = libres.take();
+
+            while (!finArchivo) {
+                finArchivo = canal.read(buffer) < 0;
+                buffer.flip();
+                int limite = buffer.limit();
+                int inicioLinea = 0;
+
+                for (int i = 0; i < limite; i++) {
+                    if (buffer.get(i) != '\n')
+                        continue;
+                    lote = agregarLinea(buffer, inicioLinea, i, base, base + i + 1, lote, libres, llenos);
+                    inicioLinea = i + 1;
+                }
+
+                // la ultima linea del archivo puede no terminar en \n
+                if (finArchivo && inicioLinea < limite) {
+                    lote = agregarLinea(buffer, inicioLinea, limite, base, base + limite, lote, libres, llenos);
+                    inicioLinea = limite;
+                }
+
+                if (inicioLinea == 0 && limite == buffer.capacity())
+                    throw new ArchivoInvalidoException("La linea no entra en el buffer de lectura", base);
+
+                // muevo al principio la linea que quedo por la mitad y sigo leyendo detras de ella
+                buffer.position(inicioLinea);
+                buffer.compact();
+                base += inicioLinea;
+            }
+
+            lote.ultimo = true;
+            llenos.put(lote);
+        } catch (InterruptedException | ClosedByInterruptException e) {
+            // el que aplica los lotes ya termino o fallo, no hace falta avisarle nada
+        } catch (RuntimeException | IOException e) {
+            if (lote == null)
+                lote = new LoteImportacion(0);
+            lote.error = e instanceof IOException io ? new UncheckedIOException(io) : (RuntimeException) e;
+            llenos.offer(lote);
+        }
+    }
+
+    /*
+     * Parsea la linea que va de "desde" a "hasta" en el buffer y la agrega al lote. Si el
+     * lote se llena lo entrega y devuelve uno libre, esperando si no hay ninguno.
+     */
+    private LoteImportacion agregarLinea(ByteBuffer buffer, int desde, int hasta, long base, long finLinea,
+                                         LoteImportacion lote, BlockingQueue<LoteImportacion> libres,
+                                         BlockingQueue<LoteImportacion> llenos) throws InterruptedException {
+        if (hasta > desde && buffer.get(hasta - 1) == '\r')
+            hasta--;
+
+        if (hasta == desde) {
+            // las lineas vacias se saltean, pero igual cuentan para la posicion
+            if (lote.cantidad > 0)
+                lote.fin[lote.cantidad - 1] = finLinea;
+            return lote;
+        }
+
+        parsearLinea(buffer, desde, hasta, base + desde, lote);
+        lote.fin[lote.cantidad++] = finLinea;
+
+        if (!lote.lleno())
+            return lote;
+        llenos.put(lote);
+        return libres.take();
+    }
+
+    private static void parsearLinea(ByteBuffer buffer, int desde, int hasta, long posicion, LoteImportacion lote) {
+        int i = lote.cantidad;
+
+        int coma = buscarComa(buffer, desde, hasta, posicion);
+        lote.origen[i] = parsearId(buffer, desde, coma, posicion);
+
+        int coma2 = buscarComa(buffer, coma + 1, hasta, posicion);
+        lote.destino[i] = parsearId(buffer, coma + 1, coma2, posicion);
+
+        parsearMonto(buffer, coma2 + 1, hasta, posicion, lote, i);
+    }
+
+    private static int buscarComa(ByteBuffer buffer, int desde, int hasta, long posicion) {
+        for (int i = desde; i < hasta; i++)
+            if (buffer.get(i) == ',')
+                return i;
+        throw new ArchivoInvalidoException("La linea no tiene los tres campos idOrigen,idDestino,monto", posicion);
+    }
+
+    private static long parsearId(ByteBuffer buffer, int desde, int hasta, long posicion) {
+        if (desde == hasta)
+            throw new ArchivoInvalidoException("Falta el id de la cuenta", posicion);
+
+        long valor = 0;
+        for (int i = desde; i < hasta; i++) {
+            int digito = buffer.get(i) - '0';
+            if (digito < 0 || digito > 9 || valor > (Long.MAX_VALUE - digito) / 10)
+                throw new ArchivoInvalidoException("Id de cuenta invalido", posicion);
+            valor = valor * 10 + digito;
+        }
+        return valor;
+    }
+
+    /*
+     * El monto se guarda como en un BigDecimal, sin crearlo: "150.25" queda como 15025
+     * unidades con escala 2
+     */
+    private static void parsearMonto(ByteBuffer buffer, int desde, int hasta, long posicion, LoteImportacion lote, int i) {
+        long unidades = 0;
+        int escala = 0;
+        boolean punto = false;
+        boolean digitos = false;
+
+        for (int j = desde; j < hasta; j++) {
+            byte b = buffer.get(j);
+            if (b == '.' && !punto) {
+                punto = true;
+                continue;
+            }
+            int digito = b - '0';
+            if (digito < 0 || digito > 9 || unidades > (Long.MAX_VALUE - digito) / 10)
+                throw new ArchivoInvalidoException("Monto invalido", posicion);
+            unidades = unidades * 10 + digito;
+            digitos = true;
+            if (punto)
+                escala++;
+        }
+
+        if (!digitos)
+            throw new ArchivoInvalidoException("Falta el monto", posicion);
+        lote.unidades[i] = unidades;
+        lote.escala[i] = escala;
+    }
+
+    private static LoteImportacion tomar(BlockingQueue<LoteImportacion> cola) {
+        try {
+            return cola.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Se interrumpio la importacion", e);
+        }
+    }
+
+    private static void esperar(Thread hilo) {
+        boolean interrumpido = false;
+        while (true) {
+            try {
+                hilo.join();
+                break;
+            } catch (InterruptedException e) {
+                interrumpido = true;
+            }
+        }
+        if (interrumpido)
+            Thread.currentThread().interrupt();
+    }
+}
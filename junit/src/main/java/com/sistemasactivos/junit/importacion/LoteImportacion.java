@@ -0,0 +1,38 @@
+package com.sistemasactivos.junit.importacion;
+
+/*
+ * Transferencias ya parseadas, guardadas en arreglos de primitivos para no crear ningun
+ * objeto por linea. Los lotes se reciclan: el importador tiene siempre la misma cantidad.
+ */
+class LoteImportacion {
+
+    final long[] origen;
+    final long[] destino;
+    final long[] unidades;
+    final int[] escala;
+    // posicion del archivo justo despues de cada linea
+    final long[] fin;
+    int cantidad;
+
+    // el lector marca el ultimo lote, o el error que lo freno
+    boolean ultimo;
+    RuntimeException error;
+
+    LoteImportacion(int capacidad) {
+        origen = new long[capacidad];
+        destino = new long[capacidad];
+        unidades = new long[capacidad];
+        escala = new int[capacidad];
+        fin = new long[capacidad];
+    }
+
+    boolean lleno() {
+        return cantidad == origen.length;
+    }
+
+    void limpiar() {
+        cantidad = 0;
+        ultimo = false;
+        error = null;
+    }
+}
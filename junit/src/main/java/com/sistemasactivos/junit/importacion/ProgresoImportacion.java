@@ -0,0 +1,14 @@
+package com.sistemasactivos.junit.importacion;
+
+/*
+ * Avance de una importacion. posicion es el byte del archivo hasta donde todas las
+ * transferencias ya se aplicaron al banco: si la importacion se corta, se puede retomar
+ * desde ahi sin repetir ni saltear ninguna.
+ */
+public record ProgresoImportacion(long posicion, long tamanoArchivo, long lineas, long aplicadas,
+                                  long rechazadas, long cuentasInexistentes) {
+
+    public double porcentaje() {
+        return tamanoArchivo == 0 ? 100 : posicion * 100.0 / tamanoArchivo;
+    }
+}
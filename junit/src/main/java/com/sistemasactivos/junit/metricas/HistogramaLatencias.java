@@ -0,0 +1,126 @@
+package com.sistemasactivos.junit.metricas;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Histograma de latencias en nanosegundos con cubetas log-lineales, al estilo HdrHistogram:
+ * cada potencia de 2 se divide en 32 sub-cubetas, asi el error relativo de cualquier
+ * percentil es menor al 3% y el histograma entero ocupa menos de 2000 contadores.
+ *
+ * Para que varios hilos puedan registrar sin pelearse por la misma linea de cache, los
+ * contadores estan repetidos en varias franjas y cada hilo escribe en la suya. Registrar
+ * es un solo incrementAndGet, sin locks.
+ */
+public class HistogramaLatencias {
+
+    private static final int BITS_SUB_CUBETA = 5;
+    private static final int SUB_CUBETAS = 1 << BITS_SUB_CUBETA;
+    private static final int CANTIDAD_CUBETAS = SUB_CUBETAS + (63 - BITS_SUB_CUBETA) * SUB_CUBETAS;
+
+    private final AtomicLongArray[] franjas;
+    private final int mascara;
+
+    public HistogramaLatencias() {
+        int cantidad = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        this.franjas = new AtomicLongArray[cantidad];
+        for (int i = 0; i < cantidad; i++)
+            franjas[i] = new AtomicLongArray(CANTIDAD_CUBETAS);
+        this.mascara = cantidad - 1;
+    }
+
+    public void registrar(long nanos) {
+        int franja = (int) Thread.currentThread().threadId() & mascara;
+        franjas[franja].incrementAndGet(indice(Math.max(0, nanos)));
+    }
+
+    public void reiniciar() {
+        for (AtomicLongArray franja : franjas)
+            for (int i = 0; i < CANTIDAD_CUBETAS; i++)
+                franja.set(i, 0);
+    }
+
+    /*
+     * Junta las franjas en una foto del histograma. La foto no es atomica: si hay hilos
+     * registrando mientras tanto puede incluir algunos valores nuevos y otros no.
+     */
+    public Foto foto() {
+        long[] cubetas = new long[CANTIDAD_CUBETAS];
+        long total = 0;
+        for (AtomicLongArray franja : franjas) {
+            for (int i = 0; i < CANTIDAD_CUBETAS; i++) {
+                long valor = franja.get(i);
+                cubetas[i] += valor;
+                total += valor;
+            }
+        }
+        return new Foto(cubetas, total);
+    }
+
+    static int indice(long valor) {
+        if (valor < SUB_CUBETAS)
+            return (int) valor;
+
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        int desplazamiento = exponente - BITS_SUB_CUBETA;
+        int subCubeta = (int) (valor >>> desplazamiento) - SUB_CUBETAS;
+        return SUB_CUBETAS + desplazamiento * SUB_CUBETAS + subCubeta;
+    }
+
+    // el valor mas chico que cae en la cubeta
+    static long valorMinimo(int indice) {
+        if (indice < SUB_CUBETAS)
+            return indice;
+
+        int desplazamiento = (indice - SUB_CUBETAS) / SUB_CUBETAS;
+        int subCubeta = (indice - SUB_CUBETAS) % SUB_CUBETAS;
+        return (long) (SUB_CUBETAS + subCubeta) << desplazamiento;
+    }
+
+    // el valor mas grande que cae en la cubeta
+    static long valorMaximo(int indice) {
+        if (indice < SUB_CUBETAS)
+            return indice;
+
+        int desplazamiento = (indice - SUB_CUBETAS) / SUB_CUBETAS;
+        return valorMinimo(indice) + (1L << desplazamiento) - 1;
+    }
+
+    public static class Foto {
+        private final long[] cubetas;
+        private final long total;
+
+        Foto(long[] cubetas, long total) {
+            this.cubetas = cubetas;
+            this.total = total;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        /*
+         * Devuelve el valor del percentil (entre 0 y 100). Como en HdrHistogram, se informa el
+         * mayor valor de la cubeta, asi el percentil nunca queda por debajo del real.
+         */
+        public long percentil(double percentil) {
+            if (total == 0)
+                return 0;
+
+            long objetivo = Math.max(1, (long) Math.ceil(total * percentil / 100.0));
+            long acumulado = 0;
+            for (int i = 0; i < cubetas.length; i++) {
+                acumulado += cubetas[i];
+                if (acumulado >= objetivo)
+                    return valorMaximo(i);
+            }
+            return valorMaximo(cubetas.length - 1);
+        }
+
+        public long maximo() {
+            for (int i = cubetas.length - 1; i >= 0; i--)
+                if (cubetas[i] > 0)
+                    return valorMaximo(i);
+            return 0;
+        }
+    }
+}
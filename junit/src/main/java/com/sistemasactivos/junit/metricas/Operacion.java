@@ -0,0 +1,7 @@
+package com.sistemasactivos.junit.metricas;
+
+public enum Operacion {
+    DEBITO,
+    CREDITO,
+    TRANSFERENCIA
+}
@@ -0,0 +1,13 @@
+package com.sistemasactivos.junit.metricas;
+
+import java.util.Map;
+
+/*
+ * Foto de las metricas que se expone por el endpoint /metricas
+ */
+public record ResumenMetricas(boolean habilitadas,
+                              Map<Operacion, ResumenOperacion> operaciones,
+                              long rechazosDineroInsuficiente,
+                              long esperasDeLock,
+                              long nanosEsperandoLock) {
+}
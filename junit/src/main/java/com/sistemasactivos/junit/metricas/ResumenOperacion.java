@@ -0,0 +1,7 @@
+package com.sistemasactivos.junit.metricas;
+
+/*
+ * Cantidad y percentiles de latencia (en nanosegundos) de una operacion
+ */
+public record ResumenOperacion(long cantidad, long p50, long p90, long p99, long p999, long maximo) {
+}
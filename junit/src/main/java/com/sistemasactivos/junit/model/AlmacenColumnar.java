@@ -0,0 +1,412 @@
+package com.sistemasactivos.junit.model;
+
+import com.sistemasactivos.junit.moneda.CacheTasas;
+import com.sistemasactivos.junit.reglas.CadenaReglas;
+import com.sistemasactivos.junit.reglas.ReglasDebito;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/*
+ * Almacen de cuentas para bancos muy grandes: guarda los datos por columnas en buffers
+ * directos, fuera del heap, en vez de un objeto Cuenta con su String y su BigDecimal por
+ * cada cuenta.
+ *
+ *   saldos   un long por cuenta, en unidades minimas con la escala del almacen
+ *   inicios  un int por cuenta, donde empieza su nombre en el area de nombres
+ *   largos   un int por cuenta, el largo del nombre (ver LIBRE y SIN_NOMBRE)
+ *   nombres  los nombres en UTF-8, uno detras del otro
+ *   indice   diccionario de nombres: tabla hash con direccionamiento abierto que guarda
+ *            el id de la cuenta de cada nombre
+ *
+ * El id es la posicion en las columnas mas uno, asi que buscar por id no necesita ningun
+ * indice. Cada cuenta ocupa unos 20 bytes mas su nombre, contra mas de 200 bytes repartidos
+ * en varios objetos con RegistroCuentas; y como el heap no crece con la cantidad de
+ * cuentas, las pausas del GC tampoco.
+ *
+ * buscarPorId(), buscarPorNombre() y valores() devuelven vistas (CuentaColumnar) que se
+ * crean en el momento y leen y escriben directo en las columnas. Son objetos chicos y de
+ * vida corta, que el GC junta casi gratis. Dos vistas de la misma cuenta son equals.
+ *
+ * Las altas se hacen de a una con un lock; las busquedas no toman ningun lock. Cada alta
+ * escribe todas las columnas y recien al final publica la cuenta en largos y en el indice,
+ * asi una busqueda nunca ve una cuenta a medio escribir.
+ *
+ * Todas las cuentas del almacen tienen la misma escala y la misma moneda (o ninguna), y
+ * todas tienen saldo: una columna de longs no tiene donde guardar un saldo null.
+ *
+ * Las reglas de debito son de pocas cuentas, asi que no tienen columna: se guardan
+ * compiladas en un mapa por posicion, en el heap, y todas las vistas leen de ahi.
+ */
+public class AlmacenColumnar implements AlmacenCuentas {
+
+    // el saldo se lee y escribe como un volatile, igual que el campo de CuentaPuntoFijo
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    // en la columna largos: 0 es un lugar sin cuenta, 1 una cuenta sin nombre y n + 2 un nombre de n bytes
+    private static final int LIBRE = 0;
+    private static final int SIN_NOMBRE = 1;
+
+    // cada columna es un solo ByteBuffer, y reservar() pide Long.BYTES de mas para alinearlo
+    private static final int BYTES_MAXIMOS = Integer.MAX_VALUE - Long.BYTES;
+    // la columna de saldos tiene que entrar en un solo ByteBuffer
+    public static final int CAPACIDAD_MAXIMA = BYTES_MAXIMOS / Long.BYTES;
+    private static final int BYTES_POR_NOMBRE = 24;
+
+    private final int capacidad;
+    private final int escala;
+    private final int bytesNombres;
+    private final Currency moneda;
+
+    private final ByteBuffer saldos;
+    private final ByteBuffer inicios;
+    private final ByteBuffer largos;
+    private final ByteBuffer nombres;
+    private final ByteBuffer indice;
+    private final int mascaraIndice;
+
+    private final ReentrantLock lockAltas = new ReentrantLock();
+    // solo se tocan con lockAltas tomado
+    private int finNombres;
+    private long secuencia;
+
+    private volatile int cantidad;
+    // uno mas que la mayor posicion ocupada, hasta donde hay que recorrer
+    private volatile int limite;
+    private volatile Banco banco;
+    // reglas compiladas de las cuentas que tienen (ver CuentaColumnar.setReglas())
+    private final ConcurrentHashMap<Integer, CadenaReglas> reglas = new ConcurrentHashMap<>();
+
+    public AlmacenColumnar(int capacidad, int escala) {
+        this(capacidad, escala, bytesNombres(capacidad));
+    }
+
+    public AlmacenColumnar(int capacidad, Currency moneda) {
+        this(capacidad, CacheTasas.escala(moneda), bytesNombres(capacidad), moneda);
+    }
+
+    public AlmacenColumnar(int capacidad, int escala, int bytesNombres) {
+        this(capacidad, escala, bytesNombres, null);
+    }
+
+    public AlmacenColumnar(int capacidad, int escala, int bytesNombres, Currency moneda) {
+        if (capacidad <= 0 || capacidad > CAPACIDAD_MAXIMA)
+            throw new IllegalArgumentException("La capacidad tiene que estar entre 1 y " + CAPACIDAD_MAXIMA);
+        if (escala < 0)
+            throw new IllegalArgumentException("La escala no puede ser negativa");
+        if (bytesNombres < 0 || bytesNombres > BYTES_MAXIMOS)
+            throw new IllegalArgumentException("El area de nombres tiene que estar entre 0 y " + BYTES_MAXIMOS + " bytes");
+
+        // el indice se llena hasta 3/4 como mucho, y es potencia de 2 para usar una mascara
+        long minimo = Math.max(2, (long) capacidad * 4 / 3 + 1);
+        long tamanoIndice = Long.highestOneBit(minimo);
+        if (tamanoIndice < minimo)
+            tamanoIndice <<= 1;
+        if (tamanoIndice * Integer.BYTES > BYTES_MAXIMOS)
+            throw new IllegalArgumentException("La capacidad no entra en el indice de nombres");
+
+        this.capacidad = capacidad;
+        this.escala = escala;
+        this.bytesNombres = bytesNombres;
+        this.moneda = moneda;
+        this.saldos = reservar((long) capacidad * Long.BYTES);
+        this.inicios = reservar((long) capacidad * Integer.BYTES);
+        this.largos = reservar((long) capacidad * Integer.BYTES);
+        this.nombres = reservar(bytesNombres);
+        this.indice = reservar(tamanoIndice * Integer.BYTES);
+        this.mascaraIndice = (int) tamanoIndice - 1;
+    }
+
+    private static int bytesNombres(int capacidad) {
+        return (int) Math.min((long) capacidad * BYTES_POR_NOMBRE, BYTES_MAXIMOS);
+    }
+
+    private static ByteBuffer reservar(long bytes) {
+        // los VarHandle solo aceptan accesos alineados, por eso pido de mas y recorto
+        return ByteBuffer.allocateDirect(Math.toIntExact(bytes + Long.BYTES)).alignedSlice(Long.BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public void vincular(Banco banco) {
+        if (this.banco != null && this.banco != banco)
+            throw new IllegalStateException("El almacen ya pertenece a otro banco");
+        this.banco = banco;
+    }
+
+    /*
+     * Copia el nombre, el saldo y las reglas de la cuenta al almacen y devuelve la vista.
+     * La cuenta que se paso no queda en el banco: solo se le asigna el id. Las reglas se
+     * vuelven a compilar con la escala del almacen, con contadores nuevos
+     */
+    @Override
+    public Cuenta registrar(Cuenta cuenta) {
+        long id;
+        lockAltas.lock();
+        try {
+            Long idPedido = cuenta.getId();
+            id = idPedido == null ? secuencia + 1 : idPedido;
+            if (idPedido == null && id > capacidad)
+                throw new IllegalStateException("El almacen esta lleno, entran " + capacidad + " cuentas");
+            if (id < 1 || id > capacidad)
+                throw new IllegalArgumentException("El id " + id + " no entra en el almacen");
+
+            if (cuenta.getMoneda() != null && !cuenta.getMoneda().equals(moneda))
+                throw new IllegalArgumentException("La cuenta es en " + cuenta.getMoneda() + " y el almacen en " + moneda);
+
+            int posicion = (int) (id - 1);
+            if (largo(posicion) != LIBRE)
+                throw new IllegalArgumentException("Ya existe una cuenta con el id " + id);
+
+            long saldo = aUnidades(cuenta.getSaldo());
+            ReglasDebito definicion = cuenta.getReglas();
+            CadenaReglas compiladas = definicion == null ? null : definicion.compilar(escala);
+
+            String nombre = cuenta.getNombre();
+            byte[] bytes = null;
+            int lugar = -1;
+            if (nombre != null) {
+                bytes = nombre.getBytes(StandardCharsets.UTF_8);
+                lugar = buscarLugar(bytes);
+                if ((int) INTS.getAcquire(indice, lugar * Integer.BYTES) != 0)
+                    throw new IllegalArgumentException("Ya existe una cuenta con el nombre " + nombre);
+                if (bytes.length > nombres.capacity() - finNombres)
+                    throw new IllegalStateException("No queda lugar para nombres en el almacen");
+            }
+
+            LONGS.setVolatile(saldos, posicion * Long.BYTES, saldo);
+            if (compiladas != null)
+                reglas.put(posicion, compiladas);
+            if (bytes != null) {
+                nombres.put(finNombres, bytes);
+                INTS.set(inicios, posicion * Integer.BYTES, finNombres);
+                finNombres += bytes.length;
+            }
+
+            // recien ahora publico la cuenta
+            INTS.setRelease(largos, posicion * Integer.BYTES, bytes == null ? SIN_NOMBRE : bytes.length + 2);
+            if (bytes != null)
+                INTS.setRelease(indice, lugar * Integer.BYTES, (int) id);
+
+            secuencia = Math.max(secuencia, id);
+            limite = Math.max(limite, posicion + 1);
+            cantidad = cantidad + 1;
+        } finally {
+            lockAltas.unlock();
+        }
+
+        cuenta.setId(id);
+        return new CuentaColumnar(this, (int) (id - 1));
+    }
+
+    @Override
+    public Optional<Cuenta> buscarPorId(long id) {
+        if (id < 1 || id > capacidad || largo((int) (id - 1)) == LIBRE)
+            return Optional.empty();
+        return Optional.of(new CuentaColumnar(this, (int) (id - 1)));
+    }
+
+    @Override
+    public Optional<Cuenta> buscarPorNombre(String nombre) {
+        if (nombre == null)
+            return Optional.empty();
+        int lugar = buscarLugar(nombre.getBytes(StandardCharsets.UTF_8));
+        int id = (int) INTS.getAcquire(indice, lugar * Integer.BYTES);
+        return id == 0 ? Optional.empty() : Optional.of(new CuentaColumnar(this, id - 1));
+    }
+
+    @Override
+    public int cantidad() {
+        return cantidad;
+    }
+
+    @Override
+    public Collection<Cuenta> valores() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Cuenta> iterator() {
+                return Spliterators.iterator(spliterator());
+            }
+
+            @Override
+            public Spliterator<Cuenta> spliterator() {
+                return new Recorrido(0, limite);
+            }
+
+            @Override
+            public int size() {
+                return cantidad;
+            }
+        };
+    }
+
+    @Override
+    public List<Cuenta> listar() {
+        // las columnas ya estan ordenadas por id
+        List<Cuenta> cuentas = new ArrayList<>(cantidad);
+        new Recorrido(0, limite).forEachRemaining(cuentas::add);
+        return cuentas;
+    }
+
+    public int getCapacidad() {
+        return capacidad;
+    }
+
+    public int getEscala() {
+        return escala;
+    }
+
+    public Currency getMoneda() {
+        return moneda;
+    }
+
+    public int getBytesNombres() {
+        return bytesNombres;
+    }
+
+    // memoria reservada fuera del heap por todas las columnas
+    public long getBytesReservados() {
+        return (long) saldos.capacity() + inicios.capacity() + largos.capacity() + nombres.capacity() + indice.capacity();
+    }
+
+    Banco getBanco() {
+        return banco;
+    }
+
+    long leerUnidades(int posicion) {
+        return (long) LONGS.getVolatile(saldos, posicion * Long.BYTES);
+    }
+
+    void asignarUnidades(int posicion, long unidades) {
+        LONGS.setVolatile(saldos, posicion * Long.BYTES, unidades);
+    }
+
+    CadenaReglas leerReglas(int posicion) {
+        return reglas.get(posicion);
+    }
+
+    void asignarReglas(int posicion, CadenaReglas compiladas) {
+        if (compiladas == null)
+            reglas.remove(posicion);
+        else
+            reglas.put(posicion, compiladas);
+    }
+
+    String leerNombre(int posicion) {
+        int largo = largo(posicion);
+        if (largo < 2)
+            return null;
+        byte[] bytes = new byte[largo - 2];
+        nombres.get((int) INTS.get(inicios, posicion * Integer.BYTES), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int largo(int posicion) {
+        return (int) INTS.getAcquire(largos, posicion * Integer.BYTES);
+    }
+
+    /*
+     * Devuelve el lugar del indice donde esta el nombre, o el lugar libre donde iria si no
+     * esta. Como el indice nunca se llena, siempre termina
+     */
+    private int buscarLugar(byte[] nombre) {
+        int lugar = dispersar(nombre) & mascaraIndice;
+        while (true) {
+            int id = (int) INTS.getAcquire(indice, lugar * Integer.BYTES);
+            if (id == 0 || mismoNombre(id - 1, nombre))
+                return lugar;
+            lugar = (lugar + 1) & mascaraIndice;
+        }
+    }
+
+    private boolean mismoNombre(int posicion, byte[] nombre) {
+        if (largo(posicion) - 2 != nombre.length)
+            return false;
+        int inicio = (int) INTS.get(inicios, posicion * Integer.BYTES);
+        for (int i = 0; i < nombre.length; i++)
+            if (nombres.get(inicio + i) != nombre[i])
+                return false;
+        return true;
+    }
+
+    private static int dispersar(byte[] nombre) {
+        int h = 0;
+        for (byte b : nombre)
+            h = 31 * h + b;
+        // mezclo los bits altos con los bajos como MotorTransferencias
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private long aUnidades(BigDecimal saldo) {
+        if (saldo == null)
+            throw new IllegalArgumentException("Una cuenta de un almacen columnar tiene que tener saldo");
+        try {
+            return saldo.setScale(escala).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("El saldo " + saldo + " no se puede representar con escala " + escala);
+        }
+    }
+
+    /*
+     * Recorre las posiciones de las columnas salteando los lugares libres. Se parte por la
+     * mitad del rango, asi FotoSaldos reparte la copia entre hilos sin ningun indice
+     */
+    private class Recorrido implements Spliterator<Cuenta> {
+        private int desde;
+        private final int hasta;
+
+        Recorrido(int desde, int hasta) {
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Cuenta> accion) {
+            while (desde < hasta) {
+                int posicion = desde++;
+                if (largo(posicion) != LIBRE) {
+                    accion.accept(new CuentaColumnar(AlmacenColumnar.this, posicion));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<Cuenta> trySplit() {
+            int medio = (desde + hasta) >>> 1;
+            if (medio <= desde)
+                return null;
+            Recorrido mitad = new Recorrido(desde, medio);
+            desde = medio;
+            return mitad;
+        }
+
+        @Override
+        public long estimateSize() {
+            return hasta - desde;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | NONNULL;
+        }
+    }
+}
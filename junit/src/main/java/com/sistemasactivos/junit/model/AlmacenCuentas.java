@@ -0,0 +1,38 @@
+package com.sistemasactivos.junit.model;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/*
+ * Donde guarda el banco sus cuentas. RegistroCuentas guarda los objetos Cuenta tal cual en
+ * el heap; AlmacenColumnar guarda los datos por columnas fuera del heap y devuelve vistas
+ * livianas (CuentaColumnar), para bancos con decenas de millones de cuentas.
+ */
+public interface AlmacenCuentas {
+
+    /*
+     * Registra la cuenta y le asigna el id si no tiene. Devuelve la cuenta que usa el banco
+     * a partir de ahora: puede ser la misma que se paso o una vista sobre los datos copiados
+     */
+    Cuenta registrar(Cuenta cuenta);
+
+    Optional<Cuenta> buscarPorId(long id);
+
+    Optional<Cuenta> buscarPorNombre(String nombre);
+
+    int cantidad();
+
+    /*
+     * Vista de solo lectura de las cuentas, sin ningun orden garantizado. Es mas barata que
+     * listar() cuando solo hay que recorrerlas
+     */
+    Collection<Cuenta> valores();
+
+    // copia de las cuentas ordenadas por id, es decir, en el orden en que se registraron
+    List<Cuenta> listar();
+
+    // lo llama el banco al crearse, para los almacenes que arman las cuentas a pedido
+    default void vincular(Banco banco) {
+    }
+}
@@ -1,38 +1,248 @@
 package com.sistemasactivos.junit.model;
 
-import lombok.AllArgsConstructor;
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.exception.TasaNoDisponibleException;
+import com.sistemasactivos.junit.moneda.CacheTasas;
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Currency;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 @Getter
 @Setter
-@NoArgsConstructor
-@AllArgsConstructor
 public class Banco {
     private String nombre;
-    private List<Cuenta> cuentas = new ArrayList<>();
+
+    /*
+     * El almacen, el motor y el cache son final, por eso lombok no
+     * les genera setter
+     */
+    private final AlmacenCuentas almacen;
+    private final MotorTransferencias motor = new MotorTransferencias();
+    private final CacheSaldos cacheSaldos = new CacheSaldos(motor);
+
+    // tasas para las transferencias entre cuentas de distinta moneda, null si el banco no convierte
+    private CacheTasas tasas;
+
+    // ids de las ultimas transferencias, para que los reintentos no muevan la plata dos veces
+    private RegistroSolicitudes solicitudes = new RegistroSolicitudes();
+
+    // casi nunca se agregan observadores y se recorren en cada movimiento
+    @Getter(AccessLevel.NONE)
+    private final List<ObservadorMovimientos> observadores = new CopyOnWriteArrayList<>();
+
+    public Banco() {
+        this(new RegistroCuentas());
+    }
+
+    /*
+     * Por ejemplo new Banco(new AlmacenColumnar(50_000_000, 2)) para guardar las cuentas
+     * fuera del heap
+     */
+    public Banco(AlmacenCuentas almacen) {
+        this.almacen = almacen;
+        almacen.vincular(this);
+    }
 
     public Banco(String nombre) {
+        this();
+        this.nombre = nombre;
+    }
+
+    public Banco(String nombre, AlmacenCuentas almacen) {
+        this(almacen);
         this.nombre = nombre;
     }
 
     public Banco(List<Cuenta> cuentas) {
-        this.cuentas = cuentas;
+        this();
+        cuentas.forEach(this::agregarCuenta);
     }
 
-    public void agregarCuenta(Cuenta cuenta) {
-        cuentas.add(cuenta);
-        cuenta.setBanco(this);
+    public Banco(String nombre, List<Cuenta> cuentas) {
+        this(cuentas);
+        this.nombre = nombre;
     }
 
+    /*
+     * Devuelve la cuenta que queda en el banco. Con RegistroCuentas es la misma que se paso;
+     * con AlmacenColumnar es una vista sobre los datos copiados, y los movimientos hay que
+     * hacerlos sobre esa
+     */
+    public Cuenta agregarCuenta(Cuenta cuenta) {
+        Cuenta registrada = almacen.registrar(cuenta);
+        registrada.setBanco(this);
+        for (ObservadorMovimientos observador : observadores)
+            observador.apertura(registrada);
+        return registrada;
+    }
+
+    public List<Cuenta> getCuentas() {
+        return almacen.listar();
+    }
+
+    public Optional<Cuenta> buscarCuenta(long id) {
+        return almacen.buscarPorId(id);
+    }
+
+    public Optional<Cuenta> buscarCuenta(String nombre) {
+        return almacen.buscarPorNombre(nombre);
+    }
+
+    /*
+     * El monto esta en la moneda del origen. Si el destino tiene otra moneda se convierte
+     * con las tasas del banco antes de tomar cualquier lock (ver CacheTasas)
+     */
     public void transferir(Cuenta origen, Cuenta destino, BigDecimal monto) {
-        origen.debito(monto);
-        destino.credito(monto);
+        motor.transferir(origen, destino, monto, convertir(origen, destino, monto));
+    }
+
+    public ResultadoDebito intentarTransferir(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        return motor.intentarTransferir(origen, destino, monto, convertir(origen, destino, monto));
+    }
+
+    /*
+     * Transferencias con id de solicitud: si el cliente reintenta con el mismo id (por
+     * ejemplo despues de un timeout) la transferencia no se vuelve a ejecutar y se
+     * devuelve el resultado de la primera vez (ver RegistroSolicitudes)
+     */
+    public void transferir(String idSolicitud, Cuenta origen, Cuenta destino, BigDecimal monto) {
+        if (intentarTransferir(idSolicitud, origen, destino, monto) != ResultadoDebito.APROBADO)
+            throw new DineroInsuficienteException("Dinero insuficiente");
+    }
+
+    public ResultadoDebito intentarTransferir(String idSolicitud, Cuenta origen, Cuenta destino, BigDecimal monto) {
+        return solicitudes.ejecutar(idSolicitud, () -> intentarTransferir(origen, destino, monto));
+    }
+
+    public List<ResultadoTransferencia> transferirLote(List<Transferencia> transferencias) {
+        // solo copio el lote si alguna transferencia necesita conversion
+        List<Transferencia> convertidas = null;
+        // las que no tienen tasa se rechazan solas, como las que no tienen saldo
+        ResultadoTransferencia[] sinTasa = null;
+        for (int i = 0; i < transferencias.size(); i++) {
+            Transferencia t = transferencias.get(i);
+            // si ya trae el monto del destino no la convierto de nuevo
+            if (t.getMontoDestino() != t.getMonto())
+                continue;
+            BigDecimal montoDestino;
+            try {
+                montoDestino = convertir(t.getOrigen(), t.getDestino(), t.getMonto());
+            } catch (TasaNoDisponibleException e) {
+                if (sinTasa == null)
+                    sinTasa = new ResultadoTransferencia[transferencias.size()];
+                sinTasa[i] = new ResultadoTransferencia(t, e);
+                continue;
+            }
+            if (montoDestino == t.getMonto())
+                continue;
+            if (convertidas == null)
+                convertidas = new ArrayList<>(transferencias);
+            convertidas.set(i, new Transferencia(t.getOrigen(), t.getDestino(), t.getMonto(), montoDestino));
+        }
+
+        List<Transferencia> lote = convertidas == null ? transferencias : convertidas;
+        if (sinTasa == null)
+            return motor.transferirLote(lote);
+
+        // el motor ejecuta el resto en el mismo orden, y cada resultado vuelve a su posicion
+        List<Transferencia> conTasa = new ArrayList<>(lote.size());
+        for (int i = 0; i < lote.size(); i++)
+            if (sinTasa[i] == null)
+                conTasa.add(lote.get(i));
+        List<ResultadoTransferencia> ejecutadas = motor.transferirLote(conTasa);
+
+        List<ResultadoTransferencia> resultados = new ArrayList<>(lote.size());
+        for (int i = 0, k = 0; i < lote.size(); i++)
+            resultados.add(sinTasa[i] != null ? sinTasa[i] : ejecutadas.get(k++));
+        return resultados;
+    }
+
+    /*
+     * Devuelve el mismo objeto monto si no hay que convertir. Las cuentas sin moneda se
+     * toman como de la misma moneda que cualquier otra
+     */
+    private BigDecimal convertir(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        Currency de = origen.getMoneda();
+        Currency a = destino.getMoneda();
+        if (de == null || a == null || de.equals(a))
+            return monto;
+        if (tasas == null)
+            throw new TasaNoDisponibleException("El banco no tiene tasas de cambio para convertir de " + de + " a " + a);
+        return tasas.convertir(monto, de, a);
+    }
+
+    /*
+     * Consultas de saldo. A diferencia de cuenta.getSaldo(), nunca ven una transferencia
+     * a medio hacer y no bloquean a las transferencias (ver MotorTransferencias)
+     */
+    public BigDecimal consultarSaldo(Cuenta cuenta) {
+        return cacheSaldos.consultar(cuenta);
+    }
+
+    public List<BigDecimal> consultarSaldos(List<Cuenta> cuentas) {
+        return List.of(motor.leerSaldos(cuentas));
+    }
+
+    public BigDecimal consultarSaldoTotal() {
+        return resumirSaldos().total();
+    }
+
+    /*
+     * Total, minimo, maximo y distribucion de los saldos de todas las cuentas, calculados en
+     * paralelo sobre una FotoSaldos
+     */
+    public ResumenSaldos resumirSaldos() {
+        return fotografiarSaldos().resumir();
+    }
+
+    /*
+     * Copia consistente de todos los saldos. Con muchas cuentas la copia tarda, y es muy
+     * probable que alguna transferencia la cruce: en vez de volver a copiar todo, o de
+     * bloquear todas las franjas, solo se vuelven a copiar las franjas que cambiaron (ver
+     * FotoSaldos.capturarConsistente())
+     */
+    public FotoSaldos fotografiarSaldos() {
+        return FotoSaldos.capturarConsistente(this);
+    }
+
+    public void agregarObservador(ObservadorMovimientos observador) {
+        observadores.add(observador);
+    }
+
+    public void quitarObservador(ObservadorMovimientos observador) {
+        observadores.remove(observador);
+    }
+
+    public boolean tieneObservadores() {
+        return !observadores.isEmpty();
+    }
+
+    void notificarMovimiento(Cuenta cuenta, TipoMovimiento tipo, BigDecimal monto) {
+        for (ObservadorMovimientos observador : observadores)
+            observador.movimiento(cuenta, tipo, monto);
+    }
+
+    void notificarTransferencia(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        for (ObservadorMovimientos observador : observadores)
+            observador.transferencia(origen, destino, monto);
+    }
+
+    void notificarTransferencia(Cuenta origen, Cuenta destino, BigDecimal monto, BigDecimal montoDestino) {
+        for (ObservadorMovimientos observador : observadores)
+            observador.transferencia(origen, destino, monto, montoDestino);
+    }
+
+    // se llama despues de notificarTransferencia(), ya sin las franjas del motor bloqueadas
+    void persistirMovimientos() {
+        for (ObservadorMovimientos observador : observadores)
+            observador.persistir();
     }
 
 }
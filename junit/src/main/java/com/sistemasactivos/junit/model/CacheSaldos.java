@@ -0,0 +1,108 @@
+package com.sistemasactivos.junit.model;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Cache acotado de las ultimas consultas de saldo, para el caso comun en que se consulta
+ * mucho mas de lo que se transfiere.
+ *
+ * Es un cache de mapeo directo: cada cuenta cae siempre en la misma posicion del arreglo
+ * y si otra cuenta cae en la misma posicion la reemplaza. Asi el tamano es fijo, no hay
+ * que decidir a quien desalojar y leer una posicion no toma ningun lock.
+ *
+ * Cada vista guarda la version de la franja del motor en el momento de leer el saldo. Si
+ * la version sigue igual, ninguna transferencia ni movimiento directo toco esa franja y
+ * el saldo guardado sigue siendo el actual. Las cuentas que admiten creditos sin bloqueo
+ * no se guardan, porque sus creditos no cambian la version.
+ */
+public class CacheSaldos {
+
+    private static final int TAMANO = 4096;
+
+    private final MotorTransferencias motor;
+    private final AtomicReferenceArray<VistaSaldo> vistas;
+    private final int mascara;
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+
+    public CacheSaldos(MotorTransferencias motor) {
+        this(motor, TAMANO);
+    }
+
+    public CacheSaldos(MotorTransferencias motor, int tamano) {
+        if (tamano <= 0)
+            throw new IllegalArgumentException("El tamano del cache debe ser positivo");
+
+        // potencia de 2 para calcular la posicion con una mascara, como las franjas del motor
+        int potencia = Integer.highestOneBit(tamano);
+        if (potencia < tamano)
+            potencia <<= 1;
+
+        this.motor = motor;
+        this.vistas = new AtomicReferenceArray<>(potencia);
+        this.mascara = potencia - 1;
+    }
+
+    public BigDecimal consultar(Cuenta cuenta) {
+        if (cuenta.admiteCreditoSinBloqueo())
+            return cuenta.getSaldo();
+
+        int franja = motor.indiceFranja(cuenta);
+        int posicion = posicion(cuenta);
+        long version = motor.version(franja);
+
+        VistaSaldo vista = vistas.get(posicion);
+        if (vista != null && mismaCuenta(vista.cuenta(), cuenta) && vista.version() == version) {
+            aciertos.increment();
+            return vista.saldo();
+        }
+        fallos.increment();
+
+        BigDecimal saldo = cuenta.getSaldo();
+        // solo guardo la vista si ninguna escritura de la franja se cruzo con la lectura
+        if ((version & 1) == 0 && motor.version(franja) == version) {
+            vistas.set(posicion, new VistaSaldo(cuenta, version, saldo));
+            return saldo;
+        }
+        /*
+         * Se cruzo una transferencia: el saldo leido puede tener el debito sin el credito
+         * en la otra cuenta. Leo de nuevo como leerSaldos(), que reintenta hasta que no se
+         * cruce ninguna
+         */
+        return motor.leerSaldos(List.of(cuenta))[0];
+    }
+
+    public long getAciertos() {
+        return aciertos.sum();
+    }
+
+    public long getFallos() {
+        return fallos.sum();
+    }
+
+    public int getTamano() {
+        return mascara + 1;
+    }
+
+    private int posicion(Cuenta cuenta) {
+        // multiplico por otra constante que el motor para que no salga la misma distribucion que las franjas
+        Long id = cuenta.getId();
+        int h = (id == null ? System.identityHashCode(cuenta) : Long.hashCode(id)) * 0x85EBCA6B;
+        return (h ^ (h >>> 16)) & mascara;
+    }
+
+    // las vistas de AlmacenColumnar son objetos nuevos en cada busqueda, asi que comparo por id
+    private static boolean mismaCuenta(Cuenta guardada, Cuenta cuenta) {
+        if (guardada == cuenta)
+            return true;
+        Long id = cuenta.getId();
+        return id != null && id.equals(guardada.getId());
+    }
+
+    private record VistaSaldo(Cuenta cuenta, long version, BigDecimal saldo) {
+    }
+}
@@ -1,23 +1,197 @@
 package com.sistemasactivos.junit.model;
 
 import com.sistemasactivos.junit.exception.DineroInsuficienteException;
-import lombok.AllArgsConstructor;
+import com.sistemasactivos.junit.metricas.MetricasOperaciones;
+import com.sistemasactivos.junit.metricas.Operacion;
+import com.sistemasactivos.junit.moneda.CacheTasas;
+import com.sistemasactivos.junit.reglas.CadenaReglas;
+import com.sistemasactivos.junit.reglas.ReglasDebito;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.Objects;
 
 @Getter
 @Setter
-@AllArgsConstructor
 @NoArgsConstructor
 public class Cuenta {
+    /*
+     * El id lo asigna el banco al registrar la cuenta (ver RegistroCuentas). Solo se
+     * setea a mano al restaurar cuentas desde el diario de movimientos
+     */
+    private Long id;
     private String nombre;
-    private BigDecimal saldo;
+    /*
+     * volatile para que un hilo que solo consulta el saldo vea siempre el ultimo valor
+     * escrito por el hilo que hizo la transferencia (ver MotorTransferencias)
+     */
+    private volatile BigDecimal saldo;
+    /*
+     * Moneda del saldo. Una cuenta sin moneda es de la misma unidad que cualquier otra:
+     * asi funcionan las cuentas de antes, y las transferencias con ellas no convierten
+     */
+    private Currency moneda;
     private Banco banco;
+    /*
+     * Reglas de debito compiladas para esta cuenta (ver setReglas), o null si solo rige
+     * la regla de siempre: el saldo no puede quedar negativo
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile CadenaReglas reglas;
+
+    public Cuenta(String nombre, BigDecimal saldo, Banco banco) {
+        this.nombre = nombre;
+        this.saldo = saldo;
+        this.banco = banco;
+    }
+
+    /*
+     * El nombre y el id son la identidad de la cuenta (ver equals) y las claves de los
+     * indices del banco: una vez registrada ya no se pueden cambiar, sino la cuenta queda
+     * perdida en RegistroCuentas y en cualquier HashMap que la use de clave
+     */
+    public void setNombre(String nombre) {
+        if (banco != null && !Objects.equals(getNombre(), nombre))
+            throw new IllegalStateException("No se puede cambiar el nombre de una cuenta registrada en un banco");
+        this.nombre = nombre;
+    }
+
+    public void setId(Long id) {
+        if (banco != null && !Objects.equals(getId(), id))
+            throw new IllegalStateException("No se puede cambiar el id de una cuenta registrada en un banco");
+        this.id = id;
+    }
+
+    /*
+     * Compila las reglas para esta cuenta, con contadores nuevos; null vuelve a la regla
+     * de siempre. Se evaluan en todos los debitos, tambien en los de las transferencias
+     */
+    public void setReglas(ReglasDebito definicion) {
+        this.reglas = definicion == null ? null : definicion.compilar(escalaReglas(definicion));
+    }
+
+    public ReglasDebito getReglas() {
+        CadenaReglas compiladas = this.reglas;
+        return compiladas == null ? null : compiladas.getDefinicion();
+    }
+
+    // la cadena compilada, por ejemplo para ver los rechazos de cada regla; null si no hay
+    public CadenaReglas getReglasCompiladas() {
+        return reglas;
+    }
+
+    // escala de las unidades minimas de los contadores de las reglas
+    protected int escalaReglas(ReglasDebito definicion) {
+        return moneda == null ? definicion.escalaMinima() : Math.max(CacheTasas.escala(moneda), definicion.escalaMinima());
+    }
 
     public void debito(BigDecimal monto) {
+        MetricasOperaciones metricas = MetricasOperaciones.global();
+        long inicio = metricas.inicio();
+
+        aplicarDebito(monto);
+        notificar(TipoMovimiento.DEBITO, monto);
+
+        metricas.registrar(Operacion.DEBITO, inicio);
+    }
+
+    /*
+     * Igual que debito() pero sin lanzar excepcion: si no alcanza el saldo devuelve
+     * DINERO_INSUFICIENTE. En ese caso no se crea ningun objeto, asi que rechazar un
+     * debito es casi tan barato como aprobarlo.
+     */
+    public ResultadoDebito intentarDebito(BigDecimal monto) {
+        MetricasOperaciones metricas = MetricasOperaciones.global();
+        long inicio = metricas.inicio();
+
+        ResultadoDebito resultado = aplicarIntentoDebito(monto);
+        if (resultado == ResultadoDebito.APROBADO)
+            notificar(TipoMovimiento.DEBITO, monto);
+        else
+            metricas.registrarRechazo();
+
+        metricas.registrar(Operacion.DEBITO, inicio);
+        return resultado;
+    }
+
+    /*
+     * Aplica un debito que ya fue aprobado, por ejemplo al reproducir el diario de
+     * movimientos: no evalua las reglas ni el saldo, porque la cuenta pudo quedar en
+     * descubierto con reglas que el diario no guarda
+     */
+    public void reponerDebito(BigDecimal monto) {
+        aplicarDebitoSinControl(monto);
+        notificar(TipoMovimiento.DEBITO, monto);
+    }
+
+    public void credito(BigDecimal monto) {
+        MetricasOperaciones metricas = MetricasOperaciones.global();
+        long inicio = metricas.inicio();
+
+        aplicarCredito(monto);
+        notificar(TipoMovimiento.CREDITO, monto);
+
+        metricas.registrar(Operacion.CREDITO, inicio);
+    }
+
+    /*
+     * Los metodos aplicar* solo cambian el saldo, sin avisar a los observadores del banco.
+     * Los usa el MotorTransferencias, que avisa una sola vez por toda la transferencia.
+     */
+    protected void aplicarDebito(BigDecimal monto) {
+        if (aplicarIntentoDebito(monto) != ResultadoDebito.APROBADO) {
+            MetricasOperaciones.global().registrarRechazo();
+            throw new DineroInsuficienteException("Dinero insuficiente");
+        }
+    }
+
+    protected ResultadoDebito aplicarIntentoDebito(BigDecimal monto) {
+        CadenaReglas reglas = this.reglas;
+        if (reglas == null)
+            return restarSaldo(monto, BigDecimal.ZERO);
+        if (!reglas.tieneContadores())
+            return contarRechazo(reglas, restarSaldo(monto, reglas.getDescubierto()));
+
+        long unidades = reglas.unidades(monto);
+        reglas.bloquear();
+        try {
+            if (!reglas.admite(unidades))
+                return ResultadoDebito.DINERO_INSUFICIENTE;
+            ResultadoDebito resultado = contarRechazo(reglas, restarSaldo(monto, reglas.getDescubierto()));
+            if (resultado == ResultadoDebito.APROBADO)
+                reglas.registrar(unidades);
+            return resultado;
+        } finally {
+            reglas.desbloquear();
+        }
+    }
+
+    protected void aplicarDebitoSinControl(BigDecimal monto) {
+        this.saldo = this.saldo.subtract(monto);
+    }
+
+    protected static ResultadoDebito contarRechazo(CadenaReglas reglas, ResultadoDebito resultado) {
+        if (resultado != ResultadoDebito.APROBADO)
+            reglas.rechazoPorSaldo();
+        return resultado;
+    }
+
+    // resta el monto si el saldo no queda por debajo de -descubierto
+    private ResultadoDebito restarSaldo(BigDecimal monto, BigDecimal descubierto) {
+        /*
+         * Verifico que el saldo no quede negativo antes de restar: saldo - monto < 0 es lo
+         * mismo que saldo < monto, y asi si rechazo el debito no creo ningun BigDecimal.
+         * Con descubierto es saldo + descubierto < monto
+         */
+        BigDecimal disponible = descubierto.signum() == 0 ? this.saldo : this.saldo.add(descubierto);
+        if (disponible.compareTo(monto) < 0)
+            return ResultadoDebito.DINERO_INSUFICIENTE;
+
         /*
         * Como BigDecial es inmutable, no puedo hacer this.sado.subtract(monto)
         * ya que el metodo subtract devuelve un nuevo objeto BigDecimal
@@ -25,16 +199,11 @@ public class Cuenta {
         *
         * Por eso, tengo que asignar el valor devuelto por el metodo subtract
         */
-        BigDecimal nuevoSaldo = this.saldo.subtract(monto);
-
-        // verifico que el saldo no sea negativo, si lo es, lanzo una excepcion
-        if (nuevoSaldo.compareTo(BigDecimal.ZERO) < 0)
-            throw new DineroInsuficienteException("Dinero insuficiente");
-
-        this.saldo = nuevoSaldo;
+        this.saldo = this.saldo.subtract(monto);
+        return ResultadoDebito.APROBADO;
     }
 
-    public void credito(BigDecimal monto) {
+    protected void aplicarCredito(BigDecimal monto) {
         /*
          * Como BigDecial es inmutable, no puedo hacer this.sado.add(monto)
          * ya que el metodo subtract devuelve un nuevo objeto BigDecimal
@@ -46,21 +215,50 @@ public class Cuenta {
     }
 
     /*
-    * sobreescribo el metodo equals para que compare por atributos
-    * y no por la direccion de memoria del objeto instanciado
-    */
+     * Indica si aplicarCredito() se puede llamar desde varios hilos a la vez sin ningun
+     * lock. En ese caso el MotorTransferencias no bloquea la franja del destino, y los
+     * creditos a una cuenta muy usada no hacen fila detras del mismo lock.
+     */
+    protected boolean admiteCreditoSinBloqueo() {
+        return false;
+    }
+
+    protected void notificar(TipoMovimiento tipo, BigDecimal monto) {
+        if (banco != null) {
+            // aviso al motor que cambio el saldo, para las lecturas consistentes y el cache
+            banco.getMotor().marcarModificada(this);
+            banco.notificarMovimiento(this, tipo, monto);
+        }
+    }
+
+    /*
+     * sobreescribo el metodo equals para que compare por el nombre, que es unico dentro
+     * de un banco, y no por la direccion de memoria del objeto instanciado.
+     *
+     * No comparo el saldo porque cambia con cada movimiento: una cuenta tiene que seguir
+     * siendo igual a si misma despues de un debito, sino no se puede usar como clave de un Map
+     */
     @Override
     public boolean equals(Object obj) {
-        Cuenta cuenta = (Cuenta) obj; // casteo el objeto a tipo Cuenta
-        if (!(obj instanceof Cuenta))
+        if (this == obj)
+            return true;
+
+        // primero verifico el tipo y recien despues casteo el objeto a tipo Cuenta
+        if (!(obj instanceof Cuenta cuenta))
             return false;
 
-        if (this.nombre == null || this.saldo == null)
+        // uso getNombre() y no el campo porque CuentaColumnar no guarda el nombre en el objeto
+        String nombre = getNombre();
+        if (nombre == null)
             return false;
 
-        boolean nombreIguales = this.nombre.equals(cuenta.getNombre());
-        boolean saldoIguales = this.saldo.equals(cuenta.getSaldo());
+        return nombre.equals(cuenta.getNombre());
+    }
 
-        return nombreIguales && saldoIguales;
+    // si dos cuentas son iguales segun equals, tienen que tener el mismo hashCode
+    @Override
+    public int hashCode() {
+        String nombre = getNombre();
+        return nombre == null ? System.identityHashCode(this) : nombre.hashCode();
     }
 }
@@ -0,0 +1,77 @@
+package com.sistemasactivos.junit.model;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Cuenta en unidades minimas (como CuentaPuntoFijo) cuyo saldo es un AtomicLong que se
+ * actualiza con compareAndSet, sin locks.
+ *
+ * Varios hilos pueden hacer debitos y creditos directos sobre la misma cuenta a la vez:
+ * cada operacion lee el saldo, calcula el nuevo y solo lo escribe si nadie lo cambio en el
+ * medio; si lo cambiaron, reintenta. El debito verifica que el saldo no quede negativo
+ * (o por debajo del descubierto) dentro del mismo compareAndSet, asi que esa regla se
+ * cumple siempre.
+ *
+ * Conviene para cuentas que casi solo reciben creditos o que tienen poca contencion. Las
+ * transferencias del MotorTransferencias igual toman los locks de franja, porque necesitan
+ * que el debito y el credito de dos cuentas distintas sean atomicos juntos.
+ */
+public class CuentaAtomica extends CuentaPuntoFijo {
+
+    private final AtomicLong saldoAtomico = new AtomicLong();
+
+    public CuentaAtomica(int escala) {
+        super(escala);
+    }
+
+    public CuentaAtomica(Currency moneda) {
+        super(moneda);
+    }
+
+    public CuentaAtomica(String nombre, BigDecimal saldo, int escala) {
+        // no llamo al constructor equivalente del padre porque asigna el saldo antes de
+        // que exista saldoAtomico
+        super(escala);
+        setNombre(nombre);
+        setSaldo(saldo);
+    }
+
+    @Override
+    protected boolean admiteCreditoSinBloqueo() {
+        return true;
+    }
+
+    @Override
+    protected long leerUnidades() {
+        return saldoAtomico.get();
+    }
+
+    @Override
+    protected void asignarUnidades(long unidades) {
+        saldoAtomico.set(unidades);
+    }
+
+    @Override
+    protected ResultadoDebito restarUnidades(long monto, long piso) {
+        while (true) {
+            long actual = saldoAtomico.get();
+            long nuevoSaldo = restarExacto(actual, monto);
+            if (nuevoSaldo < piso)
+                return ResultadoDebito.DINERO_INSUFICIENTE;
+            if (saldoAtomico.compareAndSet(actual, nuevoSaldo))
+                return ResultadoDebito.APROBADO;
+        }
+    }
+
+    @Override
+    protected void aplicarCreditoUnidades(long monto) {
+        // no uso addAndGet porque no detecta el desbordamiento
+        while (true) {
+            long actual = saldoAtomico.get();
+            if (saldoAtomico.compareAndSet(actual, sumarExacto(actual, monto)))
+                return;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.sistemasactivos.junit.model;
+
+import com.sistemasactivos.junit.reglas.CadenaReglas;
+import com.sistemasactivos.junit.reglas.ReglasDebito;
+
+import java.util.Objects;
+
+/*
+ * Vista liviana (flyweight) de una cuenta guardada en un AlmacenColumnar. No tiene datos
+ * propios: el nombre, el saldo y las reglas de debito se leen y se escriben en el almacen,
+ * asi que cualquier vista de la misma cuenta ve los mismos valores.
+ *
+ * Se comporta como una CuentaPuntoFijo con la escala del almacen: debito, credito,
+ * reglas, transferencias, observadores y metricas funcionan igual. El nombre, como el de
+ * cualquier cuenta registrada en un banco, no se puede cambiar.
+ */
+public class CuentaColumnar extends CuentaPuntoFijo {
+
+    private final AlmacenColumnar almacen;
+    private final int posicion;
+
+    CuentaColumnar(AlmacenColumnar almacen, int posicion) {
+        super(almacen.getEscala());
+        this.almacen = almacen;
+        this.posicion = posicion;
+        setId(posicion + 1L);
+        setBanco(almacen.getBanco());
+        setMoneda(almacen.getMoneda());
+    }
+
+    @Override
+    public String getNombre() {
+        return almacen.leerNombre(posicion);
+    }
+
+    // igual que en Cuenta, y ademas el diccionario de nombres del almacen no borra
+    @Override
+    public void setNombre(String nombre) {
+        if (!Objects.equals(getNombre(), nombre))
+            throw new IllegalStateException("No se puede cambiar el nombre de una cuenta registrada en un banco");
+    }
+
+    // en el almacen y no en la vista, sino otra vista de la misma cuenta no tendria las reglas
+    @Override
+    public void setReglas(ReglasDebito definicion) {
+        almacen.asignarReglas(posicion, definicion == null ? null : definicion.compilar(escalaReglas(definicion)));
+    }
+
+    @Override
+    public ReglasDebito getReglas() {
+        CadenaReglas compiladas = getReglasCompiladas();
+        return compiladas == null ? null : compiladas.getDefinicion();
+    }
+
+    @Override
+    public CadenaReglas getReglasCompiladas() {
+        return almacen.leerReglas(posicion);
+    }
+
+    @Override
+    protected long leerUnidades() {
+        return almacen.leerUnidades(posicion);
+    }
+
+    @Override
+    protected void asignarUnidades(long unidades) {
+        almacen.asignarUnidades(posicion, unidades);
+    }
+
+    // dos vistas de la misma cuenta son iguales aunque sean objetos distintos
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof CuentaColumnar otra && otra.almacen == almacen)
+            return otra.posicion == posicion;
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        String nombre = getNombre();
+        return nombre == null ? Integer.hashCode(posicion) : nombre.hashCode();
+    }
+}
@@ -0,0 +1,221 @@
+package com.sistemasactivos.junit.model;
+
+import com.sistemasactivos.junit.moneda.CacheTasas;
+import com.sistemasactivos.junit.reglas.ReglasDebito;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Cuenta en unidades minimas pensada para las cuentas "calientes" (comercios, tesoreria)
+ * que reciben una gran parte de todos los creditos del banco.
+ *
+ * El saldo se reparte en varias celdas, al estilo de LongAdder: cada hilo acredita en su
+ * propia celda con un compareAndSet, asi que los creditos de hilos distintos casi nunca
+ * compiten por la misma variable. getSaldo() suma todas las celdas, con lo cual el total
+ * es exacto (no hay redondeo ni aproximacion); con movimientos en curso es la suma de cada
+ * celda en el momento en que se leyo, igual que LongAdder.sum().
+ *
+ * Los debitos primero intentan restar de la celda del hilo. Si no alcanza, toman un lock
+ * propio de la cuenta, suman todas las celdas y, solo si el saldo alcanza, van "pidiendo
+ * prestado" a las otras celdas hasta juntar el monto. Ninguna celda baja nunca de 0, asi
+ * que el saldo total tampoco puede quedar negativo.
+ *
+ * Mientras se pide prestado el saldo pasa por valores que ningun movimiento produjo (lo
+ * ya juntado falta de las celdas). Para que getSaldo() no los vea, ese tramo cambia una
+ * version como las franjas del MotorTransferencias: impar mientras dura, y el que suma
+ * las celdas vuelve a sumar si la version era impar o cambio.
+ *
+ * Cada celda ocupa ESPACIADO posiciones del arreglo para que dos celdas no compartan la
+ * misma linea de cache (false sharing).
+ */
+public class CuentaFragmentada extends CuentaPuntoFijo {
+
+    // 16 longs = 128 bytes: una linea de cache mas la siguiente, que algunos procesadores traen juntas
+    private static final int ESPACIADO = 16;
+
+    private final AtomicLongArray celdas;
+    private final int mascara;
+    private final ReentrantLock bloqueoDebitos = new ReentrantLock();
+    // solo la cambia el que tiene bloqueoDebitos
+    private volatile long versionPrestamos;
+
+    public CuentaFragmentada(int escala) {
+        this(escala, Runtime.getRuntime().availableProcessors());
+    }
+
+    public CuentaFragmentada(int escala, int cantidadCeldas) {
+        super(escala);
+        if (cantidadCeldas <= 0)
+            throw new IllegalArgumentException("La cantidad de celdas debe ser positiva");
+
+        // redondeo a potencia de 2 para elegir la celda con una mascara, como en MotorTransferencias
+        int potencia = Integer.highestOneBit(cantidadCeldas);
+        if (potencia < cantidadCeldas)
+            potencia <<= 1;
+
+        this.celdas = new AtomicLongArray(potencia * ESPACIADO);
+        this.mascara = potencia - 1;
+    }
+
+    public CuentaFragmentada(Currency moneda) {
+        // misma escala que CuentaPuntoFijo(Currency), sino las conversiones no cuadran
+        this(CacheTasas.escala(moneda));
+        setMoneda(moneda);
+    }
+
+    public CuentaFragmentada(String nombre, BigDecimal saldo, int escala) {
+        this(escala);
+        setNombre(nombre);
+        setSaldo(saldo);
+    }
+
+    public CuentaFragmentada(String nombre, BigDecimal saldo, int escala, int cantidadCeldas) {
+        this(escala, cantidadCeldas);
+        setNombre(nombre);
+        setSaldo(saldo);
+    }
+
+    public int getCantidadCeldas() {
+        return mascara + 1;
+    }
+
+    @Override
+    protected boolean admiteCreditoSinBloqueo() {
+        return true;
+    }
+
+    @Override
+    protected long leerUnidades() {
+        while (true) {
+            long version = versionPrestamos;
+            if ((version & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long total = sumarCeldas();
+            if (versionPrestamos == version)
+                return total;
+        }
+    }
+
+    private long sumarCeldas() {
+        long total = 0;
+        for (int c = 0; c <= mascara; c++)
+            total = sumarExacto(total, celdas.get(c * ESPACIADO));
+        return total;
+    }
+
+    /*
+     * Deja todo el saldo en la primera celda. Solo se usa al crear o restaurar la cuenta,
+     * no es atomico respecto de los movimientos que esten en curso.
+     */
+    @Override
+    protected void asignarUnidades(long unidades) {
+        celdas.set(0, unidades);
+        for (int c = 1; c <= mascara; c++)
+            celdas.set(c * ESPACIADO, 0);
+    }
+
+    @Override
+    public void setReglas(ReglasDebito definicion) {
+        if (definicion != null && definicion.getDescubierto().signum() > 0)
+            throw new IllegalArgumentException("Una cuenta fragmentada no admite descubierto");
+        super.setReglas(definicion);
+    }
+
+    @Override
+    protected void aplicarCreditoUnidades(long monto) {
+        int posicion = celdaPropia() * ESPACIADO;
+        while (true) {
+            long actual = celdas.get(posicion);
+            if (celdas.compareAndSet(posicion, actual, sumarExacto(actual, monto)))
+                return;
+        }
+    }
+
+    /*
+     * Las celdas no pueden quedar negativas, asi que no hay descubierto: el piso siempre
+     * es 0 (setReglas no deja definir otro)
+     */
+    @Override
+    protected ResultadoDebito restarUnidades(long monto, long piso) {
+        // un debito negativo suma, igual que en CuentaPuntoFijo
+        if (monto <= 0) {
+            aplicarCreditoUnidades(restarExacto(0, monto));
+            return ResultadoDebito.APROBADO;
+        }
+
+        int propia = celdaPropia();
+        if (tomarDeCelda(propia, monto, false) == monto)
+            return ResultadoDebito.APROBADO;
+
+        /*
+         * La celda propia no alcanza. Con el lock, dos debitos no se pueden robar las
+         * celdas entre si a mitad de camino; los creditos siguen entrando sin esperar.
+         * Decido con la suma de todas las celdas antes de mover nada, asi un rechazo no
+         * toca el saldo
+         */
+        bloqueoDebitos.lock();
+        try {
+            if (sumarCeldas() < monto)
+                return ResultadoDebito.DINERO_INSUFICIENTE;
+
+            versionPrestamos++;
+            try {
+                /*
+                 * Los creditos solo suman, pero un debito que entra en su propia celda sin
+                 * el lock me puede ganar parte de lo que sume: recorro las celdas hasta
+                 * juntar el monto o hasta una vuelta en la que ninguna tenga nada
+                 */
+                long juntado = 0;
+                while (juntado < monto) {
+                    long vuelta = 0;
+                    for (int k = 0; k <= mascara && juntado + vuelta < monto; k++)
+                        vuelta += tomarDeCelda((propia + k) & mascara, monto - juntado - vuelta, true);
+                    if (vuelta == 0)
+                        break;
+                    juntado += vuelta;
+                }
+
+                if (juntado < monto) {
+                    // otros debitos se llevaron el saldo: devuelvo lo juntado con la version todavia impar
+                    if (juntado > 0)
+                        aplicarCreditoUnidades(juntado);
+                    return ResultadoDebito.DINERO_INSUFICIENTE;
+                }
+                return ResultadoDebito.APROBADO;
+            } finally {
+                versionPrestamos++;
+            }
+        } finally {
+            bloqueoDebitos.unlock();
+        }
+    }
+
+    /*
+     * Resta de la celda hasta "maximo" sin dejarla negativa y devuelve cuanto resto.
+     * Si parcial es false, solo resta si la celda tiene el monto completo.
+     */
+    private long tomarDeCelda(int celda, long maximo, boolean parcial) {
+        int posicion = celda * ESPACIADO;
+        while (true) {
+            long actual = celdas.get(posicion);
+            long tomado = Math.min(actual, maximo);
+            if (tomado <= 0 || (!parcial && tomado < maximo))
+                return 0;
+            if (celdas.compareAndSet(posicion, actual, actual - tomado))
+                return tomado;
+        }
+    }
+
+    private int celdaPropia() {
+        // mezclo los bits del id del hilo igual que MotorTransferencias con el identityHashCode
+        long id = Thread.currentThread().threadId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        h ^= (h >>> 16);
+        return h & mascara;
+    }
+}
@@ -0,0 +1,223 @@
+package com.sistemasactivos.junit.model;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.metricas.MetricasOperaciones;
+import com.sistemasactivos.junit.metricas.Operacion;
+import com.sistemasactivos.junit.moneda.CacheTasas;
+import com.sistemasactivos.junit.reglas.CadenaReglas;
+import com.sistemasactivos.junit.reglas.ReglasDebito;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+/*
+ * Cuenta que guarda el saldo como un long en unidades minimas (por ejemplo centavos)
+ * con una escala fija, en vez de un BigDecimal.
+ *
+ * Los metodos debitoUnidades() y creditoUnidades() no crean ningun objeto, asi que en
+ * el camino caliente no se genera basura para el GC. Los metodos debito() y credito()
+ * que reciben un BigDecimal siguen funcionando, pero tienen que convertir el monto.
+ *
+ * Hacia afuera getSaldo() sigue devolviendo un BigDecimal con la escala de la cuenta,
+ * y el valor es exactamente el mismo que daria una Cuenta comun con las mismas operaciones.
+ */
+public class CuentaPuntoFijo extends Cuenta {
+
+    private final int escala;
+    private volatile long unidades;
+
+    public CuentaPuntoFijo(int escala) {
+        if (escala < 0)
+            throw new IllegalArgumentException("La escala no puede ser negativa");
+        this.escala = escala;
+    }
+
+    public CuentaPuntoFijo(Currency moneda) {
+        // por ejemplo ARS y USD usan 2 decimales, JPY no usa decimales
+        this(CacheTasas.escala(moneda));
+        setMoneda(moneda);
+    }
+
+    public CuentaPuntoFijo(String nombre, BigDecimal saldo, int escala) {
+        this(escala);
+        setNombre(nombre);
+        setSaldo(saldo);
+    }
+
+    public int getEscala() {
+        return escala;
+    }
+
+    // los limites de las reglas se pasan a la escala de la cuenta, sin redondear
+    @Override
+    protected int escalaReglas(ReglasDebito definicion) {
+        return escala;
+    }
+
+    public long getUnidades() {
+        return leerUnidades();
+    }
+
+    @Override
+    public BigDecimal getSaldo() {
+        return BigDecimal.valueOf(leerUnidades(), escala);
+    }
+
+    @Override
+    public void setSaldo(BigDecimal saldo) {
+        asignarUnidades(aUnidades(saldo));
+    }
+
+    @Override
+    protected ResultadoDebito aplicarIntentoDebito(BigDecimal monto) {
+        return aplicarIntentoDebitoUnidades(aUnidades(monto));
+    }
+
+    @Override
+    protected void aplicarDebitoSinControl(BigDecimal monto) {
+        // sin piso: el saldo puede quedar tan negativo como lo dejo el debito original
+        if (restarUnidades(aUnidades(monto), Long.MIN_VALUE) != ResultadoDebito.APROBADO)
+            throw new IllegalStateException("La cuenta no admite el debito " + monto + " sin control de saldo");
+    }
+
+    @Override
+    protected void aplicarCredito(BigDecimal monto) {
+        aplicarCreditoUnidades(aUnidades(monto));
+    }
+
+    public void debitoUnidades(long monto) {
+        MetricasOperaciones metricas = MetricasOperaciones.global();
+        long inicio = metricas.inicio();
+
+        if (aplicarIntentoDebitoUnidades(monto) != ResultadoDebito.APROBADO) {
+            metricas.registrarRechazo();
+            throw new DineroInsuficienteException("Dinero insuficiente");
+        }
+        notificarUnidades(TipoMovimiento.DEBITO, monto);
+
+        metricas.registrar(Operacion.DEBITO, inicio);
+    }
+
+    /*
+     * Version sin excepcion ni objetos de debitoUnidades(), ni al aprobar ni al rechazar
+     */
+    public ResultadoDebito intentarDebitoUnidades(long monto) {
+        MetricasOperaciones metricas = MetricasOperaciones.global();
+        long inicio = metricas.inicio();
+
+        ResultadoDebito resultado = aplicarIntentoDebitoUnidades(monto);
+        if (resultado == ResultadoDebito.APROBADO)
+            notificarUnidades(TipoMovimiento.DEBITO, monto);
+        else
+            metricas.registrarRechazo();
+
+        metricas.registrar(Operacion.DEBITO, inicio);
+        return resultado;
+    }
+
+    public void creditoUnidades(long monto) {
+        MetricasOperaciones metricas = MetricasOperaciones.global();
+        long inicio = metricas.inicio();
+
+        aplicarCreditoUnidades(monto);
+        notificarUnidades(TipoMovimiento.CREDITO, monto);
+
+        metricas.registrar(Operacion.CREDITO, inicio);
+    }
+
+    /*
+     * leerUnidades() y asignarUnidades() son los unicos que tocan el campo unidades. Las
+     * subclases que guardan el saldo en otro lado (por ejemplo CuentaColumnar) solo
+     * sobreescriben esos dos; las que ademas cambian como se actualiza (por ejemplo
+     * CuentaAtomica) sobreescriben tambien restarUnidades() y aplicarCreditoUnidades().
+     */
+    protected long leerUnidades() {
+        return unidades;
+    }
+
+    protected void asignarUnidades(long unidades) {
+        this.unidades = unidades;
+    }
+
+    protected ResultadoDebito aplicarIntentoDebitoUnidades(long monto) {
+        CadenaReglas reglas = getReglasCompiladas();
+        if (reglas == null)
+            return restarUnidades(monto, 0);
+        // el mismo orden que en Cuenta, pero ya en unidades: no se crea ningun objeto
+        long piso = -reglas.getDescubiertoUnidades();
+        if (!reglas.tieneContadores())
+            return contarRechazo(reglas, restarUnidades(monto, piso));
+
+        reglas.bloquear();
+        try {
+            if (!reglas.admite(monto))
+                return ResultadoDebito.DINERO_INSUFICIENTE;
+            ResultadoDebito resultado = contarRechazo(reglas, restarUnidades(monto, piso));
+            if (resultado == ResultadoDebito.APROBADO)
+                reglas.registrar(monto);
+            return resultado;
+        } finally {
+            reglas.desbloquear();
+        }
+    }
+
+    /*
+     * Resta el monto si el saldo no queda por debajo del piso: 0, o -descubierto si la
+     * cuenta tiene reglas. Las subclases que cambian como se actualiza el saldo
+     * sobreescriben este y no aplicarIntentoDebitoUnidades(), que evalua las reglas
+     */
+    protected ResultadoDebito restarUnidades(long monto, long piso) {
+        long nuevoSaldo = restarExacto(leerUnidades(), monto);
+
+        // misma regla que en Cuenta: el saldo no puede quedar por debajo del piso
+        if (nuevoSaldo < piso)
+            return ResultadoDebito.DINERO_INSUFICIENTE;
+
+        asignarUnidades(nuevoSaldo);
+        return ResultadoDebito.APROBADO;
+    }
+
+    protected void aplicarCreditoUnidades(long monto) {
+        asignarUnidades(sumarExacto(leerUnidades(), monto));
+    }
+
+    protected static long restarExacto(long saldo, long monto) {
+        try {
+            return Math.subtractExact(saldo, monto);
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("Desbordamiento del saldo de la cuenta");
+        }
+    }
+
+    protected static long sumarExacto(long saldo, long monto) {
+        try {
+            return Math.addExact(saldo, monto);
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("Desbordamiento del saldo de la cuenta");
+        }
+    }
+
+    private void notificarUnidades(TipoMovimiento tipo, long monto) {
+        Banco banco = getBanco();
+        if (banco == null)
+            return;
+
+        banco.getMotor().marcarModificada(this);
+        // solo creo el BigDecimal si hay alguien escuchando los movimientos
+        if (banco.tieneObservadores())
+            banco.notificarMovimiento(this, tipo, BigDecimal.valueOf(monto, escala));
+    }
+
+    /*
+     * Convierte un BigDecimal a unidades minimas. Si el monto tiene mas decimales que la
+     * escala de la cuenta no redondeo: lanzo ArithmeticException, porque el resultado ya
+     * no seria igual al que daria la cuenta con BigDecimal.
+     */
+    public long aUnidades(BigDecimal monto) {
+        try {
+            return monto.setScale(escala).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("El monto " + monto + " no se puede representar con escala " + escala);
+        }
+    }
+}
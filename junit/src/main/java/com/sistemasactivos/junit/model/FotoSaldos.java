@@ -0,0 +1,583 @@
+package com.sistemasactivos.junit.model;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongSupplier;
+
+/*
+ * Copia de los saldos de todas las cuentas de un banco en arreglos de primitivos, para
+ * calcular totales y distribuciones sobre millones de cuentas.
+ *
+ * Recorrer las cuentas es saltar de objeto en objeto por todo el heap (Cuenta, BigDecimal,
+ * BigInteger...). Por eso primero se copian, en paralelo, el id, el saldo sin escala y la
+ * escala de cada cuenta a "tramos" de arreglos contiguos; despues los calculos recorren
+ * esos arreglos, que es mucho mas amigable con el cache del procesador.
+ *
+ * La copia se reparte con el Spliterator de las cuentas del almacen en un ForkJoinPool:
+ * cada hoja del arbol de tareas copia un pedazo a su propio tramo. Los saldos que no
+ * entran en un long se guardan aparte como BigDecimal.
+ *
+ * Las sumas son exactas: se acumulan en long a la escala mas grande de todas las cuentas
+ * y, si un long se desborda, lo que sobra pasa a un BigInteger.
+ */
+public class FotoSaldos {
+
+    // tamano aproximado de cada tramo, suficiente para que repartir el trabajo no cueste mas que hacerlo
+    private static final int UMBRAL_TRAMO = 1 << 16;
+
+    // pasadas que solo vuelven a copiar las franjas que cambiaron, antes de bloquearlas
+    private static final int INTENTOS_OPTIMISTAS = 8;
+
+    // marca de las cuentas que reciben creditos sin bloquear ninguna franja
+    private static final int SIN_FRANJA = -1;
+
+    // la distribucion cuenta los saldos por cantidad de digitos de la parte entera: 0, 1, 2 ... 19 o mas
+    public static final int DIGITOS_DISTRIBUCION = 20;
+
+    private static final long[] POTENCIAS_10 = new long[19];
+
+    static {
+        POTENCIAS_10[0] = 1;
+        for (int i = 1; i < POTENCIAS_10.length; i++)
+            POTENCIAS_10[i] = POTENCIAS_10[i - 1] * 10;
+    }
+
+    private final List<Tramo> tramos;
+    private final ForkJoinPool pool;
+    private final int escala;
+    // lo que devolvio la lectura adjunta de capturarCorte(), o -1
+    private final long posicion;
+
+    private FotoSaldos(List<Tramo> tramos, ForkJoinPool pool, long posicion) {
+        this.tramos = tramos;
+        this.pool = pool;
+        this.posicion = posicion;
+        int maxima = 0;
+        for (Tramo tramo : tramos)
+            maxima = Math.max(maxima, tramo.escalaMaxima);
+        this.escala = maxima;
+    }
+
+    /*
+     * Copia los saldos tal como estan, sin coordinarse con las transferencias: para un
+     * corte consistente hay que llamarlo dentro de conTodoBloqueado(), o usar
+     * capturarConsistente() como hace Banco.fotografiarSaldos()
+     */
+    public static FotoSaldos capturar(Banco banco) {
+        return capturar(banco, ForkJoinPool.commonPool());
+    }
+
+    /*
+     * Si el hilo tiene bloqueadas las franjas del motor (conTodoBloqueado) la copia se hace
+     * en este mismo hilo: los hilos del pool pueden estar ejecutando lotes de transferencias
+     * que esperan esas franjas, y esperarlos seria un deadlock
+     */
+    public static FotoSaldos capturar(Banco banco, ForkJoinPool pool) {
+        return new FotoSaldos(copiar(banco, pool, null, false), pool, -1);
+    }
+
+    static FotoSaldos capturarConsistente(Banco banco) {
+        return capturarConsistente(banco, ForkJoinPool.commonPool());
+    }
+
+    /*
+     * Copia consistente sin frenar a todo el banco, para Banco.fotografiarSaldos().
+     *
+     * Anoto la version de cada franja del motor, copio en paralelo como capturar() y
+     * despues vuelvo a mirar las versiones. Solo se vuelven a copiar, en este hilo, las
+     * cuentas de las franjas que cambiaron, hasta que una pasada encuentra todas las
+     * versiones iguales a las anotadas. Las versiones solo crecen, asi que al empezar esa
+     * pasada cada franja sigue como cuando se copio, ninguna transferencia esta a medias
+     * (alguna de sus franjas seria impar) y la foto es un corte consistente.
+     *
+     * Si despues de varias pasadas algunas franjas siguen cambiando, bloqueo solo esas y
+     * las copio con el lock; las demas se siguen validando por version. La copia en
+     * paralelo nunca corre con una franja bloqueada, asi que no puede quedar esperando a
+     * los hilos del pool (ver capturar())
+     */
+    static FotoSaldos capturarConsistente(Banco banco, ForkJoinPool pool) {
+        return capturarConsistente(banco, pool, null, false);
+    }
+
+    /*
+     * Corte consistente para guardar o comparar el banco entero (InstantaneaBanco,
+     * ConciliacionDiario): como capturarConsistente(), pero los tramos se quedan con las
+     * cuentas (ver Tramo.getCuenta()), incluidas las que no tienen saldo, y ademas se lee
+     * "posicion" (por ejemplo el tamano del diario) dentro de la misma validacion por
+     * version. Lo que se escribe en el diario con las franjas bloqueadas, como las
+     * transferencias del motor, queda antes de la posicion si y solo si esta en los saldos
+     */
+    public static FotoSaldos capturarCorte(Banco banco, LongSupplier posicion) {
+        return capturarConsistente(banco, ForkJoinPool.commonPool(), posicion, true);
+    }
+
+    // lo mismo pero sin quedarse con las cuentas, cuando alcanza con los ids y los saldos
+    public static FotoSaldos capturarConsistente(Banco banco, LongSupplier posicion) {
+        return capturarConsistente(banco, ForkJoinPool.commonPool(), posicion, false);
+    }
+
+    private static FotoSaldos capturarConsistente(Banco banco, ForkJoinPool pool, LongSupplier posicion, boolean conCuentas) {
+        MotorTransferencias motor = banco.getMotor();
+        long[] anotadas = new long[motor.cantidadFranjas()];
+        for (int f = 0; f < anotadas.length; f++)
+            anotadas[f] = motor.version(f);
+        List<Tramo> tramos = copiar(banco, pool, motor, conCuentas);
+
+        boolean[] cambiadas = new boolean[anotadas.length];
+        for (int intento = 0; intento < INTENTOS_OPTIMISTAS; intento++) {
+            // la posicion se lee antes de validar, igual que los saldos
+            long leida = posicion == null ? -1 : posicion.getAsLong();
+            if (!buscarCambiadas(motor, anotadas, cambiadas, null))
+                return terminar(tramos, pool, leida, conCuentas);
+            recopiar(tramos, cambiadas);
+        }
+
+        // siguen cambiando: las bloqueo (en orden, como el motor) y las copio con el lock
+        boolean[] bloqueadas = new boolean[anotadas.length];
+        while (true) {
+            int cantidad = 0;
+            for (int f = 0; f < bloqueadas.length; f++) {
+                bloqueadas[f] |= cambiadas[f];
+                if (bloqueadas[f])
+                    cantidad++;
+            }
+            int[] indices = new int[cantidad];
+            for (int f = 0, k = 0; f < bloqueadas.length; f++)
+                if (bloqueadas[f])
+                    indices[k++] = f;
+
+            motor.bloquearFranjas(indices);
+            try {
+                recopiar(tramos, bloqueadas);
+                long leida = posicion == null ? -1 : posicion.getAsLong();
+                if (!buscarCambiadas(motor, anotadas, cambiadas, bloqueadas))
+                    return terminar(tramos, pool, leida, conCuentas);
+            } finally {
+                motor.desbloquearFranjas(indices);
+            }
+        }
+    }
+
+    /*
+     * Marca las franjas cuya version no es la anotada, o que tenian una escritura en curso
+     * (version impar), y anota la version nueva. Las bloqueadas no se miran
+     */
+    private static boolean buscarCambiadas(MotorTransferencias motor, long[] anotadas, boolean[] cambiadas, boolean[] bloqueadas) {
+        boolean alguna = false;
+        for (int f = 0; f < anotadas.length; f++) {
+            if (bloqueadas != null && bloqueadas[f]) {
+                cambiadas[f] = false;
+                continue;
+            }
+            long version = motor.version(f);
+            cambiadas[f] = (anotadas[f] & 1) != 0 || version != anotadas[f];
+            anotadas[f] = version;
+            alguna |= cambiadas[f];
+        }
+        if (alguna)
+            // puede haber una transferencia a medias, le doy tiempo a que termine
+            Thread.onSpinWait();
+        return alguna;
+    }
+
+    private static void recopiar(List<Tramo> tramos, boolean[] franjas) {
+        for (Tramo tramo : tramos)
+            tramo.recopiar(franjas);
+    }
+
+    // la foto ya es consistente: suelto las cuentas, que solo hacian falta para recopiar
+    private static FotoSaldos terminar(List<Tramo> tramos, ForkJoinPool pool, long posicion, boolean conCuentas) {
+        for (Tramo tramo : tramos)
+            tramo.soltarCuentas(conCuentas);
+        return new FotoSaldos(tramos, pool, posicion);
+    }
+
+    /*
+     * Con motor, ademas de los saldos cada tramo guarda la cuenta y su franja, para poder
+     * volver a copiar solo las de una franja
+     */
+    private static List<Tramo> copiar(Banco banco, ForkJoinPool pool, MotorTransferencias motor, boolean conCuentas) {
+        Spliterator<Cuenta> cuentas = banco.getAlmacen().valores().spliterator();
+        if (banco.getMotor().bloqueaAlgunaFranja())
+            return capturarEnEsteHilo(cuentas, motor, conCuentas);
+        return pool.invoke(new TareaCaptura(cuentas, motor, conCuentas));
+    }
+
+    // mismos tramos que TareaCaptura, asi resumir() despues igual se reparte en paralelo
+    private static List<Tramo> capturarEnEsteHilo(Spliterator<Cuenta> cuentas, MotorTransferencias motor, boolean conCuentas) {
+        List<Tramo> tramos = new ArrayList<>();
+        Tramo tramo = new Tramo(UMBRAL_TRAMO, motor, conCuentas);
+        tramos.add(tramo);
+        int copiadas = 0;
+        while (cuentas.tryAdvance(tramo::agregar)) {
+            if (++copiadas == UMBRAL_TRAMO) {
+                tramo = new Tramo(UMBRAL_TRAMO, motor, conCuentas);
+                tramos.add(tramo);
+                copiadas = 0;
+            }
+        }
+        return tramos;
+    }
+
+    public long getCantidad() {
+        long cantidad = 0;
+        for (Tramo tramo : tramos)
+            cantidad += tramo.cantidad;
+        return cantidad;
+    }
+
+    public List<Tramo> getTramos() {
+        return tramos;
+    }
+
+    public long getPosicion() {
+        return posicion;
+    }
+
+    public ResumenSaldos resumir() {
+        Acumulador acumulador = pool.invoke(new TareaResumen(0, tramos.size()));
+        return acumulador.resumen(escala);
+    }
+
+    /*
+     * Pedazo contiguo de la foto. Las cuentas sin saldo (null) no se copian, salvo en un
+     * corte (capturarCorte()), donde getSaldo() devuelve null y resumir() las saltea.
+     */
+    public static class Tramo {
+        private long[] ids;
+        private long[] unidades;
+        private int[] escalas;
+        private int cantidad;
+        private int escalaMaxima;
+        // saldos que no entran en un long, por posicion dentro del tramo
+        private Map<Integer, BigDecimal> grandes;
+        // solo mientras se arma una foto consistente: la franja y la cuenta de cada posicion
+        private final MotorTransferencias motor;
+        private final boolean conCuentas;
+        private int[] franjas;
+        private Cuenta[] cuentas;
+
+        Tramo(int capacidad, MotorTransferencias motor) {
+            this(capacidad, motor, false);
+        }
+
+        Tramo(int capacidad, MotorTransferencias motor, boolean conCuentas) {
+            ids = new long[capacidad];
+            unidades = new long[capacidad];
+            escalas = new int[capacidad];
+            this.motor = motor;
+            this.conCuentas = conCuentas;
+            if (motor != null) {
+                franjas = new int[capacidad];
+                cuentas = new Cuenta[capacidad];
+            }
+        }
+
+        public int getCantidad() {
+            return cantidad;
+        }
+
+        public long getId(int i) {
+            return ids[i];
+        }
+
+        public BigDecimal getSaldo(int i) {
+            if (grandes != null && grandes.containsKey(i))
+                return grandes.get(i);
+            return BigDecimal.valueOf(unidades[i], escalas[i]);
+        }
+
+        // solo en un corte; en las otras fotos las cuentas se sueltan al terminar
+        public Cuenta getCuenta(int i) {
+            if (cuentas == null)
+                throw new IllegalStateException("La foto no guarda las cuentas, hay que tomarla con capturarCorte()");
+            return cuentas[i];
+        }
+
+        void agregar(Cuenta cuenta) {
+            if (cantidad == ids.length) {
+                int capacidad = Math.max(16, cantidad * 2);
+                ids = Arrays.copyOf(ids, capacidad);
+                unidades = Arrays.copyOf(unidades, capacidad);
+                escalas = Arrays.copyOf(escalas, capacidad);
+                if (motor != null) {
+                    franjas = Arrays.copyOf(franjas, capacidad);
+                    cuentas = Arrays.copyOf(cuentas, capacidad);
+                }
+            }
+            if (!escribir(cantidad, cuenta))
+                return;
+
+            ids[cantidad] = cuenta.getId() == null ? 0 : cuenta.getId();
+            if (motor != null) {
+                /*
+                 * Los creditos a una cuenta que no bloquea su franja cambian la version de
+                 * la franja del origen, que puede ser cualquiera: esas cuentas se vuelven a
+                 * copiar siempre que cambie alguna franja
+                 */
+                franjas[cantidad] = cuenta.admiteCreditoSinBloqueo() ? SIN_FRANJA : motor.indiceFranja(cuenta);
+                cuentas[cantidad] = cuenta;
+            }
+            cantidad++;
+        }
+
+        // vuelve a copiar el saldo de las cuentas de las franjas marcadas
+        void recopiar(boolean[] marcadas) {
+            for (int i = 0; i < cantidad; i++) {
+                int franja = franjas[i];
+                if (franja == SIN_FRANJA || marcadas[franja])
+                    escribir(i, cuentas[i]);
+            }
+        }
+
+        void soltarCuentas(boolean conservarCuentas) {
+            franjas = null;
+            if (!conservarCuentas)
+                cuentas = null;
+        }
+
+        // copia el saldo de la cuenta a la posicion; devuelve false si la cuenta no tiene saldo
+        private boolean escribir(int posicion, Cuenta cuenta) {
+            long unidadesCuenta;
+            int escalaCuenta;
+            BigDecimal grande = null;
+
+            // la cuenta de punto fijo ya tiene el saldo como long, sin crear ningun objeto
+            if (cuenta instanceof CuentaPuntoFijo fija) {
+                unidadesCuenta = fija.getUnidades();
+                escalaCuenta = fija.getEscala();
+            } else {
+                BigDecimal saldo = cuenta.getSaldo();
+                if (saldo == null && !conCuentas)
+                    return false;
+                if (saldo == null) {
+                    // en un corte la cuenta queda igual, con el saldo en null entre los grandes
+                    if (grandes == null)
+                        grandes = new HashMap<>();
+                    grandes.put(posicion, null);
+                    unidades[posicion] = 0;
+                    escalas[posicion] = 0;
+                    return true;
+                }
+                BigInteger sinEscala = saldo.unscaledValue();
+                if (sinEscala.bitLength() < 64 && saldo.scale() >= 0) {
+                    unidadesCuenta = sinEscala.longValue();
+                    escalaCuenta = saldo.scale();
+                } else {
+                    unidadesCuenta = 0;
+                    escalaCuenta = 0;
+                    grande = saldo;
+                }
+            }
+
+            if (grande != null) {
+                if (grandes == null)
+                    grandes = new HashMap<>();
+                grandes.put(posicion, grande);
+            } else if (grandes != null) {
+                grandes.remove(posicion);
+            }
+            unidades[posicion] = unidadesCuenta;
+            escalas[posicion] = escalaCuenta;
+            escalaMaxima = Math.max(escalaMaxima, escalaCuenta);
+            return true;
+        }
+    }
+
+    private static class TareaCaptura extends RecursiveTask<List<Tramo>> {
+        private final Spliterator<Cuenta> cuentas;
+        private final MotorTransferencias motor;
+        private final boolean conCuentas;
+
+        TareaCaptura(Spliterator<Cuenta> cuentas, MotorTransferencias motor, boolean conCuentas) {
+            this.cuentas = cuentas;
+            this.motor = motor;
+            this.conCuentas = conCuentas;
+        }
+
+        @Override
+        protected List<Tramo> compute() {
+            Spliterator<Cuenta> mitad;
+            if (cuentas.estimateSize() > UMBRAL_TRAMO && (mitad = cuentas.trySplit()) != null) {
+                TareaCaptura izquierda = new TareaCaptura(mitad, motor, conCuentas);
+                izquierda.fork();
+                List<Tramo> derecha = new TareaCaptura(cuentas, motor, conCuentas).compute();
+                List<Tramo> resultado = new ArrayList<>(izquierda.join());
+                resultado.addAll(derecha);
+                return resultado;
+            }
+
+            Tramo tramo = new Tramo((int) Math.min(cuentas.estimateSize() + 16, Integer.MAX_VALUE - 8), motor, conCuentas);
+            cuentas.forEachRemaining(tramo::agregar);
+            return List.of(tramo);
+        }
+    }
+
+    private class TareaResumen extends RecursiveTask<Acumulador> {
+        private final int desde;
+        private final int hasta;
+
+        TareaResumen(int desde, int hasta) {
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected Acumulador compute() {
+            if (hasta - desde <= 1) {
+                Acumulador acumulador = new Acumulador();
+                if (desde < hasta)
+                    acumulador.acumular(tramos.get(desde), escala);
+                return acumulador;
+            }
+
+            int medio = (desde + hasta) >>> 1;
+            TareaResumen izquierda = new TareaResumen(desde, medio);
+            izquierda.fork();
+            Acumulador derecha = new TareaResumen(medio, hasta).compute();
+            return izquierda.join().combinar(derecha);
+        }
+    }
+
+    /*
+     * Resultados parciales de un resumen. Los saldos que entran en un long a la escala de
+     * la foto van por el camino rapido; el resto (muy grandes o con mucha escala) se suma
+     * con BigDecimal.
+     */
+    private static class Acumulador {
+        private long cantidad;
+        private long suma;
+        private BigInteger excedente = BigInteger.ZERO;
+        private BigDecimal sumaLenta = BigDecimal.ZERO;
+        private long minimo = Long.MAX_VALUE;
+        private long maximo = Long.MIN_VALUE;
+        private BigDecimal minimoLento;
+        private BigDecimal maximoLento;
+        private long negativos;
+        private final long[] distribucion = new long[DIGITOS_DISTRIBUCION];
+
+        void acumular(Tramo tramo, int escala) {
+            long[] unidades = tramo.unidades;
+            int[] escalas = tramo.escalas;
+
+            for (int i = 0; i < tramo.cantidad; i++) {
+                if (tramo.grandes != null && tramo.grandes.containsKey(i)) {
+                    // las cuentas sin saldo de un corte no cuentan
+                    BigDecimal grande = tramo.grandes.get(i);
+                    if (grande != null)
+                        acumularLento(grande);
+                    continue;
+                }
+
+                int diferencia = escala - escalas[i];
+                long valor;
+                if (diferencia == 0) {
+                    valor = unidades[i];
+                } else if (diferencia < POTENCIAS_10.length && escala < POTENCIAS_10.length) {
+                    long potencia = POTENCIAS_10[diferencia];
+                    if (unidades[i] > Long.MAX_VALUE / potencia || unidades[i] < Long.MIN_VALUE / potencia) {
+                        acumularLento(BigDecimal.valueOf(unidades[i], escalas[i]));
+                        continue;
+                    }
+                    valor = unidades[i] * potencia;
+                } else {
+                    acumularLento(BigDecimal.valueOf(unidades[i], escalas[i]));
+                    continue;
+                }
+                acumularRapido(valor, escala);
+            }
+        }
+
+        private void acumularRapido(long valor, int escala) {
+            cantidad++;
+            long nueva = suma + valor;
+            // desborde: los dos sumandos tienen el mismo signo y el resultado otro
+            if (((suma ^ nueva) & (valor ^ nueva)) < 0) {
+                excedente = excedente.add(BigInteger.valueOf(suma));
+                nueva = valor;
+            }
+            suma = nueva;
+
+            minimo = Math.min(minimo, valor);
+            maximo = Math.max(maximo, valor);
+
+            if (valor < 0) {
+                negativos++;
+            } else if (escala < POTENCIAS_10.length) {
+                distribucion[digitos(valor / POTENCIAS_10[escala])]++;
+            } else {
+                distribucion[digitos(BigDecimal.valueOf(valor, escala))]++;
+            }
+        }
+
+        private void acumularLento(BigDecimal saldo) {
+            cantidad++;
+            sumaLenta = sumaLenta.add(saldo);
+            minimoLento = minimoLento == null || saldo.compareTo(minimoLento) < 0 ? saldo : minimoLento;
+            maximoLento = maximoLento == null || saldo.compareTo(maximoLento) > 0 ? saldo : maximoLento;
+            if (saldo.signum() < 0)
+                negativos++;
+            else
+                distribucion[digitos(saldo)]++;
+        }
+
+        Acumulador combinar(Acumulador otro) {
+            cantidad += otro.cantidad;
+            excedente = excedente.add(otro.excedente);
+            long nueva = suma + otro.suma;
+            if (((suma ^ nueva) & (otro.suma ^ nueva)) < 0) {
+                excedente = excedente.add(BigInteger.valueOf(suma));
+                nueva = otro.suma;
+            }
+            suma = nueva;
+            sumaLenta = sumaLenta.add(otro.sumaLenta);
+            minimo = Math.min(minimo, otro.minimo);
+            maximo = Math.max(maximo, otro.maximo);
+            if (otro.minimoLento != null)
+                minimoLento = minimoLento == null || otro.minimoLento.compareTo(minimoLento) < 0 ? otro.minimoLento : minimoLento;
+            if (otro.maximoLento != null)
+                maximoLento = maximoLento == null || otro.maximoLento.compareTo(maximoLento) > 0 ? otro.maximoLento : maximoLento;
+            negativos += otro.negativos;
+            for (int d = 0; d < distribucion.length; d++)
+                distribucion[d] += otro.distribucion[d];
+            return this;
+        }
+
+        ResumenSaldos resumen(int escala) {
+            BigDecimal total = new BigDecimal(excedente.add(BigInteger.valueOf(suma)), escala).add(sumaLenta);
+
+            BigDecimal minimoTotal = minimo == Long.MAX_VALUE ? null : BigDecimal.valueOf(minimo, escala);
+            if (minimoLento != null && (minimoTotal == null || minimoLento.compareTo(minimoTotal) < 0))
+                minimoTotal = minimoLento;
+            BigDecimal maximoTotal = maximo == Long.MIN_VALUE ? null : BigDecimal.valueOf(maximo, escala);
+            if (maximoLento != null && (maximoTotal == null || maximoLento.compareTo(maximoTotal) > 0))
+                maximoTotal = maximoLento;
+
+            return new ResumenSaldos(cantidad, total, minimoTotal, maximoTotal, negativos, distribucion.clone());
+        }
+
+        private static int digitos(long entero) {
+            int digitos = 0;
+            while (entero > 0 && digitos < DIGITOS_DISTRIBUCION - 1) {
+                entero /= 10;
+                digitos++;
+            }
+            return digitos;
+        }
+
+        private static int digitos(BigDecimal saldo) {
+            BigInteger entero = saldo.toBigInteger();
+            if (entero.signum() == 0)
+                return 0;
+            return Math.min(entero.toString().length(), DIGITOS_DISTRIBUCION - 1);
+        }
+    }
+}
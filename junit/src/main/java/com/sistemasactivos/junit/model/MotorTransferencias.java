@@ -0,0 +1,488 @@
+package com.sistemasactivos.junit.model;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.metricas.MetricasOperaciones;
+import com.sistemasactivos.junit.metricas.Operacion;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/*
+ * Motor que ejecuta las transferencias entre cuentas de forma segura entre hilos.
+ *
+ * En vez de un unico lock global, las cuentas se reparten en "franjas" (lock striping):
+ * cada cuenta cae en una franja y cada franja tiene su propio lock. Dos transferencias
+ * sobre cuentas de franjas distintas corren en paralelo sin molestarse.
+ *
+ * Para evitar deadlocks, los locks siempre se toman en el mismo orden (de menor a mayor
+ * indice de franja). Si origen y destino caen en la misma franja se toma un solo lock.
+ * Si el destino admite creditos sin bloqueo (ver Cuenta.admiteCreditoSinBloqueo()) y el
+ * banco no tiene observadores, solo se bloquea la franja del origen.
+ *
+ * Los lotes se separan en grupos de transferencias que no comparten cuentas y cada
+ * grupo se ejecuta en un ForkJoinPool. Dentro de un grupo se respeta el orden del lote.
+ *
+ * Ademas cada franja tiene una version, como un seqlock: la transferencia la incrementa
+ * al empezar (queda impar) y al terminar (queda par). Un lector anota las versiones de
+ * las franjas que le interesan, lee los saldos y vuelve a mirar las versiones; si no
+ * cambiaron y eran pares, ninguna transferencia quedo a medias en lo que leyo. Asi las
+ * consultas no bloquean a las transferencias (ver leerConsistente()).
+ */
+public class MotorTransferencias {
+
+    // por debajo de esta cantidad de grupos una tarea del lote ya no se divide
+    private static final int UMBRAL_GRUPOS = 32;
+
+    // despues de tantos intentos fallidos el lector bloquea las franjas, para no esperar para siempre
+    private static final int MAXIMO_INTENTOS_LECTURA = 8;
+
+    // cada version ocupa 16 longs para que dos franjas no compartan linea de cache
+    private static final int ESPACIADO = 16;
+
+    private final ReentrantLock[] franjas;
+    private final AtomicLongArray versiones;
+    private final int mascara;
+    private final ForkJoinPool pool;
+
+    public MotorTransferencias() {
+        // 4 franjas por procesador es suficiente para que las colisiones sean raras
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public MotorTransferencias(int cantidadFranjas) {
+        this(cantidadFranjas, ForkJoinPool.commonPool());
+    }
+
+    public MotorTransferencias(int cantidadFranjas, ForkJoinPool pool) {
+        if (cantidadFranjas <= 0)
+            throw new IllegalArgumentException("La cantidad de franjas debe ser positiva");
+
+        // redondeo a potencia de 2 para poder calcular el indice con una mascara
+        int potencia = Integer.highestOneBit(cantidadFranjas);
+        if (potencia < cantidadFranjas)
+            potencia <<= 1;
+
+        this.franjas = new ReentrantLock[potencia];
+        for (int i = 0; i < potencia; i++)
+            franjas[i] = new ReentrantLock();
+        this.versiones = new AtomicLongArray(potencia * ESPACIADO);
+        this.mascara = potencia - 1;
+        this.pool = pool;
+    }
+
+    public void transferir(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        transferir(origen, destino, monto, monto);
+    }
+
+    public void transferir(Cuenta origen, Cuenta destino, BigDecimal monto, BigDecimal montoDestino) {
+        if (intentarTransferir(origen, destino, monto, montoDestino) != ResultadoDebito.APROBADO)
+            throw new DineroInsuficienteException("Dinero insuficiente");
+    }
+
+    /*
+     * Igual que transferir() pero si no alcanza el saldo devuelve DINERO_INSUFICIENTE
+     * en vez de lanzar una excepcion
+     */
+    public ResultadoDebito intentarTransferir(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        return intentarTransferir(origen, destino, monto, monto);
+    }
+
+    /*
+     * Debita monto del origen y acredita montoDestino al destino, que es distinto cuando
+     * las cuentas tienen distinta moneda. La conversion la hace el banco antes de llamar,
+     * asi que dentro de los locks no se busca ninguna tasa
+     */
+    public ResultadoDebito intentarTransferir(Cuenta origen, Cuenta destino, BigDecimal monto, BigDecimal montoDestino) {
+        MetricasOperaciones metricas = MetricasOperaciones.global();
+        long inicio = metricas.inicio();
+
+        Banco banco = origen.getBanco() != null ? origen.getBanco() : destino.getBanco();
+        boolean conObservadores = banco != null && banco.tieneObservadores();
+
+        int i = indiceFranja(origen);
+        /*
+         * Con i == j se toma un solo lock, que es justo lo que hace falta si el destino no lo
+         * necesita. Pero si hay observadores bloqueo igual el destino: si un observador falla
+         * hay que poder deshacer el credito sin que otro debito ya lo haya gastado, y asi los
+         * movimientos del destino tambien llegan en orden
+         */
+        int j = destino.admiteCreditoSinBloqueo() && !conObservadores ? i : indiceFranja(destino);
+
+        // siempre bloqueo primero la franja de menor indice
+        ReentrantLock primero = franjas[Math.min(i, j)];
+        ReentrantLock segundo = franjas[Math.max(i, j)];
+
+        bloquear(primero, metricas);
+        try {
+            if (i != j)
+                bloquear(segundo, metricas);
+            /*
+             * Un observador que se agrego mientras esperaba el lock ya puede haber tomado su
+             * corte de los saldos (ver PublicadorEventos): esta transferencia le tiene que
+             * llegar. En ese caso raro un destino sin bloqueo se avisa sin su franja
+             */
+            if (!conObservadores && banco != null && banco.tieneObservadores())
+                conObservadores = true;
+            // solo cambio la version de las franjas que tengo bloqueadas
+            abrirEscritura(i);
+            if (i != j)
+                abrirEscritura(j);
+            try {
+                ResultadoDebito resultado = origen.aplicarIntentoDebito(monto);
+                if (resultado != ResultadoDebito.APROBADO) {
+                    metricas.registrarRechazo();
+                    metricas.registrar(Operacion.TRANSFERENCIA, inicio);
+                    return resultado;
+                }
+
+                try {
+                    destino.aplicarCredito(montoDestino);
+                } catch (RuntimeException e) {
+                    // si el credito falla devuelvo el dinero para que el par debito/credito sea atomico
+                    origen.aplicarCredito(monto);
+                    throw e;
+                }
+
+                /*
+                 * Aviso dentro del lock, asi los observadores ven los movimientos de cada cuenta
+                 * en orden y un corte tomado con las franjas quietas incluye el registro del
+                 * diario. Si un observador falla (por ejemplo el diario esta cerrado) deshago la
+                 * transferencia: la excepcion tiene que querer decir que no se hizo
+                 */
+                if (conObservadores) {
+                    try {
+                        notificarTransferencia(banco, origen, destino, monto, montoDestino);
+                    } catch (RuntimeException e) {
+                        destino.aplicarDebitoSinControl(montoDestino);
+                        origen.aplicarCredito(monto);
+                        throw e;
+                    }
+                }
+            } finally {
+                if (i != j) {
+                    cerrarEscritura(j);
+                    segundo.unlock();
+                }
+                cerrarEscritura(i);
+            }
+        } finally {
+            primero.unlock();
+        }
+
+        /*
+         * La transferencia ya esta hecha y avisada. Recien ahora, sin ninguna franja
+         * bloqueada, los observadores pueden esperar al disco (ver DiarioMovimientos):
+         * un fsync dentro del lock haria esperar a todas las transferencias de la franja
+         */
+        if (conObservadores)
+            banco.persistirMovimientos();
+        metricas.registrar(Operacion.TRANSFERENCIA, inicio);
+        return ResultadoDebito.APROBADO;
+    }
+
+    private void abrirEscritura(int franja) {
+        versiones.getAndIncrement(franja * ESPACIADO);
+    }
+
+    private void cerrarEscritura(int franja) {
+        versiones.getAndIncrement(franja * ESPACIADO);
+    }
+
+    /*
+     * Los debitos y creditos hechos directo sobre una cuenta, fuera del motor, no toman
+     * el lock de la franja. Igual avisan que cambio el saldo sumando 2 a la version (asi
+     * no cambia la paridad), para que los lectores y el CacheSaldos no se queden con un
+     * valor viejo. Las cuentas que admiten creditos sin bloqueo no avisan: sus creditos
+     * tienen que poder correr sin tocar nada compartido.
+     */
+    void marcarModificada(Cuenta cuenta) {
+        if (!cuenta.admiteCreditoSinBloqueo())
+            versiones.getAndAdd(indiceFranja(cuenta) * ESPACIADO, 2);
+    }
+
+    long version(int franja) {
+        return versiones.get(franja * ESPACIADO);
+    }
+
+    /*
+     * Lee los saldos de las cuentas como si todas las transferencias del motor fueran
+     * atomicas: nunca se ve el debito de una transferencia sin su credito.
+     */
+    public BigDecimal[] leerSaldos(List<Cuenta> cuentas) {
+        int[] indices = new int[cuentas.size()];
+        for (int c = 0; c < indices.length; c++)
+            indices[c] = indiceFranja(cuentas.get(c));
+        int[] franjasLeidas = Arrays.stream(indices).distinct().sorted().toArray();
+
+        BigDecimal[] saldos = new BigDecimal[indices.length];
+        return leerConsistente(franjasLeidas, MAXIMO_INTENTOS_LECTURA, () -> {
+            for (int c = 0; c < saldos.length; c++)
+                saldos[c] = cuentas.get(c).getSaldo();
+            return saldos;
+        });
+    }
+
+    /*
+     * Ejecuta la lectura hasta que ninguna transferencia la cruce, mirando las versiones
+     * de todas las franjas. Sirve para leer muchas cuentas a la vez, por ejemplo el total
+     * del banco. La lectura se puede ejecutar varias veces, asi que no tiene que tener
+     * efectos secundarios.
+     */
+    public <T> T leerConsistente(Supplier<T> lectura) {
+        return leerConsistente(MAXIMO_INTENTOS_LECTURA, lectura);
+    }
+
+    // para lecturas largas, donde reintentar muchas veces sale mas caro que bloquear
+    public <T> T leerConsistente(int intentos, Supplier<T> lectura) {
+        return leerConsistente(null, intentos, lectura);
+    }
+
+    // con franjasLeidas en null se miran todas las franjas
+    private <T> T leerConsistente(int[] franjasLeidas, int intentos, Supplier<T> lectura) {
+        int cantidad = franjasLeidas == null ? franjas.length : franjasLeidas.length;
+        long[] antes = new long[cantidad];
+
+        for (int intento = 0; intento < intentos; intento++) {
+            if (!anotarVersiones(franjasLeidas, antes)) {
+                // hay una transferencia a medias, le doy tiempo a que termine
+                Thread.onSpinWait();
+                continue;
+            }
+            T resultado = lectura.get();
+            if (versionesIguales(franjasLeidas, antes))
+                return resultado;
+        }
+
+        // hay demasiadas escrituras: bloqueo las franjas y leo, como hace conTodoBloqueado()
+        if (franjasLeidas == null)
+            return conTodoBloqueado(lectura);
+        bloquearFranjas(franjasLeidas);
+        try {
+            return lectura.get();
+        } finally {
+            desbloquearFranjas(franjasLeidas);
+        }
+    }
+
+    // las franjas tienen que venir ordenadas de menor a mayor, como en transferir()
+    void bloquearFranjas(int[] indices) {
+        for (int franja : indices)
+            franjas[franja].lock();
+    }
+
+    void desbloquearFranjas(int[] indices) {
+        for (int f = indices.length - 1; f >= 0; f--)
+            franjas[indices[f]].unlock();
+    }
+
+    int cantidadFranjas() {
+        return franjas.length;
+    }
+
+    // devuelve false si alguna franja tiene una escritura en curso (version impar)
+    private boolean anotarVersiones(int[] franjasLeidas, long[] versionesLeidas) {
+        for (int f = 0; f < versionesLeidas.length; f++) {
+            long version = version(franjasLeidas == null ? f : franjasLeidas[f]);
+            if ((version & 1) != 0)
+                return false;
+            versionesLeidas[f] = version;
+        }
+        return true;
+    }
+
+    private boolean versionesIguales(int[] franjasLeidas, long[] versionesLeidas) {
+        for (int f = 0; f < versionesLeidas.length; f++)
+            if (version(franjasLeidas == null ? f : franjasLeidas[f]) != versionesLeidas[f])
+                return false;
+        return true;
+    }
+
+    public List<ResultadoTransferencia> transferirLote(List<Transferencia> lote) {
+        ResultadoTransferencia[] resultados = new ResultadoTransferencia[lote.size()];
+        List<int[]> grupos = agruparIndependientes(lote);
+
+        pool.invoke(new TareaLote(lote, grupos, resultados, 0, grupos.size()));
+        return Arrays.asList(resultados);
+    }
+
+    /*
+     * Agrupa las transferencias en componentes conexos usando union-find: dos transferencias
+     * quedan en el mismo grupo si comparten (directa o indirectamente) alguna cuenta.
+     * Cada grupo es un arreglo con los indices de sus transferencias en el orden del lote.
+     */
+    List<int[]> agruparIndependientes(List<Transferencia> lote) {
+        Map<Object, Integer> indices = new HashMap<>();
+        int[] padre = new int[lote.size() * 2];
+        for (Transferencia t : lote) {
+            int o = indices.computeIfAbsent(clave(t.getOrigen()), c -> nuevoNodo(padre, indices.size()));
+            int d = indices.computeIfAbsent(clave(t.getDestino()), c -> nuevoNodo(padre, indices.size()));
+            unir(padre, o, d);
+        }
+
+        Map<Integer, List<Integer>> porRaiz = new LinkedHashMap<>();
+        for (int i = 0; i < lote.size(); i++) {
+            int raiz = raiz(padre, indices.get(clave(lote.get(i).getOrigen())));
+            porRaiz.computeIfAbsent(raiz, r -> new ArrayList<>()).add(i);
+        }
+
+        List<int[]> grupos = new ArrayList<>(porRaiz.size());
+        for (List<Integer> grupo : porRaiz.values())
+            grupos.add(grupo.stream().mapToInt(Integer::intValue).toArray());
+        return grupos;
+    }
+
+    private static Object clave(Cuenta cuenta) {
+        // la misma cuenta puede llegar como dos vistas distintas de AlmacenColumnar, por eso uso el id
+        Long id = cuenta.getId();
+        return id == null ? cuenta : id;
+    }
+
+    private static int nuevoNodo(int[] padre, int nodo) {
+        padre[nodo] = nodo;
+        return nodo;
+    }
+
+    private static int raiz(int[] padre, int nodo) {
+        while (padre[nodo] != nodo) {
+            padre[nodo] = padre[padre[nodo]]; // compresion de camino a la mitad
+            nodo = padre[nodo];
+        }
+        return nodo;
+    }
+
+    private static void unir(int[] padre, int a, int b) {
+        int ra = raiz(padre, a);
+        int rb = raiz(padre, b);
+        if (ra != rb)
+            padre[Math.max(ra, rb)] = Math.min(ra, rb);
+    }
+
+    private class TareaLote extends RecursiveAction {
+        private final List<Transferencia> lote;
+        private final List<int[]> grupos;
+        private final ResultadoTransferencia[] resultados;
+        private final int desde;
+        private final int hasta;
+
+        TareaLote(List<Transferencia> lote, List<int[]> grupos, ResultadoTransferencia[] resultados, int desde, int hasta) {
+            this.lote = lote;
+            this.grupos = grupos;
+            this.resultados = resultados;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected void compute() {
+            if (hasta - desde <= UMBRAL_GRUPOS) {
+                for (int g = desde; g < hasta; g++)
+                    for (int i : grupos.get(g))
+                        resultados[i] = ejecutar(lote.get(i));
+                return;
+            }
+
+            int medio = (desde + hasta) >>> 1;
+            invokeAll(new TareaLote(lote, grupos, resultados, desde, medio),
+                    new TareaLote(lote, grupos, resultados, medio, hasta));
+        }
+
+        private ResultadoTransferencia ejecutar(Transferencia t) {
+            ResultadoDebito resultado;
+            try {
+                resultado = intentarTransferir(t.getOrigen(), t.getDestino(), t.getMonto(), t.getMontoDestino());
+            } catch (RuntimeException e) {
+                /*
+                 * Cualquier otro error (por ejemplo un ArithmeticException por la escala de
+                 * una CuentaPuntoFijo) rechaza solo esta transferencia: si saliera del pool
+                 * cortaria el lote a la mitad y nadie se enteraria de las que ya se hicieron
+                 */
+                return new ResultadoTransferencia(t, e);
+            }
+            // en un lote los rechazos son normales, no vale la pena armar un stack trace por cada uno
+            if (resultado == ResultadoDebito.APROBADO)
+                return new ResultadoTransferencia(t, null);
+            return new ResultadoTransferencia(t, DineroInsuficienteException.sinTraza());
+        }
+    }
+
+    /*
+     * Si el lock esta libre lo tomo directamente; solo si hay contencion mido cuanto tardo
+     * en conseguirlo, asi el caso comun no paga el System.nanoTime()
+     */
+    private static void bloquear(ReentrantLock lock, MetricasOperaciones metricas) {
+        if (lock.tryLock())
+            return;
+
+        if (!metricas.isHabilitadas()) {
+            lock.lock();
+            return;
+        }
+
+        long inicio = System.nanoTime();
+        lock.lock();
+        metricas.registrarEsperaLock(System.nanoTime() - inicio);
+    }
+
+    /*
+     * Ejecuta la accion con todas las franjas bloqueadas, es decir, sin ninguna transferencia
+     * a medio hacer. Sirve para tomar un corte consistente de todos los saldos; la accion
+     * tiene que ser corta porque mientras tanto no avanza ninguna transferencia.
+     */
+    public <T> T conTodoBloqueado(Supplier<T> accion) {
+        for (ReentrantLock franja : franjas)
+            franja.lock();
+        try {
+            return accion.get();
+        } finally {
+            for (int i = franjas.length - 1; i >= 0; i--)
+                franjas[i].unlock();
+        }
+    }
+
+    /*
+     * Indica si el hilo actual tiene bloqueada alguna franja, por ejemplo dentro de
+     * conTodoBloqueado(). Con una franja bloqueada no se puede esperar a tareas de un
+     * ForkJoinPool: sus hilos pueden estar todos ejecutando lotes que esperan esa franja
+     */
+    boolean bloqueaAlgunaFranja() {
+        for (ReentrantLock franja : franjas)
+            if (franja.isHeldByCurrentThread())
+                return true;
+        return false;
+    }
+
+    private static void notificarTransferencia(Banco banco, Cuenta origen, Cuenta destino, BigDecimal monto, BigDecimal montoDestino) {
+        // sin conversion el banco recibe el mismo objeto en los dos montos
+        if (montoDestino == monto)
+            banco.notificarTransferencia(origen, destino, monto);
+        else
+            banco.notificarTransferencia(origen, destino, monto, montoDestino);
+    }
+
+    public int getCantidadFranjas() {
+        return franjas.length;
+    }
+
+    int indiceFranja(Cuenta cuenta) {
+        /*
+         * Si la cuenta tiene id uso el id y no la identidad del objeto: las vistas de
+         * AlmacenColumnar son objetos distintos cada vez, pero la misma cuenta tiene que
+         * caer siempre en la misma franja
+         */
+        Long id = cuenta.getId();
+        int h = id == null ? System.identityHashCode(cuenta) : Long.hashCode(id) * 0x9E3779B9;
+        // mezclo los bits altos con los bajos para repartir mejor las cuentas entre franjas
+        h ^= (h >>> 16);
+        return h & mascara;
+    }
+}
@@ -0,0 +1,41 @@
+package com.sistemasactivos.junit.model;
+
+import java.math.BigDecimal;
+
+/*
+ * Recibe los movimientos de las cuentas de un banco (ver Banco.agregarObservador).
+ *
+ * Los metodos se llaman en el mismo hilo que hizo el movimiento y despues de que el saldo
+ * ya cambio. Una transferencia llega como un solo aviso, no como un debito y un credito.
+ *
+ * Las transferencias se avisan con las franjas del MotorTransferencias bloqueadas, asi que
+ * transferencia() tiene que ser rapido y no puede esperar nada (ni el disco, ni a otro
+ * hilo). Si lanza una excepcion la transferencia se deshace. Lo que haya que esperar se
+ * hace en persistir(), que se llama despues de soltar los locks.
+ */
+public interface ObservadorMovimientos {
+
+    void movimiento(Cuenta cuenta, TipoMovimiento tipo, BigDecimal monto);
+
+    void transferencia(Cuenta origen, Cuenta destino, BigDecimal monto);
+
+    /*
+     * Transferencia entre cuentas de distinta moneda: el monto esta en la moneda del origen
+     * y montoDestino en la del destino. Si el observador no la distingue, llega como un
+     * debito y un credito
+     */
+    default void transferencia(Cuenta origen, Cuenta destino, BigDecimal monto, BigDecimal montoDestino) {
+        movimiento(origen, TipoMovimiento.DEBITO, monto);
+        movimiento(destino, TipoMovimiento.CREDITO, montoDestino);
+    }
+
+    default void apertura(Cuenta cuenta) {
+    }
+
+    /*
+     * Se llama despues de cada transferencia aprobada, fuera de los locks del motor. Para
+     * ese momento la transferencia ya esta hecha, asi que no deberia lanzar excepciones
+     */
+    default void persistir() {
+    }
+}
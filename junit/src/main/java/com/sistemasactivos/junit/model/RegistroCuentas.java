@@ -0,0 +1,81 @@
+package com.sistemasactivos.junit.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Registro de las cuentas de un banco indexado por id y por nombre.
+ *
+ * Los dos indices son ConcurrentHashMap, asi que buscar una cuenta es O(1) y se puede
+ * registrar cuentas desde varios hilos a la vez. El id lo asigna el registro con una
+ * secuencia y no cambia nunca, aunque cambie el saldo de la cuenta.
+ */
+public class RegistroCuentas implements AlmacenCuentas {
+
+    private final ConcurrentMap<Long, Cuenta> porId = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Cuenta> porNombre = new ConcurrentHashMap<>();
+    private final AtomicLong secuencia = new AtomicLong();
+
+    @Override
+    public Cuenta registrar(Cuenta cuenta) {
+        // si la cuenta ya trae id (por ejemplo al restaurarla) lo respeto y adelanto la secuencia
+        Long idPedido = cuenta.getId();
+        Long id = idPedido;
+        if (id == null)
+            id = secuencia.incrementAndGet();
+        else
+            secuencia.accumulateAndGet(id, Math::max);
+
+        // el id va antes de publicar: quien encuentre la cuenta en un indice ya la ve con id
+        cuenta.setId(id);
+
+        // primero reservo el nombre, asi dos hilos no pueden registrar el mismo nombre
+        String nombre = cuenta.getNombre();
+        if (nombre != null && porNombre.putIfAbsent(nombre, cuenta) != null) {
+            cuenta.setId(idPedido);
+            throw new IllegalArgumentException("Ya existe una cuenta con el nombre " + nombre);
+        }
+
+        if (porId.putIfAbsent(id, cuenta) != null) {
+            if (nombre != null)
+                porNombre.remove(nombre, cuenta);
+            cuenta.setId(idPedido);
+            throw new IllegalArgumentException("Ya existe una cuenta con el id " + id);
+        }
+        return cuenta;
+    }
+
+    @Override
+    public Optional<Cuenta> buscarPorId(long id) {
+        return Optional.ofNullable(porId.get(id));
+    }
+
+    @Override
+    public Optional<Cuenta> buscarPorNombre(String nombre) {
+        return Optional.ofNullable(porNombre.get(nombre));
+    }
+
+    @Override
+    public int cantidad() {
+        return porId.size();
+    }
+
+    @Override
+    public Collection<Cuenta> valores() {
+        return Collections.unmodifiableCollection(porId.values());
+    }
+
+    @Override
+    public List<Cuenta> listar() {
+        List<Cuenta> cuentas = new ArrayList<>(porId.values());
+        cuentas.sort(Comparator.comparing(Cuenta::getId));
+        return cuentas;
+    }
+}
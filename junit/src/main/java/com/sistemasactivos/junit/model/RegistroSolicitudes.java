@@ -0,0 +1,321 @@
+package com.sistemasactivos.junit.model;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/*
+ * Recuerda los ids de las ultimas transferencias para que un cliente pueda reintentar
+ * una transferencia (por ejemplo despues de un timeout) sin mover la plata dos veces:
+ * si el id ya se ejecuto, se devuelve el resultado de la primera vez.
+ *
+ * De cada id se guarda solo una huella de 64 bits, con el estado en sus 3 bits mas
+ * bajos, en un long[] con direccionamiento abierto: unos 11 bytes por id, ningun objeto
+ * por cada solicitud y un solo acceso a memoria para encontrarla. Con millones de ids en
+ * la ventana la probabilidad de que dos ids distintos tengan la misma huella es del
+ * orden de 1 en 10^6.
+ *
+ * Los ids se reparten en segmentos, cada uno con su propio lock, como las franjas del
+ * motor: dos solicitudes solo compiten si caen en el mismo segmento.
+ *
+ * Para olvidar los ids viejos cada segmento tiene dos generaciones. Los ids nuevos van a
+ * la actual y cuando pasa la ventana la actual pasa a ser la anterior y la anterior se
+ * borra entera, sin recorrer id por id. Asi un id se recuerda al menos "ventana" y a lo
+ * sumo el doble. Un id que se repite estando en la anterior se copia a la actual, asi
+ * que los que se siguen reintentando son los ultimos en olvidarse (parecido a un LRU).
+ * Si la generacion actual se llena antes de la ventana se rota igual, para que la
+ * memoria quede acotada; eso se cuenta en getDesalojosAnticipados().
+ *
+ * Mientras la primera ejecucion de un id esta en curso queda una marca EN_CURSO, y un
+ * reintento que llega en ese momento espera el resultado en vez de ejecutarla otra vez.
+ * Si la primera ejecucion termina con una excepcion (por ejemplo sin tasa de cambio) el
+ * id se borra, porque no se movio plata y el reintento tiene que poder ejecutarse.
+ */
+public class RegistroSolicitudes {
+
+    public static final Duration VENTANA = Duration.ofMinutes(10);
+    public static final int CAPACIDAD = 1 << 20;
+
+    private static final int SEGMENTOS = 64;
+
+    // estados de cada posicion de la tabla, en los bits bajos de la huella
+    private static final long ESTADO = 0b111;
+    private static final byte LIBRE = 0;
+    private static final byte EN_CURSO = 1;
+    private static final byte BORRADO = 2;
+    // los resultados se guardan como ordinal + RESUELTO
+    private static final byte RESUELTO = 3;
+    private static final ResultadoDebito[] RESULTADOS = ResultadoDebito.values();
+
+    private final Segmento[] segmentos;
+    private final int desplazamiento;
+    private final long ventana;
+    private final LongSupplier reloj;
+
+    private final LongAdder duplicados = new LongAdder();
+    private final LongAdder desalojosAnticipados = new LongAdder();
+
+    public RegistroSolicitudes() {
+        this(VENTANA, CAPACIDAD);
+    }
+
+    // capacidad: cuantos ids distintos se esperan dentro de una ventana
+    public RegistroSolicitudes(Duration ventana, int capacidad) {
+        this(ventana, capacidad, System::nanoTime);
+    }
+
+    // para los tests, con un reloj que se adelanta a mano
+    RegistroSolicitudes(Duration ventana, int capacidad, LongSupplier reloj) {
+        if (ventana.isNegative() || ventana.isZero())
+            throw new IllegalArgumentException("La ventana tiene que ser positiva");
+        if (capacidad <= 0)
+            throw new IllegalArgumentException("La capacidad debe ser positiva");
+
+        int porSegmento = Math.max((capacidad + SEGMENTOS - 1) / SEGMENTOS, 1);
+        this.segmentos = new Segmento[SEGMENTOS];
+        for (int i = 0; i < SEGMENTOS; i++)
+            segmentos[i] = new Segmento(porSegmento);
+        // el segmento sale de los bits altos de la huella y la posicion de los que siguen al estado
+        this.desplazamiento = Long.numberOfLeadingZeros(SEGMENTOS - 1);
+        this.ventana = ventana.toNanos();
+        this.reloj = reloj;
+    }
+
+    /*
+     * Ejecuta la operacion una sola vez por id dentro de la ventana. Si el id ya se
+     * ejecuto devuelve el resultado guardado, aunque los argumentos del reintento sean
+     * otros: el id identifica la solicitud, no se compara nada mas.
+     */
+    public ResultadoDebito ejecutar(String idSolicitud, Supplier<ResultadoDebito> operacion) {
+        long huella = huella(idSolicitud);
+        Segmento segmento = segmentos[(int) (huella >>> desplazamiento)];
+
+        segmento.lock.lock();
+        try {
+            ResultadoDebito anterior = segmento.reclamar(huella);
+            if (anterior != null) {
+                duplicados.increment();
+                return anterior;
+            }
+        } finally {
+            segmento.lock.unlock();
+        }
+
+        // la operacion corre sin el lock del segmento, que solo protege la tabla
+        ResultadoDebito resultado;
+        try {
+            resultado = operacion.get();
+        } catch (RuntimeException | Error e) {
+            segmento.resolver(huella, BORRADO);
+            throw e;
+        }
+        segmento.resolver(huella, (byte) (RESUELTO + resultado.ordinal()));
+        return resultado;
+    }
+
+    /*
+     * Huella del id: FNV-1a sobre los caracteres y despues la mezcla final de murmur3,
+     * para que tanto los bits altos (segmento) como los del medio (posicion) queden bien
+     * repartidos aunque los ids sean muy parecidos. Los 3 bits bajos quedan en 0 para el
+     * estado, y una huella en 0 se confundiria con una posicion libre
+     */
+    public static long huella(String idSolicitud) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < idSolicitud.length(); i++)
+            h = (h ^ idSolicitud.charAt(i)) * 0x100000001B3L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        h &= ~ESTADO;
+        return h == 0 ? ESTADO + 1 : h;
+    }
+
+    // reintentos que devolvieron el resultado guardado en vez de ejecutarse
+    public long getDuplicados() {
+        return duplicados.sum();
+    }
+
+    // rotaciones por generacion llena, antes de que pase la ventana
+    public long getDesalojosAnticipados() {
+        return desalojosAnticipados.sum();
+    }
+
+    public int getCapacidad() {
+        return segmentos[0].capacidad * SEGMENTOS;
+    }
+
+    /*
+     * Una generacion: tabla de huellas con sondeo lineal, cada una con su estado. Los
+     * borrados dejan una marca BORRADO para no cortar las cadenas de sondeo, y se limpian
+     * cuando se rota la generacion
+     */
+    private static final class Generacion {
+        final long[] posiciones;
+        final int mascara;
+        int ocupadas;
+        long inicio;
+
+        Generacion(int tamano, long inicio) {
+            this.posiciones = new long[tamano];
+            this.mascara = tamano - 1;
+            this.inicio = inicio;
+        }
+
+        int buscar(long huella) {
+            for (int i = (int) (huella >>> 3) & mascara; ; i = (i + 1) & mascara) {
+                long valor = posiciones[i];
+                if (valor == LIBRE)
+                    return -1;
+                if ((valor & ~ESTADO) == huella && (valor & ESTADO) != BORRADO)
+                    return i;
+            }
+        }
+
+        byte estado(int i) {
+            return (byte) (posiciones[i] & ESTADO);
+        }
+
+        void cambiarEstado(int i, byte estado) {
+            posiciones[i] = (posiciones[i] & ~ESTADO) | estado;
+        }
+
+        void agregar(long huella, byte estado) {
+            int i = (int) (huella >>> 3) & mascara;
+            while (posiciones[i] != LIBRE)
+                i = (i + 1) & mascara;
+            posiciones[i] = huella | estado;
+            ocupadas++;
+        }
+
+        void vaciar(long inicio) {
+            Arrays.fill(posiciones, LIBRE);
+            ocupadas = 0;
+            this.inicio = inicio;
+        }
+    }
+
+    private final class Segmento {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition resueltas = lock.newCondition();
+        final int capacidad;
+        final int tamano;
+
+        // se crean en el primer uso, asi un banco que no usa ids no reserva memoria
+        Generacion actual;
+        Generacion anterior;
+
+        Segmento(int capacidad) {
+            this.capacidad = capacidad;
+            // factor de carga de 3/4 como maximo, en potencia de 2 para usar una mascara
+            int minimo = capacidad + capacidad / 3 + 1;
+            int potencia = Integer.highestOneBit(minimo);
+            this.tamano = potencia < minimo ? potencia << 1 : potencia;
+        }
+
+        /*
+         * Devuelve el resultado guardado del id, esperando si esta en curso, o null si el
+         * id es nuevo y quedo marcado EN_CURSO para el que llama
+         */
+        ResultadoDebito reclamar(long huella) {
+            while (true) {
+                rotarSiVencio();
+                byte estado = estado(huella);
+                if (estado >= RESUELTO)
+                    return RESULTADOS[estado - RESUELTO];
+                if (estado == LIBRE) {
+                    agregar(huella, EN_CURSO);
+                    return null;
+                }
+                // otro hilo lo esta ejecutando; al despertar pudo haber terminado con error
+                resueltas.awaitUninterruptibly();
+            }
+        }
+
+        void resolver(long huella, byte estado) {
+            lock.lock();
+            try {
+                int i = actual.buscar(huella);
+                if (i >= 0) {
+                    actual.cambiarEstado(i, estado);
+                } else if ((i = anterior.buscar(huella)) >= 0) {
+                    anterior.cambiarEstado(i, estado);
+                } else if (estado != BORRADO) {
+                    agregar(huella, estado);
+                }
+                if (lock.hasWaiters(resueltas))
+                    resueltas.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // LIBRE si no esta en ninguna generacion
+        private byte estado(long huella) {
+            int i = actual.buscar(huella);
+            if (i >= 0)
+                return actual.estado(i);
+            i = anterior.buscar(huella);
+            if (i < 0)
+                return LIBRE;
+            byte estado = anterior.estado(i);
+            if (estado >= RESUELTO) {
+                // se sigue usando: lo paso a la generacion actual para que dure otra ventana
+                anterior.cambiarEstado(i, BORRADO);
+                agregar(huella, estado);
+            }
+            return estado;
+        }
+
+        private void agregar(long huella, byte estado) {
+            if (actual.ocupadas >= capacidad) {
+                desalojosAnticipados.increment();
+                rotar(reloj.getAsLong());
+            }
+            actual.agregar(huella, estado);
+        }
+
+        private void rotarSiVencio() {
+            long ahora = reloj.getAsLong();
+            if (actual == null) {
+                actual = new Generacion(tamano, ahora);
+                anterior = new Generacion(tamano, ahora);
+            } else if (ahora - actual.inicio >= ventana) {
+                rotar(ahora);
+                // si paso mas de una ventana sin usar el segmento, tambien olvido la nueva anterior
+                if (ahora - anterior.inicio >= 2 * ventana)
+                    rotar(ahora);
+            }
+        }
+
+        /*
+         * La actual pasa a ser la anterior y la anterior se reutiliza vacia como actual. Las
+         * que siguen en curso se copian, porque alguien va a volver a buscarlas al terminar
+         */
+        private void rotar(long ahora) {
+            Generacion descartada = anterior;
+            anterior = actual;
+            actual = descartada;
+
+            long[] enCurso = null;
+            int cantidad = 0;
+            for (long valor : descartada.posiciones) {
+                if ((valor & ESTADO) == EN_CURSO) {
+                    if (enCurso == null)
+                        enCurso = new long[8];
+                    else if (cantidad == enCurso.length)
+                        enCurso = Arrays.copyOf(enCurso, cantidad * 2);
+                    enCurso[cantidad++] = valor & ~ESTADO;
+                }
+            }
+            descartada.vaciar(ahora);
+            for (int i = 0; i < cantidad; i++)
+                descartada.agregar(enCurso[i], EN_CURSO);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.sistemasactivos.junit.model;
+
+/*
+ * Resultado de Cuenta.intentarDebito() y Banco.intentarTransferir(). Al ser un enum
+ * devolverlo no crea ningun objeto.
+ */
+public enum ResultadoDebito {
+    APROBADO,
+    DINERO_INSUFICIENTE
+}
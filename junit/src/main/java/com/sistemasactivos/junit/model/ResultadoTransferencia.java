@@ -0,0 +1,20 @@
+package com.sistemasactivos.junit.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/*
+ * Resultado de una transferencia de un lote o de ServicioTransferencias. Si fallo por
+ * dinero insuficiente (DineroInsuficienteException) o porque no habia tasa de cambio
+ * (TasaNoDisponibleException) la excepcion queda guardada en vez de cortar todo el lote.
+ */
+@Getter
+@AllArgsConstructor
+public class ResultadoTransferencia {
+    private final Transferencia transferencia;
+    private final RuntimeException error;
+
+    public boolean isExitosa() {
+        return error == null;
+    }
+}
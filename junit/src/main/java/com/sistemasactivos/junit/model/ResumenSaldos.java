@@ -0,0 +1,16 @@
+package com.sistemasactivos.junit.model;
+
+import java.math.BigDecimal;
+
+/*
+ * Resultado de FotoSaldos.resumir(). El total es exacto. minimo y maximo son null si el
+ * banco no tiene cuentas con saldo.
+ *
+ * distribucion[d] es la cantidad de cuentas con saldo no negativo cuya parte entera tiene
+ * d digitos: distribucion[0] son los saldos menores a 1, distribucion[3] los que van de
+ * 100 a 999,99 y la ultima posicion junta todos los de 19 digitos o mas. Los saldos
+ * negativos solo se cuentan en negativos.
+ */
+public record ResumenSaldos(long cantidad, BigDecimal total, BigDecimal minimo, BigDecimal maximo,
+                            long negativos, long[] distribucion) {
+}
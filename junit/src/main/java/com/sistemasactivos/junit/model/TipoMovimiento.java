@@ -0,0 +1,6 @@
+package com.sistemasactivos.junit.model;
+
+public enum TipoMovimiento {
+    DEBITO,
+    CREDITO
+}
@@ -0,0 +1,25 @@
+package com.sistemasactivos.junit.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+
+/*
+ * Una transferencia pendiente de ejecutar, usada para mandar lotes al banco.
+ *
+ * El monto esta en la moneda del origen. Si el destino tiene otra moneda, el banco arma
+ * la transferencia con el montoDestino ya convertido; sino es el mismo monto.
+ */
+@Getter
+@AllArgsConstructor
+public class Transferencia {
+    private final Cuenta origen;
+    private final Cuenta destino;
+    private final BigDecimal monto;
+    private final BigDecimal montoDestino;
+
+    public Transferencia(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        this(origen, destino, monto, monto);
+    }
+}
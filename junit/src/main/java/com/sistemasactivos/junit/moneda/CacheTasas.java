@@ -0,0 +1,142 @@
+package com.sistemasactivos.junit.moneda;
+
+import com.sistemasactivos.junit.exception.TasaNoDisponibleException;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/*
+ * Cache de tasas de cambio para convertir montos dentro de las transferencias.
+ *
+ * Las tasas estan en un Map inmutable detras de un AtomicReference: leer una tasa es un
+ * get() sobre ese Map, sin ningun lock y sin llamar nunca al proveedor. Cada actualizacion
+ * arma un Map nuevo con las tasas del proveedor y lo publica de una vez (copy on write),
+ * asi que un lector ve o todas las tasas de una actualizacion o ninguna.
+ *
+ * Cada actualizacion tiene un numero de version y cada tasa vence ttl despues de cargada.
+ * Si el proveedor deja de traer una tasa o falla, la tasa vieja se sigue usando hasta que
+ * vence, y despues se descarta: convertir con una tasa vencida lanza
+ * TasaNoDisponibleException en vez de usar un valor viejo.
+ *
+ * El redondeo es siempre HALF_EVEN (redondeo bancario) a la cantidad de decimales de la
+ * moneda destino, asi que el mismo monto y la misma tasa dan siempre el mismo resultado.
+ */
+public class CacheTasas implements AutoCloseable {
+
+    private final ProveedorTasas proveedor;
+    private final long ttl;
+    private final LongSupplier reloj;
+
+    private final AtomicReference<Map<ParMonedas, TasaCambio>> tasas = new AtomicReference<>(Map.of());
+    // solo se escribe dentro de actualizar()
+    private volatile long version;
+    private volatile ScheduledExecutorService actualizador;
+
+    public CacheTasas(ProveedorTasas proveedor, Duration ttl) {
+        this(proveedor, ttl, System::nanoTime);
+    }
+
+    // para los tests, con un reloj que se adelanta a mano
+    CacheTasas(ProveedorTasas proveedor, Duration ttl, LongSupplier reloj) {
+        if (ttl.isNegative() || ttl.isZero())
+            throw new IllegalArgumentException("El ttl de las tasas tiene que ser positivo");
+        this.proveedor = proveedor;
+        this.ttl = ttl.toNanos();
+        this.reloj = reloj;
+    }
+
+    /*
+     * Trae las tasas del proveedor y las publica todas juntas con una version nueva. Las
+     * que el proveedor no trajo se conservan mientras no hayan vencido.
+     *
+     * Las actualizaciones son pocas, asi que las hago de a una con synchronized; los que
+     * leen tasas nunca toman este lock
+     */
+    public synchronized long actualizar() {
+        Map<ParMonedas, BigDecimal> nuevas = proveedor.obtenerTasas();
+        long ahora = reloj.getAsLong();
+        long numero = version + 1;
+
+        Map<ParMonedas, TasaCambio> siguientes = new HashMap<>();
+        for (TasaCambio tasa : tasas.get().values())
+            if (ahora - tasa.vence() < 0)
+                siguientes.put(tasa.par(), tasa);
+        nuevas.forEach((par, tasa) -> siguientes.put(par, new TasaCambio(par, tasa, numero, ahora + ttl)));
+
+        tasas.set(Map.copyOf(siguientes));
+        version = numero;
+        return numero;
+    }
+
+    /*
+     * Actualiza ahora y despues cada "periodo" en un hilo aparte. Si una actualizacion
+     * falla se reintenta en la siguiente; mientras tanto siguen las tasas anteriores
+     */
+    public synchronized void iniciar(Duration periodo) {
+        if (actualizador != null)
+            throw new IllegalStateException("El cache de tasas ya se esta actualizando");
+        actualizar();
+
+        actualizador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "cache-tasas");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        long nanos = periodo.toNanos();
+        actualizador.scheduleAtFixedRate(this::actualizarSinFallar, nanos, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void actualizarSinFallar() {
+        try {
+            actualizar();
+        } catch (RuntimeException e) {
+            // si la excepcion escapa, el executor no vuelve a programar la tarea
+        }
+    }
+
+    public TasaCambio tasa(Currency origen, Currency destino) {
+        ParMonedas par = new ParMonedas(origen, destino);
+        TasaCambio tasa = tasas.get().get(par);
+        if (tasa == null)
+            throw new TasaNoDisponibleException("No hay tasa de cambio para " + par);
+        if (reloj.getAsLong() - tasa.vence() >= 0)
+            throw new TasaNoDisponibleException("La tasa de cambio para " + par + " esta vencida");
+        return tasa;
+    }
+
+    public BigDecimal convertir(BigDecimal monto, Currency origen, Currency destino) {
+        if (origen.equals(destino))
+            return monto;
+        BigDecimal tasa = tasa(origen, destino).tasa();
+        return monto.multiply(tasa).setScale(escala(destino), RoundingMode.HALF_EVEN);
+    }
+
+    // misma escala que usa CuentaPuntoFijo para la moneda
+    public static int escala(Currency moneda) {
+        return Math.max(moneda.getDefaultFractionDigits(), 0);
+    }
+
+    // version de la ultima actualizacion publicada, 0 si todavia no hubo ninguna
+    public long getVersion() {
+        return version;
+    }
+
+    public int getCantidad() {
+        return tasas.get().size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (actualizador != null)
+            actualizador.shutdownNow();
+    }
+}
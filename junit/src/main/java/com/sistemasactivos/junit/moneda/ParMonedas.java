@@ -0,0 +1,18 @@
+package com.sistemasactivos.junit.moneda;
+
+import java.util.Currency;
+
+/*
+ * Par de monedas de una tasa de cambio: un monto en origen por la tasa da el monto en destino
+ */
+public record ParMonedas(Currency origen, Currency destino) {
+
+    public static ParMonedas de(String origen, String destino) {
+        return new ParMonedas(Currency.getInstance(origen), Currency.getInstance(destino));
+    }
+
+    @Override
+    public String toString() {
+        return origen.getCurrencyCode() + "/" + destino.getCurrencyCode();
+    }
+}
@@ -0,0 +1,15 @@
+package com.sistemasactivos.junit.moneda;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/*
+ * Fuente de las tasas de cambio (un archivo, una tabla, un servicio externo...). Solo la
+ * llama CacheTasas al actualizar, en segundo plano: las transferencias nunca esperan al
+ * proveedor, asi que puede ser lento o fallar sin frenarlas.
+ */
+public interface ProveedorTasas {
+
+    // todas las tasas que conoce el proveedor en este momento
+    Map<ParMonedas, BigDecimal> obtenerTasas();
+}
@@ -0,0 +1,10 @@
+package com.sistemasactivos.junit.moneda;
+
+import java.math.BigDecimal;
+
+/*
+ * Tasa guardada en el CacheTasas. La version es la de la actualizacion que la cargo, y
+ * vence es el System.nanoTime() a partir del cual ya no se puede usar
+ */
+public record TasaCambio(ParMonedas par, BigDecimal tasa, long version, long vence) {
+}
@@ -0,0 +1,33 @@
+package com.sistemasactivos.junit.moneda;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Proveedor con tasas cargadas a mano, para configuraciones simples y para los tests
+ */
+public class TasasFijas implements ProveedorTasas {
+
+    private final Map<ParMonedas, BigDecimal> tasas = new ConcurrentHashMap<>();
+
+    public TasasFijas definir(String origen, String destino, String tasa) {
+        return definir(ParMonedas.de(origen, destino), new BigDecimal(tasa));
+    }
+
+    public TasasFijas definir(ParMonedas par, BigDecimal tasa) {
+        if (tasa.signum() <= 0)
+            throw new IllegalArgumentException("La tasa de " + par + " tiene que ser positiva");
+        tasas.put(par, tasa);
+        return this;
+    }
+
+    public void quitar(ParMonedas par) {
+        tasas.remove(par);
+    }
+
+    @Override
+    public Map<ParMonedas, BigDecimal> obtenerTasas() {
+        return Map.copyOf(tasas);
+    }
+}
@@ -0,0 +1,29 @@
+package com.sistemasactivos.junit.persistencia;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/*
+ * Fila de la tabla banco. El Banco del modelo no tiene id, asi que se lo identifica por
+ * el nombre
+ */
+@Entity
+@Table(name = "banco")
+@Getter
+@Setter
+@NoArgsConstructor
+public class BancoEntidad {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true)
+    private String nombre;
+
+    public BancoEntidad(String nombre) {
+        this.nombre = nombre;
+    }
+}
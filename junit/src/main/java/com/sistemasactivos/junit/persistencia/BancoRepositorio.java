@@ -0,0 +1,10 @@
+package com.sistemasactivos.junit.persistencia;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Optional;
+
+public interface BancoRepositorio extends JpaRepository<BancoEntidad, Long> {
+
+    Optional<BancoEntidad> findByNombre(String nombre);
+}
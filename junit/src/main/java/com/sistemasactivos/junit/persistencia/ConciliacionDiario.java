@@ -0,0 +1,78 @@
+package com.sistemasactivos.junit.persistencia;
+
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.FotoSaldos;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/*
+ * Compara los saldos del banco en vivo contra lo que surge de sumar todos los movimientos
+ * del diario, cuenta por cuenta.
+ *
+ * Primero se toma una FotoSaldos consistente del banco y, dentro de la misma validacion
+ * por version, la posicion del diario; asi los dos quedan en el mismo punto, igual que en
+ * InstantaneaBanco, sin frenar a todas las transferencias mientras se copia. Despues se
+ * reproduce el diario hasta esa posicion sobre arreglos de unidades (SaldosDiario), no
+ * sobre un banco con un objeto por cuenta, y se comparan los saldos en paralelo, un tramo
+ * de la foto por tarea.
+ *
+ * El diario tiene que tener todos los movimientos desde la apertura de las cuentas. Los
+ * debitos y creditos hechos directo sobre una cuenta no se sincronizan con el corte, asi
+ * que si hay alguno en curso puede aparecer como diferencia.
+ */
+public class ConciliacionDiario {
+
+    public static final int MAXIMO_DIFERENCIAS = 100;
+
+    private ConciliacionDiario() {
+    }
+
+    public static ResultadoConciliacion conciliar(Banco banco, Path archivo, DiarioMovimientos diario) throws IOException {
+        FotoSaldos corte = FotoSaldos.capturarConsistente(banco, diario::getTamano);
+        SaldosDiario esperados = DiarioMovimientos.reproducirSaldos(archivo, corte.getPosicion());
+
+        AtomicLong cantidadDiferencias = new AtomicLong();
+        List<DiferenciaSaldo> diferencias = Collections.synchronizedList(new ArrayList<>());
+        LongAdder encontradas = new LongAdder();
+
+        List<FotoSaldos.Tramo> tramos = corte.getTramos();
+        IntStream.range(0, tramos.size()).parallel().forEach(t -> {
+            FotoSaldos.Tramo tramo = tramos.get(t);
+            for (int i = 0; i < tramo.getCantidad(); i++) {
+                long id = tramo.getId(i);
+                BigDecimal saldo = tramo.getSaldo(i);
+                BigDecimal saldoEsperado = esperados.saldo(id);
+                if (esperados.contiene(id))
+                    encontradas.increment();
+
+                if (saldoEsperado == null || saldo.compareTo(saldoEsperado) != 0)
+                    anotar(new DiferenciaSaldo(id, saldo, saldoEsperado), cantidadDiferencias, diferencias);
+            }
+        });
+
+        // si sobran cuentas en el diario, busco cuales no estan en el banco
+        if (encontradas.sum() < esperados.cantidad()) {
+            esperados.recorrerIds(id -> {
+                if (banco.buscarCuenta(id).isEmpty())
+                    anotar(new DiferenciaSaldo(id, null, esperados.saldo(id)), cantidadDiferencias, diferencias);
+            });
+        }
+
+        return new ResultadoConciliacion(corte.getPosicion(), corte.getCantidad(),
+                corte.resumir().total(), esperados.total(),
+                cantidadDiferencias.get(), List.copyOf(diferencias));
+    }
+
+    private static void anotar(DiferenciaSaldo diferencia, AtomicLong cantidad, List<DiferenciaSaldo> diferencias) {
+        if (cantidad.incrementAndGet() <= MAXIMO_DIFERENCIAS)
+            diferencias.add(diferencia);
+    }
+}
@@ -0,0 +1,49 @@
+package com.sistemasactivos.junit.persistencia;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+
+/*
+ * Fila de la tabla cuenta. No es la Cuenta del modelo: esa tiene subclases, vistas de un
+ * AlmacenColumnar y saldos en AtomicLong, que no tienen sentido como entidad. Esta es
+ * solo lo que se guarda de cada cuenta.
+ *
+ * El numero es el id de la cuenta dentro de su banco, y el id es la clave de la tabla.
+ * La version es para el bloqueo optimista: toda escritura la incrementa, y una escritura
+ * que no encuentra la version que esperaba no pisa nada (ver EscrituraDiferida).
+ *
+ * El saldo se guarda con 10 decimales, suficiente para cualquier moneda.
+ */
+@Entity
+@Table(name = "cuenta", uniqueConstraints = @UniqueConstraint(columnNames = {"banco_id", "numero"}))
+@Getter
+@Setter
+@NoArgsConstructor
+public class CuentaEntidad {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "banco_id")
+    private BancoEntidad banco;
+
+    @Column(nullable = false)
+    private Long numero;
+
+    private String nombre;
+
+    @Column(precision = 38, scale = 10)
+    private BigDecimal saldo;
+
+    @Column(length = 3)
+    private String moneda;
+
+    @Version
+    private long version;
+}
@@ -0,0 +1,13 @@
+package com.sistemasactivos.junit.persistencia;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface CuentaRepositorio extends JpaRepository<CuentaEntidad, Long> {
+
+    List<CuentaEntidad> findByBancoIdOrderByNumero(Long bancoId);
+
+    Optional<CuentaEntidad> findByBancoIdAndNumero(Long bancoId, Long numero);
+}
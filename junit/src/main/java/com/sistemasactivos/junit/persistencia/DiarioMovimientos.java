@@ -0,0 +1,526 @@
+package com.sistemasactivos.junit.persistencia;
+
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.model.ObservadorMovimientos;
+import com.sistemasactivos.junit.model.TipoMovimiento;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Currency;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/*
+ * Diario (journal) binario de solo agregado con los movimientos de las cuentas de un banco.
+ *
+ * Se registra como observador del banco y escribe cada apertura de cuenta, debito, credito
+ * y transferencia en un archivo mapeado en memoria (MappedByteBuffer), que es mucho mas
+ * rapido que hacer un INSERT por movimiento. Cuando se fuerza a disco depende de la
+ * PoliticaSincronizacion elegida. Las transferencias se escriben con las franjas del
+ * motor bloqueadas, pero el fsync de CADA_MOVIMIENTO se hace despues, en persistir().
+ *
+ * Formato de cada registro:
+ *   int longitud | int crc32 | byte tipo | long idCuenta | [long idDestino] | int escala |
+ *   short n | n bytes del valor sin escala | [int escala | short k | k bytes del valor en
+ *   la moneda destino] | [short m | m bytes del nombre en UTF-8 | [short c | c bytes del
+ *   codigo de la moneda]]
+ *
+ * El idDestino solo esta en las transferencias y las conversiones, el valor en la moneda
+ * destino solo en las conversiones y el nombre y la moneda solo en las aperturas (los
+ * diarios anteriores a las monedas no la tienen). Si el
+ * proceso se cae a mitad de un registro, al abrir el diario se descarta desde el primer
+ * registro incompleto o con el crc incorrecto en adelante.
+ */
+public class DiarioMovimientos implements ObservadorMovimientos, Closeable {
+
+    static final byte APERTURA = 1;
+    static final byte DEBITO = 2;
+    static final byte CREDITO = 3;
+    static final byte TRANSFERENCIA = 4;
+    // transferencia entre cuentas de distinta moneda
+    static final byte CONVERSION = 5;
+
+    // longitud + crc
+    private static final int ENCABEZADO = 8;
+    private static final int MAXIMO_REGISTRO = 1 << 17;
+    private static final long TAMANO_SEGMENTO = 64L << 20;
+
+    private final FileChannel canal;
+    private final PoliticaSincronizacion politica;
+    private final long tamanoSegmento;
+    private final ScheduledExecutorService sincronizador;
+
+    /*
+     * Uso ReentrantLock y no synchronized porque mientras se tiene el lock puede haber un
+     * fsync: con synchronized un hilo virtual que espera el disco deja "clavado" (pinned)
+     * al hilo de plataforma que lo ejecuta, y con ReentrantLock no.
+     *
+     * Los siguientes campos se protegen con lock.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private MappedByteBuffer segmento;
+    private long escrito;
+    private boolean cerrado;
+
+    // hasta donde se sabe que esta en disco, protegido por lockPersistencia
+    private final ReentrantLock lockPersistencia = new ReentrantLock();
+    private volatile long persistido;
+
+    /*
+     * Si un fsync falla no se sabe que quedo en disco, asi que el diario deja de aceptar
+     * registros: los movimientos siguientes fallan (y las transferencias se deshacen) en
+     * vez de seguir como si todo estuviera guardado
+     */
+    private volatile UncheckedIOException errorDisco;
+
+    DiarioMovimientos(Path archivo, PoliticaSincronizacion politica, Duration intervalo, long tamanoSegmento) throws IOException {
+        this.politica = politica;
+        this.tamanoSegmento = tamanoSegmento;
+        this.canal = FileChannel.open(archivo, CREATE, READ, WRITE);
+
+        // descarto lo que haya quedado despues del ultimo registro valido
+        long fin = leer(archivo, null, 0, Long.MAX_VALUE);
+        canal.truncate(fin);
+        this.escrito = fin;
+        this.persistido = fin;
+        this.segmento = canal.map(FileChannel.MapMode.READ_WRITE, fin, tamanoSegmento);
+
+        if (politica == PoliticaSincronizacion.PERIODICA) {
+            this.sincronizador = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread hilo = new Thread(r, "diario-movimientos-fsync");
+                hilo.setDaemon(true);
+                return hilo;
+            });
+            long nanos = intervalo.toNanos();
+            sincronizador.scheduleAtFixedRate(this::sincronizar, nanos, nanos, TimeUnit.NANOSECONDS);
+        } else {
+            this.sincronizador = null;
+        }
+    }
+
+    public static DiarioMovimientos abrir(Path archivo, PoliticaSincronizacion politica) throws IOException {
+        return abrir(archivo, politica, Duration.ofMillis(10));
+    }
+
+    public static DiarioMovimientos abrir(Path archivo, PoliticaSincronizacion politica, Duration intervalo) throws IOException {
+        return new DiarioMovimientos(archivo, politica, intervalo, TAMANO_SEGMENTO);
+    }
+
+    /*
+     * Reconstruye en el banco las cuentas y los saldos guardados en el diario. Conviene
+     * llamarlo con el banco vacio y antes de registrar el diario como observador, sino los
+     * movimientos reproducidos se volverian a escribir.
+     */
+    public static void reproducir(Path archivo, Banco banco) throws IOException {
+        reproducir(archivo, banco, 0);
+    }
+
+    /*
+     * Igual que reproducir(archivo, banco) pero arrancando desde una posicion del diario,
+     * por ejemplo la que quedo guardada en una InstantaneaBanco
+     */
+    public static void reproducir(Path archivo, Banco banco, long desde) throws IOException {
+        reproducir(archivo, banco, desde, Long.MAX_VALUE);
+    }
+
+    /*
+     * Reproduce solo los registros que empiezan antes de "hasta", por ejemplo para llegar
+     * al mismo punto que un corte tomado con getTamano() (ver ConciliacionDiario)
+     */
+    public static void reproducir(Path archivo, Banco banco, long desde, long hasta) throws IOException {
+        if (Files.exists(archivo))
+            leer(archivo, registro -> aplicar(registro, banco), desde, hasta);
+    }
+
+    /*
+     * Reproduce los registros que empiezan antes de "hasta" sobre arreglos de unidades, sin
+     * armar un banco ni un objeto por cuenta (ver SaldosDiario). Es lo que usa
+     * ConciliacionDiario, que tiene que poder con todas las cuentas del banco
+     */
+    static SaldosDiario reproducirSaldos(Path archivo, long hasta) throws IOException {
+        SaldosDiario saldos = new SaldosDiario();
+        if (Files.exists(archivo))
+            leer(archivo, registro -> aplicar(registro, saldos), 0, hasta);
+        return saldos;
+    }
+
+    /*
+     * Lo que se hace al arrancar: reproduce el diario en el banco y despues lo abre para
+     * seguir agregando los movimientos nuevos
+     */
+    public static DiarioMovimientos recuperar(Path archivo, Banco banco, PoliticaSincronizacion politica) throws IOException {
+        return recuperar(archivo, banco, politica, 0);
+    }
+
+    public static DiarioMovimientos recuperar(Path archivo, Banco banco, PoliticaSincronizacion politica, long desde) throws IOException {
+        reproducir(archivo, banco, desde);
+        DiarioMovimientos diario = abrir(archivo, politica);
+        banco.agregarObservador(diario);
+        return diario;
+    }
+
+    @Override
+    public void apertura(Cuenta cuenta) {
+        registrar(codificar(APERTURA, cuenta, null, cuenta.getSaldo(), null, cuenta.getNombre()));
+    }
+
+    @Override
+    public void movimiento(Cuenta cuenta, TipoMovimiento tipo, BigDecimal monto) {
+        registrar(codificar(tipo == TipoMovimiento.DEBITO ? DEBITO : CREDITO, cuenta, null, monto, null, null));
+    }
+
+    // las transferencias llegan con las franjas del motor bloqueadas: solo agrego el registro
+    @Override
+    public void transferencia(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        agregar(codificar(TRANSFERENCIA, origen, destino, monto, null, null));
+    }
+
+    // un solo registro para el debito y el credito, asi nunca queda en el diario uno sin el otro
+    @Override
+    public void transferencia(Cuenta origen, Cuenta destino, BigDecimal monto, BigDecimal montoDestino) {
+        agregar(codificar(CONVERSION, origen, destino, monto, montoDestino, null));
+    }
+
+    /*
+     * El fsync de la transferencia, ya fuera de los locks del motor. Fuerzo todo lo escrito
+     * hasta ahora, que incluye el registro de la transferencia. Si el disco falla no lanzo
+     * la excepcion, porque la transferencia ya esta hecha: queda en errorDisco y el
+     * proximo movimiento se rechaza
+     */
+    @Override
+    public void persistir() {
+        if (politica != PoliticaSincronizacion.CADA_MOVIMIENTO)
+            return;
+        try {
+            esperarPersistencia(getTamano());
+        } catch (UncheckedIOException e) {
+            // ya quedo guardado en errorDisco
+        }
+    }
+
+    public long getTamano() {
+        lock.lock();
+        try {
+            return escrito;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (cerrado)
+                return;
+            cerrado = true;
+        } finally {
+            lock.unlock();
+        }
+        if (sincronizador != null)
+            sincronizador.shutdownNow();
+
+        lockPersistencia.lock();
+        try {
+            if (politica != PoliticaSincronizacion.NINGUNA)
+                segmento.force();
+            // saco del archivo la parte mapeada que no se llego a usar
+            canal.truncate(escrito);
+            canal.close();
+        } finally {
+            lockPersistencia.unlock();
+        }
+    }
+
+    private void registrar(byte[] registro) {
+        long fin = agregar(registro);
+        if (politica == PoliticaSincronizacion.CADA_MOVIMIENTO)
+            esperarPersistencia(fin);
+    }
+
+    // copia el registro al archivo mapeado, sin esperar el disco, y devuelve donde termina
+    private long agregar(byte[] registro) {
+        lock.lock();
+        try {
+            if (cerrado)
+                throw new IllegalStateException("El diario de movimientos esta cerrado");
+            if (errorDisco != null)
+                throw new IllegalStateException("No se pudo forzar el diario de movimientos a disco", errorDisco);
+
+            if (segmento.remaining() < registro.length)
+                rotarSegmento(registro.length);
+            segmento.put(registro);
+            escrito += registro.length;
+            return escrito;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Group commit: si otro hilo ya hizo un fsync que cubre mi registro no hago nada. Si no,
+     * el primero que toma el lock hace el fsync de todo lo escrito hasta ese momento, asi
+     * los hilos que estaban esperando detras de el ya encuentran su registro en disco.
+     */
+    private void esperarPersistencia(long fin) {
+        if (persistido >= fin)
+            return;
+
+        lockPersistencia.lock();
+        try {
+            if (persistido < fin)
+                sincronizar();
+        } finally {
+            lockPersistencia.unlock();
+        }
+    }
+
+    private void sincronizar() {
+        lockPersistencia.lock();
+        try {
+            MappedByteBuffer actual;
+            long hasta;
+            lock.lock();
+            try {
+                if (cerrado)
+                    return;
+                actual = segmento;
+                hasta = escrito;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                actual.force();
+            } catch (UncheckedIOException e) {
+                errorDisco = e;
+                throw e;
+            }
+            persistido = hasta;
+        } finally {
+            lockPersistencia.unlock();
+        }
+    }
+
+    // se llama con lock tomado
+    private void rotarSegmento(int necesario) {
+        try {
+            if (politica != PoliticaSincronizacion.NINGUNA)
+                segmento.force();
+            segmento = canal.map(FileChannel.MapMode.READ_WRITE, escrito, Math.max(tamanoSegmento, necesario));
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo extender el diario de movimientos", e);
+        }
+    }
+
+    /*
+     * Arma el registro completo (encabezado incluido) fuera del lock, asi el lock solo se
+     * tiene mientras se copian los bytes al archivo mapeado
+     */
+    private static byte[] codificar(byte tipo, Cuenta cuenta, Cuenta destino, BigDecimal monto,
+                                    BigDecimal montoDestino, String nombre) {
+        byte[] valor = monto == null ? new byte[0] : monto.unscaledValue().toByteArray();
+        byte[] valorDestino = montoDestino == null ? new byte[0] : montoDestino.unscaledValue().toByteArray();
+        byte[] nombreBytes = nombre == null ? new byte[0] : nombre.getBytes(StandardCharsets.UTF_8);
+        byte[] monedaBytes = cuenta.getMoneda() == null ? new byte[0]
+                : cuenta.getMoneda().getCurrencyCode().getBytes(StandardCharsets.US_ASCII);
+        if (valor.length > 0xFFFF || valorDestino.length > 0xFFFF || nombreBytes.length > 0xFFFF)
+            throw new IllegalArgumentException("El movimiento es demasiado grande para el diario");
+
+        boolean conDestino = tipo == TRANSFERENCIA || tipo == CONVERSION;
+        int longitud = 1 + 8 + (conDestino ? 8 : 0) + 4 + 2 + valor.length
+                + (tipo == CONVERSION ? 4 + 2 + valorDestino.length : 0)
+                + (tipo == APERTURA ? 2 + nombreBytes.length + 2 + monedaBytes.length : 0);
+        ByteBuffer buffer = ByteBuffer.allocate(ENCABEZADO + longitud);
+        buffer.position(ENCABEZADO);
+        buffer.put(tipo);
+        buffer.putLong(id(cuenta));
+        if (conDestino)
+            buffer.putLong(id(destino));
+        buffer.putInt(monto == null ? 0 : monto.scale());
+        buffer.putShort((short) valor.length);
+        buffer.put(valor);
+        if (tipo == CONVERSION) {
+            buffer.putInt(montoDestino.scale());
+            buffer.putShort((short) valorDestino.length);
+            buffer.put(valorDestino);
+        }
+        if (tipo == APERTURA) {
+            buffer.putShort((short) nombreBytes.length);
+            buffer.put(nombreBytes);
+            buffer.putShort((short) monedaBytes.length);
+            buffer.put(monedaBytes);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), ENCABEZADO, longitud);
+        buffer.putInt(0, longitud);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    // los ids arrancan en 1, uso 0 para una cuenta que no esta registrada en ningun banco
+    private static long id(Cuenta cuenta) {
+        return cuenta.getId() == null ? 0 : cuenta.getId();
+    }
+
+    /*
+     * Lee los registros validos del diario y, si se pasa un destino, le pasa cada uno (sin
+     * el encabezado). Devuelve la posicion donde termina el ultimo registro valido.
+     */
+    private static long leer(Path archivo, Consumer<ByteBuffer> destino, long desde, long hasta) throws IOException {
+        byte[] registro = new byte[MAXIMO_REGISTRO];
+        CRC32 crc = new CRC32();
+        long posicion = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(archivo), 1 << 16))) {
+            while (posicion < hasta) {
+                int longitud;
+                int crcEsperado;
+                try {
+                    longitud = in.readInt();
+                    crcEsperado = in.readInt();
+                    // un registro vacio es la parte del archivo mapeado que todavia no se escribio
+                    if (longitud <= 0 || longitud > MAXIMO_REGISTRO)
+                        break;
+                    in.readFully(registro, 0, longitud);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(registro, 0, longitud);
+                if ((int) crc.getValue() != crcEsperado)
+                    break;
+
+                // antes de "desde" solo valido los registros, sin aplicarlos
+                if (destino != null && posicion >= desde)
+                    destino.accept(ByteBuffer.wrap(registro, 0, longitud));
+                posicion += ENCABEZADO + longitud;
+            }
+        }
+        return posicion;
+    }
+
+    /*
+     * Los debitos del diario ya fueron aprobados cuando se hicieron, asi que se reponen sin
+     * volver a controlar el saldo: las reglas (por ejemplo un descubierto) no se guardan en
+     * el diario, y la cuenta restaurada no las tiene
+     */
+    private static void aplicar(ByteBuffer registro, Banco banco) {
+        byte tipo = registro.get();
+        long id = registro.getLong();
+        long idDestino = tipo == TRANSFERENCIA || tipo == CONVERSION ? registro.getLong() : 0;
+        int escala = registro.getInt();
+        byte[] valor = new byte[Short.toUnsignedInt(registro.getShort())];
+        registro.get(valor);
+        BigDecimal monto = valor.length == 0 ? null : new BigDecimal(new BigInteger(valor), escala);
+
+        switch (tipo) {
+            case APERTURA -> {
+                byte[] nombre = new byte[Short.toUnsignedInt(registro.getShort())];
+                registro.get(nombre);
+                byte[] moneda = new byte[registro.hasRemaining() ? Short.toUnsignedInt(registro.getShort()) : 0];
+                registro.get(moneda);
+
+                // la cuenta ya puede venir de una instantanea tomada justo antes de esta apertura
+                if (banco.buscarCuenta(id).isPresent())
+                    return;
+
+                Cuenta cuenta = new Cuenta();
+                cuenta.setId(id);
+                cuenta.setNombre(nombre.length == 0 ? null : new String(nombre, StandardCharsets.UTF_8));
+                cuenta.setSaldo(monto);
+                if (moneda.length > 0)
+                    cuenta.setMoneda(Currency.getInstance(new String(moneda, StandardCharsets.US_ASCII)));
+                banco.agregarCuenta(cuenta);
+            }
+            case DEBITO -> banco.buscarCuenta(id).ifPresent(c -> c.reponerDebito(monto));
+            case CREDITO -> banco.buscarCuenta(id).ifPresent(c -> c.credito(monto));
+            case TRANSFERENCIA -> {
+                banco.buscarCuenta(id).ifPresent(c -> c.reponerDebito(monto));
+                banco.buscarCuenta(idDestino).ifPresent(c -> c.credito(monto));
+            }
+            case CONVERSION -> {
+                // el monto destino ya quedo convertido en el diario, no se vuelve a buscar la tasa
+                int escalaDestino = registro.getInt();
+                byte[] valorDestino = new byte[Short.toUnsignedInt(registro.getShort())];
+                registro.get(valorDestino);
+                BigDecimal montoDestino = new BigDecimal(new BigInteger(valorDestino), escalaDestino);
+                banco.buscarCuenta(id).ifPresent(c -> c.reponerDebito(monto));
+                banco.buscarCuenta(idDestino).ifPresent(c -> c.credito(montoDestino));
+            }
+            default -> throw new IllegalStateException("Tipo de registro desconocido en el diario: " + tipo);
+        }
+    }
+
+    /*
+     * Igual que aplicar() sobre un banco. Un valor de hasta 8 bytes entra en un long, asi
+     * que lo leo directo sin pasar por BigInteger ni BigDecimal
+     */
+    private static void aplicar(ByteBuffer registro, SaldosDiario saldos) {
+        byte tipo = registro.get();
+        long id = registro.getLong();
+        long idDestino = tipo == TRANSFERENCIA || tipo == CONVERSION ? registro.getLong() : 0;
+        int escala = registro.getInt();
+        int largo = Short.toUnsignedInt(registro.getShort());
+        int inicioValor = registro.position();
+
+        switch (tipo) {
+            case APERTURA -> {
+                byte[] valor = new byte[largo];
+                registro.get(valor);
+                saldos.abrir(id, largo == 0 ? null : new BigDecimal(new BigInteger(valor), escala));
+            }
+            case DEBITO -> mover(registro, largo, escala, saldos, id, true);
+            case CREDITO -> mover(registro, largo, escala, saldos, id, false);
+            case TRANSFERENCIA -> {
+                mover(registro, largo, escala, saldos, id, true);
+                registro.position(inicioValor);
+                mover(registro, largo, escala, saldos, idDestino, false);
+            }
+            case CONVERSION -> {
+                mover(registro, largo, escala, saldos, id, true);
+                int escalaDestino = registro.getInt();
+                int largoDestino = Short.toUnsignedInt(registro.getShort());
+                mover(registro, largoDestino, escalaDestino, saldos, idDestino, false);
+            }
+            default -> throw new IllegalStateException("Tipo de registro desconocido en el diario: " + tipo);
+        }
+    }
+
+    private static void mover(ByteBuffer registro, int largo, int escala, SaldosDiario saldos, long id, boolean debito) {
+        if (largo > Long.BYTES) {
+            byte[] valor = new byte[largo];
+            registro.get(valor);
+            BigDecimal monto = new BigDecimal(new BigInteger(valor), escala);
+            saldos.sumar(id, debito ? monto.negate() : monto);
+            return;
+        }
+
+        // el valor esta en complemento a 2, con el primer byte con signo
+        long unidades = largo == 0 ? 0 : registro.get();
+        for (int i = 1; i < largo; i++)
+            unidades = (unidades << 8) | (registro.get() & 0xFF);
+        if (!debito)
+            saldos.sumar(id, unidades, escala);
+        else if (unidades != Long.MIN_VALUE)
+            saldos.sumar(id, -unidades, escala);
+        else
+            saldos.sumar(id, BigDecimal.valueOf(unidades, escala).negate());
+    }
+}
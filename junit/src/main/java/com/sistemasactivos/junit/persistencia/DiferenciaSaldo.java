@@ -0,0 +1,10 @@
+package com.sistemasactivos.junit.persistencia;
+
+import java.math.BigDecimal;
+
+/*
+ * Cuenta cuyo saldo no coincide con lo que dice el diario. saldo es null si la cuenta
+ * solo esta en el diario y esperado es null si la cuenta no aparece en el diario.
+ */
+public record DiferenciaSaldo(long idCuenta, BigDecimal saldo, BigDecimal esperado) {
+}
@@ -0,0 +1,307 @@
+package com.sistemasactivos.junit.persistencia;
+
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.model.ObservadorMovimientos;
+import com.sistemasactivos.junit.model.TipoMovimiento;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Guarda las cuentas de un banco en la base de datos sin hacer un UPDATE por cada debito
+ * y cada credito (write-behind).
+ *
+ * Se registra como observador del banco y por cada movimiento solo anota que la cuenta
+ * cambio, en un Map por id: si una cuenta tiene mil movimientos entre dos escrituras,
+ * queda anotada una sola vez. Cada "intervalo", o antes si ya hay tamanoLote cuentas
+ * anotadas, un hilo aparte saca las anotaciones, lee el saldo actual de cada cuenta y lo
+ * escribe con un batch de JDBC, todo en una sola transaccion. Asi una escritura cubre
+ * miles de transferencias con un par de viajes a la base.
+ *
+ * El saldo se lee despues de sacar la anotacion: un movimiento que llega en el medio
+ * vuelve a anotar la cuenta y sale en la escritura siguiente, nunca se pierde.
+ *
+ * Bloqueo optimista: cada fila tiene una version (ver CuentaEntidad) y el UPDATE solo
+ * aplica si la version es la que escribimos la ultima vez. Si otro proceso cambio (o
+ * borro) la fila, el UPDATE no toca nada y la cuenta queda en conflicto: se cuenta (ver
+ * getConflictos), vaciar() la devuelve y no se vuelve a escribir, aunque tenga mas
+ * movimientos. Elegir que saldo vale no le toca a la escritura: pisar la fila con el saldo
+ * en memoria perderia el cambio del otro. El que llama decide, y si el saldo del banco es
+ * el bueno lo escribe con sobrescribirConflicto().
+ */
+public class EscrituraDiferida implements ObservadorMovimientos, Closeable {
+
+    private static final String INSERTAR =
+            "INSERT INTO cuenta (banco_id, numero, nombre, saldo, moneda, version) VALUES (?, ?, ?, ?, ?, 0)";
+    private static final String ACTUALIZAR =
+            "UPDATE cuenta SET saldo = ?, version = version + 1 WHERE banco_id = ? AND numero = ? AND version = ?";
+    private static final String VERSION =
+            "SELECT version FROM cuenta WHERE banco_id = ? AND numero = ?";
+
+    private final Banco banco;
+    private final long bancoId;
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transacciones;
+    private final int tamanoLote;
+    private final ScheduledExecutorService vaciador;
+
+    // cuentas con cambios todavia sin escribir, cada una una sola vez
+    private final ConcurrentMap<Long, Cuenta> altas = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Cuenta> pendientes = new ConcurrentHashMap<>();
+    private final AtomicBoolean vaciadoPedido = new AtomicBoolean();
+    // cuentas que no se escriben hasta que alguien resuelva el conflicto
+    private final ConcurrentMap<Long, Cuenta> enConflicto = new ConcurrentHashMap<>();
+
+    // version de cada fila segun nuestra ultima escritura, protegida por lockVaciado
+    private final ReentrantLock lockVaciado = new ReentrantLock();
+    private final Map<Long, Long> versiones = new HashMap<>();
+
+    private final LongAdder movimientos = new LongAdder();
+    private final AtomicLong vaciados = new AtomicLong();
+    private final AtomicLong filasEscritas = new AtomicLong();
+    private final AtomicLong conflictos = new AtomicLong();
+
+    public EscrituraDiferida(Banco banco, BancoRepositorio bancos, JdbcTemplate jdbc,
+                             PlatformTransactionManager transacciones, Duration intervalo, int tamanoLote) {
+        if (banco.getNombre() == null)
+            throw new IllegalArgumentException("Para guardar el banco tiene que tener nombre");
+        if (tamanoLote <= 0)
+            throw new IllegalArgumentException("El tamano del lote debe ser positivo");
+
+        this.banco = banco;
+        this.jdbc = jdbc;
+        this.transacciones = new TransactionTemplate(transacciones);
+        this.tamanoLote = tamanoLote;
+        this.bancoId = bancos.findByNombre(banco.getNombre())
+                .orElseGet(() -> bancos.save(new BancoEntidad(banco.getNombre())))
+                .getId();
+
+        // las cuentas que ya estan en la base se actualizan, las demas se insertan
+        jdbc.query("SELECT numero, version FROM cuenta WHERE banco_id = ?",
+                fila -> { versiones.put(fila.getLong(1), fila.getLong(2)); }, bancoId);
+
+        this.vaciador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "escritura-diferida-" + banco.getNombre());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+
+        // primero me registro y despues recorro, asi no se escapa ninguna apertura
+        banco.agregarObservador(this);
+        for (Cuenta cuenta : banco.getAlmacen().valores())
+            apertura(cuenta);
+
+        long nanos = intervalo.toNanos();
+        vaciador.scheduleWithFixedDelay(this::vaciarSinFallar, nanos, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void apertura(Cuenta cuenta) {
+        altas.put(cuenta.getId(), cuenta);
+        pedirVaciadoSiHaceFalta(altas);
+    }
+
+    @Override
+    public void movimiento(Cuenta cuenta, TipoMovimiento tipo, BigDecimal monto) {
+        anotar(cuenta);
+    }
+
+    @Override
+    public void transferencia(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        anotar(origen);
+        anotar(destino);
+    }
+
+    private void anotar(Cuenta cuenta) {
+        movimientos.increment();
+        Long id = cuenta.getId();
+        if (id == null)
+            return;
+        // containsKey no toma ningun lock, asi una cuenta muy usada no frena en el put
+        if (!pendientes.containsKey(id) && pendientes.putIfAbsent(id, cuenta) == null)
+            pedirVaciadoSiHaceFalta(pendientes);
+    }
+
+    private void pedirVaciadoSiHaceFalta(Map<Long, Cuenta> anotadas) {
+        if (anotadas.size() >= tamanoLote && vaciadoPedido.compareAndSet(false, true))
+            vaciador.execute(this::vaciarSinFallar);
+    }
+
+    private void vaciarSinFallar() {
+        try {
+            vaciar();
+        } catch (RuntimeException e) {
+            // las cuentas quedaron anotadas otra vez, se reintenta en el proximo intervalo
+        }
+    }
+
+    /*
+     * Escribe ya todo lo anotado y devuelve los ids de las cuentas que quedaron en
+     * conflicto en esta escritura. Lo llama el hilo del vaciador, pero tambien se puede
+     * llamar a mano, por ejemplo antes de apagar
+     */
+    public List<Long> vaciar() {
+        // ReentrantLock y no synchronized, para no clavar un hilo virtual mientras espera a la base
+        lockVaciado.lock();
+        try {
+            vaciadoPedido.set(false);
+            List<Cuenta> nuevas = sacar(altas);
+            List<Cuenta> cambiadas = sacar(pendientes);
+            // las que estan en conflicto no se escriben, sus movimientos se descartan
+            if (!enConflicto.isEmpty()) {
+                nuevas.removeIf(cuenta -> enConflicto.containsKey(cuenta.getId()));
+                cambiadas.removeIf(cuenta -> enConflicto.containsKey(cuenta.getId()));
+            }
+            if (nuevas.isEmpty() && cambiadas.isEmpty())
+                return List.of();
+
+            // las que no estan en la base se insertan con el saldo actual, aunque tambien hayan cambiado
+            Map<Long, Cuenta> porInsertar = new LinkedHashMap<>();
+            Map<Long, Cuenta> porActualizar = new LinkedHashMap<>();
+            for (List<Cuenta> cuentas : List.of(nuevas, cambiadas))
+                for (Cuenta cuenta : cuentas)
+                    (versiones.containsKey(cuenta.getId()) ? porActualizar : porInsertar).putIfAbsent(cuenta.getId(), cuenta);
+
+            List<Object[]> filasNuevas = new ArrayList<>(porInsertar.size());
+            for (Cuenta cuenta : porInsertar.values()) {
+                String moneda = cuenta.getMoneda() == null ? null : cuenta.getMoneda().getCurrencyCode();
+                filasNuevas.add(new Object[]{bancoId, cuenta.getId(), cuenta.getNombre(), cuenta.getSaldo(), moneda});
+            }
+            List<Object[]> filasCambiadas = new ArrayList<>(porActualizar.size());
+            for (Cuenta cuenta : porActualizar.values())
+                filasCambiadas.add(new Object[]{cuenta.getSaldo(), bancoId, cuenta.getId(), versiones.get(cuenta.getId())});
+
+            int[] actualizadas;
+            try {
+                actualizadas = transacciones.execute(estado -> {
+                    if (!filasNuevas.isEmpty())
+                        jdbc.batchUpdate(INSERTAR, filasNuevas);
+                    return filasCambiadas.isEmpty() ? new int[0] : jdbc.batchUpdate(ACTUALIZAR, filasCambiadas);
+                });
+            } catch (RuntimeException e) {
+                // la transaccion no se hizo: vuelvo a anotar todo para la proxima
+                porInsertar.forEach(altas::putIfAbsent);
+                porActualizar.forEach(pendientes::putIfAbsent);
+                throw e;
+            }
+
+            for (Long id : porInsertar.keySet())
+                versiones.put(id, 0L);
+            List<Long> nuevosConflictos = new ArrayList<>();
+            int i = 0;
+            for (Map.Entry<Long, Cuenta> entrada : porActualizar.entrySet()) {
+                // algunos drivers devuelven SUCCESS_NO_INFO (-2) en los batch, lo tomo como exito
+                if (actualizadas[i++] == 0) {
+                    conflictos.incrementAndGet();
+                    enConflicto.put(entrada.getKey(), entrada.getValue());
+                    nuevosConflictos.add(entrada.getKey());
+                } else {
+                    versiones.merge(entrada.getKey(), 1L, Long::sum);
+                }
+            }
+            vaciados.incrementAndGet();
+            filasEscritas.addAndGet(filasNuevas.size() + filasCambiadas.size() - nuevosConflictos.size());
+            return nuevosConflictos;
+        } finally {
+            lockVaciado.unlock();
+        }
+    }
+
+    /*
+     * Resuelve el conflicto a favor del banco: toma la version que tiene ahora la fila y
+     * anota la cuenta, asi el proximo vaciado escribe el saldo en memoria encima del cambio
+     * del otro. Si la fila ya no esta, la cuenta se vuelve a insertar. Devuelve false si la
+     * cuenta no estaba en conflicto
+     */
+    public boolean sobrescribirConflicto(long id) {
+        lockVaciado.lock();
+        try {
+            Cuenta cuenta = enConflicto.remove(id);
+            if (cuenta == null)
+                return false;
+            List<Long> version = jdbc.queryForList(VERSION, Long.class, bancoId, id);
+            if (version.isEmpty()) {
+                versiones.remove(id);
+                altas.putIfAbsent(id, cuenta);
+            } else {
+                versiones.put(id, version.get(0));
+                pendientes.putIfAbsent(id, cuenta);
+            }
+            return true;
+        } finally {
+            lockVaciado.unlock();
+        }
+    }
+
+    private static List<Cuenta> sacar(ConcurrentMap<Long, Cuenta> anotadas) {
+        List<Cuenta> cuentas = new ArrayList<>();
+        for (Iterator<Cuenta> it = anotadas.values().iterator(); it.hasNext(); ) {
+            cuentas.add(it.next());
+            it.remove();
+        }
+        return cuentas;
+    }
+
+    public long getBancoId() {
+        return bancoId;
+    }
+
+    // movimientos observados, contra getVaciados() que es la cantidad de transacciones a la base
+    public long getMovimientos() {
+        return movimientos.sum();
+    }
+
+    public long getVaciados() {
+        return vaciados.get();
+    }
+
+    public long getFilasEscritas() {
+        return filasEscritas.get();
+    }
+
+    // conflictos que hubo en total, contando los que ya se resolvieron
+    public long getConflictos() {
+        return conflictos.get();
+    }
+
+    // las cuentas que no se estan escribiendo hasta que se resuelva su conflicto
+    public List<Long> getCuentasEnConflicto() {
+        return List.copyOf(enConflicto.keySet());
+    }
+
+    /*
+     * Deja de observar el banco y escribe lo que haya quedado anotado. Las cuentas en
+     * conflicto quedan sin escribir
+     */
+    @Override
+    public void close() {
+        banco.quitarObservador(this);
+        vaciador.shutdown();
+        try {
+            vaciador.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        vaciar();
+    }
+}
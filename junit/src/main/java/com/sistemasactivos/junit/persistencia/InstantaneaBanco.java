@@ -0,0 +1,299 @@
+package com.sistemasactivos.junit.persistencia;
+
+import com.sistemasactivos.junit.model.AlmacenColumnar;
+import com.sistemasactivos.junit.model.AlmacenCuentas;
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.model.CuentaAtomica;
+import com.sistemasactivos.junit.model.CuentaColumnar;
+import com.sistemasactivos.junit.model.CuentaFragmentada;
+import com.sistemasactivos.junit.model.CuentaPuntoFijo;
+import com.sistemasactivos.junit.model.FotoSaldos;
+import com.sistemasactivos.junit.model.RegistroCuentas;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Currency;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/*
+ * Instantanea (snapshot) binaria de un banco completo: nombre del banco, cuentas y saldos.
+ *
+ * El corte se toma con FotoSaldos.capturarCorte(), que valida las versiones de las franjas
+ * del motor y solo vuelve a copiar (o, si no hay caso, bloquea) las franjas que cambiaron,
+ * asi que las transferencias no se frenan mientras se copian millones de cuentas. La
+ * escritura al archivo se hace despues, con las transferencias andando. Los debitos y
+ * creditos que se hacen directo sobre una cuenta, fuera del motor, no quedan sincronizados
+ * con el corte.
+ *
+ * Formato:
+ *   int MAGICO | short VERSION | nombre del banco | almacen | long posicionDiario |
+ *   long cantidad | por cada cuenta: long id | nombre | moneda | tipo | saldo |
+ *   al final long crc32 de todo lo anterior
+ *
+ * El almacen es un byte (ALMACEN_REGISTRO o ALMACEN_COLUMNAR); el columnar sigue con
+ * int capacidad | int escala | int bytesNombres | moneda. El tipo de cuenta es un byte
+ * (CUENTA, PUNTO_FIJO, ATOMICA, FRAGMENTADA o COLUMNAR); los de punto fijo siguen con la
+ * int escala y la fragmentada ademas con int cantidadCeldas. Las reglas de debito no se
+ * guardan, igual que en el diario.
+ *
+ * La moneda es el codigo ISO 4217 y se agrego en la version 2, el almacen y el tipo en la
+ * version 3; las versiones anteriores se siguen leyendo, con todas las cuentas como Cuenta.
+ *
+ * El saldo se guarda como un long sin escala si entra, sino como los bytes del BigInteger.
+ */
+@Getter
+@AllArgsConstructor
+public class InstantaneaBanco {
+
+    private static final int MAGICO = 0x424E434F; // "BNCO"
+    private static final short VERSION = 3;
+    private static final int TAMANO_BUFFER = 1 << 20;
+
+    private static final byte SALDO_NULO = 0;
+    private static final byte SALDO_LONG = 1;
+    private static final byte SALDO_GRANDE = 2;
+
+    private static final byte ALMACEN_REGISTRO = 0;
+    private static final byte ALMACEN_COLUMNAR = 1;
+
+    private static final byte CUENTA = 0;
+    private static final byte PUNTO_FIJO = 1;
+    private static final byte ATOMICA = 2;
+    private static final byte FRAGMENTADA = 3;
+    private static final byte COLUMNAR = 4;
+
+    private final Banco banco;
+
+    // posicion del diario en el momento del corte, o -1 si no habia diario
+    private final long posicionDiario;
+
+    public static void escribir(Banco banco, Path archivo) throws IOException {
+        escribir(banco, archivo, null);
+    }
+
+    /*
+     * Si se pasa el diario, se guarda su tamano en el momento del corte, leido dentro de
+     * la misma validacion que los saldos. Como el diario escribe las transferencias con
+     * las franjas bloqueadas, al recuperar alcanza con reproducir el diario desde esa
+     * posicion.
+     */
+    public static void escribir(Banco banco, Path archivo, DiarioMovimientos diario) throws IOException {
+        FotoSaldos corte = FotoSaldos.capturarCorte(banco, diario == null ? null : diario::getTamano);
+
+        // escribo en un temporal y lo muevo, asi nunca queda una instantanea a medio escribir
+        Path temporal = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileChannel canal = FileChannel.open(temporal, CREATE, TRUNCATE_EXISTING, WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     new CheckedOutputStream(Channels.newOutputStream(canal), crc), TAMANO_BUFFER))) {
+            out.writeInt(MAGICO);
+            out.writeShort(VERSION);
+            escribirTexto(out, banco.getNombre());
+            escribirAlmacen(out, banco.getAlmacen());
+            out.writeLong(corte.getPosicion());
+            out.writeLong(corte.getCantidad());
+
+            for (FotoSaldos.Tramo tramo : corte.getTramos()) {
+                for (int i = 0; i < tramo.getCantidad(); i++) {
+                    Cuenta cuenta = tramo.getCuenta(i);
+                    out.writeLong(tramo.getId(i));
+                    escribirTexto(out, cuenta.getNombre());
+                    escribirTexto(out, codigo(cuenta.getMoneda()));
+                    escribirTipo(out, cuenta);
+                    escribirSaldo(out, tramo.getSaldo(i));
+                }
+            }
+
+            // el crc cubre todo lo escrito hasta aca
+            out.flush();
+            out.writeLong(crc.getValue());
+
+            // el temporal tiene que estar en el disco antes del move, sino un corte de luz
+            // puede dejar el nombre nuevo apuntando a un archivo vacio
+            out.flush();
+            canal.force(true);
+        }
+        Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sincronizarDirectorio(archivo.toAbsolutePath().getParent());
+    }
+
+    /*
+     * El move cambia la entrada del directorio, que se guarda aparte del archivo. En Windows
+     * un directorio no se puede abrir con FileChannel (AccessDeniedException): ahi no se
+     * sincroniza
+     */
+    private static void sincronizarDirectorio(Path directorio) throws IOException {
+        if (directorio == null)
+            return;
+        try (FileChannel canal = FileChannel.open(directorio, READ)) {
+            canal.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows, ver arriba
+        }
+    }
+
+    public static InstantaneaBanco cargar(Path archivo) throws IOException {
+        CRC32 crc = new CRC32();
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(archivo), TAMANO_BUFFER), crc);
+             DataInputStream in = new DataInputStream(checked)) {
+
+            if (in.readInt() != MAGICO)
+                throw new IOException("El archivo no es una instantanea de banco: " + archivo);
+            short version = in.readShort();
+            if (version < 1 || version > VERSION)
+                throw new IOException("Version de instantanea no soportada: " + version);
+
+            String nombreBanco = leerTexto(in);
+            Banco banco = version >= 3 ? new Banco(nombreBanco, leerAlmacen(in)) : new Banco(nombreBanco);
+            long posicionDiario = in.readLong();
+            long cantidad = in.readLong();
+
+            for (long i = 0; i < cantidad; i++) {
+                long id = in.readLong();
+                String nombre = leerTexto(in);
+                String moneda = version >= 2 ? leerTexto(in) : null;
+                Cuenta cuenta = version >= 3 ? leerTipo(in) : new Cuenta();
+                cuenta.setId(id);
+                cuenta.setNombre(nombre);
+                if (moneda != null)
+                    cuenta.setMoneda(Currency.getInstance(moneda));
+                cuenta.setSaldo(leerSaldo(in));
+                banco.agregarCuenta(cuenta);
+            }
+
+            long esperado = crc.getValue();
+            if (in.readLong() != esperado)
+                throw new IOException("La instantanea esta corrupta: " + archivo);
+
+            return new InstantaneaBanco(banco, posicionDiario);
+        }
+    }
+
+    private static void escribirAlmacen(DataOutputStream out, AlmacenCuentas almacen) throws IOException {
+        if (almacen instanceof AlmacenColumnar columnar) {
+            out.writeByte(ALMACEN_COLUMNAR);
+            out.writeInt(columnar.getCapacidad());
+            out.writeInt(columnar.getEscala());
+            out.writeInt(columnar.getBytesNombres());
+            escribirTexto(out, codigo(columnar.getMoneda()));
+        } else {
+            out.writeByte(ALMACEN_REGISTRO);
+        }
+    }
+
+    private static AlmacenCuentas leerAlmacen(DataInputStream in) throws IOException {
+        byte tipo = in.readByte();
+        return switch (tipo) {
+            case ALMACEN_REGISTRO -> new RegistroCuentas();
+            case ALMACEN_COLUMNAR -> {
+                int capacidad = in.readInt();
+                int escala = in.readInt();
+                int bytesNombres = in.readInt();
+                String moneda = leerTexto(in);
+                yield new AlmacenColumnar(capacidad, escala, bytesNombres, moneda == null ? null : Currency.getInstance(moneda));
+            }
+            default -> throw new IOException("Tipo de almacen desconocido en la instantanea: " + tipo);
+        };
+    }
+
+    // de la mas especifica a la menos, porque todas las de punto fijo heredan de CuentaPuntoFijo
+    private static void escribirTipo(DataOutputStream out, Cuenta cuenta) throws IOException {
+        if (cuenta instanceof CuentaColumnar) {
+            // la escala es la del almacen
+            out.writeByte(COLUMNAR);
+        } else if (cuenta instanceof CuentaFragmentada fragmentada) {
+            out.writeByte(FRAGMENTADA);
+            out.writeInt(fragmentada.getEscala());
+            out.writeInt(fragmentada.getCantidadCeldas());
+        } else if (cuenta instanceof CuentaAtomica atomica) {
+            out.writeByte(ATOMICA);
+            out.writeInt(atomica.getEscala());
+        } else if (cuenta instanceof CuentaPuntoFijo fija) {
+            out.writeByte(PUNTO_FIJO);
+            out.writeInt(fija.getEscala());
+        } else {
+            out.writeByte(CUENTA);
+        }
+    }
+
+    /*
+     * Una cuenta columnar se restaura como una Cuenta comun: el almacen copia sus datos a
+     * las columnas al registrarla y devuelve la vista
+     */
+    private static Cuenta leerTipo(DataInputStream in) throws IOException {
+        byte tipo = in.readByte();
+        return switch (tipo) {
+            case CUENTA, COLUMNAR -> new Cuenta();
+            case PUNTO_FIJO -> new CuentaPuntoFijo(in.readInt());
+            case ATOMICA -> new CuentaAtomica(in.readInt());
+            case FRAGMENTADA -> {
+                int escala = in.readInt();
+                yield new CuentaFragmentada(escala, in.readInt());
+            }
+            default -> throw new IOException("Tipo de cuenta desconocido en la instantanea: " + tipo);
+        };
+    }
+
+    private static String codigo(Currency moneda) {
+        return moneda == null ? null : moneda.getCurrencyCode();
+    }
+
+    private static void escribirTexto(DataOutputStream out, String texto) throws IOException {
+        out.writeBoolean(texto != null);
+        if (texto != null)
+            out.writeUTF(texto);
+    }
+
+    private static String leerTexto(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void escribirSaldo(DataOutputStream out, BigDecimal saldo) throws IOException {
+        if (saldo == null) {
+            out.writeByte(SALDO_NULO);
+            return;
+        }
+
+        BigInteger sinEscala = saldo.unscaledValue();
+        if (sinEscala.bitLength() < 64) {
+            out.writeByte(SALDO_LONG);
+            out.writeLong(sinEscala.longValue());
+        } else {
+            byte[] bytes = sinEscala.toByteArray();
+            out.writeByte(SALDO_GRANDE);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+        out.writeInt(saldo.scale());
+    }
+
+    private static BigDecimal leerSaldo(DataInputStream in) throws IOException {
+        byte tipo = in.readByte();
+        if (tipo == SALDO_NULO)
+            return null;
+
+        if (tipo == SALDO_LONG) {
+            long sinEscala = in.readLong();
+            return BigDecimal.valueOf(sinEscala, in.readInt());
+        }
+
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new BigDecimal(new BigInteger(bytes), in.readInt());
+    }
+}
@@ -0,0 +1,24 @@
+package com.sistemasactivos.junit.persistencia;
+
+/*
+ * Cuando se fuerza a disco (fsync) lo escrito en el diario de movimientos
+ */
+public enum PoliticaSincronizacion {
+    /*
+     * Cada movimiento espera a estar en disco antes de volver. Los hilos que escriben a la
+     * vez se agrupan (group commit): uno solo hace el fsync y libera a todos los demas.
+     */
+    CADA_MOVIMIENTO,
+
+    /*
+     * Un hilo de fondo hace el fsync cada cierto intervalo. Ante un corte de luz se pueden
+     * perder los movimientos del ultimo intervalo.
+     */
+    PERIODICA,
+
+    /*
+     * Nunca se hace fsync, el sistema operativo escribe cuando quiere. Sobrevive a que se
+     * caiga el proceso pero no a que se caiga la maquina.
+     */
+    NINGUNA
+}
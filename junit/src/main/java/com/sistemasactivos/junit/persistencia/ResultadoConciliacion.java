@@ -0,0 +1,16 @@
+package com.sistemasactivos.junit.persistencia;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/*
+ * Resultado de ConciliacionDiario.conciliar(). diferencias trae como mucho las primeras
+ * ConciliacionDiario.MAXIMO_DIFERENCIAS; cantidadDiferencias es el numero real.
+ */
+public record ResultadoConciliacion(long posicionDiario, long cuentas, BigDecimal totalBanco, BigDecimal totalDiario,
+                                   long cantidadDiferencias, List<DiferenciaSaldo> diferencias) {
+
+    public boolean isConciliado() {
+        return cantidadDiferencias == 0;
+    }
+}
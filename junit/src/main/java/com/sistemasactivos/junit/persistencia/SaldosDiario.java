@@ -0,0 +1,207 @@
+package com.sistemasactivos.junit.persistencia;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+/*
+ * Saldos que surgen de reproducir el diario, guardados en arreglos de unidades en vez de
+ * un Banco con un objeto Cuenta (y su BigDecimal) por cuenta. Con decenas de millones de
+ * cuentas ese Banco no entra en el heap, y reproducir el diario sobre el es crear un
+ * BigDecimal nuevo por cada movimiento.
+ *
+ * El id es la posicion en paginas de PAGINA cuentas que se crean a pedido, asi que con ids
+ * correlativos (los de RegistroCuentas y AlmacenColumnar) cada cuenta ocupa un long y un
+ * int. Cada cuenta tiene su propia escala, que crece si llega un movimiento con mas
+ * decimales; el saldo que no entra en un long pasa a un BigDecimal aparte, como en
+ * FotoSaldos.
+ *
+ * Se llena desde un solo hilo (ver DiarioMovimientos.reproducirSaldos()); una vez lleno se
+ * puede leer desde varios.
+ */
+class SaldosDiario {
+
+    private static final int BITS_PAGINA = 16;
+    private static final int PAGINA = 1 << BITS_PAGINA;
+    private static final int MASCARA = PAGINA - 1;
+    private static final long ID_MAXIMO = ((long) Integer.MAX_VALUE << BITS_PAGINA) | MASCARA;
+
+    // marcas en la columna de escalas, que nunca son escalas de una cuenta en unidades
+    private static final int AUSENTE = Integer.MIN_VALUE;
+    private static final int SIN_SALDO = Integer.MIN_VALUE + 1;
+    private static final int GRANDE = Integer.MIN_VALUE + 2;
+
+    private static final long[] POTENCIAS_10 = new long[19];
+
+    static {
+        POTENCIAS_10[0] = 1;
+        for (int i = 1; i < POTENCIAS_10.length; i++)
+            POTENCIAS_10[i] = POTENCIAS_10[i - 1] * 10;
+    }
+
+    private long[][] unidades = new long[0][];
+    private int[][] escalas = new int[0][];
+    // saldos que no entran en un long, o con una escala que no se puede llevar a unidades
+    private final Map<Long, BigDecimal> grandes = new HashMap<>();
+    private long cantidad;
+
+    /*
+     * Una apertura repetida se ignora, igual que al reproducir sobre un banco: la cuenta
+     * puede venir de antes
+     */
+    void abrir(long id, BigDecimal saldo) {
+        if (id < 1 || contiene(id))
+            return;
+        if (id > ID_MAXIMO)
+            throw new IllegalArgumentException("El id " + id + " no entra en los saldos del diario");
+
+        int pagina = (int) (id >>> BITS_PAGINA);
+        if (pagina >= escalas.length) {
+            int largo = Math.max(pagina + 1, (int) Math.min(escalas.length * 2L, Integer.MAX_VALUE));
+            unidades = Arrays.copyOf(unidades, largo);
+            escalas = Arrays.copyOf(escalas, largo);
+        }
+        if (escalas[pagina] == null) {
+            unidades[pagina] = new long[PAGINA];
+            escalas[pagina] = new int[PAGINA];
+            Arrays.fill(escalas[pagina], AUSENTE);
+        }
+
+        cantidad++;
+        if (saldo == null)
+            escalas[pagina][(int) id & MASCARA] = SIN_SALDO;
+        else
+            asignar(id, saldo);
+    }
+
+    // suma unidades con la escala dada, negativas para un debito; los ids que no se abrieron se ignoran
+    void sumar(long id, long monto, int escalaMonto) {
+        int escala = escala(id);
+        if (escala == AUSENTE || escala == SIN_SALDO)
+            return;
+        if (escala == GRANDE) {
+            grandes.merge(id, BigDecimal.valueOf(monto, escalaMonto), BigDecimal::add);
+            return;
+        }
+
+        int pagina = (int) (id >>> BITS_PAGINA);
+        int posicion = (int) id & MASCARA;
+        long actual = unidades[pagina][posicion];
+        int diferencia = escalaMonto - escala;
+        try {
+            if (diferencia > 0 && escalaMonto < POTENCIAS_10.length) {
+                // el movimiento tiene mas decimales: paso la cuenta a su escala
+                unidades[pagina][posicion] = Math.addExact(Math.multiplyExact(actual, POTENCIAS_10[diferencia]), monto);
+                escalas[pagina][posicion] = escalaMonto;
+            } else if (diferencia <= 0 && -diferencia < POTENCIAS_10.length) {
+                unidades[pagina][posicion] = Math.addExact(actual, Math.multiplyExact(monto, POTENCIAS_10[-diferencia]));
+            } else {
+                throw new ArithmeticException();
+            }
+        } catch (ArithmeticException e) {
+            asignar(id, BigDecimal.valueOf(actual, escala).add(BigDecimal.valueOf(monto, escalaMonto)));
+        }
+    }
+
+    void sumar(long id, BigDecimal monto) {
+        BigDecimal actual = saldo(id);
+        if (actual != null)
+            asignar(id, actual.add(monto));
+    }
+
+    boolean contiene(long id) {
+        return escala(id) != AUSENTE;
+    }
+
+    // null si la cuenta no esta o no tiene saldo
+    BigDecimal saldo(long id) {
+        int escala = escala(id);
+        if (escala == AUSENTE || escala == SIN_SALDO)
+            return null;
+        if (escala == GRANDE)
+            return grandes.get(id);
+        return BigDecimal.valueOf(unidades[(int) (id >>> BITS_PAGINA)][(int) id & MASCARA], escala);
+    }
+
+    long cantidad() {
+        return cantidad;
+    }
+
+    void recorrerIds(LongConsumer accion) {
+        for (int pagina = 0; pagina < escalas.length; pagina++) {
+            if (escalas[pagina] == null)
+                continue;
+            for (int posicion = 0; posicion < PAGINA; posicion++)
+                if (escalas[pagina][posicion] != AUSENTE)
+                    accion.accept(((long) pagina << BITS_PAGINA) | posicion);
+        }
+    }
+
+    /*
+     * Suma exacta de los saldos. Sumo en un long por escala y solo paso a BigInteger lo
+     * que se desborda, asi no se crea un objeto por cuenta
+     */
+    BigDecimal total() {
+        long[] sumas = new long[POTENCIAS_10.length];
+        BigInteger[] excedentes = new BigInteger[POTENCIAS_10.length];
+        BigDecimal total = BigDecimal.ZERO;
+
+        for (int pagina = 0; pagina < escalas.length; pagina++) {
+            if (escalas[pagina] == null)
+                continue;
+            for (int posicion = 0; posicion < PAGINA; posicion++) {
+                int escala = escalas[pagina][posicion];
+                if (escala < 0 || escala >= POTENCIAS_10.length)
+                    continue;
+                long valor = unidades[pagina][posicion];
+                long nueva = sumas[escala] + valor;
+                // desborde: los dos sumandos tienen el mismo signo y el resultado otro
+                if (((sumas[escala] ^ nueva) & (valor ^ nueva)) < 0) {
+                    BigInteger excedente = excedentes[escala] == null ? BigInteger.ZERO : excedentes[escala];
+                    excedentes[escala] = excedente.add(BigInteger.valueOf(sumas[escala]));
+                    nueva = valor;
+                }
+                sumas[escala] = nueva;
+            }
+        }
+
+        for (int escala = 0; escala < sumas.length; escala++) {
+            BigInteger suma = BigInteger.valueOf(sumas[escala]);
+            if (excedentes[escala] != null)
+                suma = suma.add(excedentes[escala]);
+            if (suma.signum() != 0)
+                total = total.add(new BigDecimal(suma, escala));
+        }
+        for (BigDecimal grande : grandes.values())
+            total = total.add(grande);
+        return total;
+    }
+
+    private int escala(long id) {
+        if (id < 1 || id > ID_MAXIMO)
+            return AUSENTE;
+        int pagina = (int) (id >>> BITS_PAGINA);
+        if (pagina >= escalas.length || escalas[pagina] == null)
+            return AUSENTE;
+        return escalas[pagina][(int) id & MASCARA];
+    }
+
+    // la cuenta ya tiene que tener su pagina
+    private void asignar(long id, BigDecimal saldo) {
+        int pagina = (int) (id >>> BITS_PAGINA);
+        int posicion = (int) id & MASCARA;
+        BigInteger sinEscala = saldo.unscaledValue();
+        if (saldo.scale() >= 0 && saldo.scale() < POTENCIAS_10.length && sinEscala.bitLength() < 64) {
+            unidades[pagina][posicion] = sinEscala.longValue();
+            escalas[pagina][posicion] = saldo.scale();
+            grandes.remove(id);
+        } else {
+            unidades[pagina][posicion] = 0;
+            escalas[pagina][posicion] = GRANDE;
+            grandes.put(id, saldo);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.sistemasactivos.junit.reglas;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/*
+ * Las ReglasDebito compiladas para una cuenta. Los limites ya estan en unidades minimas
+ * de la escala de la cuenta y solo quedan los contadores de las reglas que se definieron,
+ * asi que evaluar un debito es recorrer un arreglo chico haciendo cuentas con long.
+ *
+ * La usan los aplicarIntentoDebito de las cuentas:
+ *
+ *   - el descubierto corre el piso del saldo de 0 a -descubierto, y lo verifica cada
+ *     cuenta con su propia representacion del saldo (ver getDescubiertoUnidades)
+ *   - los contadores (tope diario, velocidad) se consultan antes de tocar el saldo y solo
+ *     se suman si el debito se aprobo, todo con el lock de la cadena tomado, asi dos
+ *     debitos a la vez no pueden pasar juntos el mismo limite. Con contadores, los
+ *     debitos directos de una CuentaAtomica quedan en fila; los creditos no pasan por aca
+ *
+ * Un debito que no cumple una regla se rechaza igual que uno sin saldo: DINERO_INSUFICIENTE
+ * o DineroInsuficienteException. Que regla lo rechazo se cuenta en getRechazos().
+ */
+public final class CadenaReglas {
+
+    @Getter
+    private final ReglasDebito definicion;
+    @Getter
+    private final int escala;
+    @Getter
+    private final BigDecimal descubierto;
+    @Getter
+    private final long descubiertoUnidades;
+
+    private final ContadorVentana[] contadores;
+    private final LongSupplier reloj;
+    private final ReentrantLock lock = new ReentrantLock();
+    // momento del debito que se esta evaluando, protegido por el lock
+    private long ahora;
+
+    private final LongAdder[] rechazos = new LongAdder[TipoRegla.values().length];
+
+    CadenaReglas(ReglasDebito definicion, int escala, BigDecimal descubierto, long descubiertoUnidades,
+                 ContadorVentana[] contadores, LongSupplier reloj) {
+        this.definicion = definicion;
+        this.escala = escala;
+        this.descubierto = descubierto;
+        this.descubiertoUnidades = descubiertoUnidades;
+        this.contadores = contadores;
+        this.reloj = reloj;
+        for (int i = 0; i < rechazos.length; i++)
+            rechazos[i] = new LongAdder();
+    }
+
+    public boolean tieneContadores() {
+        return contadores.length > 0;
+    }
+
+    /*
+     * Monto en unidades minimas para los contadores, para las cuentas con saldo BigDecimal.
+     * Si tiene mas decimales que la escala se redondea para arriba: el tope nunca se pasa
+     */
+    public long unidades(BigDecimal monto) {
+        return monto.setScale(escala, RoundingMode.CEILING).unscaledValue().longValueExact();
+    }
+
+    public void bloquear() {
+        lock.lock();
+    }
+
+    public void desbloquear() {
+        lock.unlock();
+    }
+
+    /*
+     * Con el lock tomado: si el debito entra en todos los contadores. Si no entra cuenta
+     * el rechazo de la primera regla que no cumple
+     */
+    public boolean admite(long monto) {
+        ahora = reloj.getAsLong();
+        for (ContadorVentana contador : contadores) {
+            if (!contador.admite(ahora, monto)) {
+                rechazos[contador.getTipo().ordinal()].increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // con el lock tomado, despues de admite() y de aprobar el debito
+    public void registrar(long monto) {
+        for (ContadorVentana contador : contadores)
+            contador.registrar(monto);
+    }
+
+    public void rechazoPorSaldo() {
+        rechazos[TipoRegla.SALDO.ordinal()].increment();
+    }
+
+    public long getRechazos(TipoRegla tipo) {
+        return rechazos[tipo.ordinal()].sum();
+    }
+
+    /*
+     * Lo que ya se uso de la regla dentro de su ventana, en unidades minimas (tope diario)
+     * o en cantidad de debitos (velocidad); 0 si la regla no esta definida
+     */
+    public long usado(TipoRegla tipo) {
+        lock.lock();
+        try {
+            long momento = reloj.getAsLong();
+            for (ContadorVentana contador : contadores)
+                if (contador.getTipo() == tipo) {
+                    contador.admite(momento, 0);
+                    return contador.getTotal();
+                }
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.sistemasactivos.junit.reglas;
+
+import java.time.Duration;
+
+/*
+ * Suma de los ultimos debitos (su cantidad o sus montos) dentro de una ventana que se va
+ * corriendo con el tiempo.
+ *
+ * La ventana se divide en CUBETAS cubetas de tiempo iguales. Cada debito se suma en la
+ * cubeta del momento en que se hizo, y cuando la ventana deja atras una cubeta entera se
+ * resta del total de una vez: consultar y registrar es O(1), sin guardar cada debito.
+ * El precio es la granularidad: un debito deja de contar entre ventana - ventana/CUBETAS
+ * y ventana despues de hecho.
+ *
+ * No es thread-safe: lo protege el lock de la CadenaReglas.
+ */
+final class ContadorVentana {
+
+    static final int CUBETAS = 32;
+
+    private final TipoRegla tipo;
+    private final long limite;
+    // true si suma los montos, false si cuenta los debitos
+    private final boolean porMonto;
+    private final long anchoCubeta;
+
+    // numero de cubeta (tiempo / anchoCubeta) que tiene guardada cada posicion
+    private final long[] cubetas = new long[CUBETAS];
+    private final long[] valores = new long[CUBETAS];
+    private long total;
+    private long cubetaActual = Long.MIN_VALUE;
+
+    ContadorVentana(TipoRegla tipo, long limite, boolean porMonto, Duration ventana) {
+        this.tipo = tipo;
+        this.limite = limite;
+        this.porMonto = porMonto;
+        this.anchoCubeta = Math.max(ventana.toNanos() / CUBETAS, 1);
+    }
+
+    TipoRegla getTipo() {
+        return tipo;
+    }
+
+    boolean admite(long ahora, long monto) {
+        avanzar(ahora);
+        // limite - total no desborda porque total nunca pasa el limite
+        return peso(monto) <= limite - total;
+    }
+
+    // solo despues de admite() con el mismo "ahora"
+    void registrar(long monto) {
+        int posicion = (int) Math.floorMod(cubetaActual, CUBETAS);
+        long peso = peso(monto);
+        valores[posicion] += peso;
+        total += peso;
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    private long peso(long monto) {
+        // un debito negativo es un credito: cuenta como debito pero no suma monto
+        return porMonto ? Math.max(monto, 0) : 1;
+    }
+
+    private void avanzar(long ahora) {
+        // nanoTime puede ser negativo, por eso floorDiv
+        long cubeta = Math.floorDiv(ahora, anchoCubeta);
+        if (cubeta == cubetaActual)
+            return;
+        // cambia una vez por cubeta: saco las que quedaron fuera de la ventana
+        for (int i = 0; i < CUBETAS; i++) {
+            if (valores[i] != 0 && cubetas[i] <= cubeta - CUBETAS) {
+                total -= valores[i];
+                valores[i] = 0;
+            }
+        }
+        int posicion = (int) Math.floorMod(cubeta, CUBETAS);
+        if (cubetas[posicion] != cubeta) {
+            total -= valores[posicion];
+            valores[posicion] = 0;
+            cubetas[posicion] = cubeta;
+        }
+        cubetaActual = cubeta;
+    }
+}
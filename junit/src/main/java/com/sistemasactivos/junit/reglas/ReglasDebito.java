@@ -0,0 +1,105 @@
+package com.sistemasactivos.junit.reglas;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/*
+ * Las reglas que tiene que cumplir un debito, ademas de que haya saldo:
+ *
+ *   descubierto  cuanto puede quedar negativo el saldo (0 si no se define)
+ *   topeDiario   cuanto se puede debitar en total en las ultimas 24 horas
+ *   velocidad    cuantos debitos se pueden hacer como maximo en una ventana de tiempo
+ *
+ * Es solo la definicion, y se puede compartir entre muchas cuentas (por ejemplo todas las
+ * de un mismo producto). Al asignarla a una cuenta con Cuenta.setReglas() se compila una
+ * CadenaReglas propia de la cuenta, con los limites ya pasados a su escala y sus propios
+ * contadores; cambiar la definicion despues no cambia las cuentas que ya la tienen.
+ *
+ *   cuenta.setReglas(new ReglasDebito()
+ *           .descubierto(new BigDecimal("5000"))
+ *           .topeDiario(new BigDecimal("20000"))
+ *           .velocidad(10, Duration.ofMinutes(1)));
+ */
+@Getter
+public class ReglasDebito {
+
+    public static final Duration DIA = Duration.ofDays(1);
+
+    private BigDecimal descubierto = BigDecimal.ZERO;
+    // null si no hay tope
+    private BigDecimal topeDiario;
+    // 0 si no hay limite de velocidad
+    private int velocidad;
+    private Duration ventanaVelocidad;
+
+    @Getter(AccessLevel.NONE)
+    private LongSupplier reloj = RelojGrueso::ahora;
+
+    public ReglasDebito descubierto(BigDecimal descubierto) {
+        if (descubierto.signum() < 0)
+            throw new IllegalArgumentException("El descubierto no puede ser negativo");
+        this.descubierto = descubierto;
+        return this;
+    }
+
+    public ReglasDebito topeDiario(BigDecimal tope) {
+        if (tope.signum() <= 0)
+            throw new IllegalArgumentException("El tope diario tiene que ser positivo");
+        this.topeDiario = tope;
+        return this;
+    }
+
+    public ReglasDebito velocidad(int debitos, Duration ventana) {
+        if (debitos <= 0)
+            throw new IllegalArgumentException("La cantidad de debitos tiene que ser positiva");
+        if (ventana.isNegative() || ventana.isZero())
+            throw new IllegalArgumentException("La ventana tiene que ser positiva");
+        this.velocidad = debitos;
+        this.ventanaVelocidad = ventana;
+        return this;
+    }
+
+    // para los tests, con un reloj en nanos que se adelanta a mano
+    ReglasDebito reloj(LongSupplier reloj) {
+        this.reloj = reloj;
+        return this;
+    }
+
+    /*
+     * Escala minima para representar los limites sin redondear, para las cuentas que no
+     * tienen una escala propia
+     */
+    public int escalaMinima() {
+        int escala = Math.max(descubierto.scale(), 0);
+        if (topeDiario != null)
+            escala = Math.max(escala, topeDiario.scale());
+        return escala;
+    }
+
+    /*
+     * Arma la cadena de una cuenta con saldos en unidades minimas de la escala dada. Los
+     * limites tienen que entrar en esa escala sin redondear
+     */
+    public CadenaReglas compilar(int escala) {
+        int cantidad = (topeDiario == null ? 0 : 1) + (velocidad == 0 ? 0 : 1);
+        ContadorVentana[] contadores = new ContadorVentana[cantidad];
+        int i = 0;
+        if (topeDiario != null)
+            contadores[i++] = new ContadorVentana(TipoRegla.TOPE_DIARIO, unidades(topeDiario, escala), true, DIA);
+        if (velocidad != 0)
+            contadores[i] = new ContadorVentana(TipoRegla.VELOCIDAD, velocidad, false, ventanaVelocidad);
+        return new CadenaReglas(this, escala, descubierto, unidades(descubierto, escala), contadores, reloj);
+    }
+
+    private static long unidades(BigDecimal monto, int escala) {
+        try {
+            return monto.setScale(escala).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("El limite " + monto + " no se puede representar con escala " + escala);
+        }
+    }
+}
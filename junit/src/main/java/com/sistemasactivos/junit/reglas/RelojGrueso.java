@@ -0,0 +1,40 @@
+package com.sistemasactivos.junit.reglas;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Reloj en nanos con resolucion de un milisegundo, para los contadores de las reglas.
+ *
+ * System.nanoTime() cuesta entre 20 y 40 ns, tanto como todo el resto de la evaluacion
+ * de las reglas. Aca un hilo aparte lo lee una vez por milisegundo y los debitos solo
+ * leen un volatile. Las cubetas de los contadores miden ventana / 32, asi que para
+ * ventanas de un segundo o mas el milisegundo no se nota.
+ *
+ * El hilo arranca la primera vez que se usa el reloj, o sea solo si alguna cuenta tiene
+ * reglas con contadores.
+ */
+final class RelojGrueso {
+
+    static final long RESOLUCION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static volatile long nanos = System.nanoTime();
+
+    static {
+        ScheduledExecutorService actualizador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "reloj-reglas");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        actualizador.scheduleAtFixedRate(() -> nanos = System.nanoTime(),
+                RESOLUCION_NANOS, RESOLUCION_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    private RelojGrueso() {
+    }
+
+    static long ahora() {
+        return nanos;
+    }
+}
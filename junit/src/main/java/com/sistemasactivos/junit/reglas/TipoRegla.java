@@ -0,0 +1,8 @@
+package com.sistemasactivos.junit.reglas;
+
+public enum TipoRegla {
+    // el saldo no alcanza, contando el descubierto
+    SALDO,
+    TOPE_DIARIO,
+    VELOCIDAD
+}
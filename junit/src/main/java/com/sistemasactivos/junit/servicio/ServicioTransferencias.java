@@ -0,0 +1,120 @@
+package com.sistemasactivos.junit.servicio;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.exception.TasaNoDisponibleException;
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.model.ResultadoDebito;
+import com.sistemasactivos.junit.model.ResultadoTransferencia;
+import com.sistemasactivos.junit.model.Transferencia;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Recibe pedidos de transferencia y ejecuta cada uno en su propio hilo, por defecto un
+ * hilo virtual (Java 21). Un hilo virtual que espera un lock de franja o el fsync del
+ * diario de movimientos se "desmonta" y libera al hilo de plataforma, asi que puede
+ * haber cientos de miles de transferencias en vuelo con unos pocos hilos del sistema.
+ * Para que eso funcione, en el camino de una transferencia no tiene que haber bloques
+ * synchronized con esperas adentro (por eso el motor y el diario usan ReentrantLock).
+ *
+ * La cantidad de transferencias en vuelo se limita con un semaforo: cuando se llega al
+ * maximo, enviar() espera a que termine alguna. Asi la memoria queda acotada aunque los
+ * pedidos lleguen mas rapido de lo que se procesan.
+ */
+public class ServicioTransferencias implements AutoCloseable {
+
+    public static final int MAXIMO_EN_VUELO = 1 << 18;
+
+    private final Banco banco;
+    private final ExecutorService executor;
+    private final int maximoEnVuelo;
+    private final Semaphore permisos;
+    private final AtomicInteger enEjecucion = new AtomicInteger();
+
+    public ServicioTransferencias(Banco banco) {
+        this(banco, Executors.newVirtualThreadPerTaskExecutor(), MAXIMO_EN_VUELO);
+    }
+
+    /*
+     * Con otro executor, por ejemplo un pool de hilos de plataforma, sirve para comparar
+     * contra los hilos virtuales
+     */
+    public ServicioTransferencias(Banco banco, ExecutorService executor, int maximoEnVuelo) {
+        if (maximoEnVuelo <= 0)
+            throw new IllegalArgumentException("El maximo de transferencias en vuelo debe ser positivo");
+        this.banco = banco;
+        this.executor = executor;
+        this.maximoEnVuelo = maximoEnVuelo;
+        this.permisos = new Semaphore(maximoEnVuelo);
+    }
+
+    public CompletableFuture<ResultadoTransferencia> enviar(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        return enviar(new Transferencia(origen, destino, monto));
+    }
+
+    public CompletableFuture<ResultadoTransferencia> enviar(Transferencia transferencia) {
+        permisos.acquireUninterruptibly();
+
+        CompletableFuture<ResultadoTransferencia> futuro = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                enEjecucion.incrementAndGet();
+                try {
+                    futuro.complete(ejecutar(transferencia));
+                } catch (Throwable e) {
+                    futuro.completeExceptionally(e);
+                } finally {
+                    enEjecucion.decrementAndGet();
+                    permisos.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permisos.release();
+            throw e;
+        }
+        return futuro;
+    }
+
+    // transferencias enviadas que todavia no terminaron, ejecutandose o esperando un hilo
+    public int getEnVuelo() {
+        return maximoEnVuelo - permisos.availablePermits();
+    }
+
+    // transferencias que ya tienen un hilo asignado (corriendo o esperando un lock)
+    public int getEnEjecucion() {
+        return enEjecucion.get();
+    }
+
+    public int getMaximoEnVuelo() {
+        return maximoEnVuelo;
+    }
+
+    private ResultadoTransferencia ejecutar(Transferencia t) {
+        ResultadoDebito resultado;
+        try {
+            resultado = banco.intentarTransferir(t.getOrigen(), t.getDestino(), t.getMonto());
+        } catch (TasaNoDisponibleException e) {
+            // sin tasa la transferencia se rechaza sola, como en Banco.transferirLote()
+            return new ResultadoTransferencia(t, e);
+        }
+        // igual que en los lotes del motor: un rechazo no es un error, no armo stack trace
+        if (resultado == ResultadoDebito.APROBADO)
+            return new ResultadoTransferencia(t, null);
+        return new ResultadoTransferencia(t, DineroInsuficienteException.sinTraza());
+    }
+
+    /*
+     * Deja de aceptar transferencias y espera a que terminen las que estan en vuelo
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
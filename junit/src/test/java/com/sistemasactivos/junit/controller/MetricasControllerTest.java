@@ -0,0 +1,48 @@
+package com.sistemasactivos.junit.controller;
+
+import com.sistemasactivos.junit.config.MetricasConfig;
+import com.sistemasactivos.junit.metricas.MetricasOperaciones;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(MetricasController.class)
+@Import(MetricasConfig.class)
+class MetricasControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MetricasOperaciones metricas;
+
+    @AfterEach
+    void tearDown() {
+        metricas.setHabilitadas(false);
+    }
+
+    @Test
+    @DisplayName("Probando prender las metricas y consultarlas")
+    void testHabilitarYConsultar() throws Exception {
+        mockMvc.perform(put("/metricas/habilitadas").param("valor", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.habilitadas").value(true));
+
+        assertTrue(metricas.isHabilitadas(), () -> "Las metricas globales no se prendieron");
+
+        mockMvc.perform(get("/metricas"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.operaciones.TRANSFERENCIA.cantidad").exists())
+                .andExpect(jsonPath("$.rechazosDineroInsuficiente").exists());
+    }
+}
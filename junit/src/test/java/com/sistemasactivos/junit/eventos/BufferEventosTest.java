@@ -0,0 +1,243 @@
+package com.sistemasactivos.junit.eventos;
+
+import com.sistemasactivos.junit.metricas.HistogramaLatencias;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferEventosTest {
+
+    private final List<ProcesadorEventos> procesadores = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        procesadores.forEach(ProcesadorEventos::close);
+    }
+
+    private ProcesadorEventos procesar(BufferEventos buffer, Proyeccion proyeccion) {
+        ProcesadorEventos procesador = new ProcesadorEventos(buffer, proyeccion);
+        procesadores.add(procesador);
+        return procesador;
+    }
+
+    /*
+     * Verifica que las secuencias llegan todas y en orden, y que los eventos de cada
+     * productor llegan en el orden en que los publico (en "destino" va su contador)
+     */
+    private static final class Verificador implements Proyeccion {
+        final long[] ultimos;
+        long siguiente;
+        volatile String error;
+
+        Verificador(int productores) {
+            this.ultimos = new long[productores];
+            Arrays.fill(ultimos, -1);
+        }
+
+        @Override
+        public void aplicar(Evento evento) {
+            if (evento.getSecuencia() != siguiente++)
+                error = "Se esperaba la secuencia " + (siguiente - 1) + " y llego " + evento;
+            int productor = (int) evento.getCuenta();
+            if (evento.getDestino() != ultimos[productor] + 1)
+                error = "El productor " + productor + " publico fuera de orden: " + evento;
+            ultimos[productor] = evento.getDestino();
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que con varios productores no se pierde ni se desordena ningun evento")
+    void testVariosProductores() throws Exception {
+        BufferEventos buffer = new BufferEventos(64);
+        Verificador verificador = new Verificador(4);
+        ProcesadorEventos procesador = procesar(buffer, verificador);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> tareas = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            int productor = p;
+            tareas.add(executor.submit(() -> {
+                for (int i = 0; i < 20_000; i++)
+                    buffer.publicar(TipoEvento.CREDITO, productor, i, BigDecimal.ONE, BigDecimal.ONE);
+            }));
+        }
+        for (Future<?> tarea : tareas)
+            tarea.get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        assertTrue(procesador.esperarAlDia(Duration.ofMinutes(1)));
+        assertAll(
+                () -> assertNull(verificador.error, () -> verificador.error),
+                () -> assertEquals(80_000, verificador.siguiente),
+                () -> assertArrayEquals(new long[]{19_999, 19_999, 19_999, 19_999}, verificador.ultimos),
+                () -> assertEquals(80_000, buffer.getPublicados()),
+                () -> assertEquals(0, procesador.getRetraso())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que una proyeccion lenta frena a los productores en vez de perder eventos")
+    void testContrapresion() {
+        BufferEventos buffer = new BufferEventos(8);
+        Verificador verificador = new Verificador(1);
+        ProcesadorEventos lento = procesar(buffer, evento -> {
+            LockSupport.parkNanos(100_000);
+            verificador.aplicar(evento);
+        });
+        // una proyeccion rapida no adelanta a la lenta
+        AtomicLong rapidos = new AtomicLong();
+        ProcesadorEventos rapido = procesar(buffer, evento -> rapidos.incrementAndGet());
+
+        for (int i = 0; i < 200; i++)
+            buffer.publicar(TipoEvento.DEBITO, 0, i, BigDecimal.TEN, BigDecimal.TEN);
+
+        assertAll(
+                () -> assertTrue(lento.getRetraso() <= 8, () -> "Quedaron mas eventos sin leer que el tamano del buffer"),
+                () -> assertTrue(buffer.getEsperasPorLugar() > 0),
+                () -> assertTrue(lento.esperarAlDia(Duration.ofMinutes(1))),
+                () -> assertTrue(rapido.esperarAlDia(Duration.ofMinutes(1))),
+                () -> assertNull(verificador.error, () -> verificador.error),
+                () -> assertEquals(200, verificador.siguiente),
+                () -> assertEquals(200, rapidos.get())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que intentar publicar con el buffer lleno no espera ni reclama la secuencia")
+    void testIntentarPublicar() {
+        BufferEventos buffer = new BufferEventos(4);
+        CountDownLatch frenada = new CountDownLatch(1);
+        AtomicLong aplicados = new AtomicLong();
+        ProcesadorEventos procesador = procesar(buffer, evento -> {
+            try {
+                frenada.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            aplicados.incrementAndGet();
+        });
+
+        for (int i = 0; i < 4; i++)
+            assertEquals(i, buffer.intentarPublicar(TipoEvento.CREDITO, 1, Evento.SIN_CUENTA, BigDecimal.ONE, BigDecimal.ONE, i));
+        long rechazada = buffer.intentarPublicar(TipoEvento.CREDITO, 1, Evento.SIN_CUENTA, BigDecimal.ONE, BigDecimal.ONE, 4);
+        long publicados = buffer.getPublicados();
+        frenada.countDown();
+
+        assertAll(
+                () -> assertEquals(-1, rechazada),
+                () -> assertEquals(4, publicados),
+                () -> assertTrue(procesador.esperarAlDia(Duration.ofMinutes(1))),
+                () -> assertEquals(4, aplicados.get()),
+                () -> assertEquals(4, buffer.intentarPublicar(TipoEvento.CREDITO, 1, Evento.SIN_CUENTA, BigDecimal.ONE, BigDecimal.ONE, 4))
+        );
+    }
+
+    @Test
+    @DisplayName("Probando las medidas del retraso de una proyeccion")
+    void testRetraso() throws Exception {
+        BufferEventos buffer = new BufferEventos(16);
+        CountDownLatch seguir = new CountDownLatch(1);
+        ProcesadorEventos procesador = procesar(buffer, evento -> {
+            try {
+                seguir.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        for (int i = 0; i < 10; i++)
+            buffer.publicar(TipoEvento.CREDITO, 1, Evento.SIN_CUENTA, BigDecimal.ONE, BigDecimal.ONE);
+        Thread.sleep(20);
+
+        assertAll(
+                () -> assertEquals(10, procesador.getRetraso()),
+                () -> assertTrue(procesador.getRetrasoNanos() >= Duration.ofMillis(20).toNanos(),
+                        () -> "El primer evento pendiente se publico hace al menos 20 ms"),
+                () -> assertFalse(procesador.esperarAlDia(Duration.ofMillis(50)))
+        );
+
+        seguir.countDown();
+        assertTrue(procesador.esperarAlDia(Duration.ofMinutes(1)));
+        HistogramaLatencias.Foto retrasos = procesador.getRetrasos();
+        assertAll(
+                () -> assertEquals(0, procesador.getRetraso()),
+                () -> assertEquals(0, procesador.getRetrasoNanos()),
+                () -> assertEquals(10, retrasos.getTotal()),
+                () -> assertTrue(retrasos.maximo() >= Duration.ofMillis(20).toNanos())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que un error en la proyeccion no frena el procesador")
+    void testErrores() {
+        BufferEventos buffer = new BufferEventos(16);
+        AtomicLong aplicados = new AtomicLong();
+        ProcesadorEventos procesador = procesar(buffer, evento -> {
+            if (evento.getSecuencia() % 10 == 0)
+                throw new IllegalStateException("Evento invalido: " + evento);
+            aplicados.incrementAndGet();
+        });
+
+        for (int i = 0; i < 100; i++)
+            buffer.publicar(TipoEvento.CREDITO, 1, Evento.SIN_CUENTA, BigDecimal.ONE, BigDecimal.ONE);
+
+        assertAll(
+                () -> assertTrue(procesador.esperarAlDia(Duration.ofMinutes(1))),
+                () -> assertEquals(10, procesador.getErrores()),
+                () -> assertEquals(90, aplicados.get())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que los procesadores se agregan antes de publicar")
+    void testProcesadorTardio() {
+        BufferEventos buffer = new BufferEventos(16);
+        buffer.publicar(TipoEvento.CREDITO, 1, Evento.SIN_CUENTA, BigDecimal.ONE, BigDecimal.ONE);
+        assertThrows(IllegalStateException.class, () -> procesar(buffer, evento -> {
+        }));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 3, 100})
+    @DisplayName("Probando que el tamano del buffer tiene que ser una potencia de 2")
+    void testTamanoInvalido(int tamano) {
+        assertThrows(IllegalArgumentException.class, () -> new BufferEventos(tamano));
+    }
+
+    @Test
+    @DisplayName("Probando que publicar no crea objetos")
+    void testSinAsignaciones() {
+        com.sun.management.ThreadMXBean hilos = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(hilos.isThreadAllocatedMemorySupported() && hilos.isThreadAllocatedMemoryEnabled());
+
+        BufferEventos buffer = new BufferEventos(1024);
+        ProcesadorEventos procesador = procesar(buffer, evento -> {
+        });
+        BigDecimal monto = new BigDecimal("12.50");
+        // calentamiento, para que el JIT compile publicar
+        for (int i = 0; i < 200_000; i++)
+            buffer.publicar(TipoEvento.TRANSFERENCIA, 1, 2, monto, monto);
+
+        long hilo = Thread.currentThread().threadId();
+        long antes = hilos.getThreadAllocatedBytes(hilo);
+        for (int i = 0; i < 100_000; i++)
+            buffer.publicar(TipoEvento.TRANSFERENCIA, 1, 2, monto, monto);
+        long asignados = hilos.getThreadAllocatedBytes(hilo) - antes;
+
+        assertTrue(procesador.esperarAlDia(Duration.ofMinutes(1)));
+        // el objeto mas chico ocupa 16 bytes: menos de un byte por evento es que no se crea ninguno
+        assertTrue(asignados < 100_000, () -> "Publicar 100.000 eventos asigno " + asignados + " bytes");
+    }
+}
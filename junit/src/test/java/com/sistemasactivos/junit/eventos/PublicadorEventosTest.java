@@ -0,0 +1,337 @@
+package com.sistemasactivos.junit.eventos;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.model.ResultadoDebito;
+import com.sistemasactivos.junit.moneda.CacheTasas;
+import com.sistemasactivos.junit.moneda.TasasFijas;
+import org.junit.jupiter.api.*;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PublicadorEventosTest {
+
+    private Banco banco;
+    private BufferEventos buffer;
+    private HistorialSaldos historial;
+    private MovimientoDiario diario;
+    private CuentasMasActivas activas;
+    private List<ProcesadorEventos> procesadores;
+
+    @BeforeEach
+    void setUp() {
+        banco = new Banco("Banco del Estado");
+        buffer = new BufferEventos(256);
+        historial = new HistorialSaldos();
+        diario = new MovimientoDiario(ZoneId.of("America/Argentina/Buenos_Aires"));
+        activas = new CuentasMasActivas();
+        procesadores = List.of(
+                new ProcesadorEventos(buffer, historial),
+                new ProcesadorEventos(buffer, diario),
+                new ProcesadorEventos(buffer, activas));
+    }
+
+    @AfterEach
+    void tearDown() {
+        procesadores.forEach(ProcesadorEventos::close);
+    }
+
+    private void esperarProyecciones() {
+        for (ProcesadorEventos procesador : procesadores)
+            assertTrue(procesador.esperarAlDia(Duration.ofMinutes(1)));
+    }
+
+    private static BigDecimal saldo(HistorialSaldos historial, Cuenta cuenta) {
+        return historial.saldo(cuenta.getId()).orElseThrow();
+    }
+
+    @Test
+    @DisplayName("Probando las proyecciones de aperturas, transferencias, debitos y creditos")
+    void testProyecciones() {
+        Cuenta andres = banco.agregarCuenta(new Cuenta("Andrés", new BigDecimal("1000.00"), null));
+        Cuenta julian = banco.agregarCuenta(new Cuenta("Julian", new BigDecimal("500.00"), null));
+
+        try (PublicadorEventos publicador = new PublicadorEventos(banco, buffer)) {
+            Cuenta maria = banco.agregarCuenta(new Cuenta("Maria", BigDecimal.ZERO, null));
+            banco.transferir(andres, julian, new BigDecimal("100.00"));
+            banco.transferir(julian, maria, new BigDecimal("50.00"));
+            andres.debito(new BigDecimal("10.00"));
+            maria.credito(new BigDecimal("5.00"));
+            julian.credito(new BigDecimal("1.00"));
+            // una transferencia rechazada no publica nada
+            assertThrows(DineroInsuficienteException.class, () -> banco.transferir(maria, andres, new BigDecimal("1000.00")));
+            esperarProyecciones();
+
+            LocalDate hoy = LocalDate.now(ZoneId.of("America/Argentina/Buenos_Aires"));
+            MovimientoDiario.MovimientoDia movimientoHoy = diario.dia(hoy).orElseThrow();
+            assertAll(
+                    () -> assertEquals(0, new BigDecimal("890.00").compareTo(saldo(historial, andres))),
+                    () -> assertEquals(0, new BigDecimal("551.00").compareTo(saldo(historial, julian))),
+                    () -> assertEquals(0, new BigDecimal("55.00").compareTo(saldo(historial, maria))),
+                    () -> assertEquals(List.of(new BigDecimal("1000.00"), new BigDecimal("900.00"), new BigDecimal("890.00")),
+                            historial.historial(andres.getId()).stream().map(HistorialSaldos.PuntoSaldo::saldo).toList()),
+                    () -> assertEquals(5, movimientoHoy.cantidad()),
+                    () -> assertEquals(0, new BigDecimal("166.00").compareTo(movimientoHoy.total())),
+                    () -> assertEquals(List.of(movimientoHoy), diario.dias()),
+                    () -> assertEquals(List.of(
+                                    new CuentasMasActivas.ActividadCuenta(julian.getId(), 3),
+                                    new CuentasMasActivas.ActividadCuenta(andres.getId(), 2)),
+                            activas.top(2), () -> "Con los mismos movimientos va primero el id mas chico"),
+                    () -> assertEquals(2, activas.movimientos(maria.getId())),
+                    () -> assertTrue(historial.historial(-1).isEmpty())
+            );
+        }
+
+        // cerrado el publicador los movimientos ya no llegan
+        long publicados = buffer.getPublicados();
+        andres.debito(BigDecimal.ONE);
+        assertEquals(publicados, buffer.getPublicados());
+    }
+
+    @Test
+    @DisplayName("Probando el historial de una transferencia entre monedas")
+    void testConversion() {
+        banco.setTasas(new CacheTasas(new TasasFijas().definir("USD", "ARS", "350"), Duration.ofMinutes(1)));
+        banco.getTasas().actualizar();
+        Cuenta dolares = new Cuenta("Andrés", new BigDecimal("100.00"), null);
+        dolares.setMoneda(Currency.getInstance("USD"));
+        Cuenta pesos = new Cuenta("Julian", new BigDecimal("0.00"), null);
+        pesos.setMoneda(Currency.getInstance("ARS"));
+
+        try (PublicadorEventos publicador = new PublicadorEventos(banco, buffer)) {
+            dolares = banco.agregarCuenta(dolares);
+            pesos = banco.agregarCuenta(pesos);
+            banco.transferir(dolares, pesos, new BigDecimal("10.00"));
+            esperarProyecciones();
+
+            Cuenta origen = dolares, destino = pesos;
+            assertAll(
+                    () -> assertEquals(0, origen.getSaldo().compareTo(saldo(historial, origen))),
+                    () -> assertEquals(0, destino.getSaldo().compareTo(saldo(historial, destino))),
+                    () -> assertEquals(0, new BigDecimal("3500").compareTo(saldo(historial, destino)))
+            );
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que el historial de cada cuenta queda acotado")
+    void testHistorialAcotado() {
+        HistorialSaldos corto = new HistorialSaldos(5);
+        Evento evento = new Evento();
+        evento.llenar(0, TipoEvento.APERTURA, 1, Evento.SIN_CUENTA, BigDecimal.ZERO, BigDecimal.ZERO);
+        corto.aplicar(evento);
+        for (int i = 1; i <= 20; i++) {
+            evento.llenar(i, TipoEvento.CREDITO, 1, Evento.SIN_CUENTA, BigDecimal.ONE, BigDecimal.ONE);
+            corto.aplicar(evento);
+        }
+
+        List<HistorialSaldos.PuntoSaldo> puntos = corto.historial(1);
+        assertAll(
+                () -> assertEquals(List.of(16L, 17L, 18L, 19L, 20L), puntos.stream().map(HistorialSaldos.PuntoSaldo::secuencia).toList()),
+                () -> assertEquals(0, new BigDecimal(20).compareTo(puntos.get(4).saldo())),
+                () -> assertEquals(0, new BigDecimal(20).compareTo(corto.saldo(1).orElseThrow())),
+                () -> assertThrows(IllegalArgumentException.class, () -> new HistorialSaldos(0))
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que la apertura no cuenta dos veces los movimientos que ya tiene su saldo")
+    void testAperturaConOrden() {
+        HistorialSaldos saldos = new HistorialSaldos();
+        Evento evento = new Evento();
+        // llegan antes que la apertura: el de orden 3 ya esta en su saldo y el de orden 7 no
+        evento.llenar(0, TipoEvento.CREDITO, 1, Evento.SIN_CUENTA, BigDecimal.ONE, BigDecimal.ONE, 3);
+        saldos.aplicar(evento);
+        evento.llenar(1, TipoEvento.DEBITO, 1, Evento.SIN_CUENTA, BigDecimal.TEN, BigDecimal.TEN, 7);
+        saldos.aplicar(evento);
+        evento.llenar(2, TipoEvento.APERTURA, 1, Evento.SIN_CUENTA, new BigDecimal(100), new BigDecimal(100), 5);
+        saldos.aplicar(evento);
+        // una transferencia diferida que tambien estaba en el saldo de la apertura
+        evento.llenar(3, TipoEvento.TRANSFERENCIA, 1, 2, new BigDecimal(20), new BigDecimal(20), 4);
+        saldos.aplicar(evento);
+        evento.llenar(4, TipoEvento.CREDITO, 1, Evento.SIN_CUENTA, BigDecimal.ONE, BigDecimal.ONE, 8);
+        saldos.aplicar(evento);
+        // la segunda apertura se ignora
+        evento.llenar(5, TipoEvento.APERTURA, 1, Evento.SIN_CUENTA, BigDecimal.ZERO, BigDecimal.ZERO, 9);
+        saldos.aplicar(evento);
+
+        assertAll(
+                () -> assertEquals(0, new BigDecimal(91).compareTo(saldos.saldo(1).orElseThrow())),
+                () -> assertEquals(List.of(0L, 1L, 2L, 4L),
+                        saldos.historial(1).stream().map(HistorialSaldos.PuntoSaldo::secuencia).toList())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando las proyecciones con transferencias concurrentes")
+    void testTransferenciasConcurrentes() throws Exception {
+        List<Cuenta> cuentas = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            cuentas.add(banco.agregarCuenta(new Cuenta("Cuenta " + i, new BigDecimal(100), null)));
+
+        AtomicLong aprobadas = new AtomicLong();
+        try (PublicadorEventos publicador = new PublicadorEventos(banco, buffer)) {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> tareas = new ArrayList<>();
+            for (int h = 0; h < 8; h++) {
+                tareas.add(executor.submit(() -> {
+                    ThreadLocalRandom azar = ThreadLocalRandom.current();
+                    for (int i = 0; i < 5_000; i++) {
+                        Cuenta origen = cuentas.get(azar.nextInt(20));
+                        Cuenta destino = cuentas.get(azar.nextInt(20));
+                        if (origen != destino && banco.intentarTransferir(origen, destino, new BigDecimal(azar.nextInt(1, 30))) == ResultadoDebito.APROBADO)
+                            aprobadas.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> tarea : tareas)
+                tarea.get(1, TimeUnit.MINUTES);
+            executor.shutdown();
+            esperarProyecciones();
+        }
+
+        long totalActividad = 0;
+        for (Cuenta cuenta : cuentas) {
+            assertEquals(0, cuenta.getSaldo().compareTo(saldo(historial, cuenta)), () -> "No coincide el saldo de " + cuenta.getNombre());
+            totalActividad += activas.movimientos(cuenta.getId());
+        }
+        long actividad = totalActividad;
+        assertAll(
+                () -> assertEquals(2 * aprobadas.get(), actividad),
+                () -> assertEquals(aprobadas.get(), diario.dias().stream().mapToLong(MovimientoDiario.MovimientoDia::cantidad).sum()),
+                () -> assertEquals(20 + aprobadas.get(), buffer.getPublicados())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que con el buffer lleno una transferencia no espera con las franjas bloqueadas")
+    void testBufferLleno() throws Exception {
+        Cuenta andres = banco.agregarCuenta(new Cuenta("Andrés", new BigDecimal(1000), null));
+        Cuenta julian = banco.agregarCuenta(new Cuenta("Julian", new BigDecimal(1000), null));
+        BufferEventos chico = new BufferEventos(4);
+        HistorialSaldos saldos = new HistorialSaldos();
+        CountDownLatch frenada = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try (ProcesadorEventos lento = new ProcesadorEventos(chico, evento -> {
+            try {
+                frenada.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            saldos.aplicar(evento);
+        }); PublicadorEventos publicador = new PublicadorEventos(banco, chico)) {
+            // las dos aperturas y dos transferencias llenan el buffer
+            banco.transferir(andres, julian, BigDecimal.ONE);
+            banco.transferir(andres, julian, BigDecimal.ONE);
+            Future<?> diferida = executor.submit(() -> banco.transferir(julian, andres, BigDecimal.TEN));
+
+            long limite = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            while (publicador.getDiferidas() == 0 && System.nanoTime() < limite)
+                Thread.onSpinWait();
+            // la transferencia ya esta hecha y espera lugar sin ningun lock del motor
+            BigDecimal saldo = executor.submit(() -> banco.getMotor().conTodoBloqueado(andres::getSaldo))
+                    .get(1, TimeUnit.MINUTES);
+            assertAll(
+                    () -> assertEquals(1, publicador.getDiferidas()),
+                    () -> assertEquals(new BigDecimal(1008), saldo),
+                    () -> assertFalse(diferida.isDone())
+            );
+
+            frenada.countDown();
+            diferida.get(1, TimeUnit.MINUTES);
+            assertTrue(lento.esperarAlDia(Duration.ofMinutes(1)));
+            assertAll(
+                    () -> assertEquals(0, andres.getSaldo().compareTo(saldos.saldo(andres.getId()).orElseThrow())),
+                    () -> assertEquals(0, julian.getSaldo().compareTo(saldos.saldo(julian.getId()).orElseThrow()))
+            );
+        } finally {
+            frenada.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que crear el publicador con el banco operando no bloquea el motor ni cuenta dos veces")
+    void testCrearOperando() throws Exception {
+        List<Cuenta> cuentas = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++)
+            cuentas.add(banco.agregarCuenta(new Cuenta("Cuenta " + i, new BigDecimal(100), null)));
+        // muchas mas cuentas que lugares en el buffer, y una proyeccion lenta
+        BufferEventos chico = new BufferEventos(16);
+        HistorialSaldos saldos = new HistorialSaldos();
+        AtomicBoolean terminar = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try (ProcesadorEventos lento = new ProcesadorEventos(chico, evento -> {
+            LockSupport.parkNanos(5_000);
+            saldos.aplicar(evento);
+        })) {
+            List<Future<?>> tareas = new ArrayList<>();
+            for (int h = 0; h < 4; h++) {
+                tareas.add(executor.submit(() -> {
+                    ThreadLocalRandom azar = ThreadLocalRandom.current();
+                    while (!terminar.get()) {
+                        Cuenta origen = cuentas.get(azar.nextInt(cuentas.size()));
+                        Cuenta destino = cuentas.get(azar.nextInt(cuentas.size()));
+                        if (origen != destino)
+                            banco.intentarTransferir(origen, destino, new BigDecimal(azar.nextInt(1, 30)));
+                    }
+                }));
+            }
+
+            PublicadorEventos publicador = new PublicadorEventos(banco, chico);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+            terminar.set(true);
+            for (Future<?> tarea : tareas)
+                tarea.get(1, TimeUnit.MINUTES);
+            publicador.close();
+            assertTrue(lento.esperarAlDia(Duration.ofMinutes(1)));
+
+            for (Cuenta cuenta : cuentas)
+                assertEquals(0, cuenta.getSaldo().compareTo(saldos.saldo(cuenta.getId()).orElseThrow()),
+                        () -> "No coincide el saldo de " + cuenta.getNombre());
+            assertTrue(publicador.getDiferidas() > 0);
+        } finally {
+            terminar.set(true);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que publicar los movimientos no crea objetos")
+    void testSinAsignaciones() {
+        com.sun.management.ThreadMXBean hilos = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(hilos.isThreadAllocatedMemorySupported() && hilos.isThreadAllocatedMemoryEnabled());
+
+        Cuenta andres = banco.agregarCuenta(new Cuenta("Andrés", new BigDecimal(1000), null));
+        Cuenta julian = banco.agregarCuenta(new Cuenta("Julian", new BigDecimal(1000), null));
+        BigDecimal monto = BigDecimal.TEN;
+        try (PublicadorEventos publicador = new PublicadorEventos(banco, buffer)) {
+            for (int i = 0; i < 200_000; i++)
+                publicador.transferencia(andres, julian, monto);
+
+            long hilo = Thread.currentThread().threadId();
+            long antes = hilos.getThreadAllocatedBytes(hilo);
+            for (int i = 0; i < 100_000; i++)
+                publicador.transferencia(andres, julian, monto);
+            long asignados = hilos.getThreadAllocatedBytes(hilo) - antes;
+
+            assertTrue(asignados < 100_000, () -> "Publicar 100.000 transferencias asigno " + asignados + " bytes");
+        }
+    }
+}
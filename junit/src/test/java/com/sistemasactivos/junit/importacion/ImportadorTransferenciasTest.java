@@ -0,0 +1,135 @@
+package com.sistemasactivos.junit.importacion;
+
+import com.sistemasactivos.junit.exception.ArchivoInvalidoException;
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImportadorTransferenciasTest {
+
+    @TempDir
+    Path directorio;
+
+    private Path archivo;
+
+    @BeforeEach
+    void setUp() {
+        archivo = directorio.resolve("transferencias.csv");
+    }
+
+    @Test
+    @DisplayName("Probando importar un archivo chico")
+    void testImportar() throws IOException {
+        // linea vacia, fin de linea de Windows y la ultima linea sin \n
+        Files.writeString(archivo, "1,2,100.50\n\n2,3,0.5\r\n3,1,10\n1,99,1\n2,1,5000");
+        Banco banco = nuevoBanco(3);
+
+        ProgresoImportacion progreso = new ImportadorTransferencias(banco).importar(archivo);
+
+        assertAll(
+                () -> assertEquals(5, progreso.lineas()),
+                () -> assertEquals(3, progreso.aplicadas()),
+                () -> assertEquals(1, progreso.rechazadas(), () -> "La transferencia sin fondos no deberia pasar"),
+                () -> assertEquals(1, progreso.cuentasInexistentes()),
+                () -> assertEquals(Files.size(archivo), progreso.posicion()),
+                () -> assertEquals(100.0, progreso.porcentaje()),
+                () -> assertEquals(0, new BigDecimal("909.50").compareTo(saldo(banco, 1))),
+                () -> assertEquals(0, new BigDecimal("1100.00").compareTo(saldo(banco, 2))),
+                () -> assertEquals(0, new BigDecimal("990.50").compareTo(saldo(banco, 3)))
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que una linea invalida informa su posicion")
+    void testLineaInvalida() throws IOException {
+        Files.writeString(archivo, "1,2,10\n1,x,10\n");
+        Banco banco = nuevoBanco(2);
+
+        ArchivoInvalidoException exception = assertThrows(ArchivoInvalidoException.class,
+                () -> new ImportadorTransferencias(banco).importar(archivo));
+        assertEquals(7, exception.getPosicion(), () -> "La posicion no es la del comienzo de la linea");
+    }
+
+    @Test
+    @DisplayName("Probando que con un buffer chico da lo mismo que con el buffer normal")
+    void testBufferChico() throws IOException {
+        generar(archivo, 20_000, 50, new Random(42));
+
+        Banco normal = nuevoBanco(50);
+        Banco chico = nuevoBanco(50);
+        ProgresoImportacion progresoNormal = new ImportadorTransferencias(normal).importar(archivo);
+        // 64 bytes y lotes de 7: casi todas las lineas quedan cortadas entre dos lecturas
+        ProgresoImportacion progresoChico = new ImportadorTransferencias(chico, 64, 7).importar(archivo);
+
+        assertEquals(progresoNormal.aplicadas(), progresoChico.aplicadas());
+        assertSaldosIguales(normal, chico);
+    }
+
+    @Test
+    @DisplayName("Probando retomar la importacion despues de una falla")
+    void testRetomarDesdePosicion() throws IOException {
+        generar(archivo, 50_000, 100, new Random(7));
+        Banco completo = nuevoBanco(100);
+        new ImportadorTransferencias(completo, 4096, 1000).importar(archivo);
+
+        // la importacion se corta despues del quinto lote y se retoma desde la ultima posicion informada
+        Banco cortado = nuevoBanco(100);
+        AtomicReference<ProgresoImportacion> ultimo = new AtomicReference<>();
+        assertThrows(IllegalStateException.class, () -> new ImportadorTransferencias(cortado, 4096, 1000)
+                .importar(archivo, 0, progreso -> {
+                    ultimo.set(progreso);
+                    if (progreso.lineas() == 5000)
+                        throw new IllegalStateException("Se corto la importacion");
+                }));
+
+        ProgresoImportacion resto = new ImportadorTransferencias(cortado, 4096, 1000)
+                .importar(archivo, ultimo.get().posicion(), progreso -> { });
+
+        assertAll(
+                () -> assertEquals(50_000, ultimo.get().lineas() + resto.lineas()),
+                () -> assertEquals(Files.size(archivo), resto.posicion())
+        );
+        assertSaldosIguales(completo, cortado);
+    }
+
+    private static Banco nuevoBanco(int cuentas) {
+        Banco banco = new Banco("Banco del Estado");
+        for (int i = 1; i <= cuentas; i++)
+            banco.agregarCuenta(new Cuenta("Cuenta " + i, new BigDecimal("1000.00"), null));
+        return banco;
+    }
+
+    private static void generar(Path archivo, int lineas, int cuentas, Random random) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(archivo, StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < lineas; i++) {
+                writer.write((random.nextInt(cuentas) + 1) + "," + (random.nextInt(cuentas) + 1) + ","
+                        + BigDecimal.valueOf(random.nextInt(1, 50_000), 2));
+                writer.newLine();
+            }
+        }
+    }
+
+    private static BigDecimal saldo(Banco banco, long id) {
+        return banco.buscarCuenta(id).orElseThrow().getSaldo();
+    }
+
+    private static void assertSaldosIguales(Banco esperado, Banco actual) {
+        List<Cuenta> cuentas = esperado.getCuentas();
+        for (Cuenta cuenta : cuentas)
+            assertEquals(0, cuenta.getSaldo().compareTo(saldo(actual, cuenta.getId())),
+                    () -> "Distinto saldo en " + cuenta.getNombre());
+    }
+}
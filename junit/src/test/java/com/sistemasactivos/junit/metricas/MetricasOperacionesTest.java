@@ -0,0 +1,97 @@
+package com.sistemasactivos.junit.metricas;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricasOperacionesTest {
+
+    private final MetricasOperaciones metricas = MetricasOperaciones.global();
+
+    @BeforeEach
+    void setUp() {
+        metricas.reiniciar();
+        metricas.setHabilitadas(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        // las metricas son globales, las dejo como estaban para los demas tests
+        metricas.setHabilitadas(false);
+        metricas.reiniciar();
+    }
+
+    @Nested
+    @DisplayName("Probando el histograma de latencias")
+    class HistogramaTest {
+        @Test
+        @DisplayName("Probando que cada valor cae en una cubeta que lo contiene")
+        void testCubetas() {
+            long[] valores = {0, 1, 31, 32, 33, 63, 64, 1000, 123_456_789, Long.MAX_VALUE};
+            for (long valor : valores) {
+                int indice = HistogramaLatencias.indice(valor);
+                assertTrue(HistogramaLatencias.valorMinimo(indice) <= valor, () -> "Cubeta incorrecta para " + valor);
+                assertTrue(HistogramaLatencias.valorMaximo(indice) >= valor, () -> "Cubeta incorrecta para " + valor);
+            }
+        }
+
+        @Test
+        @DisplayName("Probando los percentiles")
+        void testPercentiles() {
+            HistogramaLatencias histograma = new HistogramaLatencias();
+            for (int i = 1; i <= 1000; i++)
+                histograma.registrar(i * 1000L);
+
+            HistogramaLatencias.Foto foto = histograma.foto();
+            assertEquals(1000, foto.getTotal());
+            // el error relativo tiene que ser menor al 3%
+            assertEquals(500_000, foto.percentil(50), 500_000 * 0.03);
+            assertEquals(990_000, foto.percentil(99), 990_000 * 0.03);
+            assertEquals(1_000_000, foto.maximo(), 1_000_000 * 0.03);
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que se cuentan las operaciones y los rechazos")
+    void testContarOperaciones() {
+        Banco banco = new Banco("Banco del Estado");
+        Cuenta andres = new Cuenta("Andrés", new BigDecimal("1000"), null);
+        Cuenta julian = new Cuenta("Julian", new BigDecimal("100"), null);
+        banco.agregarCuenta(andres);
+        banco.agregarCuenta(julian);
+
+        andres.debito(BigDecimal.TEN);
+        andres.credito(BigDecimal.TEN);
+        banco.transferir(andres, julian, BigDecimal.ONE);
+        assertThrows(DineroInsuficienteException.class, () -> julian.debito(new BigDecimal("5000")));
+        julian.intentarDebito(new BigDecimal("5000"));
+
+        ResumenMetricas resumen = metricas.resumen();
+        assertAll(
+                () -> assertEquals(2, resumen.operaciones().get(Operacion.DEBITO).cantidad()),
+                () -> assertEquals(1, resumen.operaciones().get(Operacion.CREDITO).cantidad()),
+                () -> assertEquals(1, resumen.operaciones().get(Operacion.TRANSFERENCIA).cantidad()),
+                () -> assertEquals(2, resumen.rechazosDineroInsuficiente())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que apagadas no registran nada")
+    void testDeshabilitadas() {
+        metricas.setHabilitadas(false);
+
+        Cuenta cuenta = new Cuenta("Andrés", new BigDecimal("1000"), null);
+        cuenta.debito(BigDecimal.ONE);
+        cuenta.intentarDebito(new BigDecimal("5000"));
+
+        ResumenMetricas resumen = metricas.resumen();
+        assertFalse(resumen.habilitadas());
+        assertEquals(0, resumen.operaciones().get(Operacion.DEBITO).cantidad());
+        assertEquals(0, resumen.rechazosDineroInsuficiente());
+    }
+}
@@ -0,0 +1,164 @@
+package com.sistemasactivos.junit.model;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AlmacenColumnarTest {
+
+    private Banco banco;
+
+    @BeforeEach
+    void setUp() {
+        banco = new Banco("Banco del Estado", new AlmacenColumnar(1000, 2));
+    }
+
+    @Test
+    @DisplayName("Probando la busqueda por id y por nombre en el almacen columnar")
+    void testBuscarCuenta() {
+        Cuenta plantilla = new Cuenta("Andrés", new BigDecimal("1000.50"), null);
+        Cuenta andres = banco.agregarCuenta(plantilla);
+        Cuenta julian = banco.agregarCuenta(new Cuenta("Julián Ñandú", new BigDecimal(2000), null));
+
+        assertAll(
+                () -> assertInstanceOf(CuentaColumnar.class, andres),
+                () -> assertEquals(1L, plantilla.getId(), () -> "La cuenta que se paso tambien recibe el id"),
+                () -> assertEquals(2L, julian.getId(), () -> "El id no es el esperado"),
+                () -> assertEquals("Julián Ñandú", banco.buscarCuenta(2L).orElseThrow().getNombre()),
+                () -> assertEquals("1000.50", banco.buscarCuenta("Andrés").orElseThrow().getSaldo().toPlainString()),
+                () -> assertSame(banco, andres.getBanco()),
+                () -> assertTrue(banco.buscarCuenta("Pedro").isEmpty()),
+                () -> assertTrue(banco.buscarCuenta(3L).isEmpty()),
+                () -> assertEquals(List.of(andres, julian), banco.getCuentas())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que dos vistas de la misma cuenta son la misma cuenta")
+    void testVistas() {
+        Cuenta andres = banco.agregarCuenta(new Cuenta("Andrés", new BigDecimal(1000), null));
+        Cuenta otraVista = banco.buscarCuenta("Andrés").orElseThrow();
+
+        otraVista.debito(new BigDecimal(100));
+
+        assertAll(
+                () -> assertNotSame(andres, otraVista),
+                () -> assertEquals(andres, otraVista),
+                () -> assertEquals(andres.hashCode(), otraVista.hashCode()),
+                () -> assertEquals(banco.getMotor().indiceFranja(andres), banco.getMotor().indiceFranja(otraVista),
+                        () -> "La misma cuenta tiene que caer siempre en la misma franja"),
+                () -> assertEquals("900.00", andres.getSaldo().toPlainString(), () -> "Las vistas no comparten el saldo"),
+                () -> assertThrows(IllegalStateException.class, () -> andres.setNombre("Pedro")),
+                () -> assertDoesNotThrow(() -> otraVista.setNombre("Andrés"), () -> "Poner el mismo nombre no cambia nada")
+        );
+    }
+
+    @Test
+    @DisplayName("Probando transferencias y consultas sobre cuentas columnares")
+    void testTransferencias() {
+        Cuenta andres = banco.agregarCuenta(new Cuenta("Andrés", new BigDecimal(1000), null));
+        banco.agregarCuenta(new Cuenta("John Doe", new BigDecimal(500), null));
+
+        // cada busqueda devuelve una vista nueva, y el cache la tiene que reconocer igual
+        banco.consultarSaldo(banco.buscarCuenta(2L).orElseThrow());
+        banco.transferir(andres, banco.buscarCuenta(2L).orElseThrow(), new BigDecimal("250.25"));
+        Cuenta john = banco.buscarCuenta("John Doe").orElseThrow();
+
+        assertAll(
+                () -> assertEquals("749.75", banco.consultarSaldo(andres).toPlainString()),
+                () -> assertEquals("750.25", banco.consultarSaldo(john).toPlainString()),
+                () -> assertEquals("1500.00", banco.consultarSaldoTotal().toPlainString()),
+                () -> assertThrows(DineroInsuficienteException.class, () -> banco.transferir(john, andres, new BigDecimal(5000))),
+                () -> assertEquals("750.25", john.getSaldo().toPlainString(), () -> "El saldo no deberia cambiar")
+        );
+    }
+
+    @Test
+    @DisplayName("Probando los limites del almacen columnar")
+    void testLimites() {
+        Banco chico = new Banco("Banco chico", new AlmacenColumnar(2, 2, 8));
+        chico.agregarCuenta(new Cuenta("Andrés", BigDecimal.ONE, null));
+
+        Cuenta restaurada = new Cuenta(null, BigDecimal.TEN, null);
+        restaurada.setId(2L);
+        chico.agregarCuenta(restaurada);
+
+        assertAll(
+                () -> assertThrows(IllegalArgumentException.class, () -> banco.agregarCuenta(nuevaConId("Pedro", 0L))),
+                () -> assertThrows(IllegalStateException.class, () -> chico.agregarCuenta(new Cuenta("Pedro", BigDecimal.ONE, null)),
+                        () -> "El almacen ya esta lleno"),
+                () -> assertThrows(ArithmeticException.class, () -> banco.agregarCuenta(new Cuenta("Pedro", new BigDecimal("1.001"), null)),
+                        () -> "El saldo no entra en la escala del almacen"),
+                () -> assertThrows(IllegalArgumentException.class, () -> banco.agregarCuenta(new Cuenta("Pedro", null, null)),
+                        () -> "La columna de saldos no tiene donde guardar un saldo null"),
+                () -> assertNull(chico.buscarCuenta(2L).orElseThrow().getNombre()),
+                () -> assertEquals(2, chico.getAlmacen().cantidad()),
+                () -> assertThrows(IllegalStateException.class, () -> new Banco(chico.getAlmacen()),
+                        () -> "El almacen no se puede compartir entre bancos"),
+                () -> assertThrows(IllegalArgumentException.class, () -> new AlmacenColumnar(AlmacenColumnar.CAPACIDAD_MAXIMA + 1, 2)),
+                // con el espacio para alinear, un area de Integer.MAX_VALUE bytes desbordaba el int
+                () -> assertTrue(assertThrows(IllegalArgumentException.class, () -> new AlmacenColumnar(2, 2, Integer.MAX_VALUE))
+                        .getMessage().startsWith("El area de nombres"))
+        );
+
+        banco.agregarCuenta(new Cuenta("Andrés", BigDecimal.ONE, null));
+        assertThrows(IllegalArgumentException.class, () -> banco.agregarCuenta(new Cuenta("Andrés", BigDecimal.ONE, null)));
+        assertThrows(IllegalArgumentException.class, () -> banco.agregarCuenta(nuevaConId("Pedro", 1L)));
+        assertEquals(1, banco.getCuentas().size(), () -> "No se deberia haber agregado la cuenta");
+    }
+
+    @Test
+    @DisplayName("Probando la memoria fuera del heap por cuenta")
+    void testMemoriaPorCuenta() {
+        AlmacenColumnar almacen = new AlmacenColumnar(1_000_000, 2);
+        // 8 del saldo, 4 + 4 del nombre, 24 de nombre y unos 8 del indice
+        assertTrue(almacen.getBytesReservados() / almacen.getCapacidad() <= 50,
+                () -> "Cada cuenta ocupa " + almacen.getBytesReservados() / almacen.getCapacidad() + " bytes");
+    }
+
+    @Test
+    @DisplayName("Probando transferencias concurrentes y la foto de saldos sobre el almacen columnar")
+    void testTransferenciasConcurrentes() throws Exception {
+        int cantidad = 1000;
+        for (int i = 0; i < cantidad; i++)
+            banco.agregarCuenta(new Cuenta("Cuenta " + i, new BigDecimal(100), null));
+
+        // cada tarea busca las cuentas otra vez, asi los hilos nunca comparten la misma vista
+        int hilos = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        List<Future<?>> tareas = new ArrayList<>();
+        for (int h = 0; h < hilos; h++) {
+            int semilla = h;
+            tareas.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    Cuenta origen = banco.buscarCuenta(1 + random.nextInt(cantidad)).orElseThrow();
+                    Cuenta destino = banco.buscarCuenta("Cuenta " + (semilla + i) % cantidad).orElseThrow();
+                    banco.intentarTransferir(origen, destino, new BigDecimal("1.01"));
+                }
+            }));
+        }
+        for (Future<?> tarea : tareas)
+            tarea.get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        ResumenSaldos resumen = banco.resumirSaldos();
+        assertAll(
+                () -> assertEquals(cantidad, resumen.cantidad()),
+                () -> assertEquals("100000.00", resumen.total().toPlainString(), () -> "Se perdio o se creo dinero"),
+                () -> assertEquals(0, resumen.negativos(), () -> "Hay saldos negativos")
+        );
+    }
+
+    private static Cuenta nuevaConId(String nombre, long id) {
+        Cuenta cuenta = new Cuenta(nombre, BigDecimal.ONE, null);
+        cuenta.setId(id);
+        return cuenta;
+    }
+}
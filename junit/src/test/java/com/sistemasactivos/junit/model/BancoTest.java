@@ -0,0 +1,206 @@
+package com.sistemasactivos.junit.model;
+
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BancoTest {
+
+    private Banco banco;
+
+    @BeforeEach
+    void setUp() {
+        banco = new Banco("Banco del Estado");
+    }
+
+    private Cuenta nuevaCuenta(String nombre, String saldo) {
+        Cuenta cuenta = new Cuenta();
+        cuenta.setNombre(nombre);
+        cuenta.setSaldo(new BigDecimal(saldo));
+        return cuenta;
+    }
+
+    @Nested
+    @DisplayName("Probando el cache de consultas de saldo")
+    class CacheSaldosTest {
+        @Test
+        @DisplayName("Probando que el cache se invalida con transferencias y movimientos directos")
+        void testConsultarSaldo() {
+            Cuenta andres = nuevaCuenta("Andrés", "1000");
+            Cuenta julian = nuevaCuenta("Julian", "2000");
+            banco.agregarCuenta(andres);
+            banco.agregarCuenta(julian);
+            CacheSaldos cache = banco.getCacheSaldos();
+
+            assertEquals("1000", banco.consultarSaldo(andres).toPlainString());
+            assertEquals("1000", banco.consultarSaldo(andres).toPlainString());
+            assertEquals(1, cache.getAciertos(), () -> "La segunda consulta deberia salir del cache");
+
+            banco.transferir(andres, julian, new BigDecimal(100));
+            assertEquals("900", banco.consultarSaldo(andres).toPlainString(), () -> "El cache no se invalido con la transferencia");
+
+            andres.debito(new BigDecimal(50));
+            assertEquals("850", banco.consultarSaldo(andres).toPlainString(), () -> "El cache no se invalido con el debito");
+
+            assertAll(
+                    () -> assertEquals("2100", banco.consultarSaldo(julian).toPlainString()),
+                    () -> assertEquals(List.of(new BigDecimal(850), new BigDecimal(2100)), banco.consultarSaldos(List.of(andres, julian))),
+                    () -> assertEquals(0, new BigDecimal(2950).compareTo(banco.consultarSaldoTotal()))
+            );
+        }
+
+        @Test
+        @DisplayName("Probando que la consulta no ve el debito de una transferencia sin su credito")
+        void testConsultarDuranteTransferencia() throws Exception {
+            CountDownLatch acreditando = new CountDownLatch(1);
+            CountDownLatch seguir = new CountDownLatch(1);
+            Cuenta andres = nuevaCuenta("Andrés", "1000");
+            // el credito se frena a la mitad de la transferencia, con el origen ya debitado
+            Cuenta julian = new Cuenta("Julian", new BigDecimal(2000), null) {
+                @Override
+                protected void aplicarCredito(BigDecimal monto) {
+                    acreditando.countDown();
+                    try {
+                        seguir.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    super.aplicarCredito(monto);
+                }
+            };
+            banco.agregarCuenta(andres);
+            banco.agregarCuenta(julian);
+
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                Future<?> transferencia = executor.submit(() -> banco.transferir(andres, julian, new BigDecimal(100)));
+                acreditando.await();
+                Future<BigDecimal> consulta = executor.submit(() -> banco.consultarSaldo(andres));
+
+                assertThrows(TimeoutException.class, () -> consulta.get(200, TimeUnit.MILLISECONDS),
+                        () -> "La consulta devolvio el saldo con la transferencia a medias");
+                seguir.countDown();
+                transferencia.get(1, TimeUnit.MINUTES);
+                assertEquals("900", consulta.get(1, TimeUnit.MINUTES).toPlainString());
+            } finally {
+                seguir.countDown();
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Nested
+    @DisplayName("Probando el registro de cuentas del banco")
+    class RegistroCuentasTest {
+        @Test
+        @DisplayName("Probando la busqueda por id y por nombre")
+        void testBuscarCuenta() {
+            Cuenta andres = nuevaCuenta("Andrés", "1000");
+            Cuenta julian = nuevaCuenta("Julian", "2000");
+            banco.agregarCuenta(andres);
+            banco.agregarCuenta(julian);
+
+            assertAll(
+                    () -> assertEquals(1L, andres.getId(), () -> "El id no es el esperado"),
+                    () -> assertEquals(2L, julian.getId(), () -> "El id no es el esperado"),
+                    () -> assertSame(julian, banco.buscarCuenta(2L).orElseThrow()),
+                    () -> assertSame(andres, banco.buscarCuenta("Andrés").orElseThrow()),
+                    () -> assertTrue(banco.buscarCuenta("Pedro").isEmpty()),
+                    () -> assertEquals(List.of(andres, julian), banco.getCuentas())
+            );
+        }
+
+        @Test
+        @DisplayName("Probando que no se puede repetir el nombre")
+        void testNombreRepetido() {
+            banco.agregarCuenta(nuevaCuenta("Andrés", "1000"));
+            assertThrows(IllegalArgumentException.class, () -> banco.agregarCuenta(nuevaCuenta("Andrés", "5")));
+            assertEquals(1, banco.getCuentas().size(), () -> "No se deberia haber agregado la cuenta");
+        }
+
+        @Test
+        @DisplayName("Probando que una cuenta registrada no cambia de nombre ni de id")
+        void testIdentidadInmutable() {
+            Cuenta andres = nuevaCuenta("Andrés", "1000");
+            banco.agregarCuenta(andres);
+            Cuenta repetida = nuevaCuenta("Andrés", "5");
+
+            assertAll(
+                    () -> assertThrows(IllegalStateException.class, () -> andres.setNombre("Pedro")),
+                    () -> assertThrows(IllegalStateException.class, () -> andres.setId(7L)),
+                    () -> assertDoesNotThrow(() -> andres.setNombre("Andrés"), () -> "Asignar el mismo nombre no cambia nada"),
+                    () -> assertSame(andres, banco.buscarCuenta("Andrés").orElseThrow()),
+                    () -> assertThrows(IllegalArgumentException.class, () -> banco.agregarCuenta(repetida)),
+                    () -> assertNull(repetida.getId(), () -> "El id de un registro fallido se tenia que deshacer")
+            );
+        }
+
+        @Test
+        @DisplayName("Probando que una cuenta recien agregada ya se encuentra con su id")
+        void testIdAntesDePublicar() throws Exception {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            AtomicBoolean terminar = new AtomicBoolean();
+            try {
+                // mientras se agregan cuentas otro hilo las busca por nombre apenas aparecen
+                Future<Integer> lector = executor.submit(() -> {
+                    int sinId = 0;
+                    for (int i = 0; i < 10_000 && !terminar.get(); ) {
+                        Optional<Cuenta> cuenta = banco.buscarCuenta("Cuenta " + i);
+                        if (cuenta.isEmpty())
+                            continue;
+                        if (cuenta.get().getId() == null)
+                            sinId++;
+                        i++;
+                    }
+                    return sinId;
+                });
+                for (int i = 0; i < 10_000; i++)
+                    banco.agregarCuenta(nuevaCuenta("Cuenta " + i, "1"));
+
+                assertEquals(0, lector.get(1, TimeUnit.MINUTES), () -> "Se encontro una cuenta sin id");
+            } finally {
+                terminar.set(true);
+                executor.shutdownNow();
+            }
+        }
+
+        @Test
+        @DisplayName("Probando agregar cuentas desde varios hilos")
+        void testAgregarCuentaConcurrente() throws InterruptedException {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            for (int i = 0; i < 10_000; i++) {
+                String nombre = "Cuenta " + i;
+                executor.execute(() -> banco.agregarCuenta(nuevaCuenta(nombre, "1")));
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+            List<Cuenta> cuentas = banco.getCuentas();
+            assertEquals(10_000, cuentas.size(), () -> "Se perdieron cuentas");
+            assertEquals(10_000, cuentas.stream().map(Cuenta::getId).distinct().count(), () -> "Hay ids repetidos");
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que la cuenta se puede usar como clave de un Map aunque cambie el saldo")
+    void testCuentaComoClave() {
+        Cuenta cuenta = nuevaCuenta("Andrés", "1000");
+        Map<Cuenta, String> mapa = new HashMap<>();
+        mapa.put(cuenta, "Andrés");
+
+        cuenta.debito(new BigDecimal(100));
+
+        assertEquals("Andrés", mapa.get(cuenta), () -> "La cuenta no se encontro despues del debito");
+        assertNotEquals(cuenta, "Andrés", () -> "Una cuenta no puede ser igual a un String");
+    }
+}
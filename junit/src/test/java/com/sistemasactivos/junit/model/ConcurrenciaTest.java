@@ -0,0 +1,383 @@
+package com.sistemasactivos.junit.model;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * Pruebas de concurrencia de Cuenta y Banco, para que cada cambio de rendimiento en el
+ * motor, los almacenes o los tipos de cuenta se pueda verificar contra lo mismo:
+ *
+ * - Invariantes: con muchos hilos haciendo transferencias sobre un grafo de cuentas al
+ *   azar, el dinero total no cambia y ningun saldo queda negativo, ni al final ni en las
+ *   fotos que se toman mientras tanto.
+ * - Linealizabilidad: con pocos hilos y pocas operaciones, todo lo que devolvieron las
+ *   transferencias y las consultas se puede explicar con algun orden de una a la vez
+ *   (ver HistorialOperaciones).
+ * - Rendimiento: pisos de transferencias por segundo. Tienen el tag "rendimiento" y no
+ *   corren con los tests normales, se corren aparte con mvn test -Prendimiento.
+ *
+ * Las pruebas al azar usan una semilla nueva en cada corrida y la muestran si fallan, para
+ * poder repetir el mismo grafo.
+ */
+class ConcurrenciaTest {
+
+    private static final int HILOS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    enum TipoCuenta {
+        COMUN, PUNTO_FIJO, ATOMICA, FRAGMENTADA, COLUMNAR;
+
+        Banco nuevoBanco(int capacidad) {
+            return this == COLUMNAR
+                    ? new Banco("Banco del Estado", new AlmacenColumnar(capacidad, 2))
+                    : new Banco("Banco del Estado");
+        }
+
+        // devuelve la cuenta que quedo en el banco, que en el almacen columnar es otra
+        Cuenta abrir(Banco banco, String nombre, BigDecimal saldo) {
+            Cuenta cuenta = switch (this) {
+                case COMUN, COLUMNAR -> new Cuenta(nombre, saldo, null);
+                case PUNTO_FIJO -> new CuentaPuntoFijo(nombre, saldo, 2);
+                case ATOMICA -> new CuentaAtomica(nombre, saldo, 2);
+                case FRAGMENTADA -> new CuentaFragmentada(nombre, saldo, 2, 4);
+            };
+            return banco.agregarCuenta(cuenta);
+        }
+    }
+
+    private static List<Cuenta> abrirCuentas(TipoCuenta tipo, Banco banco, int cantidad, BigDecimal saldo) {
+        List<Cuenta> cuentas = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++)
+            cuentas.add(tipo.abrir(banco, "Cuenta " + i, saldo));
+        return cuentas;
+    }
+
+    private static BigDecimal total(List<Cuenta> cuentas) {
+        return cuentas.stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    private static void esperar(List<Future<?>> tareas, ExecutorService executor) throws Exception {
+        try {
+            for (Future<?> tarea : tareas)
+                tarea.get(2, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Nested
+    @DisplayName("Probando los invariantes del banco con transferencias concurrentes")
+    class InvariantesTest {
+
+        /*
+         * Grafo al azar: cada cuenta transfiere a unos pocos vecinos, y un tercio de las
+         * aristas van a las 5 primeras cuentas, que hacen de cuentas calientes (comercios).
+         * Asi hay a la vez transferencias sin contencion y mucha contencion en pocas cuentas
+         */
+        private int[][] grafo(SplittableRandom random, int cantidad) {
+            int[][] vecinos = new int[cantidad][];
+            for (int i = 0; i < cantidad; i++) {
+                vecinos[i] = new int[random.nextInt(1, 9)];
+                for (int v = 0; v < vecinos[i].length; v++)
+                    vecinos[i][v] = random.nextInt(3) == 0 ? random.nextInt(5) : random.nextInt(cantidad);
+            }
+            return vecinos;
+        }
+
+        @ParameterizedTest
+        @EnumSource(TipoCuenta.class)
+        @DisplayName("Probando que el dinero se conserva y no hay saldos negativos en un grafo al azar")
+        void testGrafoAlAzar(TipoCuenta tipo) throws Exception {
+            long semilla = System.nanoTime();
+            SplittableRandom random = new SplittableRandom(semilla);
+            int cantidad = 200;
+            Banco banco = tipo.nuevoBanco(cantidad);
+            List<Cuenta> cuentas = abrirCuentas(tipo, banco, cantidad, new BigDecimal("100.00"));
+            int[][] vecinos = grafo(random, cantidad);
+            BigDecimal totalInicial = total(cuentas);
+
+            // mientras se transfiere, otro hilo saca fotos de todos los saldos y las revisa
+            AtomicBoolean terminado = new AtomicBoolean();
+            AtomicReference<String> violacion = new AtomicReference<>();
+            AtomicLong fotos = new AtomicLong();
+
+            ExecutorService executor = Executors.newFixedThreadPool(HILOS + 1);
+            Future<?> monitor = executor.submit(() -> {
+                while (!terminado.get() || fotos.get() == 0) {
+                    ResumenSaldos resumen = banco.resumirSaldos();
+                    if (resumen.total().compareTo(totalInicial) != 0 || resumen.negativos() != 0)
+                        violacion.compareAndSet(null, "foto con total " + resumen.total() + " y " + resumen.negativos() + " negativos");
+                    fotos.incrementAndGet();
+                    // la foto bloquea todas las franjas si se cruza con una transferencia: sin
+                    // una pausa, con pocos procesadores las transferencias casi no avanzan
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+
+            List<Future<?>> tareas = new ArrayList<>();
+            for (int h = 0; h < HILOS; h++) {
+                SplittableRandom propio = random.split();
+                tareas.add(executor.submit(() -> {
+                    for (int n = 0; n < 20_000; n++) {
+                        int origen = propio.nextInt(cantidad);
+                        int destino = vecinos[origen][propio.nextInt(vecinos[origen].length)];
+                        BigDecimal monto = BigDecimal.valueOf(propio.nextLong(1, 5000), 2);
+                        // las aristas se recorren en los dos sentidos, asi el orden de los locks importa
+                        if (propio.nextBoolean())
+                            banco.intentarTransferir(cuentas.get(origen), cuentas.get(destino), monto);
+                        else
+                            banco.intentarTransferir(cuentas.get(destino), cuentas.get(origen), monto);
+
+                        // de vez en cuando un lote, que va por otro camino del motor
+                        if (n % 1000 == 0) {
+                            List<Transferencia> lote = new ArrayList<>();
+                            for (int t = 0; t < 16; t++) {
+                                int o = propio.nextInt(cantidad);
+                                lote.add(new Transferencia(cuentas.get(o), cuentas.get(vecinos[o][0]), BigDecimal.ONE));
+                            }
+                            banco.transferirLote(lote);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> tarea : tareas)
+                tarea.get(2, TimeUnit.MINUTES);
+            terminado.set(true);
+            esperar(List.of(monitor), executor);
+
+            assertAll(
+                    () -> assertNull(violacion.get(), () -> "Semilla " + semilla + ": " + violacion.get()),
+                    () -> assertEquals(0, totalInicial.compareTo(total(cuentas)), () -> "Semilla " + semilla + ": el dinero total no se conservo"),
+                    () -> assertTrue(cuentas.stream().allMatch(c -> c.getSaldo().signum() >= 0), () -> "Semilla " + semilla + ": hay saldos negativos"),
+                    () -> assertTrue(fotos.get() > 0)
+            );
+        }
+
+        @ParameterizedTest
+        @EnumSource(value = TipoCuenta.class, names = {"ATOMICA", "FRAGMENTADA"})
+        @DisplayName("Probando debitos y creditos directos concurrentes sobre una cuenta caliente")
+        void testCuentaCaliente(TipoCuenta tipo) throws Exception {
+            // estas cuentas admiten debitos y creditos de varios hilos sin pasar por el motor
+            Banco banco = tipo.nuevoBanco(1);
+            Cuenta caliente = tipo.abrir(banco, "Comercio", new BigDecimal("1000.00"));
+            AtomicLong acreditado = new AtomicLong();
+            AtomicLong debitado = new AtomicLong();
+            AtomicBoolean terminado = new AtomicBoolean();
+            AtomicReference<BigDecimal> negativo = new AtomicReference<>();
+
+            ExecutorService executor = Executors.newFixedThreadPool(HILOS + 1);
+            Future<?> monitor = executor.submit(() -> {
+                while (!terminado.get()) {
+                    BigDecimal saldo = caliente.getSaldo();
+                    if (saldo.signum() < 0)
+                        negativo.compareAndSet(null, saldo);
+                    Thread.yield();
+                }
+            });
+            List<Future<?>> tareas = new ArrayList<>();
+            for (int h = 0; h < HILOS; h++) {
+                tareas.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int n = 0; n < 50_000; n++) {
+                        long unidades = random.nextLong(1, 10_000);
+                        if (random.nextBoolean()) {
+                            caliente.credito(BigDecimal.valueOf(unidades, 2));
+                            acreditado.addAndGet(unidades);
+                        } else if (caliente.intentarDebito(BigDecimal.valueOf(unidades, 2)) == ResultadoDebito.APROBADO) {
+                            debitado.addAndGet(unidades);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> tarea : tareas)
+                tarea.get(2, TimeUnit.MINUTES);
+            terminado.set(true);
+            esperar(List.of(monitor), executor);
+
+            BigDecimal esperado = new BigDecimal("1000.00").add(BigDecimal.valueOf(acreditado.get() - debitado.get(), 2));
+            assertAll(
+                    () -> assertEquals(0, esperado.compareTo(caliente.getSaldo()), () -> "Se perdio o se creo dinero"),
+                    () -> assertNull(negativo.get(), () -> "Se vio un saldo negativo: " + negativo.get())
+            );
+        }
+    }
+
+    @Nested
+    @DisplayName("Probando que las transferencias y las consultas de saldo son linealizables")
+    class LinealizabilidadTest {
+
+        /*
+         * Solo las cuentas que se modifican con el lock de la franja. En las que admiten
+         * creditos sin bloqueo getSaldo() es consistente cuenta por cuenta, como
+         * LongAdder.sum(), pero una consulta puede ver el credito de una transferencia
+         * que todavia no termino
+         */
+        @ParameterizedTest
+        @EnumSource(value = TipoCuenta.class, names = {"COMUN", "PUNTO_FIJO", "COLUMNAR"})
+        @DisplayName("Probando historiales cortos de transferencias y consultas concurrentes")
+        void testHistoriales(TipoCuenta tipo) throws Exception {
+            int hilos = 3;
+            int operacionesPorHilo = 7;
+            ExecutorService executor = Executors.newFixedThreadPool(hilos);
+            try {
+                for (int ronda = 0; ronda < 300; ronda++) {
+                    Banco banco = tipo.nuevoBanco(3);
+                    List<Cuenta> cuentas = abrirCuentas(tipo, banco, 3, new BigDecimal("5.00"));
+                    HistorialOperaciones historial = new HistorialOperaciones(2);
+                    CyclicBarrier largada = new CyclicBarrier(hilos);
+
+                    List<Future<?>> tareas = new ArrayList<>();
+                    for (int h = 0; h < hilos; h++) {
+                        tareas.add(executor.submit(() -> {
+                            ThreadLocalRandom random = ThreadLocalRandom.current();
+                            largada.await();
+                            for (int n = 0; n < operacionesPorHilo; n++) {
+                                // con pocos procesadores, para que los hilos se intercalen mas
+                                if (random.nextBoolean())
+                                    Thread.yield();
+                                int origen = random.nextInt(3);
+                                int sorteo = random.nextInt(20);
+                                if (sorteo < 12)
+                                    historial.transferir(banco, cuentas, origen, (origen + 1 + random.nextInt(2)) % 3, random.nextLong(1, 400));
+                                else if (sorteo < 17)
+                                    historial.consultarSaldo(banco, cuentas, origen);
+                                else
+                                    historial.consultarSaldos(banco, cuentas);
+                            }
+                            return null;
+                        }));
+                    }
+                    for (Future<?> tarea : tareas)
+                        tarea.get(1, TimeUnit.MINUTES);
+
+                    assertTrue(historial.esLinealizable(new long[]{500, 500, 500}),
+                            () -> "El historial no es linealizable: " + historial.getOperaciones());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        @Test
+        @DisplayName("Probando que el verificador rechaza una transferencia vista a medias")
+        void testVerificador() {
+            HistorialOperaciones aMedias = new HistorialOperaciones(2);
+            // transferencia de 0 a 1 mientras se consulta: la cuenta 0 ya debitada...
+            aMedias.agregar(new HistorialOperaciones.Operacion(HistorialOperaciones.Tipo.TRANSFERENCIA, 0, 1, 100, new long[]{1}, 0, 10));
+            aMedias.agregar(new HistorialOperaciones.Operacion(HistorialOperaciones.Tipo.SALDO, 0, 0, 0, new long[]{0}, 1, 2));
+            // ...y despues la cuenta 1 todavia sin el credito
+            aMedias.agregar(new HistorialOperaciones.Operacion(HistorialOperaciones.Tipo.SALDO, 1, 1, 0, new long[]{0}, 3, 4));
+
+            HistorialOperaciones solapadas = new HistorialOperaciones(2);
+            // la consulta empieza antes de que termine la transferencia y puede ir antes que ella
+            solapadas.agregar(new HistorialOperaciones.Operacion(HistorialOperaciones.Tipo.TRANSFERENCIA, 0, 1, 100, new long[]{1}, 0, 3));
+            solapadas.agregar(new HistorialOperaciones.Operacion(HistorialOperaciones.Tipo.SALDOS, -1, -1, 0, new long[]{100, 0}, 1, 2));
+            solapadas.agregar(new HistorialOperaciones.Operacion(HistorialOperaciones.Tipo.TRANSFERENCIA, 0, 1, 1, new long[]{0}, 4, 5));
+
+            assertAll(
+                    () -> assertFalse(aMedias.esLinealizable(new long[]{100, 0})),
+                    () -> assertTrue(solapadas.esLinealizable(new long[]{100, 0}))
+            );
+        }
+    }
+
+    @Nested
+    @Tag("rendimiento")
+    @DisplayName("Probando pisos de rendimiento del banco")
+    class RendimientoTest {
+
+        /*
+         * Los pisos son bajos a proposito, para que no fallen en una maquina lenta o con un
+         * solo procesador: lo que buscan es una regresion grosera (un lock global, una
+         * busqueda lineal), no medir. Para medir estan los benchmarks de JMH
+         */
+        private static final double TRANSFERENCIAS_POR_SEGUNDO = 200_000;
+        private static final double CONSULTAS_POR_SEGUNDO = 2_000_000;
+        private static final double TRANSFERENCIAS_CON_ID_POR_SEGUNDO = 100_000;
+
+        private Banco banco;
+        private List<Cuenta> cuentas;
+
+        @BeforeEach
+        void setUp() {
+            banco = TipoCuenta.COMUN.nuevoBanco(1000);
+            cuentas = abrirCuentas(TipoCuenta.COMUN, banco, 1000, new BigDecimal("1000000.00"));
+        }
+
+        // operaciones por segundo de "operacion", repetida "veces" en cada hilo despues de calentar
+        private double porSegundo(int hilos, int veces, IntConsumerConExcepcion operacion) throws Exception {
+            for (int i = 0; i < veces / 2; i++)
+                operacion.aceptar(i);
+
+            ExecutorService executor = Executors.newFixedThreadPool(hilos);
+            CyclicBarrier largada = new CyclicBarrier(hilos + 1);
+            List<Future<?>> tareas = new ArrayList<>();
+            for (int h = 0; h < hilos; h++) {
+                int base = (h + 1) * veces;
+                tareas.add(executor.submit(() -> {
+                    largada.await();
+                    for (int i = 0; i < veces; i++)
+                        operacion.aceptar(base + i);
+                    return null;
+                }));
+            }
+            largada.await();
+            long inicio = System.nanoTime();
+            esperar(tareas, executor);
+            return (double) hilos * veces * 1_000_000_000L / (System.nanoTime() - inicio);
+        }
+
+        @Test
+        @DisplayName("Probando las transferencias por segundo con un hilo y con varios")
+        void testTransferencias() throws Exception {
+            BigDecimal monto = new BigDecimal("0.01");
+            IntConsumerConExcepcion transferir = i -> banco.transferir(cuentas.get(i % 1000), cuentas.get((i * 7 + 1) % 1000), monto);
+
+            double unHilo = porSegundo(1, 500_000, transferir);
+            double variosHilos = porSegundo(HILOS, 250_000, transferir);
+            System.out.printf("Transferencias por segundo: %.0f con un hilo, %.0f con %d hilos%n", unHilo, variosHilos, HILOS);
+            assertAll(
+                    () -> assertTrue(unHilo >= TRANSFERENCIAS_POR_SEGUNDO, () -> unHilo + " transferencias por segundo con un hilo"),
+                    () -> assertTrue(variosHilos >= TRANSFERENCIAS_POR_SEGUNDO, () -> variosHilos + " transferencias por segundo con " + HILOS + " hilos")
+            );
+        }
+
+        @Test
+        @DisplayName("Probando las consultas de saldo por segundo")
+        void testConsultas() throws Exception {
+            double consultas = porSegundo(HILOS, 2_000_000, i -> banco.consultarSaldo(cuentas.get(i % 1000)));
+            System.out.printf("Consultas de saldo por segundo: %.0f%n", consultas);
+            assertTrue(consultas >= CONSULTAS_POR_SEGUNDO, () -> consultas + " consultas por segundo");
+        }
+
+        @Test
+        @DisplayName("Probando las transferencias con id de solicitud por segundo")
+        void testTransferenciasConId() throws Exception {
+            BigDecimal monto = new BigDecimal("0.01");
+            double conId = porSegundo(HILOS, 250_000,
+                    i -> banco.transferir("T-" + i, cuentas.get(i % 1000), cuentas.get((i * 7 + 1) % 1000), monto));
+            System.out.printf("Transferencias con id por segundo: %.0f%n", conId);
+            assertTrue(conId >= TRANSFERENCIAS_CON_ID_POR_SEGUNDO, () -> conId + " transferencias con id por segundo");
+        }
+    }
+
+    @FunctionalInterface
+    private interface IntConsumerConExcepcion {
+        void aceptar(int i) throws Exception;
+    }
+}
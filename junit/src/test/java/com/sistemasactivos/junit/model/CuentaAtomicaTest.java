@@ -0,0 +1,111 @@
+package com.sistemasactivos.junit.model;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CuentaAtomicaTest {
+
+    private CuentaAtomica cuenta;
+
+    @BeforeEach
+    void setUp() {
+        cuenta = new CuentaAtomica("Andrés", new BigDecimal("1000.12"), 2);
+    }
+
+    @Test
+    @DisplayName("Probando debito y credito sobre la cuenta atomica")
+    void testDebitoCredito() {
+        cuenta.debito(new BigDecimal(100));
+        cuenta.creditoUnidades(5_000L);
+        assertAll(
+                () -> assertEquals("950.12", cuenta.getSaldo().toPlainString(), () -> "El saldo no es el esperado"),
+                () -> assertEquals(95_012L, cuenta.getUnidades())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando dinero insuficiente en la cuenta atomica")
+    void testDineroInsuficiente() {
+        assertThrows(DineroInsuficienteException.class, () -> cuenta.debito(new BigDecimal(1500)));
+        assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, cuenta.intentarDebitoUnidades(100_013L));
+        assertEquals("1000.12", cuenta.getSaldo().toPlainString(), () -> "El saldo no deberia cambiar");
+    }
+
+    @Test
+    @DisplayName("Probando el desbordamiento del saldo atomico")
+    void testDesbordamiento() {
+        CuentaAtomica pesos = new CuentaAtomica(0);
+        pesos.creditoUnidades(Long.MAX_VALUE);
+        assertThrows(ArithmeticException.class, () -> pesos.creditoUnidades(1));
+        assertEquals(Long.MAX_VALUE, pesos.getUnidades(), () -> "El saldo no deberia cambiar");
+    }
+
+    @Test
+    @DisplayName("Probando transferencias del motor entre cuentas atomicas")
+    void testTransferencia() {
+        Banco banco = new Banco("Banco del Estado");
+        CuentaAtomica destino = new CuentaAtomica("John Doe", new BigDecimal("0.00"), 2);
+        banco.agregarCuenta(cuenta);
+        banco.agregarCuenta(destino);
+
+        banco.transferir(cuenta, destino, new BigDecimal("0.12"));
+        assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, banco.intentarTransferir(cuenta, destino, new BigDecimal(2000)));
+
+        assertAll(
+                () -> assertEquals("1000.00", cuenta.getSaldo().toPlainString()),
+                () -> assertEquals("0.12", destino.getSaldo().toPlainString())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando debitos y creditos concurrentes sin locks")
+    void testDebitosCreditosConcurrentes() throws Exception {
+        /*
+         * Varios hilos debitan y acreditan directo sobre la misma cuenta. Con un saldo
+         * chico muchos debitos se rechazan, asi que si el compareAndSet no verificara el
+         * saldo en el mismo paso, alguno lo dejaria negativo. Al final el saldo tiene que
+         * ser el inicial mas los creditos menos los debitos aprobados.
+         */
+        CuentaAtomica compartida = new CuentaAtomica(null, new BigDecimal("10.00"), 2);
+        int hilos = Math.max(4, Runtime.getRuntime().availableProcessors());
+        AtomicLong acreditado = new AtomicLong();
+        AtomicLong debitado = new AtomicLong();
+        AtomicLong minimo = new AtomicLong(Long.MAX_VALUE);
+
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        List<Future<?>> futuros = new ArrayList<>();
+        for (int h = 0; h < hilos; h++) {
+            futuros.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int n = 0; n < 200_000; n++) {
+                    long monto = random.nextLong(1, 500);
+                    if (random.nextBoolean()) {
+                        compartida.creditoUnidades(monto);
+                        acreditado.addAndGet(monto);
+                    } else if (compartida.intentarDebitoUnidades(monto) == ResultadoDebito.APROBADO) {
+                        debitado.addAndGet(monto);
+                    }
+                    minimo.accumulateAndGet(compartida.getUnidades(), Math::min);
+                }
+            }));
+        }
+
+        for (Future<?> futuro : futuros)
+            futuro.get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        assertAll(
+                () -> assertTrue(minimo.get() >= 0, () -> "El saldo quedo negativo"),
+                () -> assertEquals(1_000L + acreditado.get() - debitado.get(), compartida.getUnidades(),
+                        () -> "Se perdio alguna actualizacion")
+        );
+    }
+}
@@ -0,0 +1,208 @@
+package com.sistemasactivos.junit.model;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.moneda.CacheTasas;
+import com.sistemasactivos.junit.moneda.TasasFijas;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CuentaFragmentadaTest {
+
+    private CuentaFragmentada cuenta;
+
+    @BeforeEach
+    void setUp() {
+        cuenta = new CuentaFragmentada("Comercio", new BigDecimal("1000.00"), 2, 8);
+    }
+
+    @Test
+    @DisplayName("Probando que las celdas se redondean a potencia de 2")
+    void testCantidadCeldas() {
+        assertEquals(8, new CuentaFragmentada(2, 5).getCantidadCeldas(), () -> "Las celdas no se redondearon");
+        assertThrows(IllegalArgumentException.class, () -> new CuentaFragmentada(2, 0));
+    }
+
+    @Test
+    @DisplayName("Probando debito y credito sobre la cuenta fragmentada")
+    void testDebitoCredito() {
+        cuenta.debito(new BigDecimal(100));
+        cuenta.creditoUnidades(5_000L);
+        assertAll(
+                () -> assertEquals("950.00", cuenta.getSaldo().toPlainString(), () -> "El saldo no es el esperado"),
+                () -> assertThrows(DineroInsuficienteException.class, () -> cuenta.debito(new BigDecimal(2000))),
+                () -> assertEquals("950.00", cuenta.getSaldo().toPlainString(), () -> "El saldo no deberia cambiar")
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que un debito junta el saldo de varias celdas")
+    void testDebitoPrestandoDeOtrasCeldas() throws Exception {
+        // cada hilo acredita en su propia celda, asi el saldo queda repartido
+        CuentaFragmentada repartida = new CuentaFragmentada(null, BigDecimal.ZERO, 0, 16);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<?>> futuros = new ArrayList<>();
+        for (int h = 0; h < 16; h++)
+            futuros.add(executor.submit(() -> repartida.creditoUnidades(10)));
+        for (Future<?> futuro : futuros)
+            futuro.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertAll(
+                () -> assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, repartida.intentarDebitoUnidades(161)),
+                () -> assertEquals(160, repartida.getUnidades(), () -> "El rechazo no devolvio lo juntado"),
+                () -> assertEquals(ResultadoDebito.APROBADO, repartida.intentarDebitoUnidades(160)),
+                () -> assertEquals(0, repartida.getUnidades())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que pedir prestado a otras celdas no muestra saldos que ningun movimiento produjo")
+    void testPrestamoInvisible() throws Exception {
+        CuentaFragmentada repartida = new CuentaFragmentada(null, BigDecimal.ZERO, 0, 16);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<?>> futuros = new ArrayList<>();
+        for (int h = 0; h < 16; h++)
+            futuros.add(executor.submit(() -> repartida.creditoUnidades(1_000)));
+        for (Future<?> futuro : futuros)
+            futuro.get(10, TimeUnit.SECONDS);
+
+        // un solo hilo debita siempre 1.500, que no entra en ninguna celda: cada debito pide prestado
+        AtomicLong aprobados = new AtomicLong();
+        AtomicLong rechazos = new AtomicLong();
+        Future<?> debitos = executor.submit(() -> {
+            for (int n = 0; n < 20_000; n++) {
+                if (repartida.intentarDebitoUnidades(1_500) == ResultadoDebito.APROBADO)
+                    aprobados.incrementAndGet();
+                else
+                    rechazos.incrementAndGet();
+            }
+        });
+
+        // los saldos posibles son 16.000 menos un multiplo de 1.500
+        long invalidos = 0;
+        while (!debitos.isDone()) {
+            long saldo = repartida.getUnidades();
+            if ((16_000 - saldo) % 1_500 != 0)
+                invalidos++;
+        }
+        debitos.get();
+        executor.shutdown();
+
+        long vistos = invalidos;
+        assertAll(
+                () -> assertEquals(0, vistos, () -> "Se vieron " + vistos + " saldos a mitad de un prestamo"),
+                () -> assertEquals(10, aprobados.get()),
+                () -> assertEquals(19_990, rechazos.get()),
+                () -> assertEquals(1_000, repartida.getUnidades())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando debitos y creditos concurrentes en la cuenta fragmentada")
+    void testDebitosCreditosConcurrentes() throws Exception {
+        /*
+         * Igual que en CuentaAtomicaTest: con un saldo chico muchos debitos tienen que pedir
+         * prestado a otras celdas o se rechazan, y al final el saldo tiene que cerrar exacto
+         */
+        CuentaFragmentada compartida = new CuentaFragmentada(null, new BigDecimal("10.00"), 2);
+        int hilos = Math.max(4, Runtime.getRuntime().availableProcessors());
+        AtomicLong acreditado = new AtomicLong();
+        AtomicLong debitado = new AtomicLong();
+        AtomicLong minimo = new AtomicLong(Long.MAX_VALUE);
+
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        List<Future<?>> futuros = new ArrayList<>();
+        for (int h = 0; h < hilos; h++) {
+            futuros.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int n = 0; n < 200_000; n++) {
+                    long monto = random.nextLong(1, 500);
+                    if (random.nextBoolean()) {
+                        compartida.creditoUnidades(monto);
+                        acreditado.addAndGet(monto);
+                    } else if (compartida.intentarDebitoUnidades(monto) == ResultadoDebito.APROBADO) {
+                        debitado.addAndGet(monto);
+                    }
+                    minimo.accumulateAndGet(compartida.getUnidades(), Math::min);
+                }
+            }));
+        }
+
+        for (Future<?> futuro : futuros)
+            futuro.get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        assertAll(
+                () -> assertTrue(minimo.get() >= 0, () -> "El saldo quedo negativo"),
+                () -> assertEquals(1_000L + acreditado.get() - debitado.get(), compartida.getUnidades(),
+                        () -> "Se perdio alguna actualizacion")
+        );
+    }
+
+    @Test
+    @DisplayName("Probando muchas transferencias concurrentes hacia una cuenta caliente")
+    void testTransferenciasHaciaCuentaCaliente() throws Exception {
+        Banco banco = new Banco("Banco del Estado");
+        banco.agregarCuenta(cuenta);
+        List<Cuenta> origenes = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            Cuenta origen = new CuentaPuntoFijo("Cliente " + i, new BigDecimal("1000.00"), 2);
+            banco.agregarCuenta(origen);
+            origenes.add(origen);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futuros = new ArrayList<>();
+        for (Cuenta origen : origenes) {
+            futuros.add(executor.submit(() -> {
+                for (int n = 0; n < 1000; n++) {
+                    banco.transferir(origen, cuenta, new BigDecimal("0.50"));
+                    // la cuenta caliente tambien paga, para mezclar debitos con creditos
+                    banco.intentarTransferir(cuenta, origen, new BigDecimal("0.25"));
+                }
+            }));
+        }
+        for (Future<?> futuro : futuros)
+            futuro.get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        BigDecimal total = banco.getCuentas().stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertAll(
+                () -> assertEquals(0, new BigDecimal("33000.00").compareTo(total), () -> "El dinero total no se conservo"),
+                () -> assertEquals("9000.00", cuenta.getSaldo().toPlainString())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando una transferencia con conversion hacia una cuenta fragmentada")
+    void testTransferenciaConConversion() {
+        Banco banco = new Banco("Banco del Estado");
+        banco.setTasas(new CacheTasas(new TasasFijas().definir("USD", "JPY", "150.5"), Duration.ofMinutes(1)));
+        banco.getTasas().actualizar();
+
+        Cuenta dolares = new CuentaPuntoFijo(Currency.getInstance("USD"));
+        dolares.setSaldo(new BigDecimal("100.00"));
+        CuentaFragmentada yenes = new CuentaFragmentada(Currency.getInstance("JPY"));
+        banco.agregarCuenta(dolares);
+        banco.agregarCuenta(yenes);
+
+        banco.transferir(dolares, yenes, new BigDecimal("10.25"));
+
+        assertAll(
+                () -> assertEquals(Currency.getInstance("JPY"), yenes.getMoneda()),
+                () -> assertEquals(0, yenes.getEscala()),
+                () -> assertEquals("89.75", dolares.getSaldo().toPlainString()),
+                // 10.25 * 150.5 = 1542.625, redondeado a la escala del yen
+                () -> assertEquals("1543", yenes.getSaldo().toPlainString())
+        );
+    }
+}
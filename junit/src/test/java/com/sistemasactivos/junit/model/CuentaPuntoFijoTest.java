@@ -0,0 +1,109 @@
+package com.sistemasactivos.junit.model;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CuentaPuntoFijoTest {
+
+    private CuentaPuntoFijo cuenta;
+
+    @BeforeEach
+    void setUp() {
+        cuenta = new CuentaPuntoFijo("Andrés", new BigDecimal("1000.12345"), 5);
+    }
+
+    @Test
+    @DisplayName("Probando debito y credito en unidades minimas")
+    void testDebitoCreditoUnidades() {
+        cuenta.debitoUnidades(10_000_000L); // 100.00000
+        assertEquals("900.12345", cuenta.getSaldo().toPlainString(), () -> "El saldo no es el esperado");
+
+        cuenta.creditoUnidades(20_000_000L); // 200.00000
+        assertEquals("1100.12345", cuenta.getSaldo().toPlainString(), () -> "El saldo no es el esperado");
+    }
+
+    @Test
+    @DisplayName("Probando la escala por moneda")
+    void testEscalaPorMoneda() {
+        assertEquals(2, new CuentaPuntoFijo(Currency.getInstance("ARS")).getEscala());
+        assertEquals(0, new CuentaPuntoFijo(Currency.getInstance("JPY")).getEscala());
+    }
+
+    @Test
+    @DisplayName("Probando que no se redondean montos con mas decimales que la escala")
+    void testMontoNoRepresentable() {
+        CuentaPuntoFijo pesos = new CuentaPuntoFijo("Julian", new BigDecimal("10.00"), 2);
+        assertThrows(ArithmeticException.class, () -> pesos.credito(new BigDecimal("0.001")));
+        assertEquals("10.00", pesos.getSaldo().toPlainString(), () -> "El saldo no deberia cambiar");
+    }
+
+    @Test
+    @DisplayName("Probando el desbordamiento del saldo")
+    void testDesbordamiento() {
+        CuentaPuntoFijo pesos = new CuentaPuntoFijo(0);
+        pesos.creditoUnidades(Long.MAX_VALUE);
+        assertThrows(ArithmeticException.class, () -> pesos.creditoUnidades(1));
+        assertEquals(Long.MAX_VALUE, pesos.getUnidades(), () -> "El saldo no deberia cambiar");
+    }
+
+    @Test
+    @DisplayName("Probando dinero insuficiente en punto fijo")
+    void testDineroInsuficiente() {
+        Exception exception = assertThrows(DineroInsuficienteException.class, () -> cuenta.debito(new BigDecimal(1500)));
+        assertEquals("Dinero insuficiente", exception.getMessage());
+        assertEquals("1000.12345", cuenta.getSaldo().toPlainString(), () -> "El saldo no deberia cambiar");
+    }
+
+    @Test
+    @DisplayName("Probando el debito en unidades sin excepcion")
+    void testIntentarDebitoUnidades() {
+        assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, cuenta.intentarDebitoUnidades(200_000_000L));
+        assertEquals(100_012_345L, cuenta.getUnidades(), () -> "El saldo no deberia cambiar");
+
+        assertEquals(ResultadoDebito.APROBADO, cuenta.intentarDebitoUnidades(12_345L));
+        assertEquals("1000.00000", cuenta.getSaldo().toPlainString());
+    }
+
+    @Test
+    @DisplayName("Probando que da exactamente lo mismo que la cuenta con BigDecimal")
+    void testMismoResultadoQueBigDecimal() {
+        /*
+         * Aplico la misma secuencia de operaciones al azar a una Cuenta comun y a una
+         * CuentaPuntoFijo y verifico despues de cada paso que el saldo sea identico
+         * (mismo valor y, llevando la cuenta comun a la misma escala, misma representacion).
+         */
+        Cuenta comun = new Cuenta();
+        comun.setSaldo(new BigDecimal("500.00"));
+        CuentaPuntoFijo fija = new CuentaPuntoFijo(null, new BigDecimal("500.00"), 2);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; i++) {
+            BigDecimal monto = BigDecimal.valueOf(random.nextInt(100_000), random.nextInt(3));
+            boolean esDebito = random.nextBoolean();
+
+            boolean rechazoComun = aplicar(comun, monto, esDebito);
+            boolean rechazoFija = aplicar(fija, monto, esDebito);
+
+            assertEquals(rechazoComun, rechazoFija, "Distinto rechazo en la operacion " + i);
+            assertEquals(comun.getSaldo().setScale(2), fija.getSaldo(), "Distinto saldo en la operacion " + i);
+        }
+    }
+
+    private boolean aplicar(Cuenta cuenta, BigDecimal monto, boolean esDebito) {
+        try {
+            if (esDebito)
+                cuenta.debito(monto);
+            else
+                cuenta.credito(monto);
+            return false;
+        } catch (DineroInsuficienteException e) {
+            return true;
+        }
+    }
+}
@@ -116,8 +116,8 @@ class CuentaTest {
              * objetos intanciados.
              *
              * En este caso, como en la clase cuenta sobreescribi el metodo equals, ahora compara por
-             * el valor de los atributos, es decir: verifica que los nombres
-             * y el saldo sean iguales. Es por eso que este metodo ahora devuelve True
+             * el nombre, que identifica a la cuenta dentro del banco. Es por eso que este metodo
+             * ahora devuelve True
              */
             assertEquals(cuenta, cuenta2, () -> "Las cuentas no son iguales");
         }
@@ -373,6 +373,35 @@ class CuentaTest {
             // Comparo los mensajes del exception con el esperado
             assertEquals(esperado, actual, () -> "El mensaje no es el esperado");
         }
+
+        @Test
+        @DisplayName("Probando el debito sin excepcion con dinero insuficiente")
+        void testIntentarDebito() {
+            /*
+             * intentarDebito() no lanza la excepcion, devuelve el resultado. Si se rechaza, el
+             * saldo tiene que quedar igual.
+             */
+            assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, cuenta.intentarDebito(new BigDecimal(1500)));
+            assertEquals("1000.12345", cuenta.getSaldo().toPlainString(), () -> "El saldo no deberia cambiar");
+
+            assertEquals(ResultadoDebito.APROBADO, cuenta.intentarDebito(new BigDecimal("1000.12345")));
+            assertEquals(0, cuenta.getSaldo().signum(), () -> "El saldo deberia quedar en cero");
+        }
+
+        @Test
+        @DisplayName("Probando la excepcion sin stack trace")
+        void testExcepcionSinTraza() {
+            DineroInsuficienteException liviana = DineroInsuficienteException.sinTraza();
+
+            assertEquals("Dinero insuficiente", liviana.getMessage());
+            assertEquals(0, liviana.getStackTrace().length, () -> "No deberia tener stack trace");
+            assertSame(liviana, DineroInsuficienteException.sinTraza(), () -> "Deberia ser siempre la misma instancia");
+
+            // la instancia compartida no se puede modificar
+            liviana.addSuppressed(new RuntimeException());
+            assertEquals(0, liviana.getSuppressed().length);
+            assertThrows(IllegalStateException.class, () -> liviana.initCause(new RuntimeException()));
+        }
     }
 
     @ParameterizedTest
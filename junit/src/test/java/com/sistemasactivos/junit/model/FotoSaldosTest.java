@@ -0,0 +1,182 @@
+package com.sistemasactivos.junit.model;
+
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FotoSaldosTest {
+
+    private Banco banco;
+
+    @BeforeEach
+    void setUp() {
+        banco = new Banco("Banco del Estado");
+    }
+
+    @Test
+    @DisplayName("Probando el resumen con escalas distintas, saldos enormes y cuentas sin saldo")
+    void testResumir() {
+        banco.agregarCuenta(new Cuenta("Andrés", new BigDecimal("1000.12345"), null));
+        banco.agregarCuenta(new Cuenta("Julian", new BigDecimal("123456789012345678901234567890.5"), null));
+        banco.agregarCuenta(new Cuenta("Sin saldo", null, null));
+        banco.agregarCuenta(new Cuenta("Negativa", new BigDecimal("-5"), null));
+        banco.agregarCuenta(new CuentaPuntoFijo("Punto fijo", new BigDecimal("0.50"), 2));
+
+        ResumenSaldos resumen = banco.resumirSaldos();
+
+        assertAll(
+                () -> assertEquals(4, resumen.cantidad(), () -> "La cuenta sin saldo no se cuenta"),
+                () -> assertEquals(new BigDecimal("123456789012345678901234568886.12345"), resumen.total()),
+                () -> assertEquals(0, new BigDecimal("-5").compareTo(resumen.minimo())),
+                () -> assertEquals(new BigDecimal("123456789012345678901234567890.5"), resumen.maximo()),
+                () -> assertEquals(1, resumen.negativos()),
+                () -> assertEquals(1, resumen.distribucion()[0], () -> "0.50 tiene parte entera de 0 digitos"),
+                () -> assertEquals(1, resumen.distribucion()[4], () -> "1000 tiene 4 digitos"),
+                () -> assertEquals(1, resumen.distribucion()[FotoSaldos.DIGITOS_DISTRIBUCION - 1])
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que la suma no se desborda")
+    void testSumaExactaSinDesborde() {
+        // cada saldo entra en un long pero la suma no
+        for (int i = 0; i < 10; i++) {
+            CuentaPuntoFijo cuenta = new CuentaPuntoFijo(2);
+            cuenta.setNombre("Cuenta " + i);
+            cuenta.creditoUnidades(Long.MAX_VALUE - i);
+            banco.agregarCuenta(cuenta);
+        }
+
+        BigDecimal esperado = BigDecimal.valueOf(Long.MAX_VALUE).multiply(BigDecimal.TEN).subtract(BigDecimal.valueOf(45)).movePointLeft(2);
+        assertEquals(esperado, banco.consultarSaldoTotal());
+    }
+
+    @Test
+    @DisplayName("Probando que el resumen en paralelo da lo mismo que sumar de a una cuenta")
+    void testMismoResultadoQueSecuencial() {
+        Random random = new Random(42);
+        BigDecimal total = BigDecimal.ZERO;
+        long[] distribucion = new long[FotoSaldos.DIGITOS_DISTRIBUCION];
+        for (int i = 0; i < 500_000; i++) {
+            BigDecimal saldo = BigDecimal.valueOf(random.nextLong(10_000_000_000L), random.nextInt(4));
+            banco.agregarCuenta(new Cuenta("Cuenta " + i, saldo, null));
+            total = total.add(saldo);
+            distribucion[saldo.toBigInteger().signum() == 0 ? 0 : saldo.toBigInteger().toString().length()]++;
+        }
+
+        FotoSaldos foto = banco.fotografiarSaldos();
+        ResumenSaldos resumen = foto.resumir();
+
+        assertTrue(foto.getTramos().size() > 1, () -> "La foto no se repartio en tramos");
+        assertEquals(500_000, resumen.cantidad());
+        assertEquals(total, resumen.total());
+        assertArrayEquals(distribucion, resumen.distribucion());
+    }
+
+    @Test
+    @DisplayName("Probando la foto con todo bloqueado mientras los hilos del pool esperan una franja")
+    void testFotoConElPoolOcupado() throws Exception {
+        Cuenta andres = new Cuenta("Andrés", new BigDecimal(1000), null);
+        Cuenta julian = new Cuenta("Julian", new BigDecimal(1000), null);
+        banco.agregarCuenta(andres);
+        banco.agregarCuenta(julian);
+        ForkJoinPool pool = new ForkJoinPool(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<FotoSaldos> foto = executor.submit(() -> banco.getMotor().conTodoBloqueado(() -> {
+                // el unico hilo del pool queda esperando una franja que tengo bloqueada
+                ForkJoinTask<?> transferencia = pool.submit(() -> banco.transferir(andres, julian, BigDecimal.TEN));
+                while (pool.getQueuedSubmissionCount() > 0 || pool.getRunningThreadCount() > 0)
+                    Thread.onSpinWait();
+                assertFalse(transferencia.isDone());
+                return FotoSaldos.capturar(banco, pool);
+            }));
+
+            FotoSaldos resultado = foto.get(10, TimeUnit.SECONDS);
+            assertEquals(0, new BigDecimal(2000).compareTo(resultado.resumir().total()));
+        } finally {
+            executor.shutdownNow();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que la foto solo bloquea las franjas que no dejan de cambiar")
+    void testFotoSinBloquearTodo() throws Exception {
+        MotorTransferencias motor = banco.getMotor();
+        AtomicBoolean disparar = new AtomicBoolean();
+        AtomicInteger disparadas = new AtomicInteger();
+        ExecutorService transferencias = Executors.newSingleThreadExecutor();
+        ExecutorService otros = Executors.newFixedThreadPool(2);
+
+        /*
+         * Cada vez que la foto lee el saldo de esta cuenta, otro hilo le hace una
+         * transferencia: su franja cambia en todas las pasadas optimistas. Con la franja
+         * ya bloqueada por la foto no dispara, sino la transferencia quedaria esperando
+         */
+        Cuenta[] destino = new Cuenta[1];
+        Cuenta espia = new Cuenta("Andrés", new BigDecimal(1000), null) {
+            @Override
+            public BigDecimal getSaldo() {
+                if (disparar.get() && !motor.bloqueaAlgunaFranja()) {
+                    disparadas.incrementAndGet();
+                    try {
+                        transferencias.submit(() -> banco.transferir(this, destino[0], BigDecimal.ONE)).get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return super.getSaldo();
+            }
+        };
+        banco.agregarCuenta(espia);
+        int franja = motor.indiceFranja(espia);
+        // el destino cae en la misma franja, asi la transferencia solo cambia esa
+        for (int i = 0; destino[0] == null; i++) {
+            Cuenta cuenta = new Cuenta("Cuenta " + i, new BigDecimal(1000), null);
+            banco.agregarCuenta(cuenta);
+            if (motor.indiceFranja(cuenta) == franja)
+                destino[0] = cuenta;
+        }
+        BigDecimal total = banco.getCuentas().stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+
+        // otro hilo tiene bloqueada una franja que no cambia: la foto no la tiene que esperar
+        int quieta = (franja + 1) % motor.cantidadFranjas();
+        CountDownLatch bloqueada = new CountDownLatch(1);
+        CountDownLatch soltar = new CountDownLatch(1);
+        try {
+            otros.submit(() -> {
+                motor.bloquearFranjas(new int[]{quieta});
+                try {
+                    bloqueada.countDown();
+                    soltar.await();
+                } finally {
+                    motor.desbloquearFranjas(new int[]{quieta});
+                }
+                return null;
+            });
+            bloqueada.await();
+
+            disparar.set(true);
+            Future<FotoSaldos> foto = otros.submit(banco::fotografiarSaldos);
+            FotoSaldos resultado = foto.get(10, TimeUnit.SECONDS);
+            disparar.set(false);
+
+            assertAll(
+                    () -> assertEquals(0, total.compareTo(resultado.resumir().total()), () -> "La foto no es un corte consistente"),
+                    () -> assertTrue(disparadas.get() > 1, () -> "La franja de la cuenta espia no llego a cambiar")
+            );
+        } finally {
+            disparar.set(false);
+            soltar.countDown();
+            otros.shutdownNow();
+            transferencias.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.sistemasactivos.junit.model;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Historial de las operaciones que hacen varios hilos sobre las cuentas de un banco, para
+ * verificar despues que es linealizable: que existe un orden de una operacion a la vez
+ * que respeta el tiempo real (si una termino antes de que empezara la otra, va antes) y
+ * en el que cada operacion devuelve lo mismo que devolvio de verdad.
+ *
+ * El inicio y el fin de cada operacion se marcan con un contador compartido, asi que el
+ * orden entre marcas de hilos distintos es exacto. La busqueda es la de Wing y Gong:
+ * probar como siguiente cualquier operacion que empezo antes de que terminara alguna de
+ * las pendientes, con un conjunto de estados ya visitados (operaciones hechas + saldos)
+ * para no repetir el mismo camino. Los historiales tienen que ser cortos, a lo sumo 63
+ * operaciones, porque las hechas se guardan en los bits de un long.
+ *
+ * Los saldos del modelo van en unidades minimas con la escala que se le pasa.
+ */
+class HistorialOperaciones {
+
+    enum Tipo {
+        // resultado: 1 si se aprobo, 0 si no alcanzo el saldo
+        TRANSFERENCIA,
+        // resultado: el saldo de "origen"
+        SALDO,
+        // resultado: el saldo de todas las cuentas
+        SALDOS
+    }
+
+    record Operacion(Tipo tipo, int origen, int destino, long monto, long[] resultado, long inicio, long fin) {
+        @Override
+        public String toString() {
+            return tipo + "(" + origen + ", " + destino + ", " + monto + ") = " + Arrays.toString(resultado)
+                    + " [" + inicio + ", " + fin + "]";
+        }
+    }
+
+    private final int escala;
+    private final AtomicLong reloj = new AtomicLong();
+    private final ConcurrentLinkedQueue<Operacion> operaciones = new ConcurrentLinkedQueue<>();
+
+    HistorialOperaciones(int escala) {
+        this.escala = escala;
+    }
+
+    ResultadoDebito transferir(Banco banco, List<Cuenta> cuentas, int origen, int destino, long monto) {
+        long inicio = reloj.getAndIncrement();
+        ResultadoDebito resultado = banco.intentarTransferir(cuentas.get(origen), cuentas.get(destino), BigDecimal.valueOf(monto, escala));
+        long fin = reloj.getAndIncrement();
+        long aprobada = resultado == ResultadoDebito.APROBADO ? 1 : 0;
+        operaciones.add(new Operacion(Tipo.TRANSFERENCIA, origen, destino, monto, new long[]{aprobada}, inicio, fin));
+        return resultado;
+    }
+
+    BigDecimal consultarSaldo(Banco banco, List<Cuenta> cuentas, int cuenta) {
+        long inicio = reloj.getAndIncrement();
+        BigDecimal saldo = banco.consultarSaldo(cuentas.get(cuenta));
+        long fin = reloj.getAndIncrement();
+        operaciones.add(new Operacion(Tipo.SALDO, cuenta, cuenta, 0, new long[]{unidades(saldo)}, inicio, fin));
+        return saldo;
+    }
+
+    List<BigDecimal> consultarSaldos(Banco banco, List<Cuenta> cuentas) {
+        long inicio = reloj.getAndIncrement();
+        List<BigDecimal> saldos = banco.consultarSaldos(cuentas);
+        long fin = reloj.getAndIncrement();
+        long[] resultado = new long[saldos.size()];
+        for (int c = 0; c < resultado.length; c++)
+            resultado[c] = unidades(saldos.get(c));
+        operaciones.add(new Operacion(Tipo.SALDOS, -1, -1, 0, resultado, inicio, fin));
+        return saldos;
+    }
+
+    // para armar historiales a mano en los tests del verificador
+    void agregar(Operacion operacion) {
+        operaciones.add(operacion);
+    }
+
+    List<Operacion> getOperaciones() {
+        return new ArrayList<>(operaciones);
+    }
+
+    private long unidades(BigDecimal saldo) {
+        return saldo.movePointRight(escala).longValueExact();
+    }
+
+    boolean esLinealizable(long[] saldosIniciales) {
+        Operacion[] ops = operaciones.toArray(new Operacion[0]);
+        if (ops.length > 63)
+            throw new IllegalStateException("El historial es demasiado largo para verificarlo: " + ops.length);
+        long todas = (1L << ops.length) - 1;
+        return buscar(ops, todas, 0L, saldosIniciales.clone(), new HashSet<>());
+    }
+
+    private boolean buscar(Operacion[] ops, long todas, long hechas, long[] saldos, Set<Estado> visitados) {
+        if (hechas == todas)
+            return true;
+        if (!visitados.add(new Estado(hechas, saldos.clone())))
+            return false;
+
+        // la siguiente tiene que haber empezado antes de que termine la primera de las pendientes
+        long primerFin = Long.MAX_VALUE;
+        for (int i = 0; i < ops.length; i++)
+            if ((hechas & (1L << i)) == 0)
+                primerFin = Math.min(primerFin, ops[i].fin());
+
+        for (int i = 0; i < ops.length; i++) {
+            if ((hechas & (1L << i)) != 0 || ops[i].inicio() > primerFin)
+                continue;
+            long[] siguientes = aplicar(ops[i], saldos);
+            if (siguientes != null && buscar(ops, todas, hechas | (1L << i), siguientes, visitados))
+                return true;
+        }
+        return false;
+    }
+
+    // los saldos despues de la operacion, o null si el resultado no coincide con el modelo
+    private static long[] aplicar(Operacion op, long[] saldos) {
+        switch (op.tipo()) {
+            case TRANSFERENCIA -> {
+                boolean alcanza = saldos[op.origen()] >= op.monto();
+                if (alcanza != (op.resultado()[0] == 1))
+                    return null;
+                if (!alcanza)
+                    return saldos;
+                long[] siguientes = saldos.clone();
+                siguientes[op.origen()] -= op.monto();
+                siguientes[op.destino()] += op.monto();
+                return siguientes;
+            }
+            case SALDO -> {
+                return saldos[op.origen()] == op.resultado()[0] ? saldos : null;
+            }
+            default -> {
+                return Arrays.equals(saldos, op.resultado()) ? saldos : null;
+            }
+        }
+    }
+
+    private record Estado(long hechas, long[] saldos) {
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Estado otro && otro.hechas == hechas && Arrays.equals(otro.saldos, saldos);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(hechas) + Arrays.hashCode(saldos);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.sistemasactivos.junit.model;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MotorTransferenciasTest {
+
+    private Banco banco;
+    private List<Cuenta> cuentas;
+
+    @BeforeEach
+    void setUp() {
+        banco = new Banco("Banco del Estado");
+        cuentas = new ArrayList<>();
+
+        for (int i = 0; i < 64; i++) {
+            Cuenta cuenta = new Cuenta();
+            cuenta.setNombre("Cuenta " + i);
+            cuenta.setSaldo(new BigDecimal("1000.00"));
+            banco.agregarCuenta(cuenta);
+            cuentas.add(cuenta);
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que la cantidad de franjas sea potencia de 2")
+    void testCantidadFranjas() {
+        assertEquals(8, new MotorTransferencias(5).getCantidadFranjas(), () -> "Las franjas no se redondearon");
+        assertEquals(16, new MotorTransferencias(16).getCantidadFranjas(), () -> "Las franjas no son las esperadas");
+        assertThrows(IllegalArgumentException.class, () -> new MotorTransferencias(0));
+    }
+
+    @Test
+    @DisplayName("Probando que si el credito falla se devuelve el debito")
+    void testCreditoFallidoRevierteDebito() {
+        Cuenta origen = cuentas.get(0);
+        Cuenta destino = new Cuenta(); // sin saldo, el credito lanza NullPointerException
+        destino.setNombre("Sin saldo");
+
+        assertThrows(NullPointerException.class, () -> banco.transferir(origen, destino, new BigDecimal(100)));
+        assertEquals("1000.00", origen.getSaldo().toPlainString(), () -> "El debito no se revirtio");
+    }
+
+    @Test
+    @DisplayName("Probando que si un observador falla la transferencia se deshace")
+    void testObservadorFallidoRevierteTransferencia() {
+        Cuenta origen = cuentas.get(0);
+        // el destino admite creditos sin bloqueo, igual tiene que volver a su saldo
+        Cuenta destino = banco.agregarCuenta(new CuentaAtomica("Atomica", new BigDecimal("50.00"), 2));
+        banco.agregarObservador(new ObservadorMovimientos() {
+            @Override
+            public void movimiento(Cuenta cuenta, TipoMovimiento tipo, BigDecimal monto) {
+            }
+
+            @Override
+            public void transferencia(Cuenta origen, Cuenta destino, BigDecimal monto) {
+                throw new IllegalStateException("El diario de movimientos esta cerrado");
+            }
+        });
+
+        assertThrows(IllegalStateException.class, () -> banco.transferir(origen, destino, new BigDecimal(100)));
+        assertAll(
+                () -> assertEquals("1000.00", origen.getSaldo().toPlainString(), () -> "El debito no se revirtio"),
+                () -> assertEquals("50.00", destino.getSaldo().toPlainString(), () -> "El credito no se revirtio")
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que persistir() se llama sin ninguna franja bloqueada")
+    void testPersistirFueraDelLock() {
+        MotorTransferencias motor = banco.getMotor();
+        List<Boolean> bloqueado = new ArrayList<>();
+        banco.agregarObservador(new ObservadorMovimientos() {
+            @Override
+            public void movimiento(Cuenta cuenta, TipoMovimiento tipo, BigDecimal monto) {
+            }
+
+            @Override
+            public void transferencia(Cuenta origen, Cuenta destino, BigDecimal monto) {
+                bloqueado.add(motor.bloqueaAlgunaFranja());
+            }
+
+            @Override
+            public void persistir() {
+                bloqueado.add(motor.bloqueaAlgunaFranja());
+            }
+        });
+
+        banco.transferir(cuentas.get(0), cuentas.get(1), new BigDecimal(100));
+        // sin saldo no se avisa nada
+        banco.intentarTransferir(cuentas.get(2), cuentas.get(3), new BigDecimal(5000));
+
+        assertEquals(List.of(true, false), bloqueado);
+    }
+
+    @Test
+    @DisplayName("Probando un lote con una transferencia sin fondos")
+    void testTransferirLote() {
+        Cuenta a = cuentas.get(0);
+        Cuenta b = cuentas.get(1);
+        Cuenta c = cuentas.get(2);
+        Cuenta d = cuentas.get(3);
+
+        List<Transferencia> lote = List.of(
+                new Transferencia(a, b, new BigDecimal("600")),
+                new Transferencia(b, c, new BigDecimal("1500")), // necesita el credito de la anterior
+                new Transferencia(c, a, new BigDecimal("5000")), // no alcanza el saldo
+                new Transferencia(d, cuentas.get(4), new BigDecimal("10")));
+
+        List<ResultadoTransferencia> resultados = banco.transferirLote(lote);
+
+        assertAll(
+                () -> assertEquals(4, resultados.size()),
+                () -> assertTrue(resultados.get(0).isExitosa()),
+                () -> assertTrue(resultados.get(1).isExitosa()),
+                () -> assertFalse(resultados.get(2).isExitosa(), () -> "La transferencia sin fondos no deberia pasar"),
+                () -> assertInstanceOf(DineroInsuficienteException.class, resultados.get(2).getError()),
+                () -> assertNull(resultados.get(0).getError()),
+                () -> assertTrue(resultados.get(3).isExitosa()),
+                () -> assertEquals("400.00", a.getSaldo().toPlainString()),
+                () -> assertEquals("100.00", b.getSaldo().toPlainString()),
+                () -> assertEquals("2500.00", c.getSaldo().toPlainString())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que un error que no es de saldo solo rechaza esa transferencia del lote")
+    void testLoteConError() {
+        Cuenta a = cuentas.get(0);
+        Cuenta b = cuentas.get(1);
+        // la cuenta de punto fijo no acepta un monto con mas decimales que su escala
+        Cuenta fija = new CuentaPuntoFijo("Fija", new BigDecimal("100.00"), 2);
+        banco.agregarCuenta(fija);
+
+        List<ResultadoTransferencia> resultados = banco.transferirLote(List.of(
+                new Transferencia(a, b, new BigDecimal("10")),
+                new Transferencia(fija, a, new BigDecimal("0.001")),
+                new Transferencia(b, fija, new BigDecimal("5"))));
+
+        assertAll(
+                () -> assertEquals(3, resultados.size()),
+                () -> assertTrue(resultados.get(0).isExitosa()),
+                () -> assertInstanceOf(ArithmeticException.class, resultados.get(1).getError()),
+                () -> assertTrue(resultados.get(2).isExitosa()),
+                () -> assertEquals("990.00", a.getSaldo().toPlainString()),
+                () -> assertEquals("1005.00", b.getSaldo().toPlainString()),
+                () -> assertEquals("105.00", fija.getSaldo().toPlainString())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que el lote se separa en grupos de cuentas independientes")
+    void testAgruparIndependientes() {
+        MotorTransferencias motor = new MotorTransferencias(16);
+        BigDecimal uno = BigDecimal.ONE;
+
+        List<int[]> grupos = motor.agruparIndependientes(List.of(
+                new Transferencia(cuentas.get(0), cuentas.get(1), uno),
+                new Transferencia(cuentas.get(2), cuentas.get(3), uno),
+                new Transferencia(cuentas.get(1), cuentas.get(4), uno),
+                new Transferencia(cuentas.get(5), cuentas.get(5), uno)));
+
+        assertEquals(3, grupos.size(), () -> "La cantidad de grupos no es la esperada");
+        assertArrayEquals(new int[]{0, 2}, grupos.get(0));
+        assertArrayEquals(new int[]{1}, grupos.get(1));
+        assertArrayEquals(new int[]{3}, grupos.get(2));
+    }
+
+    @Test
+    @Tag("estres")
+    @DisplayName("Probando que el dinero total se conserva con millones de transferencias concurrentes")
+    void testConservacionDelDineroConcurrente() throws Exception {
+        /*
+         * Varios hilos hacen transferencias al azar entre las 64 cuentas, en ambos sentidos,
+         * asi que si el orden de los locks no fuera consistente el test quedaria en deadlock
+         * y fallaria por el timeout del future.
+         */
+        int hilos = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int transferenciasPorHilo = 2_000_000 / hilos;
+        BigDecimal totalInicial = total();
+        AtomicLong aprobadas = new AtomicLong();
+        AtomicLong rechazadas = new AtomicLong();
+        // lo que gano o perdio cada cuenta en centavos, solo con las transferencias aprobadas
+        AtomicLongArray netos = new AtomicLongArray(cuentas.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        List<Future<?>> futuros = new ArrayList<>();
+        for (int h = 0; h < hilos; h++) {
+            futuros.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int n = 0; n < transferenciasPorHilo; n++) {
+                    int origen = random.nextInt(cuentas.size());
+                    int destino = random.nextInt(cuentas.size());
+                    long centavos = random.nextInt(1, 5000);
+                    try {
+                        banco.transferir(cuentas.get(origen), cuentas.get(destino), BigDecimal.valueOf(centavos, 2));
+                        aprobadas.incrementAndGet();
+                        netos.addAndGet(origen, -centavos);
+                        netos.addAndGet(destino, centavos);
+                    } catch (DineroInsuficienteException e) {
+                        rechazadas.incrementAndGet();
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> futuro : futuros)
+            futuro.get(2, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        assertAll(
+                () -> assertEquals(0, totalInicial.compareTo(total()), () -> "El dinero total no se conservo"),
+                () -> assertTrue(cuentas.stream().allMatch(c -> c.getSaldo().signum() >= 0), () -> "Hay saldos negativos"),
+                () -> assertEquals((long) hilos * transferenciasPorHilo, aprobadas.get() + rechazadas.get(),
+                        () -> "Alguna transferencia no se aprobo ni se rechazo"),
+                () -> assertTrue(aprobadas.get() > 0, () -> "No se aprobo ninguna transferencia")
+        );
+        // cada saldo tiene que ser el inicial mas lo que dicen las transferencias aprobadas
+        for (int i = 0; i < cuentas.size(); i++) {
+            BigDecimal esperado = new BigDecimal("1000.00").add(BigDecimal.valueOf(netos.get(i), 2));
+            Cuenta cuenta = cuentas.get(i);
+            assertEquals(esperado, cuenta.getSaldo(), () -> "El saldo de " + cuenta.getNombre() + " no coincide con las transferencias aprobadas, "
+                    + rechazadas.get() + " rechazadas");
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que las consultas nunca ven una transferencia a medio hacer")
+    void testLecturaConsistente() throws Exception {
+        /*
+         * Mientras varios hilos transfieren, otro consulta el total del banco y el saldo
+         * de un par de cuentas que solo transfieren entre si. Leyendo cada getSaldo() por
+         * separado a veces se veria el debito sin el credito y el total no cerraria.
+         */
+        BigDecimal totalInicial = total();
+        Cuenta a = cuentas.get(0);
+        Cuenta b = cuentas.get(1);
+        int hilos = Math.max(2, Runtime.getRuntime().availableProcessors());
+        AtomicBoolean corriendo = new AtomicBoolean(true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        List<Future<?>> futuros = new ArrayList<>();
+        for (int h = 0; h < hilos; h++) {
+            futuros.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (corriendo.get()) {
+                    BigDecimal monto = BigDecimal.valueOf(random.nextInt(1, 5000), 2);
+                    if (random.nextBoolean())
+                        banco.intentarTransferir(a, b, monto);
+                    else
+                        banco.intentarTransferir(b, a, monto);
+                    banco.intentarTransferir(cuentas.get(random.nextInt(2, cuentas.size())),
+                            cuentas.get(random.nextInt(2, cuentas.size())), monto);
+                }
+            }));
+        }
+
+        try {
+            for (int i = 0; i < 20_000; i++) {
+                assertEquals(0, totalInicial.compareTo(banco.consultarSaldoTotal()), "El total no cerro en la consulta " + i);
+                List<BigDecimal> par = banco.consultarSaldos(List.of(a, b));
+                assertEquals(0, new BigDecimal("2000.00").compareTo(par.get(0).add(par.get(1))), "El par no cerro en la consulta " + i);
+            }
+        } finally {
+            corriendo.set(false);
+            for (Future<?> futuro : futuros)
+                futuro.get(1, TimeUnit.MINUTES);
+            executor.shutdown();
+        }
+    }
+
+    private BigDecimal total() {
+        return cuentas.stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+}
@@ -0,0 +1,180 @@
+package com.sistemasactivos.junit.model;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.exception.TasaNoDisponibleException;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RegistroSolicitudesTest {
+
+    private static final long MINUTO = Duration.ofMinutes(1).toNanos();
+
+    private final AtomicLong reloj = new AtomicLong();
+    private RegistroSolicitudes registro;
+    private AtomicInteger ejecuciones;
+
+    @BeforeEach
+    void setUp() {
+        registro = new RegistroSolicitudes(Duration.ofMinutes(1), 1000, reloj::get);
+        ejecuciones = new AtomicInteger();
+    }
+
+    private ResultadoDebito ejecutar(String id, ResultadoDebito resultado) {
+        return registro.ejecutar(id, () -> {
+            ejecuciones.incrementAndGet();
+            return resultado;
+        });
+    }
+
+    @Test
+    @DisplayName("Probando que un reintento devuelve el resultado de la primera vez")
+    void testReintento() {
+        assertAll(
+                () -> assertEquals(ResultadoDebito.APROBADO, ejecutar("A-1", ResultadoDebito.APROBADO)),
+                () -> assertEquals(ResultadoDebito.APROBADO, ejecutar("A-1", ResultadoDebito.DINERO_INSUFICIENTE)),
+                () -> assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, ejecutar("A-2", ResultadoDebito.DINERO_INSUFICIENTE)),
+                () -> assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, ejecutar("A-2", ResultadoDebito.APROBADO)),
+                () -> assertEquals(2, ejecuciones.get(), () -> "Cada id se tenia que ejecutar una sola vez"),
+                () -> assertEquals(2, registro.getDuplicados())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que si la primera vez falla el reintento se ejecuta")
+    void testReintentoDespuesDeUnError() {
+        assertThrows(TasaNoDisponibleException.class, () -> registro.ejecutar("A-1", () -> {
+            throw new TasaNoDisponibleException("Sin tasa");
+        }));
+
+        assertAll(
+                () -> assertEquals(ResultadoDebito.APROBADO, ejecutar("A-1", ResultadoDebito.APROBADO)),
+                () -> assertEquals(1, ejecuciones.get()),
+                () -> assertEquals(0, registro.getDuplicados())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que los ids se recuerdan al menos una ventana y despues se olvidan")
+    void testVentana() {
+        ejecutar("A-1", ResultadoDebito.APROBADO);
+        ejecutar("B-1", ResultadoDebito.APROBADO);
+        reloj.addAndGet(MINUTO - 1);
+        ejecutar("A-1", ResultadoDebito.APROBADO);
+
+        // pasa la ventana: A-1 queda en la generacion anterior y se sigue recordando
+        reloj.addAndGet(MINUTO / 2);
+        ejecutar("A-1", ResultadoDebito.APROBADO);
+        assertEquals(2, ejecuciones.get(), () -> "A-1 todavia estaba dentro de la ventana");
+
+        // B-1 nunca se reintento y se olvida, A-1 se reintento y paso a la generacion actual
+        reloj.addAndGet(MINUTO * 19 / 10);
+        ejecutar("A-1", ResultadoDebito.APROBADO);
+        ejecutar("B-1", ResultadoDebito.APROBADO);
+        assertEquals(3, ejecuciones.get(), () -> "Solo B-1 se tenia que olvidar");
+
+        reloj.addAndGet(3 * MINUTO);
+        ejecutar("A-1", ResultadoDebito.APROBADO);
+        assertEquals(4, ejecuciones.get(), () -> "Despues de varias ventanas sin usarse A-1 se tenia que olvidar");
+    }
+
+    @Test
+    @DisplayName("Probando que la memoria queda acotada aunque lleguen mas ids que la capacidad")
+    void testCapacidad() {
+        for (int i = 0; i < 100_000; i++)
+            ejecutar("A-" + i, ResultadoDebito.APROBADO);
+
+        // los ultimos siempre se recuerdan
+        for (int i = 99_990; i < 100_000; i++)
+            ejecutar("A-" + i, ResultadoDebito.APROBADO);
+
+        assertAll(
+                () -> assertEquals(100_000, ejecuciones.get()),
+                () -> assertTrue(registro.getDesalojosAnticipados() > 0),
+                () -> assertEquals(1024, registro.getCapacidad())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que las huellas de ids parecidos no se repiten")
+    void testHuella() {
+        Set<Long> huellas = new HashSet<>();
+        for (int i = 0; i < 1_000_000; i++)
+            huellas.add(RegistroSolicitudes.huella("solicitud-" + i));
+        assertEquals(1_000_000, huellas.size());
+    }
+
+    @Test
+    @DisplayName("Probando que un reintento espera a la ejecucion que esta en curso")
+    void testEnCurso() throws Exception {
+        CountDownLatch empezo = new CountDownLatch(1);
+        CountDownLatch terminar = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        Future<ResultadoDebito> primera = executor.submit(() -> registro.ejecutar("A-1", () -> {
+            ejecuciones.incrementAndGet();
+            empezo.countDown();
+            try {
+                terminar.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return ResultadoDebito.DINERO_INSUFICIENTE;
+        }));
+        empezo.await();
+        Future<ResultadoDebito> reintento = executor.submit(() -> ejecutar("A-1", ResultadoDebito.APROBADO));
+
+        assertThrows(TimeoutException.class, () -> reintento.get(100, TimeUnit.MILLISECONDS),
+                () -> "El reintento no tenia que terminar antes que la primera");
+        terminar.countDown();
+
+        assertAll(
+                () -> assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, primera.get(1, TimeUnit.MINUTES)),
+                () -> assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, reintento.get(1, TimeUnit.MINUTES)),
+                () -> assertEquals(1, ejecuciones.get())
+        );
+        executor.shutdown();
+    }
+
+    @Test
+    @DisplayName("Probando reintentos concurrentes de transferencias en el banco")
+    void testReintentosEnElBanco() throws Exception {
+        Banco banco = new Banco("Banco del Estado");
+        Cuenta andres = banco.agregarCuenta(new Cuenta("Andrés", new BigDecimal(1000), null));
+        Cuenta julian = banco.agregarCuenta(new Cuenta("Julian", BigDecimal.ZERO, null));
+
+        // 8 clientes mandan las mismas 500 transferencias, cada una con su id
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> tareas = new ArrayList<>();
+        for (int h = 0; h < 8; h++) {
+            tareas.add(executor.submit(() -> {
+                for (int i = 0; i < 500; i++)
+                    banco.intentarTransferir("T-" + i, andres, julian, BigDecimal.ONE);
+            }));
+        }
+        for (Future<?> tarea : tareas)
+            tarea.get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        banco.transferir("T-grande", andres, julian, new BigDecimal(300));
+        assertAll(
+                () -> assertEquals(0, new BigDecimal(800).compareTo(julian.getSaldo()), () -> "Se movio plata de mas"),
+                () -> assertEquals(0, new BigDecimal(200).compareTo(andres.getSaldo())),
+                () -> assertEquals(7 * 500, banco.getSolicitudes().getDuplicados()),
+                () -> assertDoesNotThrow(() -> banco.transferir("T-grande", andres, julian, new BigDecimal(300)),
+                        () -> "El reintento de una transferencia aprobada no tiene que fallar"),
+                () -> assertEquals(0, new BigDecimal(200).compareTo(andres.getSaldo())),
+                () -> assertThrows(DineroInsuficienteException.class, () -> banco.transferir("T-otra", andres, julian, new BigDecimal(600)))
+        );
+    }
+}
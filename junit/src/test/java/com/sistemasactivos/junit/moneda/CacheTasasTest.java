@@ -0,0 +1,204 @@
+package com.sistemasactivos.junit.moneda;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.exception.TasaNoDisponibleException;
+import com.sistemasactivos.junit.model.*;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheTasasTest {
+
+    private static final Currency ARS = Currency.getInstance("ARS");
+    private static final Currency USD = Currency.getInstance("USD");
+    private static final Currency JPY = Currency.getInstance("JPY");
+
+    private TasasFijas proveedor;
+    private AtomicLong reloj;
+    private CacheTasas cache;
+
+    @BeforeEach
+    void setUp() {
+        proveedor = new TasasFijas()
+                .definir("USD", "ARS", "350.125")
+                .definir("ARS", "USD", "0.0028561")
+                .definir("USD", "JPY", "149.5");
+        reloj = new AtomicLong();
+        cache = new CacheTasas(proveedor, Duration.ofSeconds(10), reloj::get);
+    }
+
+    @Test
+    @DisplayName("Probando la conversion con redondeo bancario a la escala de la moneda destino")
+    void testConvertir() {
+        cache.actualizar();
+        assertAll(
+                () -> assertEquals("3501.25", cache.convertir(new BigDecimal(10), USD, ARS).toPlainString()),
+                // 0.5 * 350.125 = 175.0625 -> 175.06 y 0.03 * 350.125 = 10.50375 -> 10.50
+                () -> assertEquals("175.06", cache.convertir(new BigDecimal("0.5"), USD, ARS).toPlainString()),
+                () -> assertEquals("10.50", cache.convertir(new BigDecimal("0.03"), USD, ARS).toPlainString()),
+                // 0.01 * 149.5 = 1.495 -> 1 (el yen no tiene decimales) y 0.03 * 149.5 = 4.485 -> 4
+                () -> assertEquals("1", cache.convertir(new BigDecimal("0.01"), USD, JPY).toPlainString()),
+                () -> assertEquals("4", cache.convertir(new BigDecimal("0.03"), USD, JPY).toPlainString()),
+                () -> assertEquals("5", cache.convertir(new BigDecimal("0.0334448"), USD, JPY).toPlainString()),
+                () -> assertThrows(TasaNoDisponibleException.class, () -> cache.convertir(BigDecimal.ONE, JPY, USD))
+        );
+    }
+
+    @Test
+    @DisplayName("Probando las versiones y el vencimiento de las tasas")
+    void testVencimiento() {
+        assertThrows(TasaNoDisponibleException.class, () -> cache.tasa(USD, ARS), () -> "Todavia no se cargo ninguna tasa");
+        assertEquals(1, cache.actualizar());
+
+        // el proveedor deja de traer USD/JPY: se sigue usando la tasa vieja hasta que vence
+        proveedor.quitar(ParMonedas.de("USD", "JPY"));
+        proveedor.definir("USD", "ARS", "360");
+        reloj.set(TimeUnit.SECONDS.toNanos(6));
+        assertEquals(2, cache.actualizar());
+
+        assertAll(
+                () -> assertEquals(2, cache.tasa(USD, ARS).version()),
+                () -> assertEquals(new BigDecimal(360), cache.tasa(USD, ARS).tasa()),
+                () -> assertEquals(1, cache.tasa(USD, JPY).version())
+        );
+
+        reloj.set(TimeUnit.SECONDS.toNanos(11));
+        assertThrows(TasaNoDisponibleException.class, () -> cache.tasa(USD, JPY), () -> "La tasa ya vencio");
+        assertEquals(2, cache.tasa(USD, ARS).version());
+
+        // la siguiente actualizacion descarta la tasa vencida
+        cache.actualizar();
+        assertEquals(2, cache.getCantidad());
+    }
+
+    @Test
+    @DisplayName("Probando la actualizacion en segundo plano")
+    void testActualizacionEnSegundoPlano() throws InterruptedException {
+        try (CacheTasas automatico = new CacheTasas(proveedor, Duration.ofMinutes(1))) {
+            automatico.iniciar(Duration.ofMillis(10));
+            assertEquals(new BigDecimal("350.125"), automatico.tasa(USD, ARS).tasa(), () -> "iniciar() carga las tasas enseguida");
+
+            proveedor.definir("USD", "ARS", "400");
+            long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (automatico.tasa(USD, ARS).tasa().compareTo(new BigDecimal(400)) != 0 && System.nanoTime() < limite)
+                Thread.sleep(5);
+
+            assertEquals(new BigDecimal(400), automatico.tasa(USD, ARS).tasa(), () -> "La tasa no se actualizo");
+            assertTrue(automatico.getVersion() > 1);
+        }
+    }
+
+    @Nested
+    @DisplayName("Probando transferencias entre cuentas de distinta moneda")
+    class TransferenciasEntreMonedasTest {
+
+        private Banco banco;
+        private Cuenta dolares;
+        private Cuenta pesos;
+
+        @BeforeEach
+        void setUp() {
+            cache.actualizar();
+            banco = new Banco("Banco del Estado");
+            banco.setTasas(cache);
+
+            dolares = new CuentaPuntoFijo(USD);
+            dolares.setNombre("Andrés");
+            dolares.setSaldo(new BigDecimal(100));
+            pesos = new Cuenta("John Doe", new BigDecimal("1000.00"), null);
+            pesos.setMoneda(ARS);
+            banco.agregarCuenta(dolares);
+            banco.agregarCuenta(pesos);
+        }
+
+        @Test
+        @DisplayName("Probando la conversion dentro de la transferencia")
+        void testTransferir() {
+            banco.transferir(dolares, pesos, new BigDecimal("10.50"));
+            banco.transferir(pesos, dolares, new BigDecimal("100"));
+
+            assertAll(
+                    () -> assertEquals("89.79", dolares.getSaldo().toPlainString(), () -> "100 - 10.50 + 0.28561 redondeado a 0.29"),
+                    () -> assertEquals("4576.31", pesos.getSaldo().toPlainString(), () -> "1000 + 3676.3125 redondeado - 100"),
+                    () -> assertThrows(DineroInsuficienteException.class, () -> banco.transferir(dolares, pesos, new BigDecimal(1000)))
+            );
+        }
+
+        @Test
+        @DisplayName("Probando transferencias en lote con y sin conversion")
+        void testLote() {
+            Cuenta otrosPesos = new Cuenta("Julian", new BigDecimal(0), null);
+            otrosPesos.setMoneda(ARS);
+            banco.agregarCuenta(otrosPesos);
+
+            List<ResultadoTransferencia> resultados = banco.transferirLote(List.of(
+                    new Transferencia(dolares, pesos, BigDecimal.ONE),
+                    new Transferencia(pesos, otrosPesos, new BigDecimal(50))));
+
+            assertAll(
+                    () -> assertTrue(resultados.stream().allMatch(ResultadoTransferencia::isExitosa)),
+                    // 350.125 queda en 350.12: en el empate HALF_EVEN va al digito par
+                    () -> assertEquals("350.12", resultados.get(0).getTransferencia().getMontoDestino().toPlainString()),
+                    () -> assertEquals("1300.12", pesos.getSaldo().toPlainString()),
+                    () -> assertEquals("50", otrosPesos.getSaldo().toPlainString())
+            );
+        }
+
+        @Test
+        @DisplayName("Probando que sin tasa vigente no se transfiere")
+        void testSinTasa() {
+            Cuenta yenes = new CuentaPuntoFijo(JPY);
+            yenes.setNombre("Julian");
+            yenes.setSaldo(new BigDecimal(1000));
+            banco.agregarCuenta(yenes);
+
+            Banco sinTasas = new Banco("Otro banco");
+            Cuenta otrosDolares = new CuentaPuntoFijo(USD);
+            Cuenta otrosPesos = new CuentaPuntoFijo(ARS);
+            sinTasas.agregarCuenta(otrosDolares);
+            sinTasas.agregarCuenta(otrosPesos);
+
+            assertAll(
+                    () -> assertThrows(TasaNoDisponibleException.class, () -> banco.transferir(yenes, dolares, BigDecimal.ONE)),
+                    () -> assertEquals("1000", yenes.getSaldo().toPlainString(), () -> "El saldo no deberia cambiar"),
+                    () -> assertThrows(TasaNoDisponibleException.class, () -> sinTasas.transferir(otrosDolares, otrosPesos, BigDecimal.ZERO))
+            );
+        }
+
+        @Test
+        @DisplayName("Probando que en un lote sin tasa solo se rechaza esa transferencia")
+        void testLoteSinTasa() {
+            Cuenta yenes = new CuentaPuntoFijo(JPY);
+            yenes.setNombre("Julian");
+            yenes.setSaldo(new BigDecimal(1000));
+            banco.agregarCuenta(yenes);
+            Cuenta otrosPesos = new Cuenta("Pedro", new BigDecimal(0), null);
+            otrosPesos.setMoneda(ARS);
+            banco.agregarCuenta(otrosPesos);
+
+            List<ResultadoTransferencia> resultados = banco.transferirLote(List.of(
+                    new Transferencia(dolares, pesos, BigDecimal.ONE),
+                    new Transferencia(yenes, dolares, BigDecimal.TEN),
+                    new Transferencia(pesos, otrosPesos, new BigDecimal(50))));
+
+            assertAll(
+                    () -> assertEquals(3, resultados.size()),
+                    () -> assertTrue(resultados.get(0).isExitosa()),
+                    () -> assertFalse(resultados.get(1).isExitosa()),
+                    () -> assertInstanceOf(TasaNoDisponibleException.class, resultados.get(1).getError()),
+                    () -> assertSame(yenes, resultados.get(1).getTransferencia().getOrigen()),
+                    () -> assertTrue(resultados.get(2).isExitosa()),
+                    () -> assertEquals("1000", yenes.getSaldo().toPlainString(), () -> "El saldo no deberia cambiar"),
+                    () -> assertEquals("1300.12", pesos.getSaldo().toPlainString()),
+                    () -> assertEquals("50", otrosPesos.getSaldo().toPlainString())
+            );
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.sistemasactivos.junit.persistencia;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConciliacionDiarioTest {
+
+    @TempDir
+    Path directorio;
+
+    private Path archivo;
+    private Banco banco;
+    private DiarioMovimientos diario;
+    private List<Cuenta> cuentas;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        archivo = directorio.resolve("movimientos.diario");
+        banco = new Banco("Banco del Estado");
+        diario = DiarioMovimientos.abrir(archivo, PoliticaSincronizacion.NINGUNA);
+        banco.agregarObservador(diario);
+
+        cuentas = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Cuenta cuenta = new Cuenta("Cuenta " + i, new BigDecimal("1000.00"), null);
+            banco.agregarCuenta(cuenta);
+            cuentas.add(cuenta);
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++)
+            banco.intentarTransferir(cuentas.get(random.nextInt(100)), cuentas.get(random.nextInt(100)),
+                    BigDecimal.valueOf(random.nextInt(1, 50_000), 2));
+        cuentas.get(7).credito(new BigDecimal("15.25"));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        diario.close();
+    }
+
+    @Test
+    @DisplayName("Probando que el banco concilia con su diario")
+    void testConciliado() throws IOException {
+        ResultadoConciliacion resultado = ConciliacionDiario.conciliar(banco, archivo, diario);
+
+        assertAll(
+                () -> assertTrue(resultado.isConciliado(), () -> "Hay diferencias: " + resultado.diferencias()),
+                () -> assertEquals(100, resultado.cuentas()),
+                () -> assertEquals(0, new BigDecimal("100015.25").compareTo(resultado.totalBanco())),
+                () -> assertEquals(0, resultado.totalBanco().compareTo(resultado.totalDiario())),
+                () -> assertEquals(diario.getTamano(), resultado.posicionDiario())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que se detecta un saldo cambiado por fuera del diario")
+    void testDiferencia() throws IOException {
+        Cuenta cuenta = cuentas.get(42);
+        BigDecimal original = cuenta.getSaldo();
+        // setSaldo no avisa a los observadores, asi que el diario no se entera
+        cuenta.setSaldo(original.add(BigDecimal.ONE));
+
+        ResultadoConciliacion resultado = ConciliacionDiario.conciliar(banco, archivo, diario);
+
+        assertAll(
+                () -> assertFalse(resultado.isConciliado()),
+                () -> assertEquals(1, resultado.cantidadDiferencias()),
+                () -> assertEquals(new DiferenciaSaldo(cuenta.getId(), original.add(BigDecimal.ONE), original),
+                        resultado.diferencias().get(0))
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que concilia aunque haya transferencias corriendo durante el corte")
+    void testConciliadoConTransferencias() throws Exception {
+        AtomicBoolean seguir = new AtomicBoolean(true);
+        Thread transferencias = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (seguir.get()) {
+                try {
+                    banco.transferir(cuentas.get(random.nextInt(100)), cuentas.get(random.nextInt(100)),
+                            BigDecimal.valueOf(random.nextInt(1, 50_000), 2));
+                } catch (DineroInsuficienteException e) {
+                    // sigo con la proxima
+                }
+            }
+        });
+        transferencias.start();
+
+        try {
+            for (int i = 0; i < 5; i++) {
+                ResultadoConciliacion resultado = ConciliacionDiario.conciliar(banco, archivo, diario);
+                assertTrue(resultado.isConciliado(), () -> "Hay diferencias: " + resultado.diferencias());
+                assertEquals(0, new BigDecimal("100015.25").compareTo(resultado.totalDiario()));
+            }
+        } finally {
+            seguir.set(false);
+            transferencias.join();
+        }
+    }
+
+    @Test
+    @DisplayName("Probando la conciliacion con escalas distintas y saldos que no entran en un long")
+    void testEscalasYSaldosGrandes() throws IOException {
+        Cuenta grande = new Cuenta("Grande", new BigDecimal("9223372036854775807"), null);
+        banco.agregarCuenta(grande);
+        // el credito desborda el long y el debito trae mas decimales que el saldo
+        grande.credito(new BigDecimal("10"));
+        grande.debito(new BigDecimal("0.125"));
+        cuentas.get(3).credito(new BigDecimal("0.0001"));
+        cuentas.get(4).debito(new BigDecimal("1E+1"));
+
+        ResultadoConciliacion resultado = ConciliacionDiario.conciliar(banco, archivo, diario);
+
+        assertAll(
+                () -> assertTrue(resultado.isConciliado(), () -> "Hay diferencias: " + resultado.diferencias()),
+                () -> assertEquals(101, resultado.cuentas()),
+                () -> assertEquals(0, resultado.totalBanco().compareTo(resultado.totalDiario())),
+                () -> assertEquals(0, new BigDecimal("9223372036854875822.1251").compareTo(resultado.totalDiario()))
+        );
+    }
+}
@@ -0,0 +1,244 @@
+package com.sistemasactivos.junit.persistencia;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.moneda.CacheTasas;
+import com.sistemasactivos.junit.moneda.TasasFijas;
+import com.sistemasactivos.junit.reglas.ReglasDebito;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiarioMovimientosTest {
+
+    /* JUnit crea un directorio temporal para cada test y lo borra al terminar */
+    @TempDir
+    Path directorio;
+
+    private Path archivo;
+
+    @BeforeEach
+    void setUp() {
+        archivo = directorio.resolve("movimientos.diario");
+    }
+
+    private Cuenta nuevaCuenta(String nombre, String saldo) {
+        Cuenta cuenta = new Cuenta();
+        cuenta.setNombre(nombre);
+        cuenta.setSaldo(new BigDecimal(saldo));
+        return cuenta;
+    }
+
+    @Test
+    @DisplayName("Probando que al reproducir el diario se recuperan las cuentas y los saldos")
+    void testReproducirDiario() throws IOException {
+        Banco banco = new Banco("Banco del Estado");
+        try (DiarioMovimientos diario = DiarioMovimientos.recuperar(archivo, banco, PoliticaSincronizacion.CADA_MOVIMIENTO)) {
+            Cuenta andres = nuevaCuenta("Andrés", "1000.12345");
+            Cuenta julian = nuevaCuenta("Julian", "9500.25");
+            banco.agregarCuenta(andres);
+            banco.agregarCuenta(julian);
+
+            banco.transferir(julian, andres, new BigDecimal(500));
+            andres.debito(new BigDecimal("0.12345"));
+            julian.credito(new BigDecimal("10"));
+            assertThrows(DineroInsuficienteException.class, () -> andres.debito(new BigDecimal(5000)));
+        }
+
+        Banco recuperado = new Banco("Banco del Estado");
+        DiarioMovimientos.reproducir(archivo, recuperado);
+
+        assertAll(
+                () -> assertEquals(2, recuperado.getCuentas().size()),
+                () -> assertEquals("1500.00000", recuperado.buscarCuenta("Andrés").orElseThrow().getSaldo().toPlainString()),
+                () -> assertEquals("9010.25", recuperado.buscarCuenta("Julian").orElseThrow().getSaldo().toPlainString()),
+                () -> assertEquals(2L, recuperado.buscarCuenta("Julian").orElseThrow().getId())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que el diario guarda las monedas y las transferencias con conversion")
+    void testReproducirConversion() throws IOException {
+        Banco banco = new Banco("Banco del Estado");
+        banco.setTasas(new CacheTasas(new TasasFijas().definir("USD", "ARS", "350.125"), Duration.ofMinutes(1)));
+        banco.getTasas().actualizar();
+        try (DiarioMovimientos diario = DiarioMovimientos.recuperar(archivo, banco, PoliticaSincronizacion.NINGUNA)) {
+            Cuenta dolares = nuevaCuenta("Andrés", "100.00");
+            dolares.setMoneda(Currency.getInstance("USD"));
+            Cuenta pesos = nuevaCuenta("Julian", "0.00");
+            pesos.setMoneda(Currency.getInstance("ARS"));
+            banco.agregarCuenta(dolares);
+            banco.agregarCuenta(pesos);
+
+            banco.transferir(dolares, pesos, new BigDecimal("0.50"));
+        }
+
+        // el banco recuperado no tiene tasas: el monto convertido sale del diario
+        Banco recuperado = new Banco("Banco del Estado");
+        DiarioMovimientos.reproducir(archivo, recuperado);
+
+        Cuenta pesos = recuperado.buscarCuenta("Julian").orElseThrow();
+        assertAll(
+                () -> assertEquals("99.50", recuperado.buscarCuenta("Andrés").orElseThrow().getSaldo().toPlainString()),
+                () -> assertEquals("175.06", pesos.getSaldo().toPlainString()),
+                () -> assertEquals(Currency.getInstance("ARS"), pesos.getMoneda())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que al reproducir el diario una cuenta en descubierto queda en negativo")
+    void testReproducirDescubierto() throws IOException {
+        Banco banco = new Banco("Banco del Estado");
+        try (DiarioMovimientos diario = DiarioMovimientos.recuperar(archivo, banco, PoliticaSincronizacion.NINGUNA)) {
+            Cuenta andres = nuevaCuenta("Andrés", "100");
+            andres.setReglas(new ReglasDebito().descubierto(new BigDecimal(500)));
+            Cuenta julian = nuevaCuenta("Julian", "0");
+            banco.agregarCuenta(andres);
+            banco.agregarCuenta(julian);
+
+            andres.debito(new BigDecimal(300));
+            banco.transferir(andres, julian, new BigDecimal(50));
+        }
+
+        // las reglas no se guardan en el diario: la cuenta recuperada no tiene descubierto
+        Banco recuperado = new Banco("Banco del Estado");
+        DiarioMovimientos.reproducir(archivo, recuperado);
+
+        assertAll(
+                () -> assertEquals(new BigDecimal(-250), recuperado.buscarCuenta("Andrés").orElseThrow().getSaldo()),
+                () -> assertEquals(new BigDecimal(50), recuperado.buscarCuenta("Julian").orElseThrow().getSaldo()),
+                () -> assertNull(recuperado.buscarCuenta("Andrés").orElseThrow().getReglas())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando la recuperacion con el diario cortado a mitad de un registro")
+    void testDiarioTruncado() throws IOException {
+        Banco banco = new Banco();
+        try (DiarioMovimientos diario = DiarioMovimientos.recuperar(archivo, banco, PoliticaSincronizacion.NINGUNA)) {
+            Cuenta cuenta = nuevaCuenta("Andrés", "100");
+            banco.agregarCuenta(cuenta);
+            cuenta.credito(new BigDecimal(10));
+            cuenta.credito(new BigDecimal(20)); // este registro va a quedar cortado
+        }
+
+        // simulo que el proceso se cayo mientras escribia el ultimo registro
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.WRITE)) {
+            canal.truncate(canal.size() - 3);
+        }
+
+        Banco recuperado = new Banco();
+        try (DiarioMovimientos diario = DiarioMovimientos.recuperar(archivo, recuperado, PoliticaSincronizacion.NINGUNA)) {
+            Cuenta cuenta = recuperado.buscarCuenta("Andrés").orElseThrow();
+            assertEquals("110", cuenta.getSaldo().toPlainString(), () -> "El registro cortado no se tenia que aplicar");
+
+            // despues de recuperar, el diario sigue agregando donde termina el ultimo registro valido
+            cuenta.credito(new BigDecimal(5));
+        }
+
+        Banco otraVez = new Banco();
+        DiarioMovimientos.reproducir(archivo, otraVez);
+        assertEquals("115", otraVez.buscarCuenta("Andrés").orElseThrow().getSaldo().toPlainString());
+    }
+
+    @Test
+    @DisplayName("Probando que un byte corrupto corta la reproduccion en ese registro")
+    void testRegistroCorrupto() throws IOException {
+        Banco banco = new Banco();
+        try (DiarioMovimientos diario = DiarioMovimientos.recuperar(archivo, banco, PoliticaSincronizacion.NINGUNA)) {
+            Cuenta cuenta = nuevaCuenta("Andrés", "100");
+            banco.agregarCuenta(cuenta);
+            cuenta.credito(new BigDecimal(10));
+        }
+
+        byte[] contenido = Files.readAllBytes(archivo);
+        contenido[contenido.length - 1] ^= 0x55;
+        Files.write(archivo, contenido);
+
+        Banco recuperado = new Banco();
+        DiarioMovimientos.reproducir(archivo, recuperado);
+        assertEquals("100", recuperado.buscarCuenta("Andrés").orElseThrow().getSaldo().toPlainString());
+    }
+
+    @Test
+    @DisplayName("Probando que con el diario cerrado una transferencia falla sin mover el dinero")
+    void testTransferirConDiarioCerrado() throws IOException {
+        Banco banco = new Banco();
+        Cuenta andres = nuevaCuenta("Andrés", "1000");
+        Cuenta julian = nuevaCuenta("Julian", "500");
+        DiarioMovimientos diario = DiarioMovimientos.recuperar(archivo, banco, PoliticaSincronizacion.CADA_MOVIMIENTO);
+        banco.agregarCuenta(andres);
+        banco.agregarCuenta(julian);
+        banco.transferir(andres, julian, new BigDecimal(100));
+        diario.close();
+
+        assertThrows(IllegalStateException.class, () -> banco.transferir(andres, julian, new BigDecimal(200)));
+        assertAll(
+                () -> assertEquals(new BigDecimal(900), andres.getSaldo()),
+                () -> assertEquals(new BigDecimal(600), julian.getSaldo())
+        );
+
+        // el diario tiene lo mismo que el banco
+        Banco recuperado = new Banco();
+        DiarioMovimientos.reproducir(archivo, recuperado);
+        assertEquals(new BigDecimal(600), recuperado.buscarCuenta("Julian").orElseThrow().getSaldo());
+    }
+
+    @Test
+    @DisplayName("Probando el diario con varios hilos, group commit y segmentos chicos")
+    void testDiarioConcurrente() throws Exception {
+        Banco banco = new Banco();
+        List<Cuenta> cuentas = new ArrayList<>();
+
+        // segmentos de 4 KB para forzar que el diario tenga que mapear varios segmentos
+        try (DiarioMovimientos diario = new DiarioMovimientos(archivo, PoliticaSincronizacion.CADA_MOVIMIENTO,
+                Duration.ofMillis(10), 4096)) {
+            banco.agregarObservador(diario);
+            for (int i = 0; i < 16; i++) {
+                Cuenta cuenta = nuevaCuenta("Cuenta " + i, "1000");
+                banco.agregarCuenta(cuenta);
+                cuentas.add(cuenta);
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<?>> futuros = new ArrayList<>();
+            for (int h = 0; h < 4; h++) {
+                futuros.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int n = 0; n < 2_000; n++) {
+                        try {
+                            banco.transferir(cuentas.get(random.nextInt(16)), cuentas.get(random.nextInt(16)),
+                                    BigDecimal.valueOf(random.nextInt(1, 300)));
+                        } catch (DineroInsuficienteException e) {
+                            // no se escribe nada en el diario
+                        }
+                    }
+                }));
+            }
+            for (Future<?> futuro : futuros)
+                futuro.get(1, TimeUnit.MINUTES);
+            executor.shutdown();
+        }
+
+        Banco recuperado = new Banco();
+        DiarioMovimientos.reproducir(archivo, recuperado);
+        for (Cuenta cuenta : cuentas) {
+            BigDecimal saldo = recuperado.buscarCuenta(cuenta.getNombre()).orElseThrow().getSaldo();
+            assertEquals(cuenta.getSaldo(), saldo, () -> "El saldo de " + cuenta.getNombre() + " no coincide");
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.sistemasactivos.junit.persistencia;
+
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.model.CuentaPuntoFijo;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * @DataJpaTest levanta solo JPA con una base H2 en memoria. Cada test de @DataJpaTest
+ * corre dentro de una transaccion que se deshace al final, pero la EscrituraDiferida
+ * escribe desde su propio hilo y con sus propias transacciones: por eso los tests corren
+ * sin transaccion y borran las tablas al terminar.
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EscrituraDiferidaTest {
+
+    @Autowired
+    private BancoRepositorio bancos;
+
+    @Autowired
+    private CuentaRepositorio cuentas;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private PlatformTransactionManager transacciones;
+
+    private Banco banco;
+
+    @BeforeEach
+    void setUp() {
+        banco = new Banco("Banco del Estado");
+    }
+
+    @AfterEach
+    void tearDown() {
+        cuentas.deleteAll();
+        bancos.deleteAll();
+    }
+
+    private EscrituraDiferida nuevaEscritura(Duration intervalo, int tamanoLote) {
+        return new EscrituraDiferida(banco, bancos, jdbc, transacciones, intervalo, tamanoLote);
+    }
+
+    @Test
+    @DisplayName("Probando que muchos movimientos de la misma cuenta se escriben una sola vez")
+    void testCoalescer() {
+        Cuenta andres = new Cuenta("Andrés", new BigDecimal("1000.12345"), null);
+        Cuenta julian = new CuentaPuntoFijo(Currency.getInstance("USD"));
+        julian.setNombre("Julian");
+        julian.setSaldo(new BigDecimal(500));
+
+        // intervalo largo para que solo escriba cuando lo pido
+        try (EscrituraDiferida escritura = nuevaEscritura(Duration.ofHours(1), 1000)) {
+            banco.agregarCuenta(andres);
+            banco.agregarCuenta(julian);
+            escritura.vaciar();
+
+            for (int i = 0; i < 1000; i++)
+                banco.transferir(andres, julian, BigDecimal.ONE);
+            escritura.vaciar();
+
+            List<CuentaEntidad> filas = cuentas.findByBancoIdOrderByNumero(escritura.getBancoId());
+            assertAll(
+                    () -> assertEquals(2, escritura.getVaciados(), () -> "Tenia que escribir una vez para las altas y otra para los cambios"),
+                    () -> assertEquals(4, escritura.getFilasEscritas(), () -> "Cada cuenta se tenia que escribir una sola vez por vaciado"),
+                    () -> assertEquals(2000, escritura.getMovimientos()),
+                    () -> assertEquals(2, filas.size()),
+                    () -> assertEquals(0, new BigDecimal("0.12345").compareTo(filas.get(0).getSaldo())),
+                    () -> assertEquals(0, new BigDecimal(1500).compareTo(filas.get(1).getSaldo())),
+                    () -> assertEquals("USD", filas.get(1).getMoneda()),
+                    () -> assertEquals("Andrés", filas.get(0).getNombre()),
+                    () -> assertEquals(1, filas.get(0).getVersion(), () -> "Cada escritura incrementa la version")
+            );
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que el bloqueo optimista no pisa a ciegas un cambio hecho por otro")
+    void testConflictoDeVersion() {
+        Cuenta andres = new Cuenta("Andrés", new BigDecimal(1000), null);
+        try (EscrituraDiferida escritura = nuevaEscritura(Duration.ofHours(1), 1000)) {
+            banco.agregarCuenta(andres);
+            escritura.vaciar();
+
+            // otro proceso cambia la fila por JPA, que tambien incrementa la version
+            CuentaEntidad fila = cuentas.findByBancoIdAndNumero(escritura.getBancoId(), andres.getId()).orElseThrow();
+            fila.setSaldo(new BigDecimal(7));
+            cuentas.save(fila);
+
+            andres.debito(BigDecimal.TEN);
+            List<Long> enConflicto = escritura.vaciar();
+
+            CuentaEntidad conflicto = cuentas.findByBancoIdAndNumero(escritura.getBancoId(), andres.getId()).orElseThrow();
+            assertAll(
+                    () -> assertEquals(List.of(andres.getId()), enConflicto),
+                    () -> assertEquals(1, escritura.getConflictos()),
+                    () -> assertEquals(0, new BigDecimal(7).compareTo(conflicto.getSaldo()), () -> "El UPDATE con la version vieja no tenia que aplicar"),
+                    () -> assertEquals(1, conflicto.getVersion())
+            );
+
+            // hasta que alguien decida, la cuenta no se vuelve a escribir aunque tenga movimientos
+            andres.debito(BigDecimal.TEN);
+            assertEquals(List.of(), escritura.vaciar());
+            CuentaEntidad sinCambios = cuentas.findByBancoIdAndNumero(escritura.getBancoId(), andres.getId()).orElseThrow();
+            assertAll(
+                    () -> assertEquals(List.of(andres.getId()), escritura.getCuentasEnConflicto()),
+                    () -> assertEquals(0, new BigDecimal(7).compareTo(sinCambios.getSaldo())),
+                    () -> assertEquals(1, sinCambios.getVersion())
+            );
+
+            // el saldo del banco gana: se escribe sobre la version que dejo el otro
+            assertTrue(escritura.sobrescribirConflicto(andres.getId()));
+            assertFalse(escritura.sobrescribirConflicto(andres.getId()));
+            escritura.vaciar();
+            CuentaEntidad actual = cuentas.findByBancoIdAndNumero(escritura.getBancoId(), andres.getId()).orElseThrow();
+            assertAll(
+                    () -> assertEquals(1, escritura.getConflictos()),
+                    () -> assertTrue(escritura.getCuentasEnConflicto().isEmpty()),
+                    () -> assertEquals(0, new BigDecimal(980).compareTo(actual.getSaldo())),
+                    () -> assertEquals(2, actual.getVersion())
+            );
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que de dos escrituras sobre la misma fila la que pierde no pisa a la otra")
+    void testDosEscriturasEnConflicto() {
+        Cuenta andres = new Cuenta("Andrés", new BigDecimal(1000), null);
+        // otro proceso con su propia copia del mismo banco
+        Banco otroBanco = new Banco("Banco del Estado");
+        Cuenta copia = new Cuenta("Andrés", new BigDecimal(1000), null);
+
+        try (EscrituraDiferida escritura = nuevaEscritura(Duration.ofHours(1), 1000)) {
+            banco.agregarCuenta(andres);
+            escritura.vaciar();
+
+            otroBanco.agregarCuenta(copia);
+            try (EscrituraDiferida otra = new EscrituraDiferida(otroBanco, bancos, jdbc, transacciones, Duration.ofHours(1), 1000)) {
+                copia.credito(new BigDecimal(50));
+                otra.vaciar();
+
+                // la primera escribe sobre una version que ya cambio la otra
+                andres.debito(new BigDecimal(100));
+                List<Long> perdidas = escritura.vaciar();
+                copia.credito(new BigDecimal(5));
+                otra.vaciar();
+
+                assertAll(
+                        () -> assertEquals(List.of(andres.getId()), perdidas),
+                        () -> assertEquals(1, escritura.getConflictos()),
+                        () -> assertEquals(0, otra.getConflictos())
+                );
+            }
+
+            // la primera ya no escribe esa cuenta: la fila tiene lo ultimo de la otra
+            andres.credito(new BigDecimal(45));
+            escritura.vaciar();
+            CuentaEntidad fila = cuentas.findByBancoIdAndNumero(escritura.getBancoId(), andres.getId()).orElseThrow();
+            assertAll(
+                    () -> assertEquals(0, new BigDecimal(1055).compareTo(fila.getSaldo())),
+                    () -> assertEquals(2, fila.getVersion(), () -> "Una version por cada escritura que aplico"),
+                    () -> assertEquals(1, escritura.getConflictos())
+            );
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que al reabrir se actualizan las filas que ya estaban")
+    void testReabrir() {
+        Cuenta andres = new Cuenta("Andrés", new BigDecimal(1000), null);
+        try (EscrituraDiferida escritura = nuevaEscritura(Duration.ofHours(1), 1000)) {
+            banco.agregarCuenta(andres);
+        }
+
+        andres.credito(new BigDecimal(5));
+        try (EscrituraDiferida escritura = nuevaEscritura(Duration.ofHours(1), 1000)) {
+            escritura.vaciar();
+            assertEquals(1, escritura.getFilasEscritas(), () -> "La cuenta ya estaba en la base, solo se actualiza");
+        }
+
+        CuentaEntidad fila = cuentas.findAll().get(0);
+        assertAll(
+                () -> assertEquals(1, bancos.count()),
+                () -> assertEquals(1, cuentas.count()),
+                () -> assertEquals(0, new BigDecimal(1005).compareTo(fila.getSaldo())),
+                () -> assertEquals(1, fila.getVersion())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando transferencias concurrentes con escrituras por intervalo y por tamano")
+    void testTransferenciasConcurrentes() throws Exception {
+        int cantidad = 100;
+        try (EscrituraDiferida escritura = nuevaEscritura(Duration.ofMillis(20), 50)) {
+            for (int i = 0; i < cantidad; i++)
+                banco.agregarCuenta(new Cuenta("Cuenta " + i, new BigDecimal(1000), null));
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<?>> tareas = new CopyOnWriteArrayList<>();
+            for (int h = 0; h < 4; h++) {
+                tareas.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    List<Cuenta> todas = banco.getCuentas();
+                    for (int i = 0; i < 20_000; i++)
+                        banco.intentarTransferir(todas.get(random.nextInt(cantidad)), todas.get(random.nextInt(cantidad)), BigDecimal.ONE);
+                }));
+            }
+            for (Future<?> tarea : tareas)
+                tarea.get(1, TimeUnit.MINUTES);
+            executor.shutdown();
+
+            escritura.close();
+            BigDecimal total = jdbc.queryForObject("SELECT SUM(saldo) FROM cuenta", BigDecimal.class);
+            assertAll(
+                    () -> assertEquals(0, new BigDecimal(cantidad * 1000).compareTo(total), () -> "La base no quedo igual al banco"),
+                    () -> assertEquals(0, escritura.getConflictos()),
+                    () -> assertTrue(escritura.getVaciados() * 100 < escritura.getMovimientos(),
+                            () -> escritura.getVaciados() + " escrituras para " + escritura.getMovimientos() + " movimientos")
+            );
+            for (Cuenta cuenta : banco.getCuentas()) {
+                BigDecimal guardado = cuentas.findByBancoIdAndNumero(escritura.getBancoId(), cuenta.getId()).orElseThrow().getSaldo();
+                assertEquals(0, cuenta.getSaldo().compareTo(guardado), () -> "La cuenta " + cuenta.getNombre() + " no se guardo");
+            }
+        }
+    }
+}
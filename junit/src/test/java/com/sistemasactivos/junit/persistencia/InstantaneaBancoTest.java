@@ -0,0 +1,242 @@
+package com.sistemasactivos.junit.persistencia;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.model.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstantaneaBancoTest {
+
+    @TempDir
+    Path directorio;
+
+    private Path archivo;
+    private Banco banco;
+
+    @BeforeEach
+    void setUp() {
+        archivo = directorio.resolve("banco.instantanea");
+        banco = new Banco("Banco del Estado");
+    }
+
+    private Cuenta nuevaCuenta(String nombre, BigDecimal saldo) {
+        Cuenta cuenta = new Cuenta();
+        cuenta.setNombre(nombre);
+        cuenta.setSaldo(saldo);
+        return cuenta;
+    }
+
+    @Test
+    @DisplayName("Probando escribir y cargar una instantanea")
+    void testEscribirYCargar() throws IOException {
+        banco.agregarCuenta(nuevaCuenta("Andrés", new BigDecimal("1000.12345")));
+        banco.agregarCuenta(nuevaCuenta("Julian", new BigDecimal("123456789012345678901234567890.5")));
+        banco.agregarCuenta(nuevaCuenta(null, null));
+        banco.buscarCuenta("Andrés").orElseThrow().setMoneda(Currency.getInstance("USD"));
+
+        InstantaneaBanco.escribir(banco, archivo);
+        InstantaneaBanco instantanea = InstantaneaBanco.cargar(archivo);
+        Banco cargado = instantanea.getBanco();
+
+        assertAll(
+                () -> assertEquals("Banco del Estado", cargado.getNombre()),
+                () -> assertEquals(-1, instantanea.getPosicionDiario()),
+                () -> assertEquals(3, cargado.getCuentas().size()),
+                () -> assertEquals("1000.12345", cargado.buscarCuenta("Andrés").orElseThrow().getSaldo().toPlainString()),
+                () -> assertEquals("123456789012345678901234567890.5", cargado.buscarCuenta(2L).orElseThrow().getSaldo().toPlainString()),
+                () -> assertNull(cargado.buscarCuenta(3L).orElseThrow().getSaldo()),
+                () -> assertEquals(Currency.getInstance("USD"), cargado.buscarCuenta(1L).orElseThrow().getMoneda()),
+                () -> assertNull(cargado.buscarCuenta(2L).orElseThrow().getMoneda()),
+                () -> assertSame(cargado, cargado.buscarCuenta(1L).orElseThrow().getBanco())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que una instantanea corrupta no se carga")
+    void testInstantaneaCorrupta() throws IOException {
+        banco.agregarCuenta(nuevaCuenta("Andrés", new BigDecimal("1000")));
+        InstantaneaBanco.escribir(banco, archivo);
+
+        byte[] contenido = Files.readAllBytes(archivo);
+        contenido[contenido.length - 12] ^= 0x01;
+        Files.write(archivo, contenido);
+
+        assertThrows(IOException.class, () -> InstantaneaBanco.cargar(archivo));
+    }
+
+    @Test
+    @DisplayName("Probando que el corte es consistente aunque haya transferencias corriendo")
+    void testCorteConsistente() throws Exception {
+        List<Cuenta> cuentas = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Cuenta cuenta = nuevaCuenta("Cuenta " + i, new BigDecimal("100.00"));
+            banco.agregarCuenta(cuenta);
+            cuentas.add(cuenta);
+        }
+
+        AtomicBoolean seguir = new AtomicBoolean(true);
+        Thread transferencias = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (seguir.get()) {
+                try {
+                    banco.transferir(cuentas.get(random.nextInt(100)), cuentas.get(random.nextInt(100)),
+                            BigDecimal.valueOf(random.nextInt(1, 1000), 2));
+                } catch (DineroInsuficienteException e) {
+                    // sigo con la proxima
+                }
+            }
+        });
+        transferencias.start();
+
+        try {
+            for (int i = 0; i < 20; i++) {
+                InstantaneaBanco.escribir(banco, archivo);
+                BigDecimal total = InstantaneaBanco.cargar(archivo).getBanco().getCuentas().stream()
+                        .map(Cuenta::getSaldo)
+                        .reduce(BigDecimal.ZERO, BigDecimal::add);
+                assertEquals(0, new BigDecimal("10000.00").compareTo(total), () -> "El corte no es consistente");
+            }
+        } finally {
+            seguir.set(false);
+            transferencias.join();
+        }
+    }
+
+    @Test
+    @DisplayName("Probando recuperar con la instantanea y el resto del diario")
+    void testInstantaneaMasDiario() throws IOException {
+        Path archivoDiario = directorio.resolve("movimientos.diario");
+
+        try (DiarioMovimientos diario = DiarioMovimientos.recuperar(archivoDiario, banco, PoliticaSincronizacion.NINGUNA)) {
+            Cuenta andres = nuevaCuenta("Andrés", new BigDecimal("1000"));
+            Cuenta julian = nuevaCuenta("Julian", new BigDecimal("500"));
+            banco.agregarCuenta(andres);
+            banco.agregarCuenta(julian);
+            banco.transferir(andres, julian, new BigDecimal("100"));
+
+            InstantaneaBanco.escribir(banco, archivo, diario);
+
+            // estos movimientos quedan solo en el diario
+            banco.transferir(julian, andres, new BigDecimal("50"));
+            banco.agregarCuenta(nuevaCuenta("Pedro", new BigDecimal("7")));
+        }
+
+        InstantaneaBanco instantanea = InstantaneaBanco.cargar(archivo);
+        Banco recuperado = instantanea.getBanco();
+        DiarioMovimientos.reproducir(archivoDiario, recuperado, instantanea.getPosicionDiario());
+
+        assertAll(
+                () -> assertEquals("950", recuperado.buscarCuenta("Andrés").orElseThrow().getSaldo().toPlainString()),
+                () -> assertEquals("550", recuperado.buscarCuenta("Julian").orElseThrow().getSaldo().toPlainString()),
+                () -> assertEquals(3L, recuperado.buscarCuenta("Pedro").orElseThrow().getId())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que se restauran los tipos de cuenta")
+    void testTiposDeCuenta() throws IOException {
+        banco.agregarCuenta(nuevaCuenta("Andrés", new BigDecimal("10.5")));
+        banco.agregarCuenta(new CuentaPuntoFijo("Fija", new BigDecimal("20.25"), 2));
+        banco.agregarCuenta(new CuentaAtomica("Atomica", new BigDecimal("30.125"), 3));
+        banco.agregarCuenta(new CuentaFragmentada("Fragmentada", new BigDecimal("40.5"), 1, 4));
+
+        InstantaneaBanco.escribir(banco, archivo);
+        Banco cargado = InstantaneaBanco.cargar(archivo).getBanco();
+
+        Cuenta fija = cargado.buscarCuenta("Fija").orElseThrow();
+        Cuenta atomica = cargado.buscarCuenta("Atomica").orElseThrow();
+        Cuenta fragmentada = cargado.buscarCuenta("Fragmentada").orElseThrow();
+        assertAll(
+                () -> assertInstanceOf(RegistroCuentas.class, cargado.getAlmacen()),
+                () -> assertSame(Cuenta.class, cargado.buscarCuenta("Andrés").orElseThrow().getClass()),
+                () -> assertSame(CuentaPuntoFijo.class, fija.getClass()),
+                () -> assertEquals(2, ((CuentaPuntoFijo) fija).getEscala()),
+                () -> assertEquals("20.25", fija.getSaldo().toPlainString()),
+                () -> assertSame(CuentaAtomica.class, atomica.getClass()),
+                () -> assertEquals("30.125", atomica.getSaldo().toPlainString()),
+                () -> assertSame(CuentaFragmentada.class, fragmentada.getClass()),
+                () -> assertEquals(4, ((CuentaFragmentada) fragmentada).getCantidadCeldas()),
+                () -> assertEquals("40.5", fragmentada.getSaldo().toPlainString())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que un banco con almacen columnar se restaura columnar")
+    void testAlmacenColumnar() throws IOException {
+        Currency dolar = Currency.getInstance("USD");
+        Banco columnar = new Banco("Banco Columnar", new AlmacenColumnar(100, 2, 512, dolar));
+        Cuenta andres = nuevaCuenta("Andrés", new BigDecimal("1000.00"));
+        andres.setMoneda(dolar);
+        Cuenta julian = nuevaCuenta("Julian", new BigDecimal("500.00"));
+        julian.setMoneda(dolar);
+        columnar.transferir(columnar.agregarCuenta(andres), columnar.agregarCuenta(julian), new BigDecimal("100.50"));
+
+        InstantaneaBanco.escribir(columnar, archivo);
+        Banco cargado = InstantaneaBanco.cargar(archivo).getBanco();
+
+        AlmacenColumnar almacen = assertInstanceOf(AlmacenColumnar.class, cargado.getAlmacen());
+        assertAll(
+                () -> assertEquals(100, almacen.getCapacidad()),
+                () -> assertEquals(2, almacen.getEscala()),
+                () -> assertEquals(512, almacen.getBytesNombres()),
+                () -> assertEquals(dolar, almacen.getMoneda()),
+                () -> assertInstanceOf(CuentaColumnar.class, cargado.buscarCuenta(1L).orElseThrow()),
+                () -> assertEquals("899.50", cargado.buscarCuenta("Andrés").orElseThrow().getSaldo().toPlainString()),
+                () -> assertEquals("600.50", cargado.buscarCuenta("Julian").orElseThrow().getSaldo().toPlainString())
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que la posicion del diario coincide con el corte aunque haya transferencias corriendo")
+    void testPosicionDiarioConsistente() throws Exception {
+        Path archivoDiario = directorio.resolve("movimientos.diario");
+        List<Cuenta> cuentas = new ArrayList<>();
+        AtomicBoolean seguir = new AtomicBoolean(true);
+
+        try (DiarioMovimientos diario = DiarioMovimientos.recuperar(archivoDiario, banco, PoliticaSincronizacion.NINGUNA)) {
+            for (int i = 0; i < 100; i++)
+                cuentas.add(banco.agregarCuenta(nuevaCuenta("Cuenta " + i, new BigDecimal("100.00"))));
+
+            Thread transferencias = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (seguir.get()) {
+                    try {
+                        banco.transferir(cuentas.get(random.nextInt(100)), cuentas.get(random.nextInt(100)),
+                                BigDecimal.valueOf(random.nextInt(1, 1000), 2));
+                    } catch (DineroInsuficienteException e) {
+                        // sigo con la proxima
+                    }
+                }
+            });
+            transferencias.start();
+            try {
+                Thread.sleep(20);
+                InstantaneaBanco.escribir(banco, archivo, diario);
+                Thread.sleep(20);
+            } finally {
+                seguir.set(false);
+                transferencias.join();
+            }
+        }
+
+        // la instantanea mas lo que sigue en el diario tiene que dar exactamente el banco final
+        InstantaneaBanco instantanea = InstantaneaBanco.cargar(archivo);
+        Banco recuperado = instantanea.getBanco();
+        DiarioMovimientos.reproducir(archivoDiario, recuperado, instantanea.getPosicionDiario());
+        for (Cuenta cuenta : cuentas)
+            assertEquals(cuenta.getSaldo(), recuperado.buscarCuenta(cuenta.getId()).orElseThrow().getSaldo(),
+                    () -> "El saldo de " + cuenta.getNombre() + " no coincide");
+    }
+}
@@ -0,0 +1,222 @@
+package com.sistemasactivos.junit.reglas;
+
+import com.sistemasactivos.junit.exception.DineroInsuficienteException;
+import com.sistemasactivos.junit.model.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReglasDebitoTest {
+
+    enum TipoCuenta {COMUN, PUNTO_FIJO, ATOMICA, COLUMNAR}
+
+    private final AtomicLong reloj = new AtomicLong();
+
+    private static Cuenta nuevaCuenta(TipoCuenta tipo, String saldo) {
+        return switch (tipo) {
+            case COMUN -> new Cuenta("Andrés", new BigDecimal(saldo), null);
+            case PUNTO_FIJO -> new CuentaPuntoFijo("Andrés", new BigDecimal(saldo), 2);
+            case ATOMICA -> new CuentaAtomica("Andrés", new BigDecimal(saldo), 2);
+            // las reglas quedan en el almacen, no en la vista que se devuelve
+            case COLUMNAR -> new Banco(new AlmacenColumnar(1, 2)).agregarCuenta(new Cuenta("Andrés", new BigDecimal(saldo), null));
+        };
+    }
+
+    private ReglasDebito reglas() {
+        return new ReglasDebito().reloj(reloj::get);
+    }
+
+    @Nested
+    @DisplayName("Probando el descubierto")
+    class DescubiertoTest {
+
+        @ParameterizedTest
+        @EnumSource(TipoCuenta.class)
+        @DisplayName("Probando que el saldo puede quedar negativo hasta el descubierto")
+        void testDescubierto(TipoCuenta tipo) {
+            Cuenta cuenta = nuevaCuenta(tipo, "100.00");
+            cuenta.setReglas(reglas().descubierto(new BigDecimal("50.00")));
+
+            cuenta.debito(new BigDecimal("150.00"));
+            assertAll(
+                    () -> assertEquals(0, new BigDecimal("-50.00").compareTo(cuenta.getSaldo())),
+                    () -> assertThrows(DineroInsuficienteException.class, () -> cuenta.debito(new BigDecimal("0.01"))),
+                    () -> assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, cuenta.intentarDebito(new BigDecimal("0.01"))),
+                    () -> assertEquals(2, cuenta.getReglasCompiladas().getRechazos(TipoRegla.SALDO))
+            );
+
+            // sin reglas vuelve la regla de siempre
+            cuenta.credito(new BigDecimal("60.00"));
+            cuenta.setReglas(null);
+            assertAll(
+                    () -> assertNull(cuenta.getReglas()),
+                    () -> assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, cuenta.intentarDebito(new BigDecimal("10.01"))),
+                    () -> assertEquals(ResultadoDebito.APROBADO, cuenta.intentarDebito(new BigDecimal("10.00")))
+            );
+        }
+
+        @Test
+        @DisplayName("Probando que las cuentas fragmentadas no admiten descubierto")
+        void testCuentasSinDescubierto() {
+            CuentaFragmentada fragmentada = new CuentaFragmentada("Comercio", BigDecimal.ZERO, 2);
+
+            assertAll(
+                    () -> assertThrows(IllegalArgumentException.class, () -> fragmentada.setReglas(reglas().descubierto(BigDecimal.ONE))),
+                    () -> assertDoesNotThrow(() -> fragmentada.setReglas(reglas().velocidad(10, Duration.ofMinutes(1))))
+            );
+        }
+
+        @Test
+        @DisplayName("Probando que todas las vistas de una cuenta columnar comparten las reglas")
+        void testReglasColumnares() {
+            Banco banco = new Banco(new AlmacenColumnar(10, 2));
+            Cuenta plantilla = new Cuenta("Julian", BigDecimal.TEN, null);
+            plantilla.setReglas(reglas().descubierto(new BigDecimal("5.00")));
+            Cuenta julian = banco.agregarCuenta(plantilla);
+            Cuenta otraVista = banco.buscarCuenta("Julian").orElseThrow();
+
+            otraVista.debito(new BigDecimal("15.00"));
+            assertAll(
+                    () -> assertEquals(new BigDecimal("5.00"), julian.getReglas().getDescubierto(),
+                            () -> "Las reglas de la cuenta que se registro pasan al almacen"),
+                    () -> assertSame(julian.getReglasCompiladas(), otraVista.getReglasCompiladas()),
+                    () -> assertEquals("-5.00", julian.getSaldo().toPlainString()),
+                    () -> assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, julian.intentarDebito(new BigDecimal("0.01")))
+            );
+
+            julian.setReglas(null);
+            assertNull(banco.buscarCuenta(1L).orElseThrow().getReglas(), () -> "Sacar las reglas desde una vista las saca de todas");
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(TipoCuenta.class)
+    @DisplayName("Probando el tope de lo debitado en las ultimas 24 horas")
+    void testTopeDiario(TipoCuenta tipo) {
+        Cuenta cuenta = nuevaCuenta(tipo, "1000.00");
+        cuenta.setReglas(reglas().topeDiario(new BigDecimal("100.00")));
+        CadenaReglas cadena = cuenta.getReglasCompiladas();
+
+        cuenta.debito(new BigDecimal("60.00"));
+        reloj.addAndGet(Duration.ofHours(12).toNanos());
+        assertAll(
+                () -> assertThrows(DineroInsuficienteException.class, () -> cuenta.debito(new BigDecimal("50.00"))),
+                () -> assertEquals(ResultadoDebito.APROBADO, cuenta.intentarDebito(new BigDecimal("40.00"))),
+                () -> assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, cuenta.intentarDebito(new BigDecimal("0.01"))),
+                () -> assertEquals(10_000, cadena.usado(TipoRegla.TOPE_DIARIO))
+        );
+
+        // a las 24 horas del primero se libera lo que uso, y a las 24 del segundo el resto
+        reloj.addAndGet(Duration.ofHours(12).toNanos());
+        assertAll(
+                () -> assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, cuenta.intentarDebito(new BigDecimal("60.01"))),
+                () -> assertEquals(ResultadoDebito.APROBADO, cuenta.intentarDebito(new BigDecimal("60.00")))
+        );
+        reloj.addAndGet(Duration.ofHours(12).toNanos());
+        assertAll(
+                () -> assertEquals(ResultadoDebito.APROBADO, cuenta.intentarDebito(new BigDecimal("40.00"))),
+                () -> assertEquals(0, new BigDecimal("800.00").compareTo(cuenta.getSaldo())),
+                () -> assertEquals(3, cadena.getRechazos(TipoRegla.TOPE_DIARIO)),
+                () -> assertEquals(0, cadena.getRechazos(TipoRegla.SALDO))
+        );
+    }
+
+    @ParameterizedTest
+    @EnumSource(TipoCuenta.class)
+    @DisplayName("Probando el limite de debitos por ventana de tiempo")
+    void testVelocidad(TipoCuenta tipo) {
+        Cuenta cuenta = nuevaCuenta(tipo, "1000.00");
+        cuenta.setReglas(reglas().velocidad(3, Duration.ofMinutes(1)));
+
+        // los rechazados por saldo no cuentan como debitos
+        for (int i = 0; i < 5; i++)
+            assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, cuenta.intentarDebito(new BigDecimal("5000.00")));
+        for (int i = 0; i < 3; i++)
+            assertEquals(ResultadoDebito.APROBADO, cuenta.intentarDebito(BigDecimal.ONE));
+
+        assertAll(
+                () -> assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, cuenta.intentarDebito(BigDecimal.ONE)),
+                () -> assertEquals(1, cuenta.getReglasCompiladas().getRechazos(TipoRegla.VELOCIDAD)),
+                () -> assertEquals(5, cuenta.getReglasCompiladas().getRechazos(TipoRegla.SALDO))
+        );
+        reloj.addAndGet(Duration.ofMinutes(1).toNanos());
+        assertEquals(ResultadoDebito.APROBADO, cuenta.intentarDebito(BigDecimal.ONE));
+    }
+
+    @Test
+    @DisplayName("Probando que las transferencias cumplen las reglas del origen")
+    void testTransferencias() {
+        Banco banco = new Banco("Banco del Estado");
+        Cuenta andres = banco.agregarCuenta(new CuentaPuntoFijo("Andrés", new BigDecimal("100.00"), 2));
+        Cuenta julian = banco.agregarCuenta(new Cuenta("Julian", BigDecimal.ZERO, null));
+        andres.setReglas(reglas()
+                .descubierto(new BigDecimal("100.00"))
+                .velocidad(2, Duration.ofMinutes(1)));
+
+        banco.transferir(andres, julian, new BigDecimal("150.00"));
+        assertAll(
+                () -> assertThrows(DineroInsuficienteException.class, () -> banco.transferir(andres, julian, new BigDecimal("60.00"))),
+                () -> assertEquals(ResultadoDebito.APROBADO, banco.intentarTransferir(andres, julian, new BigDecimal("50.00"))),
+                () -> assertThrows(DineroInsuficienteException.class, () -> banco.transferir(julian, andres, new BigDecimal("1000.00"))),
+                () -> assertEquals(ResultadoDebito.DINERO_INSUFICIENTE, banco.intentarTransferir(andres, julian, BigDecimal.ONE),
+                        () -> "Ya se hicieron los dos debitos del minuto"),
+                () -> assertEquals(0, new BigDecimal("-100.00").compareTo(andres.getSaldo())),
+                () -> assertEquals(0, new BigDecimal("200.00").compareTo(julian.getSaldo()))
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que con debitos concurrentes no se pasa el limite")
+    void testConcurrencia() throws Exception {
+        CuentaAtomica cuenta = new CuentaAtomica("Comercio", new BigDecimal("1000000.00"), 2);
+        cuenta.setReglas(reglas()
+                .topeDiario(new BigDecimal("2000.00"))
+                .velocidad(1500, Duration.ofHours(1)));
+
+        AtomicInteger aprobados = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> tareas = new ArrayList<>();
+        for (int h = 0; h < 8; h++) {
+            tareas.add(executor.submit(() -> {
+                for (int i = 0; i < 500; i++)
+                    if (cuenta.intentarDebitoUnidades(100) == ResultadoDebito.APROBADO)
+                        aprobados.incrementAndGet();
+            }));
+        }
+        for (Future<?> tarea : tareas)
+            tarea.get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        // con debitos de 1.00 la velocidad (1500) corta antes que el tope (2000.00)
+        assertAll(
+                () -> assertEquals(1500, aprobados.get()),
+                () -> assertEquals(0, new BigDecimal("998500.00").compareTo(cuenta.getSaldo())),
+                () -> assertEquals(1500, cuenta.getReglasCompiladas().usado(TipoRegla.VELOCIDAD)),
+                () -> assertEquals(4000 - 1500, cuenta.getReglasCompiladas().getRechazos(TipoRegla.VELOCIDAD))
+        );
+    }
+
+    @Test
+    @DisplayName("Probando que las definiciones invalidas se rechazan")
+    void testDefinicionesInvalidas() {
+        assertAll(
+                () -> assertThrows(IllegalArgumentException.class, () -> new ReglasDebito().descubierto(new BigDecimal("-1"))),
+                () -> assertThrows(IllegalArgumentException.class, () -> new ReglasDebito().topeDiario(BigDecimal.ZERO)),
+                () -> assertThrows(IllegalArgumentException.class, () -> new ReglasDebito().velocidad(0, Duration.ofMinutes(1))),
+                () -> assertThrows(IllegalArgumentException.class, () -> new ReglasDebito().velocidad(1, Duration.ZERO)),
+                () -> assertThrows(IllegalArgumentException.class,
+                        () -> new CuentaPuntoFijo("Andrés", BigDecimal.ONE, 2).setReglas(new ReglasDebito().topeDiario(new BigDecimal("0.001"))),
+                        () -> "El tope no entra en la escala de la cuenta")
+        );
+    }
+}
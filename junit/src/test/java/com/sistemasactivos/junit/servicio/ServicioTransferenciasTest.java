@@ -0,0 +1,172 @@
+package com.sistemasactivos.junit.servicio;
+
+import com.sistemasactivos.junit.exception.TasaNoDisponibleException;
+import com.sistemasactivos.junit.model.Banco;
+import com.sistemasactivos.junit.model.Cuenta;
+import com.sistemasactivos.junit.model.ResultadoTransferencia;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServicioTransferenciasTest {
+
+    private static final int EN_VUELO = 100_000;
+
+    private Banco banco;
+    private List<Cuenta> cuentas;
+
+    @BeforeEach
+    void setUp() {
+        banco = new Banco("Banco del Estado");
+        cuentas = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            Cuenta cuenta = new Cuenta("Cuenta " + i, new BigDecimal("1000.00"), null);
+            banco.agregarCuenta(cuenta);
+            cuentas.add(cuenta);
+        }
+    }
+
+    @Test
+    @DisplayName("Probando una transferencia aprobada y una rechazada")
+    void testEnviar() throws Exception {
+        try (ServicioTransferencias servicio = new ServicioTransferencias(banco)) {
+            ResultadoTransferencia aprobada = servicio.enviar(cuentas.get(0), cuentas.get(1), new BigDecimal(100)).get();
+            ResultadoTransferencia rechazada = servicio.enviar(cuentas.get(0), cuentas.get(1), new BigDecimal(5000)).get();
+
+            assertAll(
+                    () -> assertTrue(aprobada.isExitosa()),
+                    () -> assertFalse(rechazada.isExitosa(), () -> "La transferencia sin fondos no deberia pasar"),
+                    () -> assertEquals("900.00", cuentas.get(0).getSaldo().toPlainString()),
+                    () -> assertEquals(0, servicio.getEnVuelo())
+            );
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que una transferencia sin tasa de cambio se rechaza en su resultado")
+    void testSinTasa() throws Exception {
+        Cuenta dolares = banco.agregarCuenta(new Cuenta("Dolares", new BigDecimal("100.00"), null));
+        dolares.setMoneda(Currency.getInstance("USD"));
+        Cuenta pesos = banco.agregarCuenta(new Cuenta("Pesos", new BigDecimal("100.00"), null));
+        pesos.setMoneda(Currency.getInstance("ARS"));
+
+        // el banco no tiene tasas: la transferencia no se hace, pero el futuro no falla
+        try (ServicioTransferencias servicio = new ServicioTransferencias(banco)) {
+            CompletableFuture<ResultadoTransferencia> futuro = servicio.enviar(dolares, pesos, BigDecimal.TEN);
+            ResultadoTransferencia resultado = futuro.get(1, TimeUnit.MINUTES);
+
+            assertAll(
+                    () -> assertFalse(futuro.isCompletedExceptionally()),
+                    () -> assertFalse(resultado.isExitosa()),
+                    () -> assertInstanceOf(TasaNoDisponibleException.class, resultado.getError()),
+                    () -> assertEquals("100.00", dolares.getSaldo().toPlainString())
+            );
+        }
+    }
+
+    @Test
+    @DisplayName("Probando que el semaforo limita las transferencias en vuelo")
+    void testMaximoEnVuelo() throws Exception {
+        try (ServicioTransferencias servicio = new ServicioTransferencias(banco, Executors.newVirtualThreadPerTaskExecutor(), 100)) {
+            // con todas las franjas bloqueadas ninguna transferencia puede terminar
+            Future<?> productor = banco.getMotor().conTodoBloqueado(() -> {
+                Future<?> f = ForkJoinPool.commonPool().submit(() -> enviarAlAzar(servicio, 1000));
+                esperarHasta(() -> servicio.getEnVuelo() == 100);
+                assertFalse(f.isDone(), () -> "enviar() no espero a que se libere lugar");
+                return f;
+            });
+            productor.get(1, TimeUnit.MINUTES);
+        }
+        assertEquals(0, totalInicial().compareTo(total()), () -> "El dinero total no se conservo");
+    }
+
+    @Nested
+    @Tag("carga")
+    @DisplayName("Prueba de carga con 100.000 transferencias en vuelo")
+    class CargaTest {
+
+        @Test
+        @DisplayName("Probando hilos virtuales: todas las transferencias esperan el lock a la vez")
+        void testHilosVirtuales() throws Exception {
+            try (ServicioTransferencias servicio = new ServicioTransferencias(banco)) {
+                long bytesPorTransferencia = banco.getMotor().conTodoBloqueado(() -> {
+                    long antes = memoriaUsada();
+                    List<CompletableFuture<ResultadoTransferencia>> futuros = enviarAlAzar(servicio, EN_VUELO);
+
+                    // cada transferencia tiene su hilo virtual, bloqueado en el lock de su franja
+                    esperarHasta(() -> servicio.getEnEjecucion() == EN_VUELO);
+                    long bytes = (memoriaUsada() - antes) / EN_VUELO;
+                    assertEquals(EN_VUELO, futuros.size());
+                    return bytes;
+                });
+
+                // un hilo de plataforma reserva ~1MB de pila, uno virtual unos pocos KB en el heap
+                assertTrue(bytesPorTransferencia > 0 && bytesPorTransferencia < 16 * 1024,
+                        () -> "Memoria por transferencia en vuelo fuera de rango: " + bytesPorTransferencia + " bytes");
+            }
+            assertEquals(0, totalInicial().compareTo(total()), () -> "El dinero total no se conservo");
+        }
+
+        @Test
+        @DisplayName("Probando un pool de hilos de plataforma: las transferencias hacen fila")
+        void testPoolDePlataforma() throws Exception {
+            int hilos = 200;
+            ExecutorService pool = Executors.newFixedThreadPool(hilos);
+            try (ServicioTransferencias servicio = new ServicioTransferencias(banco, pool, ServicioTransferencias.MAXIMO_EN_VUELO)) {
+                banco.getMotor().conTodoBloqueado(() -> {
+                    enviarAlAzar(servicio, EN_VUELO);
+
+                    // solo hay tantas en ejecucion como hilos, el resto espera en la cola del pool
+                    esperarHasta(() -> servicio.getEnEjecucion() == hilos);
+                    assertEquals(EN_VUELO, servicio.getEnVuelo());
+                    return null;
+                });
+            }
+            assertEquals(0, totalInicial().compareTo(total()), () -> "El dinero total no se conservo");
+        }
+    }
+
+    private List<CompletableFuture<ResultadoTransferencia>> enviarAlAzar(ServicioTransferencias servicio, int cantidad) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<CompletableFuture<ResultadoTransferencia>> futuros = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            Cuenta origen = cuentas.get(random.nextInt(cuentas.size()));
+            Cuenta destino = cuentas.get(random.nextInt(cuentas.size()));
+            futuros.add(servicio.enviar(origen, destino, BigDecimal.valueOf(random.nextInt(1, 5000), 2)));
+        }
+        return futuros;
+    }
+
+    private static void esperarHasta(Callable<Boolean> condicion) {
+        long limite = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        try {
+            while (!condicion.call()) {
+                if (System.nanoTime() > limite)
+                    fail("Se agoto el tiempo de espera");
+                Thread.sleep(10);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long memoriaUsada() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private BigDecimal totalInicial() {
+        return new BigDecimal("1000.00").multiply(BigDecimal.valueOf(cuentas.size()));
+    }
+
+    private BigDecimal total() {
+        return cuentas.stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+}